@@ -0,0 +1,18 @@
+package com.abnamor.recipes.dto;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent outcome of one bulk import run
+@Getter
+@Setter
+@NoArgsConstructor
+public class BulkImportResult {
+	private String importId;
+	//Lines skipped because an earlier run of the same import already committed them
+	private long resumedLines;
+	private long linesRead;
+	private long imported;
+	private long rejected;
+}
@@ -0,0 +1,17 @@
+package com.abnamor.recipes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent a frequently read recipe with its estimated number of reads
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotRecipe {
+	private Integer id;
+	//Upper bound estimate of recent reads, older reads count half after every decay
+	private long estimatedHits;
+}
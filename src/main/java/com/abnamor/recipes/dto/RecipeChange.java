@@ -0,0 +1,19 @@
+package com.abnamor.recipes.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent one recipe create, update or delete pushed to change feed subscribers
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecipeChange {
+	//Change log sequence number on the shard of the recipe, event id to resume from carries it for every shard
+	private Long sequence;
+	private Integer recipeId;
+	private String operation;
+	private Integer shard;
+}
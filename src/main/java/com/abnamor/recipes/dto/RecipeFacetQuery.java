@@ -0,0 +1,21 @@
+package com.abnamor.recipes.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent a facet query, values of one list are OR-ed except allIngredients, lists are AND-ed
+@Getter
+@Setter
+@NoArgsConstructor
+public class RecipeFacetQuery {
+	private List<String> types = new ArrayList<>();
+	private List<String> capacities = new ArrayList<>();
+	private List<String> allIngredients = new ArrayList<>();
+	private List<String> anyIngredients = new ArrayList<>();
+	private List<String> excludeTypes = new ArrayList<>();
+	private List<String> excludeIngredients = new ArrayList<>();
+}
@@ -0,0 +1,23 @@
+package com.abnamor.recipes.dto;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent one page of recipes matching a facet query, with counts of every facet value among matches
+@Getter
+@Setter
+@NoArgsConstructor
+public class RecipeFacetResult {
+	private long total;
+	private List<Recipe> recipes = new ArrayList<>();
+	//Id to pass as after for the next page, null when this is the last page
+	private Integer nextAfterId;
+	//Facet name (type, capacity, ingredient) to value to number of matching recipes
+	private Map<String,Map<String,Long>> facetCounts = new LinkedHashMap<>();
+}
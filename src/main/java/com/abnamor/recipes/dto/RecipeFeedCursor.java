@@ -0,0 +1,36 @@
+package com.abnamor.recipes.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+//Class to represent position in the recipe feed, the creation date time and id of the last recipe seen
+@Getter
+@AllArgsConstructor
+public class RecipeFeedCursor {
+	private final Date creationDateTime;
+	private final Integer id;
+	
+	//Encode as opaque url safe token
+	public String encode() {
+		String value = creationDateTime.getTime()+":"+id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	//Decode given token, null if it is not a valid cursor
+	public static RecipeFeedCursor decode(String token) {
+		try {
+			String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			int separator = value.indexOf(':');
+			if(separator < 0)
+				return null;
+			return new RecipeFeedCursor(new Date(Long.parseLong(value.substring(0, separator))),
+										Integer.valueOf(value.substring(separator + 1)));
+		} catch(IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.abnamor.recipes.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent one page of the newest-first recipe feed
+@Getter
+@Setter
+@NoArgsConstructor
+public class RecipeFeedPage {
+	private List<Recipe> recipes = new ArrayList<>();
+	//Cursor to pass for the next, older page, null when this is the last page
+	private String nextCursor;
+}
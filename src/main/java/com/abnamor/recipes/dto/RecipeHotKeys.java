@@ -0,0 +1,20 @@
+package com.abnamor.recipes.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent the currently most read recipes, most read first
+@Getter
+@Setter
+@NoArgsConstructor
+public class RecipeHotKeys {
+	//Recent reads of all recipes, decayed like the per recipe estimates
+	private long totalHits;
+	private int sketchWidth;
+	private int sketchDepth;
+	private List<HotRecipe> hotRecipes = new ArrayList<>();
+}
@@ -0,0 +1,24 @@
+package com.abnamor.recipes.dto;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent catalog statistics
+@Getter
+@Setter
+@NoArgsConstructor
+public class RecipeStats {
+	private long recipeCount;
+	private Map<String,Long> countsByType = new LinkedHashMap<>();
+	//Number of recipes per serving capacity bucket, in ascending bucket order
+	private Map<String,Long> capacityHistogram = new LinkedHashMap<>();
+	//Number of recipes using an ingredient, most frequent ingredients first
+	private Map<String,Long> ingredientFrequency = new LinkedHashMap<>();
+	//Time of last full recount from DB
+	private Date verifiedDateTime;
+}
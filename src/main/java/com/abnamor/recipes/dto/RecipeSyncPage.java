@@ -0,0 +1,26 @@
+package com.abnamor.recipes.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+//Class to represent recipes created, updated or deleted after a client watermark
+@Getter
+@Setter
+@NoArgsConstructor
+public class RecipeSyncPage {
+	//Created or updated recipes in current state, in order of their last write
+	private List<Recipe> recipes = new ArrayList<>();
+	private List<Integer> deletedIds = new ArrayList<>();
+	//Watermark to pass on next sync, covers every change in this page. It is the change log sequence reached on
+	//every shard separated by dots, a plain sequence number when recipes are not sharded.
+	private String watermark;
+	//Set when more changes follow, request again with watermark right away
+	private boolean hasMore;
+	//Set when deletes after given watermark are no longer kept, drop every synced recipe and sync again without
+	//watermark. Page has no changes and no watermark then.
+	private boolean reset;
+}
@@ -0,0 +1,74 @@
+package com.abnamro.recipes.config;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+//AIMD concurrency limiter, limit grows additively while latency stays under target and shrinks multiplicatively otherwise
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+	
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final long targetLatencyNanos;
+	private final double backoffRatio;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private volatile double limit;
+	
+	public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+									  long targetLatencyMs, double backoffRatio) {
+		this.name = name;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+		this.backoffRatio = backoffRatio;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+	
+	//Method to take one slot, returns false when in flight requests already reached current limit
+	public boolean tryAcquire() {
+		while(true) {
+			int current = inFlight.get();
+			if(current >= (int) limit) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			if(inFlight.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+	
+	//Method to give back the slot and adjust limit from observed latency, dropped means request failed on server side
+	public void release(long latencyNanos, boolean dropped) {
+		int current = inFlight.getAndDecrement();
+		synchronized(this) {
+			if(dropped || latencyNanos > targetLatencyNanos) {
+				limit = Math.max(minLimit, limit * backoffRatio);
+				log.debug("Limiter "+name+" backed off to limit: "+limit);
+			} else if(current * 2 >= limit) {
+				//Grow only while the limit is actually being used
+				limit = Math.min(maxLimit, limit + 1.0 / limit);
+			}
+		}
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getLimit() {
+		return (int) limit;
+	}
+	
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	public long getRejected() {
+		return rejected.get();
+	}
+}
@@ -0,0 +1,71 @@
+package com.abnamro.recipes.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+//Configuration to register separate adaptive limiters for read and write api requests ahead of security filters
+@Configuration
+@ConditionalOnProperty(name = "recipe.admission.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class AdmissionControlConfiguration {
+	
+	@Value("${recipe.admission.backoff.ratio:0.9}")
+	private double backoffRatio;
+	
+	@Value("${recipe.admission.retry.after.seconds:1}")
+	private long retryAfterSeconds;
+	
+	@Bean
+	public AdaptiveConcurrencyLimiter readLimiter(
+			@Value("${recipe.admission.read.initial.limit:100}") int initialLimit,
+			@Value("${recipe.admission.read.min.limit:10}") int minLimit,
+			@Value("${recipe.admission.read.max.limit:500}") int maxLimit,
+			@Value("${recipe.admission.read.target.latency.ms:250}") long targetLatencyMs,
+			MeterRegistry meterRegistry) {
+		return registerMetrics(new AdaptiveConcurrencyLimiter("read", initialLimit, minLimit, maxLimit,
+															  targetLatencyMs, backoffRatio), meterRegistry);
+	}
+	
+	@Bean
+	public AdaptiveConcurrencyLimiter writeLimiter(
+			@Value("${recipe.admission.write.initial.limit:20}") int initialLimit,
+			@Value("${recipe.admission.write.min.limit:2}") int minLimit,
+			@Value("${recipe.admission.write.max.limit:100}") int maxLimit,
+			@Value("${recipe.admission.write.target.latency.ms:500}") long targetLatencyMs,
+			MeterRegistry meterRegistry) {
+		return registerMetrics(new AdaptiveConcurrencyLimiter("write", initialLimit, minLimit, maxLimit,
+															  targetLatencyMs, backoffRatio), meterRegistry);
+	}
+	
+	@Bean
+	public FilterRegistrationBean<AdmissionControlFilter> admissionControlFilter(
+			AdaptiveConcurrencyLimiter readLimiter, AdaptiveConcurrencyLimiter writeLimiter, ObjectMapper mapper) {
+		log.debug("Registering admission control filter ahead of security filter chain");
+		FilterRegistrationBean<AdmissionControlFilter> registration = new FilterRegistrationBean<>(
+				new AdmissionControlFilter(readLimiter, writeLimiter, retryAfterSeconds, mapper));
+		registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 10);
+		registration.addUrlPatterns("/api/*");
+		return registration;
+	}
+	
+	//Expose limiter state as gauges tagged by endpoint group
+	private AdaptiveConcurrencyLimiter registerMetrics(AdaptiveConcurrencyLimiter limiter, MeterRegistry meterRegistry) {
+		Gauge.builder("recipes.admission.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+			 .tag("group", limiter.getName()).register(meterRegistry);
+		Gauge.builder("recipes.admission.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+			 .tag("group", limiter.getName()).register(meterRegistry);
+		Gauge.builder("recipes.admission.rejected", limiter, AdaptiveConcurrencyLimiter::getRejected)
+			 .tag("group", limiter.getName()).register(meterRegistry);
+		return limiter;
+	}
+}
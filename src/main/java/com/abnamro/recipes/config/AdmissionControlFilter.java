@@ -0,0 +1,123 @@
+package com.abnamro.recipes.config;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import com.abnamro.recipes.exceptions.ErrorMessages;
+import com.abnamro.recipes.exceptions.ErrorResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Filter to shed excess api requests with 503 before they reach JWT verification or DB
+@Slf4j
+public class AdmissionControlFilter extends OncePerRequestFilter {
+	
+	private static final UrlPathHelper URL_PATH_HELPER = new UrlPathHelper();
+	
+	private final AdaptiveConcurrencyLimiter readLimiter;
+	private final AdaptiveConcurrencyLimiter writeLimiter;
+	private final long retryAfterSeconds;
+	private final ObjectMapper mapper;
+	
+	public AdmissionControlFilter(AdaptiveConcurrencyLimiter readLimiter, AdaptiveConcurrencyLimiter writeLimiter,
+								  long retryAfterSeconds, ObjectMapper mapper) {
+		this.readLimiter = readLimiter;
+		this.writeLimiter = writeLimiter;
+		this.retryAfterSeconds = retryAfterSeconds;
+		this.mapper = mapper;
+	}
+	
+	//Change feed streams stay open for minutes, they would hold a slot throughout and skew measured latency,
+	//subscribers are bounded by the change feed itself. Paths are matched without the servlet context path.
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		String path = URL_PATH_HELPER.getPathWithinApplication(request);
+		return !path.startsWith("/api/") || path.equals("/api/recipes/changes");
+	}
+	
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+																throws ServletException, IOException 
+	{
+		AdaptiveConcurrencyLimiter limiter = isRead(request) ? readLimiter : writeLimiter;
+		if(!limiter.tryAcquire()) {
+			log.warn("Limiter "+limiter.getName()+" rejected request at limit: "+limiter.getLimit());
+			rejectRequest(response);
+			return;
+		}
+		long startTime = System.nanoTime();
+		boolean released = false;
+		try {
+			chain.doFilter(request, response);
+			if(request.isAsyncStarted()) {
+				//Release slot when async processing completes instead of when this thread returns
+				request.getAsyncContext().addListener(new LimiterReleaseListener(limiter, startTime));
+				released = true;
+			}
+		} finally {
+			if(!released)
+				limiter.release(System.nanoTime() - startTime, response.getStatus() >= 500);
+		}
+	}
+	
+	private boolean isRead(HttpServletRequest request) {
+		String method = request.getMethod();
+		return HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method) || HttpMethod.OPTIONS.matches(method);
+	}
+	
+	private void rejectRequest(HttpServletResponse response) throws IOException {
+		ErrorResponse errorResponse = new ErrorResponse(HttpStatus.SERVICE_UNAVAILABLE.value(),
+														ErrorMessages.SERVICE_UNAVAILABLE_MSG, LocalDateTime.now());
+		response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+		response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		mapper.writeValue(response.getOutputStream(), errorResponse);
+	}
+	
+	//Listener to release limiter slot of an async request once it is done
+	private static class LimiterReleaseListener implements AsyncListener {
+		private final AdaptiveConcurrencyLimiter limiter;
+		private final long startTime;
+		
+		LimiterReleaseListener(AdaptiveConcurrencyLimiter limiter, long startTime) {
+			this.limiter = limiter;
+			this.startTime = startTime;
+		}
+		
+		@Override
+		public void onComplete(AsyncEvent event) {
+			HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+			limiter.release(System.nanoTime() - startTime, response.getStatus() >= 500);
+		}
+		
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			//onComplete follows a timeout, 503 status there backs the limiter off
+		}
+		
+		@Override
+		public void onError(AsyncEvent event) {
+			//onComplete follows an error
+		}
+		
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			event.getAsyncContext().addListener(this);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.abnamro.recipes.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+//Configuration of binary representations negotiated through Accept header, next to JSON
+@Configuration
+public class BinaryContentConfiguration {
+	
+	//Smile converter which also back-references repeated string values such as ingredient names and quantities
+	@Bean
+	public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		SmileFactory smileFactory = SmileFactory.builder()
+				.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+				.build();
+		return new MappingJackson2SmileHttpMessageConverter(builder.createXmlMapper(false).factory(smileFactory).build());
+	}
+}
@@ -0,0 +1,88 @@
+package com.abnamro.recipes.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.abnamro.recipes.exceptions.ErrorMessages;
+import com.abnamro.recipes.exceptions.ServiceUnavailableException;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Isolated pool of worker threads and DB connection permits for one class of api traffic
+@Slf4j
+public class Bulkhead {
+	
+	private final String name;
+	private final ThreadPoolExecutor executor;
+	private final Semaphore connectionPermits;
+	private final long permitTimeoutMs;
+	
+	public Bulkhead(String name, int threads, int queueCapacity, int connectionPermits, long permitTimeoutMs) {
+		this.name = name;
+		this.connectionPermits = new Semaphore(connectionPermits);
+		this.permitTimeoutMs = permitTimeoutMs;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+					Thread thread = new Thread(runnable, "bulkhead-"+name+"-"+threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	//Method to run given work on this bulkhead's threads while holding one connection permit
+	public <T> CompletableFuture<T> submit(Supplier<T> work) {
+		try {
+			return CompletableFuture.supplyAsync(() -> run(work), executor);
+		} catch(RejectedExecutionException e) {
+			log.warn("Bulkhead "+name+" is full, rejecting request");
+			throw new ServiceUnavailableException(ErrorMessages.SERVICE_UNAVAILABLE_MSG, 1);
+		}
+	}
+	
+	//Method to run given work on the calling thread while holding one connection permit, for long running work which
+	//takes a permit per step instead of a bulkhead thread for its whole run
+	public <T> T run(Supplier<T> work) {
+		try {
+			if(!connectionPermits.tryAcquire(permitTimeoutMs, TimeUnit.MILLISECONDS)) {
+				log.warn("Bulkhead "+name+" ran out of connection permits, rejecting request");
+				throw new ServiceUnavailableException(ErrorMessages.SERVICE_UNAVAILABLE_MSG, 1);
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException(ErrorMessages.SERVICE_UNAVAILABLE_MSG, 1);
+		}
+		try {
+			return work.get();
+		} finally {
+			connectionPermits.release();
+		}
+	}
+	
+	public void shutdown() {
+		executor.shutdown();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getActiveThreads() {
+		return executor.getActiveCount();
+	}
+	
+	public int getQueuedRequests() {
+		return executor.getQueue().size();
+	}
+	
+	public int getAvailablePermits() {
+		return connectionPermits.availablePermits();
+	}
+}
@@ -0,0 +1,62 @@
+package com.abnamro.recipes.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+//Configuration of separate bulkheads for listing, point read, write and authentication traffic
+@Configuration
+public class BulkheadConfiguration {
+	
+	@Value("${recipe.bulkhead.permit.timeout.ms:1000}")
+	private long permitTimeoutMs;
+	
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead listBulkhead(
+			@Value("${recipe.bulkhead.list.threads:4}") int threads,
+			@Value("${recipe.bulkhead.list.queue:20}") int queueCapacity,
+			@Value("${recipe.bulkhead.list.permits:2}") int permits) {
+		return registerMetrics(new Bulkhead("list", threads, queueCapacity, permits, permitTimeoutMs));
+	}
+	
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead pointReadBulkhead(
+			@Value("${recipe.bulkhead.point.threads:32}") int threads,
+			@Value("${recipe.bulkhead.point.queue:200}") int queueCapacity,
+			@Value("${recipe.bulkhead.point.permits:4}") int permits) {
+		return registerMetrics(new Bulkhead("point", threads, queueCapacity, permits, permitTimeoutMs));
+	}
+	
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead writeBulkhead(
+			@Value("${recipe.bulkhead.write.threads:16}") int threads,
+			@Value("${recipe.bulkhead.write.queue:100}") int queueCapacity,
+			@Value("${recipe.bulkhead.write.permits:3}") int permits) {
+		return registerMetrics(new Bulkhead("write", threads, queueCapacity, permits, permitTimeoutMs));
+	}
+	
+	//Authentication does not touch DB, its permits only bound concurrent token signing
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead authBulkhead(
+			@Value("${recipe.bulkhead.auth.threads:8}") int threads,
+			@Value("${recipe.bulkhead.auth.queue:50}") int queueCapacity) {
+		return registerMetrics(new Bulkhead("auth", threads, queueCapacity, threads, permitTimeoutMs));
+	}
+	
+	private Bulkhead registerMetrics(Bulkhead bulkhead) {
+		Gauge.builder("recipes.bulkhead.active", bulkhead, Bulkhead::getActiveThreads)
+			 .tag("bulkhead", bulkhead.getName()).register(meterRegistry);
+		Gauge.builder("recipes.bulkhead.queued", bulkhead, Bulkhead::getQueuedRequests)
+			 .tag("bulkhead", bulkhead.getName()).register(meterRegistry);
+		Gauge.builder("recipes.bulkhead.permits.available", bulkhead, Bulkhead::getAvailablePermits)
+			 .tag("bulkhead", bulkhead.getName()).register(meterRegistry);
+		return bulkhead;
+	}
+}
@@ -0,0 +1,18 @@
+package com.abnamro.recipes.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.transaction.PlatformTransactionManager;
+
+//Configuration of profile mmap, which runs on the embedded recipe store without datasource and JPA. Their auto
+//configuration is excluded in application-mmap.properties.
+@Configuration
+@Profile("mmap")
+public class MappedStoreConfiguration {
+	
+	@Bean
+	public PlatformTransactionManager transactionManager() {
+		return new MappedTransactionManager();
+	}
+}
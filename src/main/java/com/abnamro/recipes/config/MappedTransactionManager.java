@@ -0,0 +1,88 @@
+package com.abnamro.recipes.config;
+
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.SmartTransactionObject;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+//Transaction manager of profile mmap, where no database takes part in transactions. A transaction is the scope of
+//its synchronizations only, the mapped recipe store appends the writes of a transaction from its synchronization
+//before commit. Nested transactions suspend the outer one as with a database, so they keep writes of their own.
+public class MappedTransactionManager extends AbstractPlatformTransactionManager {
+	
+	private static final long serialVersionUID = 1L;
+	
+	public MappedTransactionManager() {
+		setTransactionSynchronization(SYNCHRONIZATION_ALWAYS);
+	}
+	
+	@Override
+	protected Object doGetTransaction() {
+		return new MappedTransaction((Scope) TransactionSynchronizationManager.getResource(this));
+	}
+	
+	@Override
+	protected boolean isExistingTransaction(Object transaction) {
+		return ((MappedTransaction) transaction).scope != null;
+	}
+	
+	@Override
+	protected void doBegin(Object transaction, TransactionDefinition definition) {
+		Scope scope = new Scope();
+		((MappedTransaction) transaction).scope = scope;
+		TransactionSynchronizationManager.bindResource(this, scope);
+	}
+	
+	@Override
+	protected Object doSuspend(Object transaction) {
+		((MappedTransaction) transaction).scope = null;
+		return TransactionSynchronizationManager.unbindResource(this);
+	}
+	
+	@Override
+	protected void doResume(Object transaction, Object suspendedResources) {
+		TransactionSynchronizationManager.bindResource(this, suspendedResources);
+	}
+	
+	//Writes are appended by synchronizations before commit, there is nothing left to commit or roll back
+	@Override
+	protected void doCommit(DefaultTransactionStatus status) {
+	}
+	
+	@Override
+	protected void doRollback(DefaultTransactionStatus status) {
+	}
+	
+	@Override
+	protected void doSetRollbackOnly(DefaultTransactionStatus status) {
+		((MappedTransaction) status.getTransaction()).scope.rollbackOnly = true;
+	}
+	
+	@Override
+	protected void doCleanupAfterCompletion(Object transaction) {
+		TransactionSynchronizationManager.unbindResource(this);
+	}
+	
+	//Transaction bound to the current thread, rollback only when a participating transaction failed
+	private static class Scope {
+		private boolean rollbackOnly;
+	}
+	
+	private static class MappedTransaction implements SmartTransactionObject {
+		private Scope scope;
+		
+		private MappedTransaction(Scope scope) {
+			this.scope = scope;
+		}
+		
+		@Override
+		public boolean isRollbackOnly() {
+			return scope != null && scope.rollbackOnly;
+		}
+		
+		@Override
+		public void flush() {
+		}
+	}
+}
@@ -22,6 +22,7 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
     				.authorizeRequests()
     				.antMatchers("/").permitAll()
     				.antMatchers("/error").permitAll()
+    				.antMatchers("/actuator/health/**").permitAll()
     				.antMatchers(HttpMethod.POST, "/api/authenticate").permitAll()
     				.anyRequest().authenticated()
     				.and()
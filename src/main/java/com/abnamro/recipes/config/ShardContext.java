@@ -0,0 +1,26 @@
+package com.abnamro.recipes.config;
+
+//Shard which connections of the current thread are taken from, shard 0 is the configured spring datasource and
+//holds coordination tables such as id blocks, hot keys and import checkpoints
+public final class ShardContext {
+	
+	private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+	
+	private ShardContext() {
+	}
+	
+	public static int getCurrentShard() {
+		Integer shard = CURRENT_SHARD.get();
+		return shard != null ? shard : 0;
+	}
+	
+	//Method to route connections of the current thread to given shard, returns the shard set before
+	public static Integer setCurrentShard(Integer shard) {
+		Integer previous = CURRENT_SHARD.get();
+		if(shard == null)
+			CURRENT_SHARD.remove();
+		else
+			CURRENT_SHARD.set(shard);
+		return previous;
+	}
+}
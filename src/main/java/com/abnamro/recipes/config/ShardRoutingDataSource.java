@@ -0,0 +1,53 @@
+package com.abnamro.recipes.config;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Datasource handing out connections of the shard set for the current thread, the connection pools of all
+//shards are closed with it
+@Slf4j
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+	
+	private final List<DataSource> shards;
+	
+	public ShardRoutingDataSource(List<DataSource> shards) {
+		this.shards = shards;
+		Map<Object,Object> targets = new HashMap<>();
+		for(int shard = 0; shard < shards.size(); shard++)
+			targets.put(shard, shards.get(shard));
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(shards.get(0));
+		//Unknown shard is a bug, it must not silently fall back to shard 0
+		setLenientFallback(false);
+	}
+	
+	public int getShardCount() {
+		return shards.size();
+	}
+	
+	@Override
+	protected Object determineCurrentLookupKey() {
+		return ShardContext.getCurrentShard();
+	}
+	
+	@Override
+	public void destroy() {
+		for(DataSource shard : shards) {
+			if(shard instanceof AutoCloseable) {
+				try {
+					((AutoCloseable) shard).close();
+				} catch(Exception e) {
+					log.warn("Shard datasource not closed: "+e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.abnamro.recipes.config;
+
+import java.util.EnumSet;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.schema.TargetType;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Hibernate manages the schema of the default shard only, this applies the same ddl-auto action to every other shard
+@Slf4j
+public class ShardSchemaExporter implements Integrator {
+	
+	private final int shardCount;
+	
+	private Metadata metadata;
+	
+	private String action;
+	
+	public ShardSchemaExporter(int shardCount) {
+		this.shardCount = shardCount;
+	}
+	
+	@Override
+	public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		Object configuredAction = sessionFactory.getProperties().get(AvailableSettings.HBM2DDL_AUTO);
+		this.metadata = metadata;
+		this.action = configuredAction != null ? configuredAction.toString().trim() : "none";
+		for(int shard = 1; shard < shardCount; shard++) {
+			Integer previous = ShardContext.setCurrentShard(shard);
+			try {
+				if("create".equals(action) || "create-drop".equals(action))
+					new SchemaExport().create(EnumSet.of(TargetType.DATABASE), metadata);
+				else if("update".equals(action))
+					new SchemaUpdate().execute(EnumSet.of(TargetType.DATABASE), metadata);
+			} finally {
+				ShardContext.setCurrentShard(previous);
+			}
+			log.info("Schema action: "+action+" applied to shard: "+shard);
+		}
+	}
+	
+	@Override
+	public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+		if(!"create-drop".equals(action))
+			return;
+		for(int shard = 1; shard < shardCount; shard++) {
+			Integer previous = ShardContext.setCurrentShard(shard);
+			try {
+				new SchemaExport().drop(EnumSet.of(TargetType.DATABASE), metadata);
+			} finally {
+				ShardContext.setCurrentShard(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.abnamro.recipes.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+import com.abnamro.recipes.service.RecipeShards;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Configuration of recipe shards, active when extra shard urls are given. The spring datasource is shard 0 and
+//each url adds one shard, all shards use the same credentials and hold the full schema. Profile mmap has no
+//datasource, its embedded recipe store refuses shards.
+@Configuration
+@Profile("!mmap")
+@ConditionalOnExpression("!'${recipe.shards.urls:}'.trim().isEmpty()")
+@Slf4j
+public class ShardingConfiguration {
+	
+	@Value("${recipe.shards.urls}")
+	private String shardUrls;
+	
+	@Bean
+	@Primary
+	public ShardRoutingDataSource dataSource(DataSourceProperties properties) {
+		List<DataSource> shards = new ArrayList<>();
+		shards.add(properties.initializeDataSourceBuilder().build());
+		for(String url : RecipeShards.parseShardUrls(shardUrls)) {
+			shards.add(DataSourceBuilder.create(properties.getClassLoader()).url(url)
+										.username(properties.determineUsername())
+										.password(properties.determinePassword()).build());
+		}
+		log.info("Recipes are spread over "+shards.size()+" shards");
+		return new ShardRoutingDataSource(shards);
+	}
+	
+	@Bean
+	public HibernatePropertiesCustomizer shardSchemaCustomizer() {
+		ShardSchemaExporter exporter = new ShardSchemaExporter(RecipeShards.parseShardUrls(shardUrls).size() + 1);
+		return properties -> properties.put("hibernate.integrator_provider",
+											(IntegratorProvider) () -> Collections.singletonList(exporter));
+	}
+}
@@ -0,0 +1,77 @@
+package com.abnamro.recipes.config;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+//Configuration for fast startup mode: selective lazy initialization and startup timing metrics
+@Configuration
+public class StartupConfiguration {
+	
+	private static final String APPLICATION_PACKAGE = "com.abnamro.recipes.";
+	
+	//With spring.main.lazy-initialization only framework beans are deferred, application beans on the
+	//request path and beans with scheduled tasks are still created at startup
+	@Bean
+	public static LazyInitializationExcludeFilter eagerApplicationBeans() {
+		return (beanName, beanDefinition, beanType) -> beanType.getName().startsWith(APPLICATION_PACKAGE) ||
+													   hasScheduledMethods(beanType);
+	}
+	
+	@Bean
+	public FilterRegistrationBean<OncePerRequestFilter> startupTimingFilter(StartupTimings timings, MeterRegistry meterRegistry) {
+		registerMetrics(timings, meterRegistry);
+		FilterRegistrationBean<OncePerRequestFilter> registration = new FilterRegistrationBean<>(new OncePerRequestFilter() {
+			@Override
+			protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+																		throws ServletException, IOException {
+				chain.doFilter(request, response);
+				if(!request.isAsyncStarted())
+					timings.recordRequest();
+			}
+			
+			//Async api responses complete on the async dispatch, so it has to pass this filter as well
+			@Override
+			protected boolean shouldNotFilterAsyncDispatch() {
+				return false;
+			}
+		});
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		registration.addUrlPatterns("/api/*");
+		return registration;
+	}
+	
+	//Expose startup timings as gauges, -1 until the moment is reached
+	private void registerMetrics(StartupTimings timings, MeterRegistry meterRegistry) {
+		Gauge.builder("recipes.startup.ready", timings, StartupTimings::getReadyMillis)
+			 .baseUnit("milliseconds").register(meterRegistry);
+		Gauge.builder("recipes.startup.first.request", timings, StartupTimings::getFirstRequestMillis)
+			 .baseUnit("milliseconds").register(meterRegistry);
+		Gauge.builder("recipes.startup.steady.state", timings, StartupTimings::getSteadyStateMillis)
+			 .baseUnit("milliseconds").register(meterRegistry);
+	}
+	
+	private static boolean hasScheduledMethods(Class<?> beanType) {
+		AtomicBoolean scheduled = new AtomicBoolean();
+		ReflectionUtils.doWithMethods(beanType, method -> scheduled.set(true),
+									  method -> AnnotatedElementUtils.hasAnnotation(method, Scheduled.class));
+		return scheduled.get();
+	}
+}
@@ -0,0 +1,60 @@
+package com.abnamro.recipes.config;
+
+import java.lang.management.ManagementFactory;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Class to record milliseconds from JVM start until readiness, first served request and steady state after warm-up
+@Component
+@Slf4j
+public class StartupTimings {
+	
+	private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+	
+	private volatile long readyMillis = -1;
+	
+	private volatile long firstRequestMillis = -1;
+	
+	private volatile long steadyStateMillis = -1;
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		readyMillis = elapsedMillis();
+		log.info("Startup timings in ms, ready: "+readyMillis+", first request: "+firstRequestMillis+
+				 ", steady state: "+steadyStateMillis);
+	}
+	
+	//Called after every completed api request, only the first one is recorded
+	public void recordRequest() {
+		if(firstRequestMillis < 0) {
+			synchronized(this) {
+				if(firstRequestMillis < 0)
+					firstRequestMillis = elapsedMillis();
+			}
+		}
+	}
+	
+	public void recordSteadyState() {
+		steadyStateMillis = elapsedMillis();
+	}
+	
+	public long getReadyMillis() {
+		return readyMillis;
+	}
+	
+	public long getFirstRequestMillis() {
+		return firstRequestMillis;
+	}
+	
+	public long getSteadyStateMillis() {
+		return steadyStateMillis;
+	}
+	
+	private long elapsedMillis() {
+		return System.currentTimeMillis() - jvmStartMillis;
+	}
+}
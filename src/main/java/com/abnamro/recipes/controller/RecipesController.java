@@ -1,31 +1,72 @@
 package com.abnamro.recipes.controller;
 
+import java.io.IOException;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.abnamor.recipes.dto.BulkImportResult;
 import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeFacetQuery;
+import com.abnamor.recipes.dto.RecipeFacetResult;
+import com.abnamor.recipes.dto.RecipeFeedCursor;
+import com.abnamor.recipes.dto.RecipeFeedPage;
+import com.abnamor.recipes.dto.RecipeHotKeys;
+import com.abnamor.recipes.dto.RecipeStats;
+import com.abnamor.recipes.dto.RecipeSyncPage;
 import com.abnamor.recipes.dto.User;
+import com.abnamro.recipes.config.Bulkhead;
 import com.abnamro.recipes.exceptions.BadRequestException;
 import com.abnamro.recipes.exceptions.ErrorMessages;
 import com.abnamro.recipes.exceptions.NoSuchRecipeFoundException;
 import com.abnamro.recipes.exceptions.RecipeNotCreatedException;
 import com.abnamro.recipes.exceptions.ResourceConflictException;
 import com.abnamro.recipes.exceptions.UnAuthorizedException;
+import com.abnamro.recipes.service.RecipeChangeFeed;
+import com.abnamro.recipes.service.RecipeFacetIndex;
+import com.abnamro.recipes.service.RecipeIdAllocator;
+import com.abnamro.recipes.service.RecipeHotKeyTracker;
+import com.abnamro.recipes.service.RecipeStatsService;
+import com.abnamro.recipes.service.RecipeWriteBehindQueue;
+import com.abnamro.recipes.service.RecipesBulkService;
+import com.abnamro.recipes.service.RecipesListingCache;
+import com.abnamro.recipes.service.RecipesListingCache.SerializedListing;
 import com.abnamro.recipes.service.RecipesService;
 import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.databind.JsonNode;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -34,143 +75,525 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class RecipesController {
 	
+	private static final String PREFER_RESPOND_ASYNC = "respond-async";
+	
+	private static final String ASYNC_TIMEOUT_INTERCEPTOR = RecipesController.class.getName()+".asyncTimeout";
+	private static final String ISO_DATE_TIME_NO_MILLIS = "yyyy-MM-dd'T'HH:mm:ssXXX";
+	private static final String MERGE_PATCH_JSON_VALUE = "application/merge-patch+json";
+	
 	@Value("${recipe.user.name}")
 	private String recipeUser;
 	
 	@Value("${jwt.secret.key}")
 	private String secretKey;
 	
+	@Value("${recipe.writebehind.flush.wait.ms:5000}")
+	private long flushWaitMs;
+	
+	@Value("${recipe.feed.default.limit:20}")
+	private int feedDefaultLimit;
+	
+	@Value("${recipe.feed.max.limit:100}")
+	private int feedMaxLimit;
+	
+	@Value("${recipe.facets.default.limit:20}")
+	private int facetsDefaultLimit;
+	
+	@Value("${recipe.facets.max.limit:100}")
+	private int facetsMaxLimit;
+	
+	@Value("${recipe.sync.default.limit:100}")
+	private int syncDefaultLimit;
+	
+	@Value("${recipe.sync.max.limit:1000}")
+	private int syncMaxLimit;
+	
+	@Value("${recipe.changefeed.timeout.ms:1800000}")
+	private long changeFeedTimeoutMs;
+	
+	@Value("${recipe.bulk.timeout.ms:3600000}")
+	private long bulkTimeoutMs;
+	
 	@Autowired
 	private RecipesService service;
 	
+	@Autowired
+	private RecipeWriteBehindQueue writeBehindQueue;
+	
+	@Autowired
+	private RecipeIdAllocator idAllocator;
+	
+	@Autowired
+	private RecipesListingCache listingCache;
+	
+	@Autowired
+	private RecipesBulkService bulkService;
+	
+	@Autowired
+	private RecipeStatsService statsService;
+	
+	@Autowired
+	private RecipeFacetIndex facetIndex;
+	
+	@Autowired
+	private RecipeHotKeyTracker hotKeyTracker;
+	
+	@Autowired
+	private RecipeChangeFeed changeFeed;
+	
+	@Autowired
+	private Bulkhead listBulkhead;
+	
+	@Autowired
+	private Bulkhead pointReadBulkhead;
+	
+	@Autowired
+	private Bulkhead writeBulkhead;
+	
+	@Autowired
+	private Bulkhead authBulkhead;
+	
 	@PostMapping("/authenticate")
-	public ResponseEntity<User> authenticateAndAuthorizeUser(@RequestBody User userCredentials){
-		log.info("Request received for authentication at /api/autheinticate");
-		if(userCredentials.getPassword() == null || userCredentials.getPassword() == null) {
-			log.error("Given User Credentials are invalid, throwing BadRequest Exception");
-			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
-		} else if(userCredentials.getUserName().compareTo(recipeUser) != 0 ||
-				  userCredentials.getPassword().compareTo(secretKey) != 0) {
-			log.error("Given user crednetials are wrong, throwing BadRequest Exception");
-			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
-		}
+	public CompletableFuture<ResponseEntity<User>> authenticateAndAuthorizeUser(@RequestBody User userCredentials){
+		return authBulkhead.submit(() -> {
+			log.info("Request received for authentication at /api/autheinticate");
+			if(userCredentials.getPassword() == null || userCredentials.getPassword() == null) {
+				log.error("Given User Credentials are invalid, throwing BadRequest Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			} else if(userCredentials.getUserName().compareTo(recipeUser) != 0 ||
+					  userCredentials.getPassword().compareTo(secretKey) != 0) {
+				log.error("Given user crednetials are wrong, throwing BadRequest Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			}
 		
-		String genJwtToken = Util.generateJWTToken(userCredentials.getUserName(),userCredentials.getPassword());
-		userCredentials.setPassword(genJwtToken);
-		log.info("JWT Token generated using provided secret key and returned through response");
-		return ResponseEntity.status(HttpStatus.ACCEPTED).body(userCredentials);
+			String genJwtToken = Util.generateJWTToken(userCredentials.getUserName(),userCredentials.getPassword());
+			userCredentials.setPassword(genJwtToken);
+			log.info("JWT Token generated using provided secret key and returned through response");
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(userCredentials);
+		});
 	}
 	
 	@PostMapping("/recipe")
-	public ResponseEntity<Recipe> createRecipe(
+	public CompletableFuture<ResponseEntity<Recipe>> createRecipe(
 			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestHeader(value = "Prefer", required = false)String preferHeader,
 			@RequestBody Recipe recipe){
-		log.info("Processing the request for /api/recipe to create new recipe");
-		if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
-			log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
-			throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
-		}else if(Util.checkRecipeValidity(recipe) == false) {
-			log.error("Provided recipe instance is not valid, throwing Bad Request Exception");
-			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
-		} else if(service.getRecipeFromRepository(recipe.getId()) != null) {
-			log.error("Provided recipe is having duplicate Id, thowing Resource Conflict Exception");
-			throw new ResourceConflictException(ErrorMessages.RESOURCE_CONFLICT_MSG);
-		}else {
-			log.debug("Calling service.saveRecipeToRepository to save recipe into DB");
-			Recipe savedRecipe = service.saveRecipeToRepository(recipe);
-			if(savedRecipe == null) {
-				log.error("Service failed to save new recipe into DB");
-				throw new RecipeNotCreatedException(ErrorMessages.INTERNAL_SERVER_ERR_MSG);
+		return writeBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipe to create new recipe");
+			//Every recipe gets a server assigned id, when enabled, and then needs no duplicate check. Client ids are
+			//rejected, since one inside a block reserved later would clash with an id the server hands out.
+			boolean assignId = idAllocator.isEnabled();
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}else if(Util.checkRecipeValidity(recipe, !assignId) == false) {
+				log.error("Provided recipe instance is not valid, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			} else if(assignId && recipe.getId() != null) {
+				log.error("Provided recipe has id: "+recipe.getId()+" where ids are assigned by server, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			} else if(!assignId && service.getRecipeFromRepository(recipe.getId()) != null) {
+				log.error("Provided recipe is having duplicate Id, thowing Resource Conflict Exception");
+				throw new ResourceConflictException(ErrorMessages.RESOURCE_CONFLICT_MSG);
 			}
 			
-			log.info("Service successfully saved new recipe into DB with recipeId: "+savedRecipe.getId());
+			if(assignId) {
+				recipe.setId(idAllocator.nextId());
+				log.debug("Server assigned recipeId: "+recipe.getId()+" to new recipe");
+			}
+			if(writeBehindQueue.isEnabled()) {
+				return createRecipeWriteBehind(recipe, preferHeader);
+			}else {
+				log.debug("Calling service.saveRecipeToRepository to save recipe into DB");
+				Recipe savedRecipe = service.saveRecipeToRepository(recipe);
+				if(savedRecipe == null) {
+					log.error("Service failed to save new recipe into DB");
+					throw new RecipeNotCreatedException(ErrorMessages.INTERNAL_SERVER_ERR_MSG);
+				}
+			
+				log.info("Service successfully saved new recipe into DB with recipeId: "+savedRecipe.getId());
+				return ResponseEntity.status(HttpStatus.CREATED).body(savedRecipe);
+			}
+		});
+	}
+	
+	//Queue new recipe, acknowledge after enqueue with "Prefer: respond-async" or else as configured by default
+	private ResponseEntity<Recipe> createRecipeWriteBehind(Recipe recipe, String preferHeader) {
+		boolean ackAfterFlush = writeBehindQueue.isAckAfterFlushByDefault() && !prefersRespondAsync(preferHeader);
+		log.debug("Calling writeBehindQueue.enqueue to queue recipe, ack after flush: "+ackAfterFlush);
+		CompletableFuture<Recipe> savedFuture = writeBehindQueue.enqueue(recipe);
+		if(!ackAfterFlush) {
+			log.info("Recipe with recipeId: "+recipe.getId()+" accepted into write-behind queue");
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(recipe);
+		}
+		try {
+			Recipe savedRecipe = savedFuture.get(flushWaitMs, TimeUnit.MILLISECONDS);
+			log.info("Queued recipe flushed into DB with recipeId: "+savedRecipe.getId());
 			return ResponseEntity.status(HttpStatus.CREATED).body(savedRecipe);
+		} catch(TimeoutException e) {
+			log.warn("Queued recipe with recipeId: "+recipe.getId()+" not flushed in time, returning Accepted");
+			return ResponseEntity.status(HttpStatus.ACCEPTED).body(recipe);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted while waiting for flush of recipeId: "+recipe.getId());
+			throw new RecipeNotCreatedException(ErrorMessages.INTERNAL_SERVER_ERR_MSG);
+		} catch(ExecutionException e) {
+			//Failure of the flush is answered as the same failure of a synchronous save, e.g. a taken name with 409
+			log.error("Write-behind flush failed for recipeId: "+recipe.getId());
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RecipeNotCreatedException(ErrorMessages.INTERNAL_SERVER_ERR_MSG);
+		}
+	}
+	
+	//Method to check if given Prefer header holds preference respond-async, other preferences keep the default
+	private static boolean prefersRespondAsync(String preferHeader) {
+		if(preferHeader == null)
+			return false;
+		for(String preference : preferHeader.split(",")) {
+			String token = preference.split("[;=]", 2)[0].trim();
+			if(token.equalsIgnoreCase(PREFER_RESPOND_ASYNC))
+				return true;
 		}
+		return false;
 	}
 	
 	@GetMapping("/recipe/{id}")
-	public ResponseEntity<Recipe> getRecipe(
+	public CompletableFuture<ResponseEntity<Recipe>> getRecipe(
 			@RequestHeader(value = "Authorization", required = true)String authHeader,
 			@PathVariable Integer id) 
 	{
-		log.info("Processing the request for /api/recipe/id to get existing recipe");
+		return pointReadBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipe/id to get existing recipe");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}
+			Recipe recipe = service.getRecipeFromRepository(id);
+			if(recipe != null) {
+				log.info("Requested recipe with id: "+id+" retrieved from DB");
+				hotKeyTracker.record(id);
+				return ResponseEntity.status(HttpStatus.OK).body(recipe);
+			} else {
+				log.error("Requested recipe with id: "+id+" not found in DB");
+				throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
+			}
+		});
+	}
+	
+	@GetMapping(path = "/recipe", params = "name")
+	public CompletableFuture<ResponseEntity<Recipe>> getRecipeByName(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestParam String name) 
+	{
+		return pointReadBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipe?name to get existing recipe by name");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			} else if(name.trim().isEmpty()) {
+				log.error("Given recipe name is empty, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			}
+			Recipe recipe = service.getRecipeByNameFromRepository(name);
+			if(recipe != null) {
+				log.info("Requested recipe with name: "+name+" retrieved with id: "+recipe.getId());
+				return ResponseEntity.status(HttpStatus.OK).body(recipe);
+			} else {
+				log.error("Requested recipe with name: "+name+" not found in DB");
+				throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
+			}
+		});
+	}
+	
+	@GetMapping("/recipes")
+	public CompletableFuture<ResponseEntity<byte[]>> getAllRecipes(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false)String acceptHeader,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)String acceptEncodingHeader,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false)String ifNoneMatchHeader){
+		return listBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipes to get all recipes from DB");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}else {
+				log.debug("Calling listingCache.getListing to retrieve serialized listing of all recipes");
+				SerializedListing listing = listingCache.getListing(listingCache.negotiate(acceptHeader));
+				if(listing.getRecipeCount() == 0) {
+					log.error("No recipes found in DB, throwing RecipeNotFound Exception");
+					throw new NoSuchRecipeFoundException(ErrorMessages.RECIPES_NOT_FOUND_MSG);
+				}
+				
+				boolean gzip = Util.acceptsGzip(acceptEncodingHeader);
+				String eTag = gzip ? listing.getGzipETag() : listing.getETag();
+				ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK)
+						.contentType(listing.getMediaType())
+						.eTag(eTag)
+						.varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+				if(Util.matchesETag(ifNoneMatchHeader, eTag)) {
+					log.info("Recipes listing not modified since ETag: "+eTag);
+					return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+				}
+				
+				log.info("Number of recipes retrieved from DB: "+listing.getRecipeCount());
+				if(gzip)
+					return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(listing.getGzipBytes());
+				return response.body(listing.getRawBytes());
+			}
+		});
+	}
+	
+	@GetMapping("/recipes/feed")
+	public CompletableFuture<ResponseEntity<RecipeFeedPage>> getRecipeFeed(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME,
+												   fallbackPatterns = ISO_DATE_TIME_NO_MILLIS) Date since,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME,
+												   fallbackPatterns = ISO_DATE_TIME_NO_MILLIS) Date until,
+			@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit)
+	{
+		return pointReadBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipes/feed to get newest recipes");
+			RecipeFeedCursor feedCursor = cursor != null ? RecipeFeedCursor.decode(cursor) : null;
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			} else if((cursor != null && feedCursor == null) || (limit != null && (limit < 1 || limit > feedMaxLimit))) {
+				log.error("Given feed cursor or limit is not valid, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			}
+			RecipeFeedPage page = service.getRecipeFeedFromRepository(since, until, feedCursor,
+																	 limit != null ? limit : feedDefaultLimit);
+			log.info("Feed page with "+page.getRecipes().size()+" recipes retrieved from DB");
+			return ResponseEntity.status(HttpStatus.OK).body(page);
+		});
+	}
+	
+	@GetMapping("/recipes/sync")
+	public CompletableFuture<ResponseEntity<RecipeSyncPage>> getRecipeChanges(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestParam(required = false) String since,
+			@RequestParam(required = false) Integer limit)
+	{
+		return pointReadBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipes/sync to get recipes changed since watermark");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			} else if(limit != null && (limit < 1 || limit > syncMaxLimit)) {
+				log.error("Given sync watermark or limit is not valid, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			}
+			//Malformed watermark is rejected as Bad Request while parsing it
+			RecipeSyncPage page = service.getRecipeChangesFromRepository(since, limit != null ? limit : syncDefaultLimit);
+			log.info("Sync page with "+page.getRecipes().size()+" changed and "+page.getDeletedIds().size()+
+					 " deleted recipes retrieved from DB");
+			return ResponseEntity.status(HttpStatus.OK).body(page);
+		});
+	}
+	
+	@GetMapping("/recipes/stats")
+	public CompletableFuture<ResponseEntity<RecipeStats>> getRecipeStats(
+			@RequestHeader(value = "Authorization", required = true)String authHeader)
+	{
+		return pointReadBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipes/stats to get catalog statistics");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}
+			return ResponseEntity.status(HttpStatus.OK).body(statsService.getStats());
+		});
+	}
+	
+	@GetMapping(path = "/recipes/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamRecipeChanges(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId)
+	{
+		log.info("Processing the request for /api/recipes/changes to stream recipe changes");
 		if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
 			log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
 			throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
 		}
-		Recipe recipe = service.getRecipeFromRepository(id);
-		if(recipe != null) {
-			log.info("Requested recipe with id: "+id+" retrieved from DB");
-			return ResponseEntity.status(HttpStatus.OK).body(recipe);
-		} else {
-			log.error("Requested recipe with id: "+id+" not found in DB");
-			throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
-		}
+		//Stream ends at timeout, clients reconnect with Last-Event-ID and get the changes they missed
+		return changeFeed.subscribe(new SseEmitter(changeFeedTimeoutMs), lastEventId);
 	}
 	
-	@GetMapping("/recipes")
-	public ResponseEntity<List<Recipe>> getAllRecipes(
-			@RequestHeader(value = "Authorization", required = true)String authHeader){
-		log.info("Processing the request for /api/recipes to get all recipes from DB");
+	@GetMapping("/admin/hotkeys")
+	public CompletableFuture<ResponseEntity<RecipeHotKeys>> getHotRecipes(
+			@RequestHeader(value = "Authorization", required = true)String authHeader)
+	{
+		return pointReadBulkhead.submit(() -> {
+			log.info("Processing the request for /api/admin/hotkeys to get most read recipes");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}
+			return ResponseEntity.status(HttpStatus.OK).body(hotKeyTracker.getHotKeys());
+		});
+	}
+	
+	@GetMapping("/recipes/facets")
+	public CompletableFuture<ResponseEntity<RecipeFacetResult>> getRecipesByFacets(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestParam(name = "type", required = false) List<String> types,
+			@RequestParam(name = "capacity", required = false) List<String> capacities,
+			@RequestParam(name = "ingredient", required = false) List<String> allIngredients,
+			@RequestParam(name = "anyIngredient", required = false) List<String> anyIngredients,
+			@RequestParam(name = "excludeType", required = false) List<String> excludeTypes,
+			@RequestParam(name = "excludeIngredient", required = false) List<String> excludeIngredients,
+			@RequestParam(required = false) Integer after,
+			@RequestParam(required = false) Integer limit)
+	{
+		return pointReadBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipes/facets to filter recipes by facets");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			} else if(limit != null && (limit < 1 || limit > facetsMaxLimit)) {
+				log.error("Given facets limit is not valid, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			}
+			RecipeFacetQuery query = new RecipeFacetQuery();
+			Optional.ofNullable(types).ifPresent(query::setTypes);
+			Optional.ofNullable(capacities).ifPresent(query::setCapacities);
+			Optional.ofNullable(allIngredients).ifPresent(query::setAllIngredients);
+			Optional.ofNullable(anyIngredients).ifPresent(query::setAnyIngredients);
+			Optional.ofNullable(excludeTypes).ifPresent(query::setExcludeTypes);
+			Optional.ofNullable(excludeIngredients).ifPresent(query::setExcludeIngredients);
+			RecipeFacetResult result = facetIndex.query(query, after, limit != null ? limit : facetsDefaultLimit);
+			log.info("Facet query matched "+result.getTotal()+" recipes, returning "+result.getRecipes().size());
+			return ResponseEntity.status(HttpStatus.OK).body(result);
+		});
+	}
+	
+	@GetMapping(path = "/recipes/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> exportRecipes(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			HttpServletRequest request){
+		log.info("Processing the request for /api/recipes/export to stream all recipes as NDJSON");
 		if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
 			log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
 			throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
-		}else {
-			log.debug("Calling service.getAllRecipes to retrieve all recipes from DB");
-			List<Recipe> recipeList = service.getAllRecipesFromRepository();
-			if(recipeList.size() == 0) {
-				log.error("No recipes found in DB, throwing RecipeNotFound Exception");
-				throw new NoSuchRecipeFoundException(ErrorMessages.RECIPES_NOT_FOUND_MSG);
-			}
-			
-			log.info("Number of recipes retrieved from DB: "+recipeList.size());
-			return ResponseEntity.status(HttpStatus.OK).body(recipeList);
 		}
+		log.debug("Calling bulkService.exportRecipes to stream recipes from DB cursor");
+		setAsyncTimeout(request, bulkTimeoutMs);
+		return ResponseEntity.status(HttpStatus.OK)
+							 .contentType(MediaType.APPLICATION_NDJSON)
+							 .body(outputStream -> bulkService.exportRecipes(outputStream));
 	}
 	
-	@PutMapping("/recipe")
-	public ResponseEntity<Recipe> modifyRecipe(
+	//Streamed body runs with the async timeout of its request, which is raised for this request only, the default
+	//async timeout of every other request stays as it is
+	private static void setAsyncTimeout(HttpServletRequest request, long timeoutMs) {
+		WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(ASYNC_TIMEOUT_INTERCEPTOR, new CallableProcessingInterceptor() {
+			@Override
+			public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+				((AsyncWebRequest) webRequest).setTimeout(timeoutMs);
+			}
+		});
+	}
+	
+	@PostMapping(path = "/recipes/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_PLAIN_VALUE})
+	public WebAsyncTask<ResponseEntity<BulkImportResult>> importRecipes(
 			@RequestHeader(value = "Authorization", required = true)String authHeader,
-			@RequestBody Recipe recipe){
-		log.info("Processing the request for /api/recipe to modify existing recipe");
+			@RequestParam(value = "importId", required = false)String importId,
+			HttpServletRequest request){
+		log.info("Processing the request for /api/recipes/import to import NDJSON recipes");
 		if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
 			log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
 			throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
-		}else if(Util.checkRecipeValidity(recipe) == false) {
-			log.error("Provided recipe instance is not valid, throwing Bad Request Exception");
-			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
-		} else if(service.getRecipeFromRepository(recipe.getId()) == null) {
-			log.error("Provided recipe is not found in DB, throwing Recipe NotFound Exception");
-			throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
-		}else {
-			log.debug("Calling service.modifyRecipeInRepository to update recipe");
-			Recipe modifiedRecipe = service.modifyExistingRecipeInRepository(recipe);
-			if(modifiedRecipe == null) {
-				log.error("Service failed to modify recipe in DB");
+		}
+		//Import takes a write bulkhead permit per batch, not for its whole run
+		return new WebAsyncTask<>(bulkTimeoutMs, () -> {
+			try {
+				log.debug("Calling bulkService.importRecipes to import recipes from request body");
+				BulkImportResult result = bulkService.importRecipes(request.getInputStream(), importId);
+				log.info("Imported "+result.getImported()+" recipes, rejected: "+result.getRejected());
+				return ResponseEntity.status(HttpStatus.OK).body(result);
+			} catch(IOException e) {
+				log.error("Import with id: "+importId+" failed, resume it by repeating the request with same importId");
 				throw new RecipeNotCreatedException(ErrorMessages.INTERNAL_SERVER_ERR_MSG);
 			}
+		});
+	}
+	
+	@PutMapping("/recipe")
+	public CompletableFuture<ResponseEntity<Recipe>> modifyRecipe(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@RequestBody Recipe recipe){
+		return writeBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipe to modify existing recipe");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}else if(Util.checkRecipeValidity(recipe) == false) {
+				log.error("Provided recipe instance is not valid, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			} else if(service.getRecipeFromRepository(recipe.getId()) == null) {
+				log.error("Provided recipe is not found in DB, throwing Recipe NotFound Exception");
+				throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
+			}else {
+				log.debug("Calling service.modifyRecipeInRepository to update recipe");
+				Recipe modifiedRecipe = service.modifyExistingRecipeInRepository(recipe);
+				if(modifiedRecipe == null) {
+					log.error("Service failed to modify recipe in DB");
+					throw new RecipeNotCreatedException(ErrorMessages.INTERNAL_SERVER_ERR_MSG);
+				}
+			
+				log.info("Service successfully modifed existing recipe in DB");
+				return ResponseEntity.status(HttpStatus.OK).body(modifiedRecipe);
+			}
+		});
+	}
+	
+	@PatchMapping(path = "/recipe/{id}", consumes = {MERGE_PATCH_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+	public CompletableFuture<ResponseEntity<Recipe>> patchRecipe(
+			@RequestHeader(value = "Authorization", required = true)String authHeader,
+			@PathVariable Integer id,
+			@RequestBody JsonNode patch){
+		return writeBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipe/{id} to patch existing recipe");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}else if(patch == null || !patch.isObject()) {
+				log.error("Provided merge patch is not a JSON object, throwing Bad Request Exception");
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			}
+			log.debug("Calling service.patchExistingRecipeInRepository to apply patch with fields: "+patch.size());
+			Recipe patchedRecipe = service.patchExistingRecipeInRepository(id, patch);
+			if(patchedRecipe == null) {
+				log.error("Provided recipe is not found in DB, throwing Recipe NotFound Exception");
+				throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
+			}
 			
-			log.info("Service successfully modifed existing recipe in DB");
-			return ResponseEntity.status(HttpStatus.OK).body(modifiedRecipe);
-		}
+			log.info("Service successfully patched existing recipe in DB");
+			return ResponseEntity.status(HttpStatus.OK).body(patchedRecipe);
+		});
 	}
 	
 	@DeleteMapping("/recipe/{id}")
-	public ResponseEntity<String> deleteRecipe(
+	public CompletableFuture<ResponseEntity<String>> deleteRecipe(
 			@RequestHeader(value = "Authorization", required = true)String authHeader,
 			@PathVariable Integer id){
-		log.info("Processing the request for /api/recipe/{id} to delete existing recipe");
-		if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
-			log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
-			throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
-		}else if(service.getRecipeFromRepository(id) == null) {
-			log.error("Provided recipe is not found in DB, throwing Recipe NotFound Exception");
-			throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
-		}else {
-			log.debug("Calling service.deleteRecipeFromRepository to remove recipe");
-			service.deleteRecipeFromRepository(id);
-			log.info("Requested recipe deleted from DB");
-			return ResponseEntity.status(HttpStatus.OK).body("Requested recipe deleted from DB");
-		}
+		return writeBulkhead.submit(() -> {
+			log.info("Processing the request for /api/recipe/{id} to delete existing recipe");
+			if(Util.checkJwtTokenValidity(secretKey, authHeader) == false) {
+				log.error("Given JWT Token is invalid, throwing Unauthorized Exception");
+				throw new UnAuthorizedException(ErrorMessages.UNAUTHORIZED_MSG);
+			}else if(service.getRecipeFromRepository(id) == null) {
+				log.error("Provided recipe is not found in DB, throwing Recipe NotFound Exception");
+				throw new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG);
+			}else {
+				log.debug("Calling service.deleteRecipeFromRepository to remove recipe");
+				service.deleteRecipeFromRepository(id);
+				log.info("Requested recipe deleted from DB");
+				return ResponseEntity.status(HttpStatus.OK).body("Requested recipe deleted from DB");
+			}
+		});
 	}
 }
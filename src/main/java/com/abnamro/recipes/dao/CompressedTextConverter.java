@@ -0,0 +1,91 @@
+package com.abnamro.recipes.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Converter to store large text columns Deflate compressed, as marker followed by Base64 of compressed bytes so
+//the column stays text. Values below threshold, or not shrinking, are stored as is and plain rows still read.
+@Converter
+@Slf4j
+public class CompressedTextConverter implements AttributeConverter<String,String> {
+	
+	public static final String MARKER = "~dfl1~";
+	
+	//Hibernate creates converter through Spring, defaults apply when created without Spring
+	@Value("${recipe.compression.threshold.bytes:1024}")
+	private int thresholdBytes = 1024;
+	
+	@Value("${recipe.compression.level:6}")
+	private int level = 6;
+	
+	@Override
+	public String convertToDatabaseColumn(String text) {
+		if(text == null)
+			return null;
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		//Plain text starting with marker is always compressed, so every stored value with marker is compressed
+		boolean startsWithMarker = text.startsWith(MARKER);
+		if(bytes.length < thresholdBytes && !startsWithMarker)
+			return text;
+		String compressed = MARKER + Base64.getEncoder().encodeToString(deflate(bytes));
+		return compressed.length() < bytes.length || startsWithMarker ? compressed : text;
+	}
+	
+	@Override
+	public String convertToEntityAttribute(String columnValue) {
+		if(columnValue == null || !columnValue.startsWith(MARKER))
+			return columnValue;
+		try {
+			byte[] compressed = Base64.getDecoder().decode(columnValue.substring(MARKER.length()));
+			return new String(inflate(compressed), StandardCharsets.UTF_8);
+		} catch(IllegalArgumentException | DataFormatException e) {
+			//Row written before compression which happens to start with marker
+			log.warn("Column value starting with compression marker is not compressed, returning it as is");
+			return columnValue;
+		}
+	}
+	
+	private byte[] deflate(byte[] bytes) {
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+			byte[] buffer = new byte[8192];
+			while(!deflater.finished())
+				out.write(buffer, 0, deflater.deflate(buffer));
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private byte[] inflate(byte[] compressed) throws DataFormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+			byte[] buffer = new byte[8192];
+			while(!inflater.finished()) {
+				int inflated = inflater.inflate(buffer);
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new DataFormatException("Truncated compressed column value");
+				out.write(buffer, 0, inflated);
+			}
+			return out.toByteArray();
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.abnamro.recipes.dao;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import lombok.Data;
+
+//Entity to represent one row of recipe change log, appended on every recipe write
+@Data
+@Entity
+@Table(name = "RecipeChangeLog", indexes = @Index(name = "IDX_CHANGELOG_CDATETIME", columnList = "CDATETIME"))
+public class RecipeChangeLogEntity {
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "SEQ")
+	private Long sequence;
+	
+	@Column(name = "RECIPE_ID", nullable = false)
+	private Integer recipeId;
+	
+	@Enumerated(EnumType.STRING)
+	@Column(name = "OPERATION", length = 8, nullable = false)
+	private RecipeOperation operation;
+	
+	@Column(name = "NODE_ID", length = 64)
+	private String nodeId;
+	
+	@Column(name = "CDATETIME")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date changeDateTime;
+}
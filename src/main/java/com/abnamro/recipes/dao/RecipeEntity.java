@@ -3,17 +3,25 @@ package com.abnamro.recipes.dao;
 import java.util.Date;
 
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.DynamicUpdate;
+
 import lombok.Data;
 
+//Updates write only changed columns, so small edits do not rewrite large ingredients and instructions
 @Data
 @Entity
-@Table(name = "Recipe")
+@DynamicUpdate
+@Table(name = "Recipe", indexes = {@Index(name = "IDX_RECIPE_NAME_KEY", columnList = "NAME_KEY", unique = true),
+								   @Index(name = "IDX_RECIPE_CDATETIME_ID", columnList = "CDATETIME, ID"),
+								   @Index(name = "IDX_RECIPE_MOD_SEQ", columnList = "MOD_SEQ")})
 public class RecipeEntity {
 	@Id
 	private Integer id;
@@ -21,6 +29,11 @@ public class RecipeEntity {
 	@Column(name = "NAME", unique = true)
 	private String name;
 	
+	//Name as computed by Util.normalizeRecipeName: NFKC normalized, then trimmed and lower cased with Locale.ROOT, for
+	//case-insensitive lookup by name. Unique so that a lookup finds at most one recipe.
+	@Column(name = "NAME_KEY")
+	private String nameKey;
+	
 	@Column(name = "TYPE")
 	private String type;
 	
@@ -31,9 +44,16 @@ public class RecipeEntity {
 	@Column(name = "CAPACITY")
 	private Integer servingCapacity;
 	
-	@Column(name = "INGREDIENTS", nullable=true)
+	//Large text columns are stored compressed above a size threshold
+	@Column(name = "INGREDIENTS", nullable=true, columnDefinition = "TEXT")
+	@Convert(converter = CompressedTextConverter.class)
 	private String ingredients;
 	
-	@Column(name = "INSTRUCTIONS", nullable=true)
+	@Column(name = "INSTRUCTIONS", nullable=true, columnDefinition = "TEXT")
+	@Convert(converter = CompressedTextConverter.class)
 	private String instructions;
+	
+	//Change log sequence of the last write, delta sync reads recipes written after a client watermark by it
+	@Column(name = "MOD_SEQ")
+	private Long modSequence;
 }
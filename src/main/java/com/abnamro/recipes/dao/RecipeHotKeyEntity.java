@@ -0,0 +1,44 @@
+package com.abnamro.recipes.dao;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import lombok.Data;
+
+//Entity to represent one hot recipe of the last snapshot saved by a node, read at startup to warm the cache. Every
+//node replaces its own rows only, so that nodes saving at the same time do not overwrite each other.
+@Data
+@Entity
+@Table(name = "RecipeHotKey")
+@IdClass(RecipeHotKeyEntity.Key.class)
+public class RecipeHotKeyEntity {
+	@Id
+	@Column(name = "NODE_ID")
+	private String nodeId;
+	
+	@Id
+	@Column(name = "RECIPE_ID")
+	private Integer recipeId;
+	
+	@Column(name = "HITS")
+	private Long hits;
+	
+	@Column(name = "SAVED_DATETIME")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date savedDateTime;
+	
+	@Data
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private String nodeId;
+		private Integer recipeId;
+	}
+}
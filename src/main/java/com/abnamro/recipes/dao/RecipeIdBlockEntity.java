@@ -0,0 +1,21 @@
+package com.abnamro.recipes.dao;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.Data;
+
+//Entity to hold the next unallocated recipe id, every node reserves a whole block of ids per update
+@Data
+@Entity
+@Table(name = "RecipeIdBlock")
+public class RecipeIdBlockEntity {
+	@Id
+	@Column(name = "NAME", length = 32)
+	private String name;
+	
+	@Column(name = "NEXT_VAL")
+	private Long nextValue;
+}
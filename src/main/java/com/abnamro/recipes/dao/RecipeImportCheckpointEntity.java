@@ -0,0 +1,36 @@
+package com.abnamro.recipes.dao;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import lombok.Data;
+
+//Entity to represent progress of one bulk import, committed together with each imported batch
+@Data
+@Entity
+@Table(name = "RecipeImportCheckpoint")
+public class RecipeImportCheckpointEntity {
+	@Id
+	@Column(name = "IMPORT_ID", length = 64)
+	private String importId;
+	
+	//Number of input lines whose recipes are committed, a resumed import skips these lines
+	@Column(name = "LINES")
+	private Long linesCommitted;
+	
+	@Column(name = "IMPORTED")
+	private Long imported;
+	
+	@Column(name = "REJECTED")
+	private Long rejected;
+	
+	@Column(name = "UDATETIME")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date updateDateTime;
+}
@@ -0,0 +1,22 @@
+package com.abnamro.recipes.dao;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.Data;
+
+//Entity to reserve a normalized recipe name across shards, its row is locked by every write setting the name and
+//holds the id of the recipe which took the name last
+@Data
+@Entity
+@Table(name = "RecipeNameReservation")
+public class RecipeNameReservationEntity {
+	@Id
+	@Column(name = "NAME_KEY")
+	private String nameKey;
+	
+	@Column(name = "RECIPE_ID")
+	private Integer recipeId;
+}
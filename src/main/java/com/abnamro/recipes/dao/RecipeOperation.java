@@ -0,0 +1,8 @@
+package com.abnamro.recipes.dao;
+
+//Enum to represent kind of write operation performed on a recipe
+public enum RecipeOperation {
+	CREATE,
+	UPDATE,
+	DELETE
+}
@@ -0,0 +1,33 @@
+package com.abnamro.recipes.dao;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import lombok.Data;
+
+//Entity to represent a deleted recipe, so that delta sync can tell clients to remove it. Removed after the
+//tombstone retention, together with every tombstone of a lower sequence.
+@Data
+@Entity
+@Table(name = "RecipeTombstone", indexes = {@Index(name = "IDX_TOMBSTONE_MOD_SEQ", columnList = "MOD_SEQ"),
+										   @Index(name = "IDX_TOMBSTONE_DDATETIME", columnList = "DDATETIME")})
+public class RecipeTombstoneEntity {
+	@Id
+	@Column(name = "RECIPE_ID")
+	private Integer recipeId;
+	
+	//Change log sequence of the delete
+	@Column(name = "MOD_SEQ", nullable = false)
+	private Long modSequence;
+	
+	@Column(name = "DDATETIME")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date deletionDateTime;
+}
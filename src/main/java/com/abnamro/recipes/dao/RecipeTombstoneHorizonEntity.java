@@ -0,0 +1,22 @@
+package com.abnamro.recipes.dao;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.Data;
+
+//Entity to hold the highest sequence of removed tombstones in a single row, delta sync from a lower watermark could
+//miss deletes and is told to start over
+@Data
+@Entity
+@Table(name = "RecipeTombstoneHorizon")
+public class RecipeTombstoneHorizonEntity {
+	@Id
+	@Column(name = "ID")
+	private Integer id;
+	
+	@Column(name = "MOD_SEQ", nullable = false)
+	private Long modSequence;
+}
@@ -8,4 +8,6 @@ public class ErrorMessages {
 	public static final String UNAUTHORIZED_MSG = "JWT Token is not authorized to access end point";
 	public static final String INTERNAL_SERVER_ERR_MSG = "Unknown error occurred, check the logs for more details";
 	public static final String RESOURCE_CONFLICT_MSG = "Recipe Id should be unique to be added to DB";
+	public static final String SERVICE_UNAVAILABLE_MSG = "Service is busy, retry the request after some time";
+	public static final String NOT_ACCEPTABLE_MSG = "None of the accepted media types is supported";
 }
@@ -3,10 +3,15 @@ package com.abnamro.recipes.exceptions;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
-//Class to represent not found recipe exception
+//Class to represent not found recipe exception, thrown for every unknown id so no stack trace is captured
 public class NoSuchRecipeFoundException extends ResponseStatusException {
 
 	public NoSuchRecipeFoundException(String message) {
 		super(HttpStatus.NOT_FOUND, message);
 	}
+	
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
 }
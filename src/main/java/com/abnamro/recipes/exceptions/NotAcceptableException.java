@@ -0,0 +1,10 @@
+package com.abnamro.recipes.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class NotAcceptableException extends ResponseStatusException{
+	public NotAcceptableException(String message) {
+		super(HttpStatus.NOT_ACCEPTABLE,message);
+	}
+}
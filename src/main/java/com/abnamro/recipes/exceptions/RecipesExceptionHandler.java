@@ -1,7 +1,9 @@
 package com.abnamro.recipes.exceptions;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.InvalidDataAccessResourceUsageException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -19,6 +21,10 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class RecipesExceptionHandler extends ResponseEntityExceptionHandler{
 	
+	//Not found body of the current second, shared by all not found responses within it
+	private volatile ErrorResponse notFoundResponse = new ErrorResponse(HttpStatus.NOT_FOUND.value(),
+			new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG).getMessage(), LocalDateTime.now());
+	
 	//Common method to build error response and return ErrorResponse Instance
 	private ResponseEntity<Object> buildErrorResponse(Exception ex, String message, HttpStatus status){
 		ErrorResponse errorResponse = new ErrorResponse(status.value(), ex.getMessage(),LocalDateTime.now());
@@ -35,12 +41,19 @@ public class RecipesExceptionHandler extends ResponseEntityExceptionHandler{
 		return buildErrorResponse(ex,ex.getMessage(),status);
 	}
 	
-	//Exception Method to handle Resource Not Found Exception
+	//Exception Method to handle Resource Not Found Exception, body is built once per second as unknown ids
+	//can arrive at high rate
 	@ExceptionHandler(NoSuchRecipeFoundException.class)
 	@ResponseStatus(HttpStatus.NOT_FOUND)
 	public ResponseEntity<Object> handleRecipeNotFoundException(NoSuchRecipeFoundException ex){
-		log.info("Handling NoSuchResourceFoundException from ");
-		return buildErrorResponse(ex,ErrorMessages.RECIPE_NOT_FOUND_MSG,ex.getStatus());
+		log.debug("Handling NoSuchResourceFoundException");
+		LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+		ErrorResponse errorResponse = notFoundResponse;
+		if(!now.equals(errorResponse.getDateTime()) || !ex.getMessage().equals(errorResponse.getMessage())) {
+			errorResponse = new ErrorResponse(HttpStatus.NOT_FOUND.value(), ex.getMessage(), now);
+			notFoundResponse = errorResponse;
+		}
+		return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
 	}
 	
 	//Exception method to handle Internal Server Error
@@ -83,6 +96,36 @@ public class RecipesExceptionHandler extends ResponseEntityExceptionHandler{
 		return buildErrorResponse(ex,ex.getMessage(),ex.getStatus());
 	}
 	
+	//Exception method to handle insert of an id or name which is already stored
+	@ExceptionHandler(DataIntegrityViolationException.class)
+	@ResponseStatus(HttpStatus.CONFLICT)
+	public ResponseEntity<Object> handleDataIntegrityViolationException(DataIntegrityViolationException ex){
+		log.info("Handling data integrity violation exception");
+		ErrorResponse errorResponse = new ErrorResponse(HttpStatus.CONFLICT.value(), ErrorMessages.RESOURCE_CONFLICT_MSG,
+														LocalDateTime.now());
+		return ResponseEntity.status(HttpStatus.CONFLICT).body(errorResponse);
+	}
+	
+	//Exception method to handle overload, tells client when to retry
+	@ExceptionHandler(ServiceUnavailableException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public ResponseEntity<Object> handleServiceUnavailableException(ServiceUnavailableException ex){
+		log.info("Handling service unavailable exception");
+		ErrorResponse errorResponse = new ErrorResponse(ex.getStatus().value(), ex.getMessage(),LocalDateTime.now());
+		return ResponseEntity.status(ex.getStatus())
+							 .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+							 .body(errorResponse);
+	}
+	
+	//Exception method to handle an Accept header no representation matches, the error body could not be written in
+	//an accepted type either, so only the status is sent
+	@ExceptionHandler(NotAcceptableException.class)
+	@ResponseStatus(HttpStatus.NOT_ACCEPTABLE)
+	public ResponseEntity<Object> handleNotAcceptableException(NotAcceptableException ex){
+		log.info("Handling not acceptable exception: "+ex.getReason());
+		return ResponseEntity.status(ex.getStatus()).build();
+	}
+	
 	//Exception method to handle all uncaught exceptions
 	@ExceptionHandler(Exception.class)
 	@ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
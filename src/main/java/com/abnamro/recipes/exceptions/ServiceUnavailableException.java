@@ -0,0 +1,19 @@
+package com.abnamro.recipes.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+//Class to represent temporary overload, client is expected to retry after given number of seconds
+public class ServiceUnavailableException extends ResponseStatusException{
+	
+	private final long retryAfterSeconds;
+	
+	public ServiceUnavailableException(String message, long retryAfterSeconds) {
+		super(HttpStatus.SERVICE_UNAVAILABLE, message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+	
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,114 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.abnamro.recipes.dao.RecipeHotKeyEntity;
+import com.abnamro.recipes.dao.RecipeIdBlockEntity;
+import com.abnamro.recipes.dao.RecipeImportCheckpointEntity;
+import com.abnamro.recipes.dao.RecipeNameReservationEntity;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Coordination store on the RecipeIdBlock, RecipeHotKey, RecipeImportCheckpoint and RecipeNameReservation tables
+@Repository
+@Profile("!mmap")
+@Slf4j
+public class JpaRecipeCoordinationStore implements RecipeCoordinationStore {
+	
+	private static final int MAX_SEED_ATTEMPTS = 3;
+	
+	@Autowired
+	private RecipeIdBlockRepository blockRepo;
+	
+	@Autowired
+	private RecipeHotKeyRepository hotKeyRepo;
+	
+	@Autowired
+	private RecipeImportCheckpointRepository checkpointRepo;
+	
+	@Autowired
+	private RecipeNameReservationRepository reservationRepo;
+	
+	private final TransactionTemplate blockTransaction;
+	
+	public JpaRecipeCoordinationStore(PlatformTransactionManager transactionManager) {
+		//Block is reserved in own transaction, so that the row lock is not held by the caller's transaction
+		this.blockTransaction = new TransactionTemplate(transactionManager);
+		this.blockTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+	}
+	
+	//Block row is read with a write lock, so that concurrent nodes reserve disjoint blocks
+	@Override
+	public long reserveIdBlock(String name, int blockSize, LongSupplier initialValue) {
+		for(int attempt = 1; ; attempt++) {
+			try {
+				Long blockStart = blockTransaction.execute(status -> {
+					RecipeIdBlockEntity block = blockRepo.findForUpdate(name).orElseGet(() -> seedBlock(name, initialValue));
+					long start = block.getNextValue();
+					block.setNextValue(start + blockSize);
+					blockRepo.save(block);
+					return start;
+				});
+				return blockStart;
+			} catch(DataIntegrityViolationException e) {
+				//Another node seeded the row at the same time, read it again
+				if(attempt == MAX_SEED_ATTEMPTS)
+					throw e;
+				log.debug("Id block row: "+name+" created concurrently, retrying reservation");
+			}
+		}
+	}
+	
+	private RecipeIdBlockEntity seedBlock(String name, LongSupplier initialValue) {
+		RecipeIdBlockEntity block = new RecipeIdBlockEntity();
+		block.setName(name);
+		block.setNextValue(initialValue.getAsLong());
+		return blockRepo.saveAndFlush(block);
+	}
+	
+	@Override
+	public List<RecipeHotKeyEntity> findHotKeys() {
+		return hotKeyRepo.findAllByOrderByHitsDesc();
+	}
+	
+	@Override
+	public void replaceHotKeys(String nodeId, List<RecipeHotKeyEntity> hotKeys, Date staleBefore) {
+		hotKeyRepo.deleteOfNodeOrOlderThan(nodeId, staleBefore);
+		hotKeyRepo.saveAll(hotKeys);
+	}
+	
+	@Override
+	public Optional<RecipeImportCheckpointEntity> findImportCheckpoint(String importId) {
+		return checkpointRepo.findById(importId);
+	}
+	
+	@Override
+	public void saveImportCheckpoint(RecipeImportCheckpointEntity checkpoint) {
+		checkpointRepo.save(checkpoint);
+	}
+	
+	@Override
+	public void createNameReservation(String nameKey) {
+		if(reservationRepo.existsById(nameKey))
+			return;
+		RecipeNameReservationEntity reservation = new RecipeNameReservationEntity();
+		reservation.setNameKey(nameKey);
+		reservationRepo.saveAndFlush(reservation);
+	}
+	
+	@Override
+	public Optional<RecipeNameReservationEntity> lockNameReservation(String nameKey) {
+		return reservationRepo.findForUpdate(nameKey);
+	}
+}
@@ -0,0 +1,198 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.dao.RecipeTombstoneEntity;
+import com.abnamro.recipes.dao.RecipeTombstoneHorizonEntity;
+
+//Recipe store on the Recipe, RecipeTombstone, RecipeTombstoneHorizon and RecipeChangeLog tables
+@Repository
+@Profile("!mmap")
+public class JpaRecipeStore implements RecipeStore {
+	
+	private static final int HORIZON_ID = 0;
+	
+	@Autowired
+	private RecipesRepository recipesRepo;
+	
+	@Autowired
+	private RecipeTombstoneRepository tombstoneRepo;
+	
+	@Autowired
+	private RecipeChangeLogRepository changeLogRepo;
+	
+	@Autowired
+	private RecipeTombstoneHorizonRepository horizonRepo;
+	
+	@PersistenceContext
+	private EntityManager entityManager;
+	
+	@Override
+	public Optional<RecipeEntity> findById(Integer id) {
+		return recipesRepo.findById(id);
+	}
+	
+	@Override
+	public List<RecipeEntity> findAllById(List<Integer> ids) {
+		return recipesRepo.findAllById(ids);
+	}
+	
+	@Override
+	public List<RecipeEntity> findAll() {
+		return recipesRepo.findAll();
+	}
+	
+	@Override
+	public Optional<RecipeEntity> findFirstByNameKey(String nameKey) {
+		return recipesRepo.findFirstByNameKey(nameKey);
+	}
+	
+	@Override
+	public List<RecipeEntity> findNewestRecipesBefore(Date since, Date dateTime, Integer id, Pageable pageable) {
+		return recipesRepo.findNewestRecipesBefore(since, dateTime, id, pageable);
+	}
+	
+	@Override
+	public List<RecipeEntity> findModifiedBetween(Long since, Long until, Pageable pageable) {
+		return recipesRepo.findModifiedBetween(since, until, pageable);
+	}
+	
+	@Override
+	public List<RecipeTombstoneEntity> findDeletedBetween(Long since, Long until, Pageable pageable) {
+		return tombstoneRepo.findDeletedBetween(since, until, pageable);
+	}
+	
+	@Override
+	public List<RecipeEntity> findRecipesAfter(Integer afterId, Pageable pageable) {
+		return recipesRepo.findRecipesAfter(afterId, pageable);
+	}
+	
+	@Override
+	public List<RecipeEntity> findRecipesWithoutNameKeyAfter(Integer afterId, Pageable pageable) {
+		return recipesRepo.findRecipesWithoutNameKeyAfter(afterId, pageable);
+	}
+	
+	@Override
+	public List<RecipeEntity> findRecipesWithoutModSequenceAfter(Integer afterId, Pageable pageable) {
+		return recipesRepo.findRecipesWithoutModSequenceAfter(afterId, pageable);
+	}
+	
+	@Override
+	public Stream<RecipeEntity> streamAllRecipes() {
+		return recipesRepo.streamAllRecipes();
+	}
+	
+	@Override
+	public Stream<Integer> streamAllIds() {
+		return recipesRepo.streamAllIds();
+	}
+	
+	@Override
+	public long countRecipes() {
+		return recipesRepo.count();
+	}
+	
+	@Override
+	public Integer findMaxId() {
+		return recipesRepo.findMaxId();
+	}
+	
+	//New recipes are inserted without the select that merge does for entities with id, a clash fails on the
+	//primary key
+	@Override
+	public void insert(RecipeEntity recipeEntity) {
+		entityManager.persist(recipeEntity);
+	}
+	
+	@Override
+	public RecipeEntity save(RecipeEntity recipeEntity) {
+		return recipesRepo.save(recipeEntity);
+	}
+	
+	//Managed entities are changed, the update is flushed with the transaction
+	@Override
+	public void updateModSequence(Integer id, Long sequence) {
+		Optional<RecipeEntity> recipeEntity = recipesRepo.findById(id);
+		if(recipeEntity.isPresent())
+			recipeEntity.get().setModSequence(sequence);
+		else
+			tombstoneRepo.findById(id).ifPresent(tombstone -> tombstone.setModSequence(sequence));
+	}
+	
+	@Override
+	public void deleteById(Integer id, Long sequence, Date deletionDateTime) {
+		recipesRepo.deleteById(id);
+		RecipeTombstoneEntity tombstone = new RecipeTombstoneEntity();
+		tombstone.setRecipeId(id);
+		tombstone.setModSequence(sequence);
+		tombstone.setDeletionDateTime(deletionDateTime);
+		tombstoneRepo.save(tombstone);
+	}
+	
+	//Horizon row is locked before it is raised, so that nodes pruning at the same time never lower it
+	@Override
+	public int deleteTombstonesOlderThan(Date dateTime) {
+		Long sequence = tombstoneRepo.findMaxSequenceDeletedBefore(dateTime);
+		if(sequence == null)
+			return 0;
+		RecipeTombstoneHorizonEntity horizon = horizonRepo.findForUpdate(HORIZON_ID).orElseGet(() -> {
+			RecipeTombstoneHorizonEntity created = new RecipeTombstoneHorizonEntity();
+			created.setId(HORIZON_ID);
+			created.setModSequence(0L);
+			return created;
+		});
+		horizon.setModSequence(Math.max(horizon.getModSequence(), sequence));
+		horizonRepo.save(horizon);
+		return tombstoneRepo.deleteUpTo(sequence);
+	}
+	
+	@Override
+	public long findTombstoneHorizon() {
+		return horizonRepo.findById(HORIZON_ID).map(RecipeTombstoneHorizonEntity::getModSequence).orElse(0L);
+	}
+	
+	//Detach so that persistence context does not grow with an export cursor
+	@Override
+	public void release(RecipeEntity recipeEntity) {
+		entityManager.detach(recipeEntity);
+	}
+	
+	//Sequence is the identity value given by the insert
+	@Override
+	public Long appendChange(RecipeChangeLogEntity change) {
+		return changeLogRepo.save(change).getSequence();
+	}
+	
+	@Override
+	public List<RecipeChangeLogEntity> findChangesAfter(Long sequence, Pageable pageable) {
+		return changeLogRepo.findBySequenceGreaterThanOrderBySequenceAsc(sequence, pageable);
+	}
+	
+	@Override
+	public Long findMaxChangeSequence() {
+		return changeLogRepo.findMaxSequence();
+	}
+	
+	@Override
+	public Long findMinChangeSequence() {
+		return changeLogRepo.findMinSequence();
+	}
+	
+	@Override
+	public int deleteChangesOlderThan(Date dateTime) {
+		return changeLogRepo.deleteOlderThan(dateTime);
+	}
+}
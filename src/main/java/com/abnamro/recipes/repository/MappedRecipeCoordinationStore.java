@@ -0,0 +1,110 @@
+package com.abnamro.recipes.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeHotKeyEntity;
+import com.abnamro.recipes.dao.RecipeImportCheckpointEntity;
+import com.abnamro.recipes.dao.RecipeNameReservationEntity;
+import com.abnamro.recipes.repository.MappedRecipeLog.Write;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+//Coordination store of profile mmap, every entry is a value in the recipe log of the mapped recipe store under a key
+//of its own. Values written in a transaction are appended with its recipe writes.
+@Repository
+@Profile("mmap")
+public class MappedRecipeCoordinationStore implements RecipeCoordinationStore {
+	
+	private static final String ID_BLOCK_KEY = "id-block:";
+	
+	private static final String HOT_KEYS_KEY = "hot-keys";
+	
+	private static final String IMPORT_CHECKPOINT_KEY = "import-checkpoint:";
+	
+	@Autowired
+	private MappedRecipeStore store;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	//Next value is appended at once in a frame of its own, as the JPA block row is committed in its own transaction
+	@Override
+	public synchronized long reserveIdBlock(String name, int blockSize, LongSupplier initialValue) {
+		byte[] nextValue = store.getLog().getValue(ID_BLOCK_KEY+name);
+		long start = nextValue != null ? ByteBuffer.wrap(nextValue).getLong() : initialValue.getAsLong();
+		byte[] blockEnd = ByteBuffer.allocate(Long.BYTES).putLong(start + blockSize).array();
+		store.getLog().append(Collections.singletonList(Write.value(ID_BLOCK_KEY+name, blockEnd)));
+		return start;
+	}
+	
+	@Override
+	public List<RecipeHotKeyEntity> findHotKeys() {
+		List<RecipeHotKeyEntity> hotKeys = read(HOT_KEYS_KEY, new TypeReference<List<RecipeHotKeyEntity>>() {});
+		if(hotKeys == null)
+			return new ArrayList<>();
+		hotKeys.sort(Comparator.comparing(RecipeHotKeyEntity::getHits).reversed());
+		return hotKeys;
+	}
+	
+	@Override
+	public synchronized void replaceHotKeys(String nodeId, List<RecipeHotKeyEntity> hotKeys, Date staleBefore) {
+		List<RecipeHotKeyEntity> saved = findHotKeys();
+		saved.removeIf(hotKey -> hotKey.getNodeId() == null || hotKey.getNodeId().equals(nodeId) ||
+								 hotKey.getSavedDateTime() == null || hotKey.getSavedDateTime().before(staleBefore));
+		saved.addAll(hotKeys);
+		write(HOT_KEYS_KEY, saved);
+	}
+	
+	@Override
+	public Optional<RecipeImportCheckpointEntity> findImportCheckpoint(String importId) {
+		return Optional.ofNullable(read(IMPORT_CHECKPOINT_KEY+importId, new TypeReference<RecipeImportCheckpointEntity>() {}));
+	}
+	
+	@Override
+	public void saveImportCheckpoint(RecipeImportCheckpointEntity checkpoint) {
+		write(IMPORT_CHECKPOINT_KEY+checkpoint.getImportId(), checkpoint);
+	}
+	
+	//Names are reserved across shards only, the embedded store is never sharded
+	@Override
+	public void createNameReservation(String nameKey) {
+		throw new UnsupportedOperationException("Embedded recipe store is not sharded");
+	}
+	
+	@Override
+	public Optional<RecipeNameReservationEntity> lockNameReservation(String nameKey) {
+		throw new UnsupportedOperationException("Embedded recipe store is not sharded");
+	}
+	
+	private <T> T read(String key, TypeReference<T> type) {
+		byte[] value = store.findValue(key);
+		if(value == null)
+			return null;
+		try {
+			return mapper.readValue(value, type);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private void write(String key, Object value) {
+		try {
+			store.write(Write.value(key, mapper.writeValueAsBytes(value)));
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,1094 @@
+package com.abnamro.recipes.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.springframework.dao.DataIntegrityViolationException;
+
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.dao.RecipeTombstoneEntity;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+//Append-only log of binary recipe records in preallocated, memory-mapped segment files. Every append is one frame
+//of records with length and checksum, recipes are read from the mapped segments through an in-memory index of
+//record positions. Besides recipes and tombstones the log holds the change log entries and keyed values of the
+//coordination state, so that a frame commits a recipe write together with its change log entry. On open, segments
+//are scanned and the record with the highest log sequence number of each recipe or key wins, scanning of a segment
+//stops at the first torn frame. Compaction copies live records of sealed segments with much garbage to new segments
+//and deletes the old ones.
+@Slf4j
+public class MappedRecipeLog implements Closeable {
+	
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	private static final byte CHANGE = 3;
+	private static final byte VALUE = 4;
+	private static final byte PRUNE = 5;
+	private static final byte HORIZON = 6;
+	
+	//Frame length and checksum of the records in it
+	private static final int FRAME_HEADER = 8;
+	
+	//Type, lsn, id, sequence and time at the start of every record
+	private static final int RECORD_HEADER = 1 + 8 + 4 + 8 + 8;
+	
+	//Records copied by compaction are packed into frames of at most this size
+	private static final int COMPACTION_FRAME_SIZE = 64 * 1024;
+	
+	private static final long NULL_LONG = Long.MIN_VALUE;
+	private static final int NULL_INT = Integer.MIN_VALUE;
+	
+	private static final String SEGMENT_PREFIX = "recipes-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	
+	private final Path directory;
+	
+	private final int segmentSize;
+	
+	private final boolean sync;
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	//State below is guarded by lock, segments by number, recipes and tombstones by id
+	private final TreeMap<Long,Segment> segments = new TreeMap<>();
+	private Segment active;
+	private long nextSegment;
+	private long nextLsn = 1;
+	private final TreeMap<Integer,RecordRef> recipes = new TreeMap<>();
+	private final Map<Integer,RecordRef> tombstones = new HashMap<>();
+	private final Map<String,Integer> idsByNameKey = new HashMap<>();
+	private final TreeSet<FeedKey> feed = new TreeSet<>();
+	private final TreeMap<Long,Integer> modified = new TreeMap<>();
+	private final TreeMap<Long,Integer> deleted = new TreeMap<>();
+	//Change log entries by sequence, values by key and the latest prune of the change log
+	private final TreeMap<Long,RecordRef> changes = new TreeMap<>();
+	private final Map<String,RecordRef> values = new HashMap<>();
+	private RecordRef pruned;
+	//Latest tombstone horizon, tombstones up to its sequence are left out of the deleted order. They stay in the index
+	//until compaction can drop them without an older record of the recipe being recovered in their place.
+	private RecordRef horizon;
+	
+	//Last change sequence handed out, change sequences are taken before the frame holding them is appended
+	private final AtomicLong changeSequence = new AtomicLong();
+	
+	private MappedRecipeLog(Path directory, int segmentSize, boolean sync) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.sync = sync;
+	}
+	
+	//Method to open log in given directory, recovering recipes from segments already there
+	public static MappedRecipeLog open(Path directory, int segmentSize, boolean sync) throws IOException {
+		Files.createDirectories(directory);
+		MappedRecipeLog recipeLog = new MappedRecipeLog(directory, segmentSize, sync);
+		recipeLog.recover();
+		return recipeLog;
+	}
+	
+	private void recover() throws IOException {
+		List<Long> numbers = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX+"*"+SEGMENT_SUFFIX)) {
+			for(Path file : files) {
+				String fileName = file.getFileName().toString();
+				numbers.add(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		numbers.sort(Comparator.naturalOrder());
+		long torn = 0;
+		boolean lastTorn = false;
+		for(Long number : numbers) {
+			Segment segment = mapSegment(number, 0);
+			segments.put(number, segment);
+			lastTorn = scan(segment);
+			if(lastTorn)
+				torn++;
+			nextSegment = number + 1;
+		}
+		//Changes copied by compaction may be scanned after the prune that follows them
+		if(pruned != null)
+			dropChanges(pruned);
+		if(horizon != null)
+			dropTombstones(horizon);
+		//Appends continue in last segment after its last intact frame, the torn frame is cleared so that no part
+		//of it is taken for a frame after the next append
+		Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+		if(last != null && last.end + FRAME_HEADER < last.buffer.capacity()) {
+			if(lastTorn) {
+				ByteBuffer tail = last.buffer.duplicate();
+				tail.position(last.end);
+				while(tail.hasRemaining())
+					tail.put((byte) 0);
+			}
+			active = last;
+		} else {
+			active = newSegment(segmentSize);
+		}
+		log.info("Recipe log opened in "+directory+" with "+recipes.size()+" recipes, "+tombstones.size()+
+				 " tombstones, "+changes.size()+" changes, segments: "+segments.size()+", torn frames skipped: "+torn);
+	}
+	
+	//Apply every intact frame of given segment to the index, returns true when scan stopped at a torn frame
+	private boolean scan(Segment segment) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		int position = 0;
+		while(position + FRAME_HEADER <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+			if(length == 0)
+				break;
+			if(length < 0 || position + FRAME_HEADER + length > buffer.capacity() ||
+			   buffer.getInt(position + 4) != checksum(buffer, position + FRAME_HEADER, length)) {
+				segment.end = position;
+				return true;
+			}
+			int offset = position + FRAME_HEADER;
+			while(offset < position + FRAME_HEADER + length) {
+				buffer.position(offset);
+				RecordRef ref = readRef(segment.number, buffer);
+				ref.length = buffer.position() - offset;
+				offset = buffer.position();
+				nextLsn = Math.max(nextLsn, ref.lsn + 1);
+				segment.minLsn = Math.min(segment.minLsn, ref.lsn);
+				if(ref.modSequence != null)
+					changeSequence.accumulateAndGet(ref.modSequence, Math::max);
+				RecordRef current = currentRef(ref);
+				if(current == null || current.lsn < ref.lsn)
+					apply(ref);
+			}
+			position += FRAME_HEADER + length;
+		}
+		segment.end = position;
+		return false;
+	}
+	
+	//Record in the index for the recipe, change, key or prune of given record, null when there is none
+	private RecordRef currentRef(RecordRef ref) {
+		switch(ref.type) {
+			case CHANGE:
+				return changes.get(ref.modSequence);
+			case VALUE:
+				return values.get(ref.key);
+			case PRUNE:
+				return pruned;
+			case HORIZON:
+				return horizon;
+			default:
+				RecordRef recipe = recipes.get(ref.id);
+				return recipe != null ? recipe : tombstones.get(ref.id);
+		}
+	}
+	
+	//Method to return recipe with given id, null when there is none
+	public RecipeEntity get(Integer id) {
+		lock.readLock().lock();
+		try {
+			RecordRef ref = recipes.get(id);
+			return ref != null ? decode(ref) : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	public boolean contains(Integer id) {
+		lock.readLock().lock();
+		try {
+			return recipes.containsKey(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return recipes with given ids, missing ids are left out
+	public List<RecipeEntity> getAll(Collection<Integer> ids) {
+		lock.readLock().lock();
+		try {
+			List<RecipeEntity> found = new ArrayList<>(ids.size());
+			ids.stream().map(recipes::get).filter(Objects::nonNull).forEach(ref -> found.add(decode(ref)));
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return recipes with id above given id, in id order
+	public List<RecipeEntity> findAfter(Integer afterId, long skip, int limit) {
+		lock.readLock().lock();
+		try {
+			return decodeAll(recipes.tailMap(afterId, false).values(), skip, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return recipe with given name key, null when there is none
+	public RecipeEntity findFirstByNameKey(String nameKey) {
+		lock.readLock().lock();
+		try {
+			Integer id = idsByNameKey.get(nameKey);
+			return id != null ? decode(recipes.get(id)) : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return newest recipes created at or after given since and before given (date time, id)
+	public List<RecipeEntity> findNewestBefore(Date since, Date dateTime, Integer id, long skip, int limit) {
+		lock.readLock().lock();
+		try {
+			FeedKey from = new FeedKey(since.getTime(), Integer.MIN_VALUE);
+			FeedKey to = new FeedKey(dateTime.getTime(), id);
+			if(from.compareTo(to) >= 0)
+				return new ArrayList<>();
+			Collection<FeedKey> keys = feed.subSet(from, true, to, false).descendingSet();
+			List<RecordRef> refs = new ArrayList<>();
+			keys.stream().skip(skip).limit(limit).forEach(key -> refs.add(recipes.get(key.id)));
+			return decodeAll(refs, 0, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return recipes last written after given sequence and up to given sequence, in sequence order
+	public List<RecipeEntity> findModifiedBetween(long since, long until, long skip, int limit) {
+		lock.readLock().lock();
+		try {
+			List<RecordRef> refs = new ArrayList<>();
+			modified.subMap(since, false, until, true).values().stream().skip(skip).limit(limit)
+					.forEach(id -> refs.add(recipes.get(id)));
+			return decodeAll(refs, 0, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return tombstones of recipes deleted after given sequence and up to given sequence, in sequence order
+	public List<RecipeTombstoneEntity> findDeletedBetween(long since, long until, long skip, int limit) {
+		lock.readLock().lock();
+		try {
+			List<RecipeTombstoneEntity> found = new ArrayList<>();
+			deleted.subMap(since, false, until, true).values().stream().skip(skip).limit(limit).forEach(id -> {
+				RecordRef ref = tombstones.get(id);
+				RecipeTombstoneEntity tombstone = new RecipeTombstoneEntity();
+				tombstone.setRecipeId(id);
+				tombstone.setModSequence(ref.modSequence);
+				tombstone.setDeletionDateTime(ref.time != null ? new Date(ref.time) : null);
+				found.add(tombstone);
+			});
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to hand out next change sequence, a sequence whose frame is never appended leaves a gap
+	public long nextChangeSequence() {
+		return changeSequence.incrementAndGet();
+	}
+	
+	//Method to return change log entries with sequence above given sequence, in sequence order
+	public List<RecipeChangeLogEntity> findChangesAfter(long sequence, long skip, int limit) {
+		lock.readLock().lock();
+		try {
+			List<RecipeChangeLogEntity> found = new ArrayList<>();
+			changes.tailMap(sequence, false).values().stream().skip(skip).limit(limit)
+				   .forEach(ref -> found.add(decodeChange(ref)));
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return lowest change sequence in the log, null when there are no changes
+	public Long minChangeSequence() {
+		lock.readLock().lock();
+		try {
+			return changes.isEmpty() ? null : changes.firstKey();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return highest change sequence in the log, null when there are no changes
+	public Long maxChangeSequence() {
+		lock.readLock().lock();
+		try {
+			return changes.isEmpty() ? null : changes.lastKey();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to remove change log entries older than given date time, returns number of entries removed. A prune
+	//record is appended so that they are not recovered again, it keeps the last change sequence handed out too.
+	public int pruneChanges(Date dateTime) {
+		lock.writeLock().lock();
+		try {
+			if(changes.values().stream().noneMatch(ref -> ref.time != null && ref.time < dateTime.getTime()))
+				return 0;
+			int before = changes.size();
+			append(Collections.singletonList(Write.prune(changeSequence.get(), dateTime)));
+			return before - changes.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	//Method to leave tombstones of recipes deleted before given date time out of the deleted order, together with every
+	//tombstone of a lower sequence, returns number of tombstones left out. A horizon record with the highest sequence
+	//left out is appended so that they are not recovered again.
+	public int pruneTombstones(Date dateTime) {
+		lock.writeLock().lock();
+		try {
+			long sequence = tombstones.values().stream()
+									  .filter(ref -> ref.modSequence != null && ref.time != null && ref.time < dateTime.getTime())
+									  .mapToLong(ref -> ref.modSequence).max().orElse(0);
+			if(sequence <= tombstoneHorizon())
+				return 0;
+			int before = deleted.size();
+			append(Collections.singletonList(Write.horizon(sequence)));
+			return before - deleted.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	//Method to return highest sequence of tombstones left out by pruneTombstones, 0 when none was
+	public long tombstoneHorizon() {
+		lock.readLock().lock();
+		try {
+			return horizon != null ? horizon.modSequence : 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return value stored with given key, null when there is none
+	public byte[] getValue(String key) {
+		lock.readLock().lock();
+		try {
+			RecordRef ref = values.get(key);
+			if(ref == null)
+				return null;
+			ByteBuffer buffer = segments.get(ref.segment).buffer.duplicate();
+			buffer.position(ref.offset + RECORD_HEADER);
+			skipString(buffer);
+			byte[] value = new byte[buffer.getInt()];
+			buffer.get(value);
+			return value;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return ids of all recipes in id order
+	public List<Integer> ids() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(recipes.keySet());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	public Integer maxId() {
+		lock.readLock().lock();
+		try {
+			return recipes.isEmpty() ? null : recipes.lastKey();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return recipes.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	private List<RecipeEntity> decodeAll(Collection<RecordRef> refs, long skip, int limit) {
+		List<RecipeEntity> found = new ArrayList<>();
+		refs.stream().skip(skip).limit(limit).forEach(ref -> found.add(decode(ref)));
+		return found;
+	}
+	
+	private RecipeEntity decode(RecordRef ref) {
+		ByteBuffer buffer = segments.get(ref.segment).buffer.duplicate();
+		buffer.position(ref.offset);
+		buffer.get();
+		buffer.getLong();
+		RecipeEntity recipeEntity = new RecipeEntity();
+		recipeEntity.setId(buffer.getInt());
+		recipeEntity.setModSequence(nullable(buffer.getLong()));
+		Long creation = nullable(buffer.getLong());
+		recipeEntity.setCreationDateTime(creation != null ? new Date(creation) : null);
+		int capacity = buffer.getInt();
+		recipeEntity.setServingCapacity(capacity != NULL_INT ? capacity : null);
+		recipeEntity.setName(readString(buffer));
+		recipeEntity.setNameKey(readString(buffer));
+		recipeEntity.setType(readString(buffer));
+		recipeEntity.setIngredients(readString(buffer));
+		recipeEntity.setInstructions(readString(buffer));
+		return recipeEntity;
+	}
+	
+	private RecipeChangeLogEntity decodeChange(RecordRef ref) {
+		ByteBuffer buffer = segments.get(ref.segment).buffer.duplicate();
+		buffer.position(ref.offset + RECORD_HEADER);
+		RecipeChangeLogEntity change = new RecipeChangeLogEntity();
+		change.setSequence(ref.modSequence);
+		change.setRecipeId(ref.id);
+		change.setChangeDateTime(ref.time != null ? new Date(ref.time) : null);
+		change.setOperation(RecipeOperation.valueOf(readString(buffer)));
+		change.setNodeId(readString(buffer));
+		return change;
+	}
+	
+	//Method to append given writes as one frame, in order. Fails without appending anything when a recipe to insert
+	//exists already or a name is taken by another recipe.
+	public void append(List<Write> writes) {
+		if(writes.isEmpty())
+			return;
+		lock.writeLock().lock();
+		try {
+			validate(writes);
+			ByteBuffer payload = ByteBuffer.allocate(writes.stream().mapToInt(Write::encodedSize).sum());
+			List<RecordRef> refs = new ArrayList<>(writes.size());
+			for(Write write : writes) {
+				int start = payload.position();
+				long lsn = nextLsn++;
+				write.encode(payload, lsn);
+				payload.position(start);
+				RecordRef ref = readRef(0, payload);
+				ref.offset = start;
+				ref.length = payload.position() - start;
+				refs.add(ref);
+			}
+			int frameLength = FRAME_HEADER + payload.capacity();
+			if(active.end + frameLength > active.buffer.capacity())
+				active = newSegment(Math.max(segmentSize, frameLength));
+			int frameStart = active.end;
+			writeFrame(active, payload.array(), payload.capacity());
+			active.minLsn = Math.min(active.minLsn, refs.get(0).lsn);
+			if(sync)
+				active.buffer.force();
+			for(RecordRef ref : refs) {
+				ref.segment = active.number;
+				ref.offset += frameStart + FRAME_HEADER;
+				apply(ref);
+			}
+		} catch(IOException e) {
+			throw new IllegalStateException("Recipe log segment could not be created in "+directory, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	//Check writes in order against the index as changed by the writes before them, name keys are unique
+	private void validate(List<Write> writes) {
+		Map<Integer,String> nameKeysById = new HashMap<>();
+		Map<String,Integer> idsByNameKeyAfter = new HashMap<>();
+		for(Write write : writes) {
+			if(!write.isRecipeWrite())
+				continue;
+			Integer id = write.id;
+			String previousNameKey = nameKeysById.containsKey(id) ? nameKeysById.get(id)
+								   : (recipes.containsKey(id) ? recipes.get(id).nameKey : null);
+			if(write.recipe != null) {
+				if(write.insert && previousNameKey != null)
+					throw new DataIntegrityViolationException("Recipe with id "+id+" already exists");
+				String nameKey = write.recipe.getNameKey();
+				Integer owner = idsByNameKeyAfter.containsKey(nameKey) ? idsByNameKeyAfter.get(nameKey)
+							  : idsByNameKey.get(nameKey);
+				if(nameKey != null && owner != null && !owner.equals(id))
+					throw new DataIntegrityViolationException("Recipe name is already used by recipe with id "+owner);
+				if(previousNameKey != null)
+					idsByNameKeyAfter.put(previousNameKey, null);
+				if(nameKey != null)
+					idsByNameKeyAfter.put(nameKey, id);
+				nameKeysById.put(id, nameKey);
+			} else {
+				if(previousNameKey != null)
+					idsByNameKeyAfter.put(previousNameKey, null);
+				nameKeysById.put(id, null);
+			}
+		}
+	}
+	
+	private void writeFrame(Segment segment, byte[] payload, int length) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(segment.end + FRAME_HEADER);
+		buffer.put(payload, 0, length);
+		buffer.putInt(segment.end + 4, checksum(ByteBuffer.wrap(payload), 0, length));
+		//Length is written last, a frame without length ends the scan on recovery
+		buffer.putInt(segment.end, length);
+		segment.end += FRAME_HEADER + length;
+	}
+	
+	//Put given record in the index, the record it replaces becomes garbage
+	private void apply(RecordRef ref) {
+		if(ref.type == CHANGE) {
+			changes.put(ref.modSequence, ref);
+			segments.get(ref.segment).live += ref.length;
+			return;
+		}
+		if(ref.type == VALUE || ref.type == PRUNE || ref.type == HORIZON) {
+			RecordRef previous = ref.type == VALUE ? values.put(ref.key, ref) : (ref.type == PRUNE ? pruned : horizon);
+			if(previous != null)
+				kill(previous);
+			segments.get(ref.segment).live += ref.length;
+			if(ref.type == PRUNE) {
+				pruned = ref;
+				dropChanges(ref);
+			} else if(ref.type == HORIZON) {
+				horizon = ref;
+				dropTombstones(ref);
+			}
+			return;
+		}
+		RecordRef previous = recipes.remove(ref.id);
+		if(previous != null) {
+			unindex(previous);
+			kill(previous);
+		}
+		RecordRef previousTombstone = tombstones.remove(ref.id);
+		if(previousTombstone != null) {
+			deleted.remove(previousTombstone.modSequence);
+			kill(previousTombstone);
+		}
+		if(ref.type == PUT) {
+			recipes.put(ref.id, ref);
+			if(ref.nameKey != null)
+				idsByNameKey.put(ref.nameKey, ref.id);
+			if(ref.time != null)
+				feed.add(new FeedKey(ref.time, ref.id));
+			if(ref.modSequence != null)
+				modified.put(ref.modSequence, ref.id);
+		} else {
+			tombstones.put(ref.id, ref);
+			if(ref.modSequence != null && (horizon == null || ref.modSequence > horizon.modSequence))
+				deleted.put(ref.modSequence, ref.id);
+		}
+		segments.get(ref.segment).live += ref.length;
+	}
+	
+	//Remove change log entries appended before given prune and older than its time, returns number removed
+	private int dropChanges(RecordRef prune) {
+		int dropped = 0;
+		Iterator<RecordRef> refs = changes.values().iterator();
+		while(refs.hasNext()) {
+			RecordRef ref = refs.next();
+			if(ref.lsn < prune.lsn && ref.time != null && ref.time < prune.time) {
+				refs.remove();
+				kill(ref);
+				dropped++;
+			}
+		}
+		return dropped;
+	}
+	
+	//Leave tombstones up to sequence of given horizon out of the deleted order
+	private void dropTombstones(RecordRef horizon) {
+		deleted.headMap(horizon.modSequence, true).clear();
+	}
+	
+	private void unindex(RecordRef ref) {
+		if(ref.nameKey != null)
+			idsByNameKey.remove(ref.nameKey, ref.id);
+		if(ref.time != null)
+			feed.remove(new FeedKey(ref.time, ref.id));
+		if(ref.modSequence != null)
+			modified.remove(ref.modSequence, ref.id);
+	}
+	
+	private void kill(RecordRef ref) {
+		Segment segment = segments.get(ref.segment);
+		if(segment != null)
+			segment.live -= ref.length;
+	}
+	
+	//Method to copy live records of sealed segments in which at least given ratio of used bytes is garbage to new
+	//segments, returns number of segments removed. Readers and writers are blocked only while the index is pointed
+	//at the copies.
+	public synchronized int compact(double garbageRatio) throws IOException {
+		List<Segment> victims = new ArrayList<>();
+		List<RecordRef> moving = new ArrayList<>();
+		List<byte[]> records = new ArrayList<>();
+		List<RecordRef> dropping = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			segments.values().stream()
+					.filter(segment -> segment != active && (segment.end - segment.live) >= garbageRatio * segment.end)
+					.forEach(victims::add);
+			if(victims.isEmpty())
+				return 0;
+			for(RecordRef ref : recipes.values())
+				copyIfIn(victims, ref, moving, records);
+			for(RecordRef ref : tombstones.values()) {
+				if(isDroppable(victims, ref))
+					dropping.add(ref);
+				else
+					copyIfIn(victims, ref, moving, records);
+			}
+			for(RecordRef ref : changes.values())
+				copyIfIn(victims, ref, moving, records);
+			for(RecordRef ref : values.values())
+				copyIfIn(victims, ref, moving, records);
+			if(pruned != null)
+				copyIfIn(victims, pruned, moving, records);
+			if(horizon != null)
+				copyIfIn(victims, horizon, moving, records);
+		} finally {
+			lock.readLock().unlock();
+		}
+		//Copies are written outside the lock, records are copied as they are so that their lsn is kept
+		List<Segment> copies = new ArrayList<>();
+		List<RecordRef> moved = new ArrayList<>(moving.size());
+		Segment copy = null;
+		ByteBuffer frame = ByteBuffer.allocate(COMPACTION_FRAME_SIZE);
+		List<RecordRef> framed = new ArrayList<>();
+		for(int index = 0; index < records.size(); index++) {
+			byte[] record = records.get(index);
+			if(frame.position() > 0 && frame.position() + record.length > frame.capacity())
+				copy = flushFrame(copy, frame, framed, moved, copies);
+			if(record.length > frame.capacity())
+				frame = ByteBuffer.allocate(record.length);
+			RecordRef ref = moving.get(index).movedTo(frame.position());
+			frame.put(record);
+			framed.add(ref);
+		}
+		if(frame.position() > 0)
+			copy = flushFrame(copy, frame, framed, moved, copies);
+		for(Segment segment : copies)
+			segment.buffer.force();
+		lock.writeLock().lock();
+		try {
+			copies.forEach(segment -> segments.put(segment.number, segment));
+			for(int index = 0; index < moving.size(); index++) {
+				RecordRef from = moving.get(index);
+				RecordRef to = moved.get(index);
+				//Record written again or pruned since the snapshot stays where it was, its copy is garbage
+				if(currentRef(from) == from) {
+					replace(to);
+					kill(from);
+					segments.get(to.segment).live += to.length;
+				}
+			}
+			for(RecordRef ref : dropping) {
+				if(tombstones.get(ref.id) == ref)
+					tombstones.remove(ref.id);
+			}
+			victims.forEach(segment -> segments.remove(segment.number));
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for(Segment segment : victims) {
+			try {
+				Files.delete(segment.file);
+			} catch(IOException e) {
+				log.warn("Compacted recipe log segment could not be deleted: "+segment.file+", "+e.getMessage());
+			}
+		}
+		log.info("Recipe log in "+directory+" compacted "+victims.size()+" segments into "+copies.size()+
+				 ", records copied: "+moving.size()+", tombstones dropped: "+dropping.size());
+		return victims.size();
+	}
+	
+	//Tombstone behind the horizon in a segment being compacted can be dropped once no other segment holds a record
+	//older than it, which could be a write of the recipe recovered in its place
+	private boolean isDroppable(List<Segment> victims, RecordRef ref) {
+		if(ref.modSequence == null || horizon == null || ref.modSequence > horizon.modSequence ||
+		   victims.stream().noneMatch(segment -> segment.number == ref.segment))
+			return false;
+		return segments.values().stream().allMatch(segment -> segment.number == ref.segment || segment.minLsn > ref.lsn);
+	}
+	
+	//Point the index at given copy of a record
+	private void replace(RecordRef ref) {
+		switch(ref.type) {
+			case PUT:
+				recipes.put(ref.id, ref);
+				break;
+			case DELETE:
+				tombstones.put(ref.id, ref);
+				break;
+			case CHANGE:
+				changes.put(ref.modSequence, ref);
+				break;
+			case VALUE:
+				values.put(ref.key, ref);
+				break;
+			case PRUNE:
+				pruned = ref;
+				break;
+			default:
+				horizon = ref;
+		}
+	}
+	
+	private void copyIfIn(List<Segment> victims, RecordRef ref, List<RecordRef> moving, List<byte[]> records) {
+		for(Segment segment : victims) {
+			if(segment.number == ref.segment) {
+				byte[] record = new byte[ref.length];
+				ByteBuffer buffer = segment.buffer.duplicate();
+				buffer.position(ref.offset);
+				buffer.get(record);
+				moving.add(ref);
+				records.add(record);
+				return;
+			}
+		}
+	}
+	
+	//Write framed records to current copy segment or to a new one when it is full, returns segment written to
+	private Segment flushFrame(Segment copy, ByteBuffer frame, List<RecordRef> framed, List<RecordRef> moved,
+							   List<Segment> copies) throws IOException {
+		int frameLength = FRAME_HEADER + frame.position();
+		if(copy == null || copy.end + frameLength > copy.buffer.capacity()) {
+			long number;
+			lock.writeLock().lock();
+			try {
+				number = nextSegment++;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			copy = mapSegment(number, Math.max(segmentSize, frameLength));
+			copies.add(copy);
+		}
+		int frameStart = copy.end;
+		writeFrame(copy, frame.array(), frame.position());
+		for(RecordRef ref : framed) {
+			copy.minLsn = Math.min(copy.minLsn, ref.lsn);
+			ref.segment = copy.number;
+			ref.offset += frameStart + FRAME_HEADER;
+			moved.add(ref);
+		}
+		framed.clear();
+		frame.clear();
+		return copy;
+	}
+	
+	//Method to return number of segment files
+	public int getSegmentCount() {
+		lock.readLock().lock();
+		try {
+			return segments.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return bytes of records which are current
+	public long getLiveBytes() {
+		lock.readLock().lock();
+		try {
+			return segments.values().stream().mapToLong(segment -> segment.live).sum();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	//Method to return bytes of all frames written in segments
+	public long getUsedBytes() {
+		lock.readLock().lock();
+		try {
+			return segments.values().stream().mapToLong(segment -> segment.end).sum();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	public void close() {
+		lock.writeLock().lock();
+		try {
+			segments.values().forEach(segment -> segment.buffer.force());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private Segment newSegment(int size) throws IOException {
+		Segment segment = mapSegment(nextSegment++, size);
+		segments.put(segment.number, segment);
+		return segment;
+	}
+	
+	//Map segment file with given number, a new file is preallocated to given size
+	private Segment mapSegment(long number, int size) throws IOException {
+		Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+												   StandardOpenOption.WRITE)) {
+			long length = Math.max(channel.size(), size);
+			//Mapping stays valid once the channel is closed
+			return new Segment(number, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+		}
+	}
+	
+	//Read type, lsn, id and the indexed fields of the record at position of given buffer, position is left after it
+	private static RecordRef readRef(long segment, ByteBuffer buffer) {
+		RecordRef ref = new RecordRef();
+		ref.segment = segment;
+		ref.offset = buffer.position();
+		ref.type = buffer.get();
+		ref.lsn = buffer.getLong();
+		ref.id = buffer.getInt();
+		ref.modSequence = nullable(buffer.getLong());
+		ref.time = nullable(buffer.getLong());
+		if(ref.type == PUT) {
+			buffer.getInt();
+			skipString(buffer);
+			ref.nameKey = readString(buffer);
+			for(int skipped = 0; skipped < 3; skipped++)
+				skipString(buffer);
+		} else if(ref.type == CHANGE) {
+			skipString(buffer);
+			skipString(buffer);
+		} else if(ref.type == VALUE) {
+			ref.key = readString(buffer);
+			skipString(buffer);
+		} else if(ref.type != DELETE && ref.type != PRUNE && ref.type != HORIZON) {
+			throw new IllegalStateException("Unknown recipe log record type: "+ref.type);
+		}
+		return ref;
+	}
+	
+	private static int checksum(ByteBuffer buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer payload = buffer.duplicate();
+		payload.limit(offset + length);
+		payload.position(offset);
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+	
+	private static Long nullable(long value) {
+		return value != NULL_LONG ? value : null;
+	}
+	
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void skipString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length > 0)
+			buffer.position(buffer.position() + length);
+	}
+	
+	private static byte[] bytes(String value) {
+		return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+	}
+	
+	//One write to append: a put of a recipe, a delete leaving a tombstone, a change log entry, a keyed value, a prune
+	//of the change log or a tombstone horizon. Recipe is set for a put only, id is the recipe of a put, delete or change.
+	@Getter
+	@AllArgsConstructor(access = AccessLevel.PRIVATE)
+	public static class Write {
+		private final byte type;
+		private final Integer id;
+		private final RecipeEntity recipe;
+		private final boolean insert;
+		private final Long sequence;
+		private final Date time;
+		private final String operation;
+		private final String nodeId;
+		private final String key;
+		private final byte[] value;
+	
+		//Write of given recipe, an insert fails when the recipe exists
+		public static Write put(RecipeEntity recipe, boolean insert) {
+			return new Write(PUT, recipe.getId(), recipe, insert, recipe.getModSequence(), recipe.getCreationDateTime(),
+							 null, null, null, null);
+		}
+	
+		public static Write delete(Integer id, Long sequence, Date deletionDateTime) {
+			return new Write(DELETE, id, null, false, sequence, deletionDateTime, null, null, null, null);
+		}
+		
+		//Write of given change log entry, its sequence is taken from nextChangeSequence
+		public static Write change(RecipeChangeLogEntity change) {
+			return new Write(CHANGE, change.getRecipeId(), null, false, change.getSequence(), change.getChangeDateTime(),
+							 change.getOperation().name(), change.getNodeId(), null, null);
+		}
+		
+		//Write of given value under given key, replacing the value stored with the key
+		public static Write value(String key, byte[] value) {
+			return new Write(VALUE, null, null, false, null, null, null, null, key, value);
+		}
+		
+		private static Write prune(long sequence, Date dateTime) {
+			return new Write(PRUNE, null, null, false, sequence, dateTime, null, null, null, null);
+		}
+		
+		private static Write horizon(long sequence) {
+			return new Write(HORIZON, null, null, false, sequence, null, null, null, null, null);
+		}
+		
+		//Method to tell if this is a put or delete of a recipe
+		public boolean isRecipeWrite() {
+			return type == PUT || type == DELETE;
+		}
+		
+		public boolean isChange() {
+			return type == CHANGE;
+		}
+		
+		public boolean isValue() {
+			return type == VALUE;
+		}
+	
+		private int encodedSize() {
+			int size = RECORD_HEADER;
+			if(type == PUT) {
+				size += 4;
+				for(String text : new String[] {recipe.getName(), recipe.getNameKey(), recipe.getType(),
+												recipe.getIngredients(), recipe.getInstructions()})
+					size += sizeOf(bytes(text));
+			} else if(type == CHANGE) {
+				size += sizeOf(bytes(operation)) + sizeOf(bytes(nodeId));
+			} else if(type == VALUE) {
+				size += sizeOf(bytes(key)) + sizeOf(value);
+			}
+			return size;
+		}
+	
+		//Every record starts with type, lsn, id, sequence and time, followed by
+		//PUT: capacity, name, name key, type, ingredients, instructions
+		//CHANGE: operation, node
+		//VALUE: key, value
+		private void encode(ByteBuffer buffer, long lsn) {
+			buffer.put(type);
+			buffer.putLong(lsn);
+			buffer.putInt(id != null ? id : 0);
+			buffer.putLong(sequence != null ? sequence : NULL_LONG);
+			buffer.putLong(time != null ? time.getTime() : NULL_LONG);
+			if(type == PUT) {
+				buffer.putInt(recipe.getServingCapacity() != null ? recipe.getServingCapacity() : NULL_INT);
+				for(String text : new String[] {recipe.getName(), recipe.getNameKey(), recipe.getType(),
+												recipe.getIngredients(), recipe.getInstructions()})
+					putBytes(buffer, bytes(text));
+			} else if(type == CHANGE) {
+				putBytes(buffer, bytes(operation));
+				putBytes(buffer, bytes(nodeId));
+			} else if(type == VALUE) {
+				putBytes(buffer, bytes(key));
+				putBytes(buffer, value);
+			}
+		}
+		
+		private static int sizeOf(byte[] bytes) {
+			return 4 + (bytes != null ? bytes.length : 0);
+		}
+		
+		private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+			buffer.putInt(bytes != null ? bytes.length : -1);
+			if(bytes != null)
+				buffer.put(bytes);
+		}
+	}
+	
+	//Mapped segment file, bytes up to end hold frames
+	@RequiredArgsConstructor
+	private static class Segment {
+		private final long number;
+		private final Path file;
+		private final MappedByteBuffer buffer;
+		private int end;
+		//Bytes of records in this segment which are current
+		private long live;
+		//Lowest lsn of the records in this segment
+		private long minLsn = Long.MAX_VALUE;
+	}
+	
+	//Position and indexed fields of a record. Sequence is the change sequence of a put, delete or change and the last
+	//one handed out of a prune, the highest tombstone left out of a horizon. Time is the creation of a put, the
+	//deletion of a delete, the change of a change and the threshold of a prune.
+	private static class RecordRef {
+		private long segment;
+		private int offset;
+		private int length;
+		private byte type;
+		private long lsn;
+		private Integer id;
+		private Long modSequence;
+		private Long time;
+		private String nameKey;
+		private String key;
+	
+		//Copy of this record at given offset, segment is set once the copy is written
+		private RecordRef movedTo(int offset) {
+			RecordRef ref = new RecordRef();
+			ref.offset = offset;
+			ref.length = length;
+			ref.type = type;
+			ref.lsn = lsn;
+			ref.id = id;
+			ref.modSequence = modSequence;
+			ref.time = time;
+			ref.nameKey = nameKey;
+			ref.key = key;
+			return ref;
+		}
+	}
+	
+	//Feed order position of a recipe, by creation time then id
+	@RequiredArgsConstructor
+	private static class FeedKey implements Comparable<FeedKey> {
+		private final long time;
+		private final int id;
+	
+		@Override
+		public int compareTo(FeedKey other) {
+			int compared = Long.compare(time, other.time);
+			return compared != 0 ? compared : Integer.compare(id, other.id);
+		}
+	
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof FeedKey && compareTo((FeedKey) other) == 0;
+		}
+	
+		@Override
+		public int hashCode() {
+			return Long.hashCode(time) * 31 + id;
+		}
+	}
+}
@@ -0,0 +1,421 @@
+package com.abnamro.recipes.repository;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.dao.RecipeTombstoneEntity;
+import com.abnamro.recipes.repository.MappedRecipeLog.Write;
+import com.abnamro.recipes.service.RecipeShards;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+//Recipe store on an embedded append-only log of memory-mapped files, enabled with profile mmap, which runs without a
+//database. Recipes, tombstones, change log entries and coordination values of a transaction are kept aside and
+//appended as one frame when the transaction commits, so that they are durable together or not at all. Reads of the
+//writing transaction see them, as reads of a JPA transaction see its flushed writes.
+@Repository
+@Profile("mmap")
+@Slf4j
+public class MappedRecipeStore implements RecipeStore {
+	
+	private final MappedRecipeLog recipeLog;
+	
+	private final double garbageRatio;
+	
+	public MappedRecipeStore(@Value("${recipe.mmap.dir:./data/recipes}") String directory,
+							 @Value("${recipe.mmap.segment.size.mb:64}") int segmentSizeMb,
+							 @Value("${recipe.mmap.sync:true}") boolean sync,
+							 @Value("${recipe.mmap.compaction.garbage.ratio:0.5}") double garbageRatio,
+							 RecipeShards shards,
+							 MeterRegistry meterRegistry) throws IOException {
+		//Log lives on the local disk of one node, shards are databases
+		if(shards.isSharded())
+			throw new IllegalStateException("Embedded recipe store is not sharded, recipe.shards.urls must be empty with profile mmap");
+		this.garbageRatio = garbageRatio;
+		this.recipeLog = MappedRecipeLog.open(Paths.get(directory), segmentSizeMb * 1024 * 1024, sync);
+		Gauge.builder("recipes.store.segments", recipeLog, MappedRecipeLog::getSegmentCount).register(meterRegistry);
+		Gauge.builder("recipes.store.live.bytes", recipeLog, MappedRecipeLog::getLiveBytes).register(meterRegistry);
+		Gauge.builder("recipes.store.used.bytes", recipeLog, MappedRecipeLog::getUsedBytes).register(meterRegistry);
+	}
+	
+	@Override
+	public Optional<RecipeEntity> findById(Integer id) {
+		Write pending = pendingRecipeWrites().get(id);
+		if(pending != null)
+			return Optional.ofNullable(pending.getRecipe()).map(MappedRecipeStore::copyOf);
+		return Optional.ofNullable(recipeLog.get(id));
+	}
+	
+	@Override
+	public List<RecipeEntity> findAllById(List<Integer> ids) {
+		if(pendingRecipeWrites().isEmpty())
+			return recipeLog.getAll(ids);
+		List<RecipeEntity> found = new ArrayList<>(ids.size());
+		ids.forEach(id -> findById(id).ifPresent(found::add));
+		return found;
+	}
+	
+	@Override
+	public List<RecipeEntity> findAll() {
+		return withPendingRecipes(Pageable.unpaged(), (skip, limit) -> recipeLog.getAll(recipeLog.ids()),
+								  recipeEntity -> true, Comparator.comparing(RecipeEntity::getId));
+	}
+	
+	@Override
+	public Optional<RecipeEntity> findFirstByNameKey(String nameKey) {
+		Map<Integer,Write> pending = pendingRecipeWrites();
+		Optional<RecipeEntity> pendingRecipe = pending.values().stream().map(Write::getRecipe)
+				.filter(recipeEntity -> recipeEntity != null && nameKey.equals(recipeEntity.getNameKey())).findFirst();
+		if(pendingRecipe.isPresent())
+			return pendingRecipe.map(MappedRecipeStore::copyOf);
+		//Recipe written by this transaction has no longer the name
+		return Optional.ofNullable(recipeLog.findFirstByNameKey(nameKey))
+					   .filter(recipeEntity -> !pending.containsKey(recipeEntity.getId()));
+	}
+	
+	@Override
+	public List<RecipeEntity> findNewestRecipesBefore(Date since, Date dateTime, Integer id, Pageable pageable) {
+		Comparator<RecipeEntity> newestFirst = Comparator.comparing(RecipeEntity::getCreationDateTime)
+														 .thenComparing(RecipeEntity::getId).reversed();
+		return withPendingRecipes(pageable, (skip, limit) -> recipeLog.findNewestBefore(since, dateTime, id, skip, limit),
+								  recipeEntity -> recipeEntity.getCreationDateTime() != null &&
+												  !recipeEntity.getCreationDateTime().before(since) &&
+												  (recipeEntity.getCreationDateTime().before(dateTime) ||
+												   recipeEntity.getCreationDateTime().equals(dateTime) && recipeEntity.getId() < id),
+								  newestFirst);
+	}
+	
+	@Override
+	public List<RecipeEntity> findModifiedBetween(Long since, Long until, Pageable pageable) {
+		return withPendingRecipes(pageable, (skip, limit) -> recipeLog.findModifiedBetween(since, until, skip, limit),
+								  recipeEntity -> recipeEntity.getModSequence() != null && recipeEntity.getModSequence() > since &&
+												  recipeEntity.getModSequence() <= until,
+								  Comparator.comparing(RecipeEntity::getModSequence));
+	}
+	
+	@Override
+	public List<RecipeTombstoneEntity> findDeletedBetween(Long since, Long until, Pageable pageable) {
+		Map<Integer,Write> pending = pendingRecipeWrites();
+		if(pending.isEmpty())
+			return recipeLog.findDeletedBetween(since, until, skip(pageable), limit(pageable));
+		List<RecipeTombstoneEntity> tombstones = pending.values().stream()
+				.filter(write -> write.getRecipe() == null && write.getSequence() != null &&
+								 write.getSequence() > since && write.getSequence() <= until)
+				.map(write -> {
+					RecipeTombstoneEntity tombstone = new RecipeTombstoneEntity();
+					tombstone.setRecipeId(write.getId());
+					tombstone.setModSequence(write.getSequence());
+					tombstone.setDeletionDateTime(write.getTime());
+					return tombstone;
+				}).collect(Collectors.toList());
+		return merge(pageable, pending.size(), (skip, limit) -> recipeLog.findDeletedBetween(since, until, skip, limit),
+					 RecipeTombstoneEntity::getRecipeId, pending, tombstones, Comparator.comparing(RecipeTombstoneEntity::getModSequence));
+	}
+	
+	@Override
+	public List<RecipeEntity> findRecipesAfter(Integer afterId, Pageable pageable) {
+		return withPendingRecipes(pageable, (skip, limit) -> recipeLog.findAfter(afterId, skip, limit),
+								  recipeEntity -> recipeEntity.getId() > afterId, Comparator.comparing(RecipeEntity::getId));
+	}
+	
+	//Every record of the log is written with its name key
+	@Override
+	public List<RecipeEntity> findRecipesWithoutNameKeyAfter(Integer afterId, Pageable pageable) {
+		return Collections.emptyList();
+	}
+	
+	//Every recipe put in the log carries its sequence
+	@Override
+	public List<RecipeEntity> findRecipesWithoutModSequenceAfter(Integer afterId, Pageable pageable) {
+		return Collections.emptyList();
+	}
+	
+	//Ids are listed up front, recipes are decoded one at a time as the stream is read
+	@Override
+	public Stream<RecipeEntity> streamAllRecipes() {
+		if(!pendingRecipeWrites().isEmpty())
+			return findAll().stream();
+		return recipeLog.ids().stream().map(recipeLog::get).filter(Objects::nonNull);
+	}
+	
+	@Override
+	public Stream<Integer> streamAllIds() {
+		Map<Integer,Write> pending = pendingRecipeWrites();
+		if(pending.isEmpty())
+			return recipeLog.ids().stream();
+		Stream<Integer> logIds = recipeLog.ids().stream().filter(id -> !pending.containsKey(id));
+		Stream<Integer> pendingIds = pending.values().stream().filter(write -> write.getRecipe() != null).map(Write::getId);
+		return Stream.concat(logIds, pendingIds).sorted();
+	}
+	
+	@Override
+	public long countRecipes() {
+		if(pendingRecipeWrites().isEmpty())
+			return recipeLog.size();
+		return streamAllIds().count();
+	}
+	
+	@Override
+	public Integer findMaxId() {
+		if(pendingRecipeWrites().isEmpty())
+			return recipeLog.maxId();
+		return streamAllIds().reduce((first, second) -> second).orElse(null);
+	}
+	
+	@Override
+	public void insert(RecipeEntity recipeEntity) {
+		if(findById(recipeEntity.getId()).isPresent())
+			throw new DataIntegrityViolationException("Recipe with id "+recipeEntity.getId()+" already exists");
+		write(Write.put(copyOf(recipeEntity), true));
+	}
+	
+	@Override
+	public RecipeEntity save(RecipeEntity recipeEntity) {
+		write(Write.put(copyOf(recipeEntity), false));
+		return recipeEntity;
+	}
+	
+	//Log keeps no tombstone lookup, a missing recipe gets a tombstone written again, which a client without the
+	//recipe ignores
+	@Override
+	public void updateModSequence(Integer id, Long sequence) {
+		Optional<RecipeEntity> recipeEntity = findById(id);
+		if(recipeEntity.isPresent()) {
+			recipeEntity.get().setModSequence(sequence);
+			save(recipeEntity.get());
+		} else
+			write(Write.delete(id, sequence, new Date()));
+	}
+	
+	@Override
+	public void deleteById(Integer id, Long sequence, Date deletionDateTime) {
+		if(!findById(id).isPresent())
+			throw new EmptyResultDataAccessException("No recipe with id "+id+" exists", 1);
+		write(Write.delete(id, sequence, deletionDateTime));
+	}
+	
+	//Recipes are decoded copies, there is nothing to release
+	@Override
+	public void release(RecipeEntity recipeEntity) {
+	}
+	
+	//Sequence is handed out by the log before the entry is appended, so sequences commit out of order as identity
+	//values of the change log table do
+	@Override
+	public Long appendChange(RecipeChangeLogEntity change) {
+		change.setSequence(recipeLog.nextChangeSequence());
+		write(Write.change(change));
+		return change.getSequence();
+	}
+	
+	@Override
+	public List<RecipeChangeLogEntity> findChangesAfter(Long sequence, Pageable pageable) {
+		List<RecipeChangeLogEntity> pending = pendingChanges().stream().filter(change -> change.getSequence() > sequence)
+															  .collect(Collectors.toList());
+		return merge(pageable, 0, (skip, limit) -> recipeLog.findChangesAfter(sequence, skip, limit),
+					 RecipeChangeLogEntity::getRecipeId, Collections.emptyMap(), pending,
+					 Comparator.comparing(RecipeChangeLogEntity::getSequence));
+	}
+	
+	@Override
+	public Long findMaxChangeSequence() {
+		return Stream.concat(Stream.of(recipeLog.maxChangeSequence()), pendingChanges().stream().map(RecipeChangeLogEntity::getSequence))
+					 .filter(Objects::nonNull).max(Long::compare).orElse(null);
+	}
+	
+	@Override
+	public Long findMinChangeSequence() {
+		return Stream.concat(Stream.of(recipeLog.minChangeSequence()), pendingChanges().stream().map(RecipeChangeLogEntity::getSequence))
+					 .filter(Objects::nonNull).min(Long::compare).orElse(null);
+	}
+	
+	@Override
+	public int deleteChangesOlderThan(Date dateTime) {
+		return recipeLog.pruneChanges(dateTime);
+	}
+	
+	@Override
+	public int deleteTombstonesOlderThan(Date dateTime) {
+		return recipeLog.pruneTombstones(dateTime);
+	}
+	
+	@Override
+	public long findTombstoneHorizon() {
+		return recipeLog.tombstoneHorizon();
+	}
+	
+	//Method to return value stored under given key, a value written by the current transaction is seen before commit
+	byte[] findValue(String key) {
+		PendingWrites pendingWrites = currentPendingWrites(false);
+		if(pendingWrites != null) {
+			for(int index = pendingWrites.writes.size() - 1; index >= 0; index--) {
+				Write write = pendingWrites.writes.get(index);
+				if(write.isValue() && write.getKey().equals(key))
+					return write.getValue();
+			}
+		}
+		return recipeLog.getValue(key);
+	}
+	
+	//Keep write aside until commit, without transaction it is appended at once
+	void write(Write write) {
+		PendingWrites pendingWrites = currentPendingWrites(true);
+		if(pendingWrites != null)
+			pendingWrites.writes.add(write);
+		else
+			recipeLog.append(Collections.singletonList(write));
+	}
+	
+	//Latest put or delete of every recipe kept aside by the current transaction, by recipe id
+	private Map<Integer,Write> pendingRecipeWrites() {
+		PendingWrites pendingWrites = currentPendingWrites(false);
+		if(pendingWrites == null)
+			return Collections.emptyMap();
+		Map<Integer,Write> latest = new LinkedHashMap<>();
+		pendingWrites.writes.stream().filter(Write::isRecipeWrite).forEach(write -> latest.put(write.getId(), write));
+		return latest;
+	}
+	
+	//Change log entries kept aside by the current transaction
+	private List<RecipeChangeLogEntity> pendingChanges() {
+		PendingWrites pendingWrites = currentPendingWrites(false);
+		if(pendingWrites == null)
+			return Collections.emptyList();
+		return pendingWrites.writes.stream().filter(Write::isChange).map(write -> {
+			RecipeChangeLogEntity change = new RecipeChangeLogEntity();
+			change.setSequence(write.getSequence());
+			change.setRecipeId(write.getId());
+			change.setOperation(RecipeOperation.valueOf(write.getOperation()));
+			change.setNodeId(write.getNodeId());
+			change.setChangeDateTime(write.getTime());
+			return change;
+		}).collect(Collectors.toList());
+	}
+	
+	//Recipes of a log query merged with the matching recipes written by the current transaction
+	private List<RecipeEntity> withPendingRecipes(Pageable pageable, BiFunction<Long,Integer,List<RecipeEntity>> readLog,
+												  Predicate<RecipeEntity> matches, Comparator<RecipeEntity> order) {
+		Map<Integer,Write> pending = pendingRecipeWrites();
+		List<RecipeEntity> pendingRecipes = pending.values().stream().map(Write::getRecipe)
+												   .filter(recipeEntity -> recipeEntity != null && matches.test(recipeEntity))
+												   .map(MappedRecipeStore::copyOf).collect(Collectors.toList());
+		return merge(pageable, pending.size(), readLog, RecipeEntity::getId, pending, pendingRecipes, order);
+	}
+	
+	//Page of given log query with the entries of pending writes in place of the ones of the same recipes. Log is read
+	//from the start with the page grown by the number of pending writes, which replace at most as many entries of it.
+	private static <T> List<T> merge(Pageable pageable, int pendingCount, BiFunction<Long,Integer,List<T>> readLog,
+									 Function<T,Integer> idOf, Map<Integer,Write> pending, List<T> pendingEntries,
+									 Comparator<T> order) {
+		if(pending.isEmpty() && pendingEntries.isEmpty())
+			return readLog.apply(skip(pageable), limit(pageable));
+		int window = (int) Math.min(Integer.MAX_VALUE, skip(pageable) + limit(pageable) + pendingCount);
+		List<T> merged = readLog.apply(0L, window).stream().filter(entry -> !pending.containsKey(idOf.apply(entry)))
+								.collect(Collectors.toList());
+		merged.addAll(pendingEntries);
+		merged.sort(order);
+		return merged.stream().skip(skip(pageable)).limit(limit(pageable)).collect(Collectors.toList());
+	}
+	
+	//Writes of the current transaction. Synchronizations of a suspended transaction are not listed, so a nested
+	//transaction keeps its own writes.
+	private PendingWrites currentPendingWrites(boolean create) {
+		if(!TransactionSynchronizationManager.isSynchronizationActive())
+			return null;
+		for(TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+			if(synchronization instanceof PendingWrites && ((PendingWrites) synchronization).isFor(this))
+				return (PendingWrites) synchronization;
+		}
+		if(!create)
+			return null;
+		PendingWrites pendingWrites = new PendingWrites();
+		TransactionSynchronizationManager.registerSynchronization(pendingWrites);
+		return pendingWrites;
+	}
+	
+	@Scheduled(fixedDelayString = "${recipe.mmap.compaction.interval.ms:60000}",
+			   initialDelayString = "${recipe.mmap.compaction.interval.ms:60000}")
+	public void compact() {
+		try {
+			recipeLog.compact(garbageRatio);
+		} catch(IOException | RuntimeException e) {
+			log.error("Exception caught while compacting recipe log: "+e.getMessage());
+		}
+	}
+	
+	public MappedRecipeLog getLog() {
+		return recipeLog;
+	}
+	
+	@PreDestroy
+	public void close() {
+		recipeLog.close();
+	}
+	
+	private static long skip(Pageable pageable) {
+		return pageable.isPaged() ? pageable.getOffset() : 0;
+	}
+	
+	private static int limit(Pageable pageable) {
+		return pageable.isPaged() ? pageable.getPageSize() : Integer.MAX_VALUE;
+	}
+	
+	private static RecipeEntity copyOf(RecipeEntity recipeEntity) {
+		RecipeEntity copy = new RecipeEntity();
+		copy.setId(recipeEntity.getId());
+		copy.setName(recipeEntity.getName());
+		copy.setNameKey(recipeEntity.getNameKey());
+		copy.setType(recipeEntity.getType());
+		copy.setCreationDateTime(recipeEntity.getCreationDateTime());
+		copy.setServingCapacity(recipeEntity.getServingCapacity());
+		copy.setIngredients(recipeEntity.getIngredients());
+		copy.setInstructions(recipeEntity.getInstructions());
+		copy.setModSequence(recipeEntity.getModSequence());
+		return copy;
+	}
+	
+	//Writes of one transaction, appended as one frame on commit. A failed append rolls the transaction back.
+	private class PendingWrites implements TransactionSynchronization {
+		private final List<Write> writes = new ArrayList<>();
+	
+		private boolean isFor(MappedRecipeStore store) {
+			return MappedRecipeStore.this == store;
+		}
+	
+		@Override
+		public void beforeCommit(boolean readOnly) {
+			recipeLog.append(writes);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+
+@Repository
+public interface RecipeChangeLogRepository extends JpaRepository<RecipeChangeLogEntity,Long> {
+	//Method to retrieve change log entries appended after given sequence number, in sequence order
+	List<RecipeChangeLogEntity> findBySequenceGreaterThanOrderBySequenceAsc(Long sequence, Pageable pageable);
+	
+	//Method to retrieve highest sequence number present in change log
+	@Query("select max(c.sequence) from RecipeChangeLogEntity c")
+	Long findMaxSequence();
+	
+	//Method to retrieve lowest sequence number still present in change log
+	@Query("select min(c.sequence) from RecipeChangeLogEntity c")
+	Long findMinSequence();
+	
+	//Method to remove change log entries older than given DateTime value
+	@Modifying
+	@Transactional
+	@Query("delete from RecipeChangeLogEntity c where c.changeDateTime < :dateTime")
+	int deleteOlderThan(@Param("dateTime") Date dateTime);
+}
@@ -0,0 +1,38 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+import com.abnamro.recipes.dao.RecipeHotKeyEntity;
+import com.abnamro.recipes.dao.RecipeImportCheckpointEntity;
+import com.abnamro.recipes.dao.RecipeNameReservationEntity;
+
+//Storage of the state shared by nodes besides recipes: id blocks, saved hot recipes, bulk import checkpoints and
+//name reservations. The JPA store keeps it in tables, the embedded store of profile mmap in its recipe log.
+public interface RecipeCoordinationStore {
+	//Method to reserve next block of given size of the named id sequence and return its first id, the first block
+	//starts at given initial value. Runs in its own transaction, so that concurrent reservations take turns.
+	long reserveIdBlock(String name, int blockSize, LongSupplier initialValue);
+	
+	//Method to retrieve hot recipes saved by every node, most read first
+	List<RecipeHotKeyEntity> findHotKeys();
+	
+	//Method to replace hot recipes saved by given node with given ones, hot recipes of any node saved before given
+	//time are removed, so that nodes which are gone leave no rows behind
+	void replaceHotKeys(String nodeId, List<RecipeHotKeyEntity> hotKeys, Date staleBefore);
+	
+	//Method to retrieve checkpoint of given bulk import
+	Optional<RecipeImportCheckpointEntity> findImportCheckpoint(String importId);
+	
+	//Method to store given checkpoint, committed together with the imported batch of the current transaction
+	void saveImportCheckpoint(RecipeImportCheckpointEntity checkpoint);
+	
+	//Method to create reservation of given name key unless it exists, fails when it is created concurrently
+	void createNameReservation(String nameKey);
+	
+	//Method to lock reservation of given name key until the current transaction ends, changes to the reservation
+	//are stored on commit. Empty when there is no reservation.
+	Optional<RecipeNameReservationEntity> lockNameReservation(String nameKey);
+}
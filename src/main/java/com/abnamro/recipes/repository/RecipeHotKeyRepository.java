@@ -0,0 +1,23 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeHotKeyEntity;
+
+@Repository
+public interface RecipeHotKeyRepository extends JpaRepository<RecipeHotKeyEntity,RecipeHotKeyEntity.Key> {
+	//Method to retrieve saved hot recipes, most read first
+	List<RecipeHotKeyEntity> findAllByOrderByHitsDesc();
+	
+	//Method to remove hot recipes saved by given node, and the ones of any node saved before given time
+	@Modifying
+	@Query("delete from RecipeHotKeyEntity h where h.nodeId = :nodeId or h.savedDateTime < :dateTime")
+	int deleteOfNodeOrOlderThan(@Param("nodeId") String nodeId, @Param("dateTime") Date dateTime);
+}
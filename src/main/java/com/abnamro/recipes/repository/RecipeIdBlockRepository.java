@@ -0,0 +1,21 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeIdBlockEntity;
+
+@Repository
+public interface RecipeIdBlockRepository extends JpaRepository<RecipeIdBlockEntity,String> {
+	//Method to read id block row with a write lock, so that concurrent nodes reserve disjoint blocks
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select b from RecipeIdBlockEntity b where b.name = :name")
+	Optional<RecipeIdBlockEntity> findForUpdate(@Param("name") String name);
+}
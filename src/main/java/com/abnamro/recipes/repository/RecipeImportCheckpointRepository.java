@@ -0,0 +1,10 @@
+package com.abnamro.recipes.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeImportCheckpointEntity;
+
+@Repository
+public interface RecipeImportCheckpointRepository extends JpaRepository<RecipeImportCheckpointEntity,String> {
+}
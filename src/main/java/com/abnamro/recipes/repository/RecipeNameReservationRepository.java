@@ -0,0 +1,21 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeNameReservationEntity;
+
+@Repository
+public interface RecipeNameReservationRepository extends JpaRepository<RecipeNameReservationEntity,String> {
+	//Method to read name reservation with a write lock, so that writes of the same name on any shard take turns
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select r from RecipeNameReservationEntity r where r.nameKey = :nameKey")
+	Optional<RecipeNameReservationEntity> findForUpdate(@Param("nameKey") String nameKey);
+}
@@ -0,0 +1,97 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.springframework.data.domain.Pageable;
+
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.dao.RecipeTombstoneEntity;
+
+//Storage of recipes, tombstones of deleted recipes and the change log used by the service layer. The JPA store is the
+//default, the embedded memory-mapped log store is selected with profile mmap. Writes take part in the current
+//transaction.
+public interface RecipeStore {
+	//Method to retrieve recipe by id
+	Optional<RecipeEntity> findById(Integer id);
+	
+	//Method to retrieve recipes with given ids, in no particular order, missing ids are left out
+	List<RecipeEntity> findAllById(List<Integer> ids);
+	
+	//Method to retrieve all recipes
+	List<RecipeEntity> findAll();
+	
+	//Method to retrieve recipe by normalized name
+	Optional<RecipeEntity> findFirstByNameKey(String nameKey);
+	
+	//Method to retrieve newest recipes created at or after given since date time and before given (date time, id)
+	List<RecipeEntity> findNewestRecipesBefore(Date since, Date dateTime, Integer id, Pageable pageable);
+	
+	//Method to retrieve recipes last written after given sequence and up to given sequence, in sequence order
+	List<RecipeEntity> findModifiedBetween(Long since, Long until, Pageable pageable);
+	
+	//Method to retrieve recipes deleted after given sequence and up to given sequence, in sequence order, recipes
+	//created again since are left out
+	List<RecipeTombstoneEntity> findDeletedBetween(Long since, Long until, Pageable pageable);
+	
+	//Method to retrieve recipes with id above given id, in id order
+	List<RecipeEntity> findRecipesAfter(Integer afterId, Pageable pageable);
+	
+	//Method to retrieve recipes stored without name key with id above given id, in id order
+	List<RecipeEntity> findRecipesWithoutNameKeyAfter(Integer afterId, Pageable pageable);
+	
+	//Method to retrieve recipes stored without modification sequence with id above given id, in id order
+	List<RecipeEntity> findRecipesWithoutModSequenceAfter(Integer afterId, Pageable pageable);
+	
+	//Method to stream all recipes in id order, caller must close the stream within a transaction
+	Stream<RecipeEntity> streamAllRecipes();
+	
+	//Method to stream all recipe ids, caller must close the stream within a transaction
+	Stream<Integer> streamAllIds();
+	
+	//Method to retrieve number of recipes
+	long countRecipes();
+	
+	//Method to retrieve highest recipe id, null when there are no recipes
+	Integer findMaxId();
+	
+	//Method to store new recipe, fails on commit at the latest when the id is taken
+	void insert(RecipeEntity recipeEntity);
+	
+	//Method to store given recipe, replacing the stored recipe with the same id
+	RecipeEntity save(RecipeEntity recipeEntity);
+	
+	//Method to move recipe with given id to given sequence, or its tombstone when it is deleted
+	void updateModSequence(Integer id, Long sequence);
+	
+	//Method to delete recipe and leave a tombstone with given sequence, fails when there is no recipe with given id
+	void deleteById(Integer id, Long sequence, Date deletionDateTime);
+	
+	//Method to remove tombstones of recipes deleted before given DateTime value and every tombstone of a lower
+	//sequence, raising the tombstone horizon to the highest sequence removed. Returns number of tombstones removed.
+	int deleteTombstonesOlderThan(Date dateTime);
+	
+	//Method to retrieve tombstone horizon, deletes up to it may have no tombstone left, 0 when none was removed
+	long findTombstoneHorizon();
+	
+	//Method to tell the store that given recipe read by an export is no longer used
+	void release(RecipeEntity recipeEntity);
+	
+	//Method to append given entry to change log, committed together with the write it belongs to, returns its sequence
+	Long appendChange(RecipeChangeLogEntity change);
+	
+	//Method to retrieve change log entries appended after given sequence number, in sequence order
+	List<RecipeChangeLogEntity> findChangesAfter(Long sequence, Pageable pageable);
+	
+	//Method to retrieve highest sequence number present in change log, null when it is empty
+	Long findMaxChangeSequence();
+	
+	//Method to retrieve lowest sequence number still present in change log, null when it is empty
+	Long findMinChangeSequence();
+	
+	//Method to remove change log entries older than given DateTime value, returns number of entries removed
+	int deleteChangesOlderThan(Date dateTime);
+}
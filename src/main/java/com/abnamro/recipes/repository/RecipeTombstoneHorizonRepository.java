@@ -0,0 +1,21 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Optional;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeTombstoneHorizonEntity;
+
+@Repository
+public interface RecipeTombstoneHorizonRepository extends JpaRepository<RecipeTombstoneHorizonEntity,Integer> {
+	//Method to read horizon row with a write lock, so that concurrent prunes raise it one after the other
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select h from RecipeTombstoneHorizonEntity h where h.id = :id")
+	Optional<RecipeTombstoneHorizonEntity> findForUpdate(@Param("id") Integer id);
+}
@@ -0,0 +1,31 @@
+package com.abnamro.recipes.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.abnamro.recipes.dao.RecipeTombstoneEntity;
+
+@Repository
+public interface RecipeTombstoneRepository extends JpaRepository<RecipeTombstoneEntity,Integer> {
+	//Method to retrieve recipes deleted after given sequence and up to given sequence, in sequence order,
+	//recipes created again since are left out
+	@Query("select t from RecipeTombstoneEntity t where t.modSequence > :since and t.modSequence <= :until " +
+		   "and not exists (select r.id from RecipeEntity r where r.id = t.recipeId) order by t.modSequence")
+	List<RecipeTombstoneEntity> findDeletedBetween(@Param("since") Long since, @Param("until") Long until, Pageable pageable);
+	
+	//Method to retrieve highest sequence of recipes deleted before given DateTime value
+	@Query("select max(t.modSequence) from RecipeTombstoneEntity t where t.deletionDateTime < :dateTime")
+	Long findMaxSequenceDeletedBefore(@Param("dateTime") Date dateTime);
+	
+	//Method to remove tombstones with sequence up to given sequence
+	@Modifying
+	@Query("delete from RecipeTombstoneEntity t where t.modSequence <= :sequence")
+	int deleteUpTo(@Param("sequence") Long sequence);
+}
@@ -2,8 +2,16 @@ package com.abnamro.recipes.repository;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import com.abnamro.recipes.dao.RecipeEntity;
@@ -13,10 +21,51 @@ public interface RecipesRepository extends JpaRepository<RecipeEntity,Integer> {
 	//Method to retrieve all recipes from repository matching with given DateTime value
 	List<RecipeEntity> findRecipesByCreationDateTime(Date dateTime);
 	
+	//Method to retrieve recipe by normalized name through the name key index
+	Optional<RecipeEntity> findFirstByNameKey(String nameKey);
+	
+	//Method to retrieve newest recipes created at or after given since date time and positioned before given
+	//(date time, id) cursor, seeks along the creation date time index instead of skipping rows with an offset
+	@Query("select r from RecipeEntity r where r.creationDateTime >= :since and (r.creationDateTime < :dateTime " +
+		   "or (r.creationDateTime = :dateTime and r.id < :id)) order by r.creationDateTime desc, r.id desc")
+	List<RecipeEntity> findNewestRecipesBefore(@Param("since") Date since, @Param("dateTime") Date dateTime,
+											   @Param("id") Integer id, Pageable pageable);
+	
+	//Method to retrieve recipes last written after given sequence and up to given sequence, in sequence order,
+	//through the modification sequence index
+	@Query("select r from RecipeEntity r where r.modSequence > :since and r.modSequence <= :until order by r.modSequence")
+	List<RecipeEntity> findModifiedBetween(@Param("since") Long since, @Param("until") Long until, Pageable pageable);
+	
 	//Method to retrieve all recipes from repository matching with given recipe type
 	List<RecipeEntity> findRecipesByType(String type);
 	
 	//Method to retrieve all recipes from repository matching with given serving capacity
 	List<RecipeEntity> findRecipesByServingCapacity(Integer capacity);
 	
+	//Method to stream all recipes in id order through a DB cursor, caller must close the stream within a transaction
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+	@Query("select r from RecipeEntity r order by r.id")
+	Stream<RecipeEntity> streamAllRecipes();
+	
+	//Method to retrieve recipes without name key with id above given id, in id order, for backfilling the name key
+	@Query("select r from RecipeEntity r where r.nameKey is null and r.id > :afterId order by r.id")
+	List<RecipeEntity> findRecipesWithoutNameKeyAfter(@Param("afterId") Integer afterId, Pageable pageable);
+	
+	//Method to retrieve recipes without modification sequence with id above given id, in id order, for backfilling it
+	@Query("select r from RecipeEntity r where r.modSequence is null and r.id > :afterId order by r.id")
+	List<RecipeEntity> findRecipesWithoutModSequenceAfter(@Param("afterId") Integer afterId, Pageable pageable);
+	
+	//Method to retrieve recipes with id above given id, in id order, for merging pages of several shards
+	@Query("select r from RecipeEntity r where r.id > :afterId order by r.id")
+	List<RecipeEntity> findRecipesAfter(@Param("afterId") Integer afterId, Pageable pageable);
+	
+	//Method to stream all recipe ids, caller must close the stream within a transaction
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "5000"))
+	@Query("select r.id from RecipeEntity r")
+	Stream<Integer> streamAllIds();
+	
+	//Method to retrieve highest recipe id, null when there are no recipes
+	@Query("select max(r.id) from RecipeEntity r")
+	Integer findMaxId();
+	
 }
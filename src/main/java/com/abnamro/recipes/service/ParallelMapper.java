@@ -0,0 +1,53 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+//Maps lists on a bounded fork-join pool once they reach a size threshold, smaller lists are mapped on the calling
+//thread where splitting costs more than it saves. Results keep the order of the given list in both cases.
+public class ParallelMapper<T,R> {
+	
+	private final ForkJoinPool pool;
+	
+	private final int threshold;
+	
+	//Parallelism of 0 uses all available processors, 1 always maps on the calling thread
+	public ParallelMapper(int parallelism, int threshold) {
+		int poolSize = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		this.pool = poolSize > 1 ? new ForkJoinPool(poolSize) : null;
+		this.threshold = Math.max(threshold, 1);
+	}
+	
+	//Method to map every element of given list in list order
+	public List<R> map(List<T> elements, Function<T,R> function) {
+		if(pool == null || elements.size() < threshold) {
+			List<R> results = new ArrayList<>(elements.size());
+			elements.forEach(element -> results.add(function.apply(element)));
+			return results;
+		}
+		try {
+			//Parallel stream started within a pool task runs on that pool instead of the common pool
+			return pool.submit(() -> elements.parallelStream().map(function).collect(Collectors.toList())).get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Mapping interrupted", e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Mapping failed", e.getCause());
+		}
+	}
+	
+	public int getParallelism() {
+		return pool != null ? pool.getParallelism() : 1;
+	}
+	
+	public void shutdown() {
+		if(pool != null)
+			pool.shutdown();
+	}
+}
@@ -0,0 +1,46 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+//Buckets of serving capacity, given as ascending inclusive upper bounds, e.g. 2,4,6,10 gives 1-2, 3-4, 5-6, 7-10, 11+
+@Component
+public class RecipeCapacityBuckets {
+	
+	private final int[] upperBounds;
+	private final List<String> labels;
+	
+	public RecipeCapacityBuckets(@Value("${recipe.capacity.buckets:2,4,6,10}") int[] upperBounds) {
+		this.upperBounds = upperBounds.clone();
+		Arrays.sort(this.upperBounds);
+		List<String> bucketLabels = new ArrayList<>();
+		int lowerBound = 1;
+		for(int upperBound : this.upperBounds) {
+			bucketLabels.add(lowerBound == upperBound ? String.valueOf(upperBound) : lowerBound+"-"+upperBound);
+			lowerBound = upperBound + 1;
+		}
+		bucketLabels.add(lowerBound+"+");
+		this.labels = Collections.unmodifiableList(bucketLabels);
+	}
+	
+	//Method to return bucket label of given capacity, null for unknown capacity
+	public String label(Integer capacity) {
+		if(capacity == null)
+			return null;
+		for(int bucket = 0; bucket < upperBounds.length; bucket++) {
+			if(capacity <= upperBounds[bucket])
+				return labels.get(bucket);
+		}
+		return labels.get(upperBounds.length);
+	}
+	
+	//Method to return all bucket labels in ascending order
+	public List<String> labels() {
+		return labels;
+	}
+}
@@ -0,0 +1,24 @@
+package com.abnamro.recipes.service;
+
+import com.abnamro.recipes.dao.RecipeOperation;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+//Event published for every recipe write, either made on this node or read from change log of other nodes. The
+//sequence is the one of the change log on the shard holding the recipe.
+@Getter
+@ToString
+@AllArgsConstructor
+public class RecipeChangeEvent {
+	private final Integer recipeId;
+	private final RecipeOperation operation;
+	private final Long sequence;
+	private final boolean remote;
+	private final int shard;
+	
+	public RecipeChangeEvent(Integer recipeId, RecipeOperation operation, Long sequence, boolean remote) {
+		this(recipeId, operation, sequence, remote, 0);
+	}
+}
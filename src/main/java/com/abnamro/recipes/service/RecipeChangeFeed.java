@@ -0,0 +1,331 @@
+package com.abnamro.recipes.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.abnamor.recipes.dto.RecipeChange;
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.exceptions.ErrorMessages;
+import com.abnamro.recipes.exceptions.ServiceUnavailableException;
+import com.abnamro.recipes.repository.RecipeStore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+//Pushes every committed recipe write of any node to Server-Sent Events subscribers. Each subscriber has a bounded
+//buffer drained by a small sender pool, so a slow client never blocks writers or other subscribers: when its buffer
+//is full, or a send to it blocks for longer than the send timeout, it is disconnected, and it catches up from the
+//change log by reconnecting with the last event id it got. Event ids are change positions, the sequence reached on
+//every shard, so that a client resumes on each shard. They never pass the change log watermark of a shard: a change
+//can commit before one with a lower sequence, and a client resuming above that one would never get it.
+@Service
+@Slf4j
+public class RecipeChangeFeed {
+	
+	public static final String CHANGE_EVENT = "change";
+	public static final String RESET_EVENT = "reset";
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	private final int bufferSize;
+	
+	private final int maxSubscribers;
+	
+	private final int maxReplay;
+	
+	private final long sendTimeoutMs;
+	
+	private final ExecutorService senders;
+	
+	private final Counter evictedCounter;
+	
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	
+	public RecipeChangeFeed(@Value("${recipe.changefeed.buffer.size:256}") int bufferSize,
+							@Value("${recipe.changefeed.max.subscribers:1000}") int maxSubscribers,
+							@Value("${recipe.changefeed.replay.max:1000}") int maxReplay,
+							@Value("${recipe.changefeed.sender.threads:4}") int senderThreads,
+							@Value("${recipe.changefeed.send.timeout.ms:10000}") long sendTimeoutMs,
+							MeterRegistry meterRegistry) {
+		this.bufferSize = bufferSize;
+		this.maxSubscribers = maxSubscribers;
+		this.maxReplay = maxReplay;
+		this.sendTimeoutMs = sendTimeoutMs;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+			Thread thread = new Thread(runnable, "changefeed-sender-"+threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.evictedCounter = Counter.builder("recipes.changefeed.evicted").register(meterRegistry);
+		Gauge.builder("recipes.changefeed.subscribers", subscribers, Set::size).register(meterRegistry);
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		//Senders are stopped first, so that streams are completed right away instead of by a sender
+		senders.shutdownNow();
+		subscribers.forEach(Subscriber::close);
+	}
+	
+	//Method to push changes to given emitter, starting with changes after given event id when one is given
+	public SseEmitter subscribe(SseEmitter emitter, String lastEventId) {
+		if(subscribers.size() >= maxSubscribers) {
+			log.warn("Change feed subscription rejected at limit: "+maxSubscribers);
+			throw new ServiceUnavailableException(ErrorMessages.SERVICE_UNAVAILABLE_MSG, 1);
+		}
+		//Live changes of a subscriber without event id carry positions from the tailed change log position
+		boolean resuming = lastEventId != null && !lastEventId.trim().isEmpty();
+		long[] position = resuming ? shards.parsePosition(lastEventId) : changeLogService.getWatermarks();
+		Subscriber subscriber = new Subscriber(emitter, position, resuming);
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscriber.close());
+		emitter.onError(e -> subscriber.close());
+		//Registered before the replay is read, so that no change falls between replay and live events
+		subscribers.add(subscriber);
+		subscriber.schedule();
+		log.info("Change feed subscriber added, resuming after event id: "+lastEventId+", subscribers: "+subscribers.size());
+		return emitter;
+	}
+	
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+	
+	//Buffer committed write of this node or of another node for every subscriber
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeChange(RecipeChangeEvent event) {
+		if(subscribers.isEmpty())
+			return;
+		RecipeChange change = new RecipeChange(event.getSequence(), event.getRecipeId(), event.getOperation().name(), event.getShard());
+		subscribers.forEach(subscriber -> subscriber.offer(change));
+	}
+	
+	//Comment sent to idle subscribers, keeps proxies from closing the connection and detects gone clients
+	@Scheduled(fixedDelayString = "${recipe.changefeed.heartbeat.interval.ms:15000}",
+			   initialDelayString = "${recipe.changefeed.heartbeat.interval.ms:15000}")
+	public void sendHeartbeats() {
+		subscribers.forEach(Subscriber::heartbeat);
+	}
+	
+	//Disconnect subscribers whose client stopped reading in the middle of a send, so that they give back the sender
+	//thread they hold
+	@Scheduled(fixedDelayString = "${recipe.changefeed.send.check.interval.ms:1000}")
+	public void evictStalledSubscribers() {
+		long now = System.currentTimeMillis();
+		subscribers.forEach(subscriber -> subscriber.checkSend(now));
+	}
+	
+	//One connected client, its buffer is drained by at most one sender thread at a time. The stream is completed by
+	//the draining thread as well, since completing it waits for a send in progress.
+	private class Subscriber {
+		private final SseEmitter emitter;
+		private final BlockingQueue<RecipeChange> buffer;
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private volatile boolean closed;
+		private volatile boolean completed;
+		private volatile boolean heartbeatDue;
+		//Highest sequence of every shard sent, read and written by the draining thread only
+		private final long[] position;
+		//Set until replay is sent, read and written by the draining thread only
+		private boolean replayDue;
+		//Shard and sequence of changes sent by replay, skipped when the same change is also buffered live
+		private final Set<String> replayed = new HashSet<>();
+		//Thread blocked in a send to the client and time the send started, guarded by this
+		private Thread sendingThread;
+		private long sendStarted;
+	
+		private Subscriber(SseEmitter emitter, long[] position, boolean replayDue) {
+			this.emitter = emitter;
+			this.buffer = new ArrayBlockingQueue<>(bufferSize);
+			this.position = position;
+			this.replayDue = replayDue;
+		}
+	
+		private void offer(RecipeChange change) {
+			if(closed)
+				return;
+			if(!buffer.offer(change)) {
+				evict("buffer of "+bufferSize+" changes is full");
+				return;
+			}
+			schedule();
+		}
+		
+		private synchronized void checkSend(long now) {
+			if(sendingThread != null && now - sendStarted > sendTimeoutMs)
+				evict("send is blocked for more than "+sendTimeoutMs+" ms");
+		}
+		
+		private void evict(String reason) {
+			if(close()) {
+				evictedCounter.increment();
+				log.warn("Change feed subscriber evicted, "+reason);
+			}
+		}
+	
+		private void heartbeat() {
+			heartbeatDue = true;
+			schedule();
+		}
+	
+		private void schedule() {
+			if(draining.compareAndSet(false, true)) {
+				try {
+					senders.execute(this::drain);
+				} catch(RuntimeException e) {
+					draining.set(false);
+					close();
+					complete();
+				}
+			}
+		}
+	
+		private void drain() {
+			try {
+				if(replayDue && !closed) {
+					replay();
+					replayDue = false;
+				}
+				RecipeChange change;
+				while(!closed && (change = buffer.poll()) != null) {
+					if(!replayed.remove(change.getShard()+":"+change.getSequence()))
+						send(change);
+				}
+				if(heartbeatDue && !closed) {
+					heartbeatDue = false;
+					emit(SseEmitter.event().comment("heartbeat"));
+				}
+			} catch(IOException | RuntimeException e) {
+				log.debug("Change feed subscriber is gone: "+e.getMessage());
+				close();
+			} finally {
+				if(closed)
+					complete();
+				draining.set(false);
+			}
+			//Changes buffered or subscriber closed after the loop ended but before draining was cleared
+			if(!buffer.isEmpty() || closed && !completed)
+				schedule();
+		}
+	
+		//Send changes committed after last event id from change log of every shard, or a reset when they are no
+		//longer all there. The reset carries the watermarks, every change up to them is in the catalog the client
+		//reloads.
+		private void replay() throws IOException {
+			String lastEventId = shards.formatPosition(position);
+			List<List<RecipeChangeLogEntity>> entries = new ArrayList<>();
+			boolean complete = true;
+			for(int shard = 0; shard < position.length && complete; shard++) {
+				long lastSequence = position[shard];
+				Long minSequence = shards.read(shard, store::findMinChangeSequence);
+				List<RecipeChangeLogEntity> shardEntries = shards.read(shard, () -> store
+						.findChangesAfter(lastSequence, PageRequest.of(0, maxReplay + 1)));
+				entries.add(shardEntries);
+				complete = entries.stream().mapToInt(List::size).sum() <= maxReplay &&
+						   (minSequence == null || minSequence <= lastSequence + 1);
+			}
+			if(!complete) {
+				long[] watermarks = changeLogService.getWatermarks();
+				log.info("Change feed cannot replay after event id: "+lastEventId+", sending reset");
+				emit(SseEmitter.event().name(RESET_EVENT).id(shards.formatPosition(watermarks))
+									  .data("Changes after event id "+lastEventId+" are not available, reload recipes"));
+				System.arraycopy(watermarks, 0, position, 0, position.length);
+				return;
+			}
+			for(int shard = 0; shard < entries.size(); shard++) {
+				for(RecipeChangeLogEntity entry : entries.get(shard)) {
+					send(new RecipeChange(entry.getSequence(), entry.getRecipeId(), entry.getOperation().name(), shard));
+					replayed.add(shard+":"+entry.getSequence());
+				}
+			}
+		}
+	
+		private void send(RecipeChange change) throws IOException {
+			position[change.getShard()] = Math.max(position[change.getShard()], change.getSequence());
+			emit(SseEmitter.event().id(eventId()).name(CHANGE_EVENT).data(change, MediaType.APPLICATION_JSON));
+		}
+	
+		//Position sent, lowered to the change log watermark of every shard
+		private String eventId() {
+			long[] watermarks = changeLogService.getWatermarks();
+			long[] eventPosition = new long[position.length];
+			for(int shard = 0; shard < position.length; shard++)
+				eventPosition[shard] = Math.min(position[shard], watermarks[shard]);
+			return shards.formatPosition(eventPosition);
+		}
+		
+		//Send given event, with the sending thread recorded so that a send blocked by the client can be interrupted
+		private void emit(SseEmitter.SseEventBuilder event) throws IOException {
+			synchronized(this) {
+				if(closed)
+					return;
+				sendingThread = Thread.currentThread();
+				sendStarted = System.currentTimeMillis();
+			}
+			try {
+				emitter.send(event);
+			} finally {
+				synchronized(this) {
+					sendingThread = null;
+				}
+			}
+		}
+		
+		//Stop sending to the subscriber and have a sender complete its stream, true when it was not closed yet
+		private boolean close() {
+			synchronized(this) {
+				if(closed)
+					return false;
+				closed = true;
+				if(sendingThread != null)
+					sendingThread.interrupt();
+			}
+			subscribers.remove(this);
+			buffer.clear();
+			schedule();
+			return true;
+		}
+		
+		private void complete() {
+			if(completed)
+				return;
+			completed = true;
+			try {
+				emitter.complete();
+			} catch(RuntimeException e) {
+				log.debug("Change feed subscriber already completed: "+e.getMessage());
+			}
+		}
+	}
+}
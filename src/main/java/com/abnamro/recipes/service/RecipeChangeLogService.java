@@ -0,0 +1,221 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.abnamro.recipes.config.ShardContext;
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipeStore;
+import com.abnamro.recipes.util.Util;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Service to append recipe writes to change log and tail the entries appended by other nodes. Every shard has
+//its own change log next to its recipes, so it is tailed with a watermark per shard. A write whose transaction
+//commits so late that a node may have skipped its sequence as a gap is appended again with a new sequence, so that
+//tailing nodes, delta sync clients and the change feed, all of which never look below a watermark, still see it.
+@Service
+@Slf4j
+public class RecipeChangeLogService {
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	@Value("${recipe.node.id:}")
+	private String nodeId;
+	
+	@Value("${recipe.changelog.poll.batch.size:500}")
+	private int pollBatchSize;
+	
+	//Time after which a missing sequence number is treated as rolled back and skipped
+	@Value("${recipe.changelog.gap.timeout.ms:10000}")
+	private long gapTimeoutMs;
+	
+	@Value("${recipe.changelog.retention.hours:24}")
+	private long retentionHours;
+	
+	//All sequence numbers of a shard up to its watermark are either applied or skipped
+	private long[] watermarks;
+	
+	//Copy of the watermarks taken after every poll, so that readers do not wait for a poll in progress
+	private volatile long[] publishedWatermarks;
+	
+	//Sequence numbers of each shard above its watermark which are already applied, mapped to time they were first seen
+	private final List<TreeMap<Long,Long>> appliedAboveWatermarks = new ArrayList<>();
+	
+	//Ids of recipes of each shard written by a transaction which committed late, appended again by the next poll
+	private final List<Set<Integer>> lateRecipeIds = new ArrayList<>();
+	
+	@PostConstruct
+	public void init() {
+		if(nodeId == null || nodeId.isEmpty())
+			nodeId = UUID.randomUUID().toString();
+		watermarks = new long[shards.getShardCount()];
+		for(int shard = 0; shard < watermarks.length; shard++) {
+			Long maxSequence = shards.read(shard, store::findMaxChangeSequence);
+			watermarks[shard] = maxSequence == null ? 0 : maxSequence;
+			appliedAboveWatermarks.add(new TreeMap<>());
+			lateRecipeIds.add(ConcurrentHashMap.newKeySet());
+		}
+		publishedWatermarks = watermarks.clone();
+		log.info("Recipe change log tailing starts after position: "+shards.formatPosition(watermarks)+" for node: "+nodeId);
+	}
+	
+	public String getNodeId() {
+		return nodeId;
+	}
+	
+	//Method to append given recipe write to change log, joins the transaction of the write itself
+	@Transactional(propagation = Propagation.MANDATORY)
+	public Long appendChange(Integer recipeId, RecipeOperation operation) {
+		RecipeChangeLogEntity change = new RecipeChangeLogEntity();
+		change.setRecipeId(recipeId);
+		change.setOperation(operation);
+		change.setNodeId(nodeId);
+		change.setChangeDateTime(Util.getCurrentDateTime().orElse(null));
+		Long sequence = store.appendChange(change);
+		int shard = ShardContext.getCurrentShard();
+		log.debug("Appended change log entry: "+sequence+" on shard: "+shard+" for recipe id: "+recipeId+" operation: "+operation);
+		eventPublisher.publishEvent(new RecipeChangeEvent(recipeId, operation, sequence, false, shard));
+		watchCommit(shard, recipeId, System.currentTimeMillis());
+		return sequence;
+	}
+	
+	//A node skips a gap only after a higher sequence taken later was seen for the gap timeout, a commit within half of
+	//it is seen by every node. The other half leaves room for polls in progress.
+	private void watchCommit(int shard, Integer recipeId, long appendedAt) {
+		if(!TransactionSynchronizationManager.isSynchronizationActive())
+			return;
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				if(System.currentTimeMillis() - appendedAt >= gapTimeoutMs / 2) {
+					log.debug("Change of recipe id: "+recipeId+" on shard: "+shard+" committed late, appending it again");
+					lateRecipeIds.get(shard).add(recipeId);
+				}
+			}
+		});
+	}
+	
+	//Method to poll change log of every shard for entries appended after last applied sequence and apply the ones
+	//from other nodes
+	@Scheduled(fixedDelayString = "${recipe.changelog.poll.interval.ms:1000}")
+	public synchronized void pollChanges() {
+		for(int shard = 0; shard < watermarks.length; shard++) {
+			try {
+				appendLateChanges(shard);
+				pollChanges(shard);
+			} catch(Exception e) {
+				log.error("Exception caught while polling recipe change log of shard: "+shard);
+				log.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+		publishedWatermarks = watermarks.clone();
+	}
+	
+	//Append a new change for every recipe of given shard written late, moving the recipe or its tombstone to it
+	private void appendLateChanges(int shard) {
+		Set<Integer> lateIds = lateRecipeIds.get(shard);
+		if(lateIds.isEmpty())
+			return;
+		List<Integer> recipeIds = new ArrayList<>(lateIds);
+		lateIds.removeAll(recipeIds);
+		try {
+			shards.write(shard, () -> {
+				for(Integer recipeId : recipeIds) {
+					RecipeOperation operation = store.findById(recipeId).isPresent() ? RecipeOperation.UPDATE : RecipeOperation.DELETE;
+					store.updateModSequence(recipeId, appendChange(recipeId, operation));
+				}
+				return null;
+			});
+		} catch(RuntimeException e) {
+			lateIds.addAll(recipeIds);
+			throw e;
+		}
+		log.info("Appended changes of "+recipeIds.size()+" recipes of shard: "+shard+" again, their transactions committed late");
+	}
+	
+	private void pollChanges(int shard) {
+		TreeMap<Long,Long> appliedAboveWatermark = appliedAboveWatermarks.get(shard);
+		List<RecipeChangeLogEntity> changes = shards.read(shard, () -> store
+				.findChangesAfter(watermarks[shard], PageRequest.of(0, pollBatchSize)));
+		long now = System.currentTimeMillis();
+		for(RecipeChangeLogEntity change : changes) {
+			if(appliedAboveWatermark.containsKey(change.getSequence()))
+				continue;
+			if(!nodeId.equals(change.getNodeId())) {
+				log.debug("Applying change log entry: "+change.getSequence()+" of shard: "+shard+" from node: "+change.getNodeId());
+				eventPublisher.publishEvent(new RecipeChangeEvent(change.getRecipeId(), change.getOperation(),
+																  change.getSequence(), true, shard));
+			}
+			appliedAboveWatermark.put(change.getSequence(), now);
+		}
+		advanceWatermark(shard, now);
+	}
+	
+	//Identity values are not committed in order, so watermark moves over a gap only after it times out
+	private void advanceWatermark(int shard, long now) {
+		TreeMap<Long,Long> appliedAboveWatermark = appliedAboveWatermarks.get(shard);
+		while(!appliedAboveWatermark.isEmpty()) {
+			Map.Entry<Long,Long> lowest = appliedAboveWatermark.firstEntry();
+			if(lowest.getKey() != watermarks[shard] + 1 && now - lowest.getValue() < gapTimeoutMs)
+				break;
+			watermarks[shard] = lowest.getKey();
+			appliedAboveWatermark.pollFirstEntry();
+		}
+	}
+	
+	//Watermark of shard 0, the only shard when recipes are not sharded
+	public long getWatermark() {
+		return publishedWatermarks[0];
+	}
+	
+	//Method to return watermark of every shard, in shard order
+	public long[] getWatermarks() {
+		return publishedWatermarks.clone();
+	}
+	
+	//Method to remove change log entries older than configured retention
+	@Scheduled(fixedDelayString = "${recipe.changelog.prune.interval.ms:3600000}")
+	public void pruneChanges() {
+		Date threshold = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours));
+		//A failing shard is logged and left for the next run, the other shards are pruned regardless
+		for(int shard = 0; shard < shards.getShardCount(); shard++) {
+			try {
+				int removed = shards.write(shard, () -> store.deleteChangesOlderThan(threshold));
+				log.debug("Removed "+removed+" change log entries of shard: "+shard+" older than "+threshold);
+			} catch(Exception e) {
+				log.error("Exception caught while pruning recipe change log of shard: "+shard);
+				log.error(ExceptionUtils.getStackTrace(e));
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.abnamro.recipes.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+//Event published for every local recipe write with recipe facets before and after, null before on create
+//and null after on delete, so that aggregates can apply the delta once the write is committed
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class RecipeContentChangeEvent {
+	private final Integer recipeId;
+	private final RecipeFacets before;
+	private final RecipeFacets after;
+}
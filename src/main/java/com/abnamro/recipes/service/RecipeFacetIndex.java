@@ -0,0 +1,257 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeFacetQuery;
+import com.abnamor.recipes.dto.RecipeFacetResult;
+import com.abnamro.recipes.util.Util;
+
+import lombok.extern.slf4j.Slf4j;
+
+//In-memory compressed bitmap index of recipe ids per type, capacity bucket and ingredient. Facet queries and
+//facet counts are answered with bitmap operations, only the returned page of recipes is read from cache or DB.
+//Bitmaps order ints unsigned, so ids are stored with the sign bit flipped to keep negative ids before positive ones.
+@Service
+@Slf4j
+public class RecipeFacetIndex {
+	
+	public static final String TYPE_FACET = "type";
+	public static final String CAPACITY_FACET = "capacity";
+	public static final String INGREDIENT_FACET = "ingredient";
+	
+	private static final RoaringBitmap EMPTY = new RoaringBitmap();
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeCapacityBuckets capacityBuckets;
+	
+	@Value("${recipe.facets.ingredients.top:50}")
+	private int topIngredients;
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	//Bitmaps guarded by lock
+	private Bitmaps bitmaps = new Bitmaps();
+	//Ids written while the index is being built, these are read again once the built index is in place
+	private Set<Integer> writtenDuringBuild;
+	
+	//Build index from all recipes once the application is ready
+	@EventListener(ApplicationReadyEvent.class)
+	public void buildIndex() {
+		lock.writeLock().lock();
+		try {
+			writtenDuringBuild = new HashSet<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		Bitmaps built = new Bitmaps();
+		long indexed = service.exportRecipesFromRepository(recipe -> built.add(recipe.getId(), RecipeFacets.of(recipe)));
+		lock.writeLock().lock();
+		try {
+			bitmaps = built;
+			writtenDuringBuild.forEach(this::reindex);
+			log.info("Recipe facet index built with "+indexed+" recipes, re-read during build: "+writtenDuringBuild.size());
+			writtenDuringBuild = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	//Move recipe between bitmaps once a local write is committed
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeContentChange(RecipeContentChangeEvent event) {
+		lock.writeLock().lock();
+		try {
+			if(event.getBefore() != null)
+				bitmaps.remove(event.getRecipeId(), event.getBefore());
+			else
+				bitmaps.removeEverywhere(event.getRecipeId());
+			if(event.getAfter() != null)
+				bitmaps.add(event.getRecipeId(), event.getAfter());
+			if(writtenDuringBuild != null)
+				writtenDuringBuild.add(event.getRecipeId());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	//Writes of other nodes carry no facets, so the recipe is read again
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeChange(RecipeChangeEvent event) {
+		if(!event.isRemote())
+			return;
+		lock.writeLock().lock();
+		try {
+			reindex(event.getRecipeId());
+			if(writtenDuringBuild != null)
+				writtenDuringBuild.add(event.getRecipeId());
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	//Read recipe with write lock held, so that no newer change is applied before it
+	private void reindex(Integer id) {
+		bitmaps.removeEverywhere(id);
+		Recipe recipe = service.loadRecipeFromRepository(id);
+		if(recipe != null)
+			bitmaps.add(id, RecipeFacets.of(recipe));
+	}
+	
+	//Method to return page of recipes matching given query in id order, after given id, with facet counts
+	public RecipeFacetResult query(RecipeFacetQuery query, Integer afterId, int limit) {
+		RecipeFacetResult result = new RecipeFacetResult();
+		List<Integer> ids = new ArrayList<>(limit);
+		lock.readLock().lock();
+		try {
+			RoaringBitmap matches = bitmaps.match(query);
+			result.setTotal(matches.getLongCardinality());
+			PeekableIntIterator iterator = matches.getIntIterator();
+			if(afterId != null && afterId == Integer.MAX_VALUE)
+				iterator = EMPTY.getIntIterator();
+			else if(afterId != null)
+				iterator.advanceIfNeeded(key(afterId + 1));
+			while(iterator.hasNext() && ids.size() <= limit)
+				ids.add(id(iterator.next()));
+			result.getFacetCounts().put(TYPE_FACET, count(bitmaps.byType, matches, Integer.MAX_VALUE));
+			Map<String,Long> capacityCounts = new LinkedHashMap<>();
+			capacityBuckets.labels().forEach(label -> capacityCounts.put(label,
+					(long) RoaringBitmap.andCardinality(matches, bitmaps.byCapacityBucket.getOrDefault(label, EMPTY))));
+			result.getFacetCounts().put(CAPACITY_FACET, capacityCounts);
+			result.getFacetCounts().put(INGREDIENT_FACET, count(bitmaps.byIngredient, matches, topIngredients));
+		} finally {
+			lock.readLock().unlock();
+		}
+		//Read one extra id to find out if there is a next page
+		if(ids.size() > limit) {
+			ids.remove(limit);
+			result.setNextAfterId(ids.get(limit - 1));
+		}
+		result.setRecipes(service.getRecipesFromRepository(ids));
+		return result;
+	}
+	
+	//Bitmap key of given recipe id, in unsigned order of keys as ids are in signed order
+	private static int key(int id) {
+		return id ^ Integer.MIN_VALUE;
+	}
+	
+	private static int id(int key) {
+		return key ^ Integer.MIN_VALUE;
+	}
+	
+	//Count matches per facet value, most frequent first, values without matches are left out
+	private Map<String,Long> count(Map<String,RoaringBitmap> facet, RoaringBitmap matches, int maxValues) {
+		Map<String,Long> matchCounts = new HashMap<>();
+		facet.forEach((value, bitmap) -> {
+			long matchCount = RoaringBitmap.andCardinality(matches, bitmap);
+			if(matchCount > 0)
+				matchCounts.put(value, matchCount);
+		});
+		Map<String,Long> counts = new LinkedHashMap<>();
+		matchCounts.entrySet().stream()
+				   .sorted(Map.Entry.<String,Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+				   .limit(maxValues)
+				   .forEach(entry -> counts.put(entry.getKey(), entry.getValue()));
+		return counts;
+	}
+	
+	//Bitmaps of recipe ids per facet value, empty bitmaps are removed
+	private class Bitmaps {
+		private final RoaringBitmap all = new RoaringBitmap();
+		private final Map<String,RoaringBitmap> byType = new HashMap<>();
+		private final Map<String,RoaringBitmap> byCapacityBucket = new HashMap<>();
+		private final Map<String,RoaringBitmap> byIngredient = new HashMap<>();
+	
+		private void add(Integer id, RecipeFacets facets) {
+			int key = key(id);
+			all.add(key);
+			add(byType, facets.getType(), key);
+			add(byCapacityBucket, capacityBuckets.label(facets.getServingCapacity()), key);
+			facets.getIngredientNames().forEach(ingredientName -> add(byIngredient, ingredientName, key));
+		}
+	
+		private void remove(Integer id, RecipeFacets facets) {
+			int key = key(id);
+			all.remove(key);
+			remove(byType, facets.getType(), key);
+			remove(byCapacityBucket, capacityBuckets.label(facets.getServingCapacity()), key);
+			facets.getIngredientNames().forEach(ingredientName -> remove(byIngredient, ingredientName, key));
+		}
+	
+		//Remove id without knowing its facets, visits every bitmap
+		private void removeEverywhere(Integer id) {
+			int key = key(id);
+			if(!all.contains(key))
+				return;
+			all.remove(key);
+			new ArrayList<>(byType.keySet()).forEach(type -> remove(byType, type, key));
+			new ArrayList<>(byCapacityBucket.keySet()).forEach(label -> remove(byCapacityBucket, label, key));
+			new ArrayList<>(byIngredient.keySet()).forEach(ingredientName -> remove(byIngredient, ingredientName, key));
+		}
+	
+		private void add(Map<String,RoaringBitmap> facet, String value, int key) {
+			if(value != null)
+				facet.computeIfAbsent(value, facetValue -> new RoaringBitmap()).add(key);
+		}
+	
+		private void remove(Map<String,RoaringBitmap> facet, String value, int key) {
+			RoaringBitmap bitmap = value != null ? facet.get(value) : null;
+			if(bitmap != null) {
+				bitmap.remove(key);
+				if(bitmap.isEmpty())
+					facet.remove(value);
+			}
+		}
+	
+		//Values within one list are OR-ed, lists are AND-ed, all listed ingredients must be present
+		private RoaringBitmap match(RecipeFacetQuery query) {
+			RoaringBitmap matches = all.clone();
+			if(!query.getTypes().isEmpty())
+				matches.and(union(byType, query.getTypes()));
+			if(!query.getCapacities().isEmpty())
+				matches.and(union(byCapacityBucket, query.getCapacities()));
+			for(String ingredientName : normalize(query.getAllIngredients()))
+				matches.and(byIngredient.getOrDefault(ingredientName, EMPTY));
+			if(!query.getAnyIngredients().isEmpty())
+				matches.and(union(byIngredient, normalize(query.getAnyIngredients())));
+			if(!query.getExcludeTypes().isEmpty())
+				matches.andNot(union(byType, query.getExcludeTypes()));
+			if(!query.getExcludeIngredients().isEmpty())
+				matches.andNot(union(byIngredient, normalize(query.getExcludeIngredients())));
+			return matches;
+		}
+	
+		private RoaringBitmap union(Map<String,RoaringBitmap> facet, List<String> values) {
+			return FastAggregation.or(values.stream().map(facet::get).filter(Objects::nonNull).iterator());
+		}
+	
+		private List<String> normalize(List<String> ingredientNames) {
+			return ingredientNames.stream().map(Util::normalizeRecipeName).collect(Collectors.toList());
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.abnamro.recipes.service;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.util.Util;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+//Fields of a recipe which catalog statistics and filters are aggregated over
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class RecipeFacets {
+	private final String type;
+	private final Integer servingCapacity;
+	//Normalized names of distinct ingredients
+	private final Set<String> ingredientNames;
+	
+	public static RecipeFacets of(Recipe recipe) {
+		Set<String> ingredientNames = new LinkedHashSet<>();
+		if(recipe.getIngredientsList() != null)
+			recipe.getIngredientsList().stream().filter(ingredient -> ingredient.getName() != null)
+					.forEach(ingredient -> ingredientNames.add(Util.normalizeRecipeName(ingredient.getName())));
+		return new RecipeFacets(recipe.getType(), recipe.getServingCapacity(), Collections.unmodifiableSet(ingredientNames));
+	}
+}
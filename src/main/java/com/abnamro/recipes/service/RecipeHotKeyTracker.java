@@ -0,0 +1,289 @@
+package com.abnamro.recipes.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.abnamor.recipes.dto.HotRecipe;
+import com.abnamor.recipes.dto.RecipeHotKeys;
+import com.abnamro.recipes.dao.RecipeHotKeyEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipeCoordinationStore;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Tracker of most read recipe ids in fixed memory, a count-min sketch estimates reads of every id and the top K ids
+//are ranked from it. Reads only update the sketch without a lock, the top K is rebuilt from the sketch when it is
+//requested or when enough new ids rose above its entry estimate. Counts are halved periodically so the hot set
+//follows current traffic. Hot recipes are kept mapped in the recipes cache and saved per node, so that they are
+//warmed again right after the next startup.
+@Service
+@Slf4j
+public class RecipeHotKeyTracker {
+	
+	private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+										 0xD6E8FEB86659FD93L, 0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L};
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeCoordinationStore coordinationStore;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	//Hot recipes saved by a node which has not saved since are dropped after this time
+	@Value("${recipe.hotkeys.retention.hours:24}")
+	private long retentionHours;
+	
+	private final boolean enabled;
+	
+	private final int width;
+	
+	private final int depth;
+	
+	private final int topK;
+	
+	private final AtomicLongArray[] sketch;
+	
+	private final AtomicLong totalHits = new AtomicLong();
+	
+	private final TransactionTemplate snapshotTransaction;
+	
+	//Held while the top K is rebuilt or changed, a read filling the candidates rebuilds only when it is free
+	private final ReentrantLock rebuildLock = new ReentrantLock();
+	//Ids outside the top K whose estimate rose above the entry estimate, merged by the next rebuild
+	private final Set<Integer> candidates = ConcurrentHashMap.newKeySet();
+	private final int maxCandidates;
+	//Top K recipes as of the last rebuild, most read first, replaced as a whole and read without lock
+	private volatile List<HotRecipe> topRecipes = Collections.emptyList();
+	private volatile Set<Integer> topIds = Collections.emptySet();
+	//Estimate an id needs to enter a full top K, read without lock on every hit
+	private volatile long entryHits;
+	
+	public RecipeHotKeyTracker(@Value("${recipe.hotkeys.enabled:true}") boolean enabled,
+							   @Value("${recipe.hotkeys.sketch.width:2048}") int width,
+							   @Value("${recipe.hotkeys.sketch.depth:4}") int depth,
+							   @Value("${recipe.hotkeys.top:100}") int topK,
+							   PlatformTransactionManager transactionManager) {
+		this.enabled = enabled;
+		this.width = width;
+		this.depth = Math.min(depth, SEEDS.length);
+		this.topK = topK;
+		this.maxCandidates = Math.max(16, topK);
+		this.sketch = new AtomicLongArray[this.depth];
+		for(int row = 0; row < this.depth; row++)
+			sketch[row] = new AtomicLongArray(width);
+		this.snapshotTransaction = new TransactionTemplate(transactionManager);
+	}
+	
+	//Method to count one read of given recipe, ids already in the top K cost only the sketch update
+	public void record(Integer id) {
+		if(!enabled || id == null)
+			return;
+		totalHits.incrementAndGet();
+		long estimate = Long.MAX_VALUE;
+		for(int row = 0; row < depth; row++)
+			estimate = Math.min(estimate, sketch[row].incrementAndGet(cell(row, id)));
+		if(estimate <= entryHits || topIds.contains(id))
+			return;
+		if(candidates.add(id) && candidates.size() >= maxCandidates && rebuildLock.tryLock()) {
+			try {
+				rebuild();
+			} finally {
+				rebuildLock.unlock();
+			}
+		}
+	}
+	
+	private long estimate(int id) {
+		long estimate = Long.MAX_VALUE;
+		for(int row = 0; row < depth; row++)
+			estimate = Math.min(estimate, sketch[row].get(cell(row, id)));
+		return estimate;
+	}
+	
+	//Rank top K and candidate ids by their current estimates and keep the K highest, caller holds rebuild lock
+	private void rebuild() {
+		Set<Integer> ids = new HashSet<>(topIds);
+		for(Iterator<Integer> iterator = candidates.iterator(); iterator.hasNext(); ) {
+			ids.add(iterator.next());
+			iterator.remove();
+		}
+		publish(ids.stream().map(id -> new HotRecipe(id, estimate(id)))
+				   .sorted(Comparator.comparingLong(HotRecipe::getEstimatedHits).reversed().thenComparing(HotRecipe::getId))
+				   .limit(topK).collect(Collectors.toList()));
+	}
+	
+	private void publish(List<HotRecipe> ranked) {
+		topRecipes = Collections.unmodifiableList(ranked);
+		topIds = ranked.stream().map(HotRecipe::getId).collect(Collectors.toSet());
+		entryHits = ranked.size() < topK ? 0 : ranked.get(ranked.size() - 1).getEstimatedHits();
+	}
+	
+	//Cell of given id in given row, ids are mixed so that neighbouring ids spread over the row
+	private int cell(int row, int id) {
+		long hash = (id + 1L) * SEEDS[row];
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		return (int) ((hash & Long.MAX_VALUE) % width);
+	}
+	
+	//Method to return current top K recipes, most read first
+	public RecipeHotKeys getHotKeys() {
+		RecipeHotKeys hotKeys = new RecipeHotKeys();
+		hotKeys.setTotalHits(totalHits.get());
+		hotKeys.setSketchWidth(width);
+		hotKeys.setSketchDepth(depth);
+		rebuildLock.lock();
+		try {
+			rebuild();
+		} finally {
+			rebuildLock.unlock();
+		}
+		topRecipes.forEach(hotRecipe -> hotKeys.getHotRecipes().add(new HotRecipe(hotRecipe.getId(), hotRecipe.getEstimatedHits())));
+		return hotKeys;
+	}
+	
+	//Method to return ids of current top K recipes, most read first
+	public List<Integer> getHotRecipeIds() {
+		return getHotKeys().getHotRecipes().stream().map(HotRecipe::getId).collect(Collectors.toList());
+	}
+	
+	@Scheduled(fixedDelayString = "${recipe.hotkeys.decay.interval.ms:60000}",
+			   initialDelayString = "${recipe.hotkeys.decay.interval.ms:60000}")
+	public void decayPeriodically() {
+		if(!enabled)
+			return;
+		decay();
+		try {
+			saveHotKeys();
+		} catch(Exception e) {
+			log.error("Exception caught while saving hot recipes: "+e.getMessage());
+		}
+	}
+	
+	//Method to halve all counts, so that reads of the last intervals weigh most
+	public void decay() {
+		for(AtomicLongArray row : sketch)
+			for(int cell = 0; cell < width; cell++)
+				row.updateAndGet(cell, hits -> hits >> 1);
+		totalHits.updateAndGet(hits -> hits >> 1);
+		rebuildLock.lock();
+		try {
+			rebuild();
+		} finally {
+			rebuildLock.unlock();
+		}
+	}
+	
+	//Load hot recipes which are not cached, with one query, and touch cached ones so that LRU keeps them
+	@Scheduled(fixedDelayString = "${recipe.hotkeys.warm.interval.ms:10000}",
+			   initialDelayString = "${recipe.hotkeys.warm.interval.ms:10000}")
+	public void warmCache() {
+		if(!enabled)
+			return;
+		try {
+			List<Integer> ids = getHotRecipeIds();
+			if(!ids.isEmpty())
+				log.debug("Warmed hot recipes in cache: "+service.getRecipesFromRepository(ids).size());
+		} catch(Exception e) {
+			log.error("Exception caught while warming hot recipes: "+e.getMessage());
+		}
+	}
+	
+	//Method to replace hot recipes saved by this node with current top K
+	public void saveHotKeys() {
+		String nodeId = changeLogService.getNodeId();
+		Date savedDateTime = new Date();
+		List<RecipeHotKeyEntity> entities = getHotKeys().getHotRecipes().stream().map(hotRecipe -> {
+			RecipeHotKeyEntity entity = new RecipeHotKeyEntity();
+			entity.setNodeId(nodeId);
+			entity.setRecipeId(hotRecipe.getId());
+			entity.setHits(hotRecipe.getEstimatedHits());
+			entity.setSavedDateTime(savedDateTime);
+			return entity;
+		}).collect(Collectors.toList());
+		if(entities.isEmpty())
+			return;
+		Date staleBefore = new Date(savedDateTime.getTime() - TimeUnit.HOURS.toMillis(retentionHours));
+		snapshotTransaction.executeWithoutResult(status -> {
+			coordinationStore.replaceHotKeys(nodeId, entities, staleBefore);
+		});
+	}
+	
+	@PreDestroy
+	public void saveOnShutdown() {
+		if(!enabled)
+			return;
+		try {
+			saveHotKeys();
+		} catch(Exception e) {
+			log.warn("Hot recipes not saved on shutdown: "+e.getMessage());
+		}
+	}
+	
+	//Seed tracker with hot recipes saved by every node and warm them. Runs before the readiness state changes to
+	//accepting traffic, the port is already open then, so only a load balancer following readiness waits for it.
+	@EventListener(ApplicationReadyEvent.class)
+	public void warmSavedHotKeys() {
+		if(!enabled)
+			return;
+		//A recipe hot on several nodes is seeded once, with its highest saved estimate
+		Collection<RecipeHotKeyEntity> saved = coordinationStore.findHotKeys().stream()
+				.collect(Collectors.toMap(RecipeHotKeyEntity::getRecipeId, Function.identity(), (first, second) -> first,
+										  LinkedHashMap::new)).values();
+		saved.stream().limit(topK).forEach(entity -> {
+			long hits = Math.max(1, entity.getHits());
+			for(int row = 0; row < depth; row++)
+				sketch[row].addAndGet(cell(row, entity.getRecipeId()), hits);
+			totalHits.addAndGet(hits);
+			candidates.add(entity.getRecipeId());
+		});
+		warmCache();
+		log.info("Hot recipes warmed from last saved snapshot: "+Math.min(saved.size(), topK));
+	}
+	
+	//Deleted recipes leave the top K at once
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeChange(RecipeChangeEvent event) {
+		if(event.getOperation() != RecipeOperation.DELETE)
+			return;
+		rebuildLock.lock();
+		try {
+			candidates.remove(event.getRecipeId());
+			if(topIds.contains(event.getRecipeId()))
+				publish(topRecipes.stream().filter(hotRecipe -> !hotRecipe.getId().equals(event.getRecipeId()))
+								  .collect(Collectors.toList()));
+		} finally {
+			rebuildLock.unlock();
+		}
+	}
+}
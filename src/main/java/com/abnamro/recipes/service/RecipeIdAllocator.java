@@ -0,0 +1,77 @@
+package com.abnamro.recipes.service;
+
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.abnamro.recipes.repository.RecipeCoordinationStore;
+import com.abnamro.recipes.repository.RecipeStore;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Hi-lo allocator for server assigned recipe ids, enabled with recipe.id.mode=server. Each node reserves a block
+//of ids with one locked update and hands them out from memory, unused ids of a block are lost on restart.
+@Component
+@Slf4j
+public class RecipeIdAllocator {
+	
+	private static final String BLOCK_NAME = "recipe";
+	
+	@Autowired
+	private RecipeCoordinationStore coordinationStore;
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	private final boolean enabled;
+	
+	private final int blockSize;
+	
+	private final long initialValue;
+	
+	private long nextId;
+	
+	private long blockLimit;
+	
+	public RecipeIdAllocator(@Value("${recipe.id.mode:client}") String mode,
+							 @Value("${recipe.id.block.size:1000}") int blockSize,
+							 @Value("${recipe.id.initial.value:1}") long initialValue) {
+		this.enabled = "server".equalsIgnoreCase(mode);
+		this.blockSize = blockSize;
+		this.initialValue = initialValue;
+	}
+	
+	//Method to tell if recipes without id get a server assigned id
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	//Method to hand out next id, a DB round-trip happens only once per block
+	public synchronized int nextId() {
+		if(nextId >= blockLimit) {
+			nextId = reserveBlock();
+			blockLimit = nextId + blockSize;
+			log.info("Reserved recipe id block from: "+nextId+" to: "+(blockLimit - 1));
+		}
+		return (int) nextId++;
+	}
+	
+	private long reserveBlock() {
+		long start = coordinationStore.reserveIdBlock(BLOCK_NAME, blockSize, this::initialBlockStart);
+		if(start + blockSize - 1 > Integer.MAX_VALUE)
+			throw new IllegalStateException("Recipe id range exhausted at: "+start);
+		return start;
+	}
+	
+	//First reservation starts above existing recipes of all shards, so ids given by clients before are never reused
+	private long initialBlockStart() {
+		Integer maxId = shards.scatterAll(shard -> shards.read(shard, store::findMaxId)).stream()
+							  .filter(Objects::nonNull).max(Integer::compare).orElse(null);
+		return Math.max(initialValue, maxId != null ? maxId + 1L : 1L);
+	}
+}
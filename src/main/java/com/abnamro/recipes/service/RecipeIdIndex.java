@@ -0,0 +1,149 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipeStore;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+//Exact in-memory set of stored recipe ids, so that lookups of ids which do not exist are answered without DB.
+//Built once the application is ready, kept current from change events and rebuilt periodically to pick up
+//writes which bypass the application. Until built every id may exist.
+@Service
+@Slf4j
+public class RecipeIdIndex {
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	@Value("${recipe.id.index.enabled:true}")
+	private boolean enabled;
+	
+	private final Counter missCounter;
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	//Ids guarded by lock, null until first build
+	private RoaringBitmap ids;
+	//Changes made while the index is being built, applied again once the built index is in place
+	private List<RecipeChangeEvent> changesDuringBuild;
+	
+	public RecipeIdIndex(MeterRegistry meterRegistry) {
+		this.missCounter = Counter.builder("recipes.id.index.misses").register(meterRegistry);
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void buildIndex() {
+		if(enabled)
+			rebuild();
+	}
+	
+	@Scheduled(fixedDelayString = "${recipe.id.index.rebuild.interval.ms:300000}",
+			   initialDelayString = "${recipe.id.index.rebuild.interval.ms:300000}")
+	public void rebuildPeriodically() {
+		if(!enabled)
+			return;
+		try {
+			rebuild();
+		} catch(Exception e) {
+			log.error("Exception caught while rebuilding recipe id index: "+e.getMessage());
+		}
+	}
+	
+	//Method to read all recipe ids from DB and replace index, skipped while another build runs
+	public void rebuild() {
+		lock.writeLock().lock();
+		try {
+			if(changesDuringBuild != null)
+				return;
+			changesDuringBuild = new ArrayList<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		RoaringBitmap built = new RoaringBitmap();
+		boolean completed = false;
+		try {
+			//Ids of every shard are read in parallel into own bitmaps, which are then combined
+			shards.scatterAll(shard -> shards.read(shard, () -> {
+				RoaringBitmap shardIds = new RoaringBitmap();
+				try(Stream<Integer> recipeIds = store.streamAllIds()) {
+					recipeIds.forEach(shardIds::add);
+				}
+				return shardIds;
+			})).forEach(built::or);
+			completed = true;
+		} finally {
+			//Failed build keeps the current index
+			lock.writeLock().lock();
+			try {
+				if(completed) {
+					changesDuringBuild.forEach(change -> apply(built, change));
+					ids = built;
+				}
+				changesDuringBuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		log.info("Recipe id index built with "+built.getLongCardinality()+" ids");
+	}
+	
+	//Applied before other listeners, which may read the changed recipe through the index
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeChange(RecipeChangeEvent event) {
+		lock.writeLock().lock();
+		try {
+			if(ids != null)
+				apply(ids, event);
+			if(changesDuringBuild != null)
+				changesDuringBuild.add(event);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private void apply(RoaringBitmap bitmap, RecipeChangeEvent event) {
+		if(event.getOperation() == RecipeOperation.DELETE)
+			bitmap.remove(event.getRecipeId());
+		else
+			bitmap.add(event.getRecipeId());
+	}
+	
+	//Method to tell if a recipe with given id may be stored, false is definite
+	public boolean mightExist(Integer id) {
+		if(!enabled || id == null)
+			return true;
+		boolean exists;
+		lock.readLock().lock();
+		try {
+			exists = ids == null || ids.contains(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+		if(!exists)
+			missCounter.increment();
+		return exists;
+	}
+}
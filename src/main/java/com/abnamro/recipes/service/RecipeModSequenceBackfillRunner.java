@@ -0,0 +1,74 @@
+package com.abnamro.recipes.service;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipeStore;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Runner to give recipes stored before the column was added a modification sequence, so that delta sync without a
+//watermark returns them. Every recipe gets a change log entry of its own, since a sync page ends at a sequence and
+//recipes sharing one could be skipped. Finds nothing to do once every recipe has its sequence.
+@Component
+@Slf4j
+public class RecipeModSequenceBackfillRunner implements ApplicationRunner {
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Value("${recipe.sync.backfill.batch.size:500}")
+	private int batchSize;
+	
+	@Override
+	public void run(ApplicationArguments args) {
+		for(int shard = 0; shard < shards.getShardCount(); shard++)
+			backfill(shard);
+	}
+	
+	//Every batch is written in one transaction. Recipes are read again in it, so that a write since the batch was
+	//listed is neither overwritten nor given a second sequence.
+	private void backfill(int shard) {
+		int filled = 0;
+		Integer afterId = Integer.MIN_VALUE;
+		List<Integer> ids;
+		do {
+			Integer fromId = afterId;
+			ids = shards.read(shard, () -> store.findRecipesWithoutModSequenceAfter(fromId, PageRequest.of(0, batchSize)))
+						.stream().map(RecipeEntity::getId).collect(Collectors.toList());
+			if(ids.isEmpty())
+				break;
+			List<Integer> batchIds = ids;
+			filled += shards.write(shard, () -> {
+				int count = 0;
+				for(Integer id : batchIds) {
+					RecipeEntity recipeEntity = store.findById(id).orElse(null);
+					if(recipeEntity == null || recipeEntity.getModSequence() != null)
+						continue;
+					recipeEntity.setModSequence(changeLogService.appendChange(id, RecipeOperation.UPDATE));
+					store.save(recipeEntity);
+					count++;
+				}
+				return count;
+			});
+			afterId = ids.get(ids.size() - 1);
+		} while(ids.size() == batchSize);
+		if(filled > 0)
+			log.info("Filled in modification sequence of "+filled+" recipes on shard: "+shard);
+	}
+}
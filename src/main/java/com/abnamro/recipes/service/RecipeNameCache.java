@@ -0,0 +1,80 @@
+package com.abnamro.recipes.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Small LRU cache from normalized recipe name to recipe id, the recipe itself is served from RecipesCache
+@Component
+@Slf4j
+public class RecipeNameCache {
+	
+	private final boolean enabled;
+	private final Map<String,Integer> ids;
+	//Reverse map, so that a change of a recipe drops its name without scanning the cache
+	private final Map<Integer,String> nameKeys = new HashMap<>();
+	//Incremented on every invalidation, used to reject loads which raced with a write
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	public RecipeNameCache(@Value("${recipe.cache.enabled:true}") boolean enabled,
+						   @Value("${recipe.name.cache.max.size:1000}") int maxSize) {
+		this.enabled = enabled;
+		this.ids = new LinkedHashMap<String,Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Integer> eldest) {
+				if(size() <= maxSize)
+					return false;
+				nameKeys.remove(eldest.getValue());
+				return true;
+			}
+		};
+		log.debug("Recipe name cache enabled: "+enabled+", max size: "+maxSize);
+	}
+	
+	//Method to return cached id for given normalized name, null if not cached
+	public synchronized Integer get(String nameKey) {
+		return enabled ? ids.get(nameKey) : null;
+	}
+	
+	//Method to return current invalidation stamp, to be taken before looking up a name in DB
+	public long stamp() {
+		return invalidations.get();
+	}
+	
+	//Method to cache given name to id, unless an invalidation happened since given stamp was taken
+	public synchronized void put(String nameKey, Integer id, long stamp) {
+		if(enabled && stamp == invalidations.get()) {
+			String previousKey = nameKeys.put(id, nameKey);
+			if(previousKey != null && !previousKey.equals(nameKey))
+				ids.remove(previousKey);
+			ids.put(nameKey, id);
+		}
+	}
+	
+	//Method to drop cached name of given recipe id
+	public synchronized void invalidate(Integer id) {
+		invalidations.incrementAndGet();
+		String nameKey = nameKeys.remove(id);
+		if(nameKey != null)
+			ids.remove(nameKey);
+	}
+	
+	public synchronized int size() {
+		return ids.size();
+	}
+	
+	//Drop cached name once the write is committed, renamed or deleted recipes must not be found by old name
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeChange(RecipeChangeEvent event) {
+		invalidate(event.getRecipeId());
+	}
+}
@@ -0,0 +1,76 @@
+package com.abnamro.recipes.service;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.repository.RecipeStore;
+import com.abnamro.recipes.util.Util;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Runner to fill in name key of recipes stored before the column was added, with the same normalization as writes
+//and lookups, which SQL cannot do. Finds nothing to do once every recipe has its key.
+@Component
+@Slf4j
+public class RecipeNameKeyBackfillRunner implements ApplicationRunner {
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	@Value("${recipe.name.backfill.batch.size:500}")
+	private int batchSize;
+	
+	@Override
+	public void run(ApplicationArguments args) {
+		for(int shard = 0; shard < shards.getShardCount(); shard++)
+			backfill(shard);
+	}
+	
+	//Every batch is written in one transaction. A batch failing on a name key taken twice is written again recipe by
+	//recipe, so that only recipes whose normalized name clashes keep an empty key.
+	private void backfill(int shard) {
+		int filled = 0;
+		Integer afterId = Integer.MIN_VALUE;
+		List<RecipeEntity> batch;
+		do {
+			Integer fromId = afterId;
+			batch = shards.read(shard, () -> store.findRecipesWithoutNameKeyAfter(fromId, PageRequest.of(0, batchSize)));
+			if(batch.isEmpty())
+				break;
+			batch.forEach(recipeEntity -> recipeEntity.setNameKey(Util.normalizeRecipeName(recipeEntity.getName())));
+			List<RecipeEntity> keyed = batch;
+			try {
+				filled += shards.write(shard, () -> {
+					keyed.forEach(store::save);
+					return keyed.size();
+				});
+			} catch(DataAccessException e) {
+				for(RecipeEntity recipeEntity : batch) {
+					try {
+						filled += shards.write(shard, () -> {
+							store.save(recipeEntity);
+							return 1;
+						});
+					} catch(DataAccessException clash) {
+						log.error("Name key of recipe id: "+recipeEntity.getId()+" name: "+recipeEntity.getName()+
+								  " is taken by another recipe, rename one of them");
+					}
+				}
+			}
+			afterId = batch.get(batch.size() - 1).getId();
+		} while(batch.size() == batchSize);
+		if(filled > 0)
+			log.info("Filled in name key of "+filled+" recipes on shard: "+shard);
+	}
+}
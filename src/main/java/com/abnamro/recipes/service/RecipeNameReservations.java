@@ -0,0 +1,74 @@
+package com.abnamro.recipes.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.dao.RecipeNameReservationEntity;
+import com.abnamro.recipes.repository.RecipeCoordinationStore;
+import com.abnamro.recipes.repository.RecipeStore;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Keeps normalized recipe names unique across shards, where the unique name key index holds per shard only. A write
+//setting names locks the reservation row of each name key on shard 0, checks no other recipe on any shard has the
+//key and keeps the locks until its own shard has committed, so that a second write of the name sees the first.
+//With one shard the unique index is enough and writes run as they are.
+@Component
+@Slf4j
+public class RecipeNameReservations {
+	
+	@Autowired
+	private RecipeCoordinationStore coordinationStore;
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	//Method to run given write holding reservations of given name keys, each mapped to the id of the recipe taking it
+	public <T> T withNames(Map<String,Integer> idsByNameKey, Supplier<T> write) {
+		if(!shards.isSharded() || idsByNameKey.isEmpty())
+			return write.get();
+		//Keys are locked in order, so that writes of several names never wait for each other in a cycle
+		TreeMap<String,Integer> orderedIds = new TreeMap<>(idsByNameKey);
+		orderedIds.keySet().forEach(this::createReservation);
+		return shards.write(0, () -> {
+			orderedIds.forEach(this::reserve);
+			return write.get();
+		});
+	}
+	
+	//Reservation row is created in its own transaction, a failed insert would leave the locking one rollback-only
+	private void createReservation(String nameKey) {
+		try {
+			shards.write(0, () -> {
+				coordinationStore.createNameReservation(nameKey);
+				return null;
+			});
+		} catch(DataIntegrityViolationException e) {
+			log.debug("Reservation of name key: "+nameKey+" created concurrently");
+		}
+	}
+	
+	//Lock reservation of given name key and fail when a recipe other than given one has the key on any shard
+	private void reserve(String nameKey, Integer id) {
+		RecipeNameReservationEntity reservation = coordinationStore.lockNameReservation(nameKey)
+				.orElseThrow(() -> new IllegalStateException("Reservation of name key: "+nameKey+" is missing"));
+		List<Integer> ownerIds = shards.scatterAll(shard -> shards.read(shard, () ->
+				store.findFirstByNameKey(nameKey).map(RecipeEntity::getId).orElse(null)));
+		Optional<Integer> otherOwner = ownerIds.stream().filter(Objects::nonNull).filter(ownerId -> !ownerId.equals(id)).findFirst();
+		if(otherOwner.isPresent())
+			throw new DataIntegrityViolationException("Recipe name is already used by recipe with id "+otherOwner.get());
+		reservation.setRecipeId(id);
+	}
+}
@@ -0,0 +1,401 @@
+package com.abnamro.recipes.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.abnamor.recipes.dto.Ingredient;
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.util.Util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+//Second cache tier behind the recipes cache holding recipes binary encoded in direct memory, outside the GC heap.
+//Memory is allocated in slabs, each slab is cut into chunks of one size class and freed chunks are reused from a
+//free list. Once the memory limit is reached a chunk of the size class needed is taken back from the least recently
+//read recipes with a clock over the chunks. Slabs move to a size class which has none or evicts the most, so that a
+//shift in recipe sizes is followed. Only an id to chunk index stays on the heap, recipes are decoded when read.
+@Component
+@Slf4j
+public class RecipeOffHeapCache {
+	
+	//Recipe id and length of the encoding at the start of every chunk
+	private static final int CHUNK_HEADER = 8;
+	
+	private static final int MIN_CHUNK_SIZE = 256;
+	
+	private static final double CHUNK_GROWTH = 1.25;
+	
+	private static final long NULL_LONG = Long.MIN_VALUE;
+	private static final int NULL_INT = Integer.MIN_VALUE;
+	
+	private final boolean enabled;
+	
+	private final int slabSize;
+	
+	private final long maxBytes;
+	
+	private final SizeClass[] sizeClasses;
+	
+	//Size class in the high and chunk in the low half of the slot of every cached recipe, guarded by this
+	private final Map<Integer,Long> slots = new HashMap<>();
+	
+	private long allocatedBytes;
+	
+	private final Counter evictedCounter;
+	
+	private final Counter oversizedCounter;
+	
+	private final Counter droppedCounter;
+	
+	private final Counter slabMovedCounter;
+	
+	public RecipeOffHeapCache(@Value("${recipe.cache.offheap.enabled:true}") boolean enabled,
+							  @Value("${recipe.cache.offheap.max.mb:64}") int maxMb,
+							  @Value("${recipe.cache.offheap.slab.kb:1024}") int slabKb,
+							  MeterRegistry meterRegistry) {
+		this.enabled = enabled;
+		this.slabSize = slabKb * 1024;
+		this.maxBytes = maxMb * 1024L * 1024L;
+		List<SizeClass> classes = new ArrayList<>();
+		for(double size = MIN_CHUNK_SIZE; size < slabSize; size *= CHUNK_GROWTH)
+			classes.add(new SizeClass(classes.size(), ((int) size + 7) & ~7));
+		classes.add(new SizeClass(classes.size(), slabSize));
+		this.sizeClasses = classes.toArray(new SizeClass[0]);
+		this.evictedCounter = Counter.builder("recipes.cache.offheap.evicted").register(meterRegistry);
+		this.oversizedCounter = Counter.builder("recipes.cache.offheap.oversized").register(meterRegistry);
+		this.droppedCounter = Counter.builder("recipes.cache.offheap.dropped").register(meterRegistry);
+		this.slabMovedCounter = Counter.builder("recipes.cache.offheap.slab.moved").register(meterRegistry);
+		Gauge.builder("recipes.cache.offheap.entries", this, RecipeOffHeapCache::size).register(meterRegistry);
+		Gauge.builder("recipes.cache.offheap.allocated.bytes", this, RecipeOffHeapCache::getAllocatedBytes).register(meterRegistry);
+		log.debug("Off-heap recipes cache enabled: "+enabled+", max bytes: "+maxBytes+", size classes: "+sizeClasses.length);
+	}
+	
+	//Method to return cached recipe for given id decoded into a new instance, null if not cached
+	public Recipe get(Integer id) {
+		if(!enabled)
+			return null;
+		byte[] encoded;
+		synchronized(this) {
+			Long slot = slots.get(id);
+			if(slot == null)
+				return null;
+			SizeClass sizeClass = sizeClasses[(int) (slot >>> 32)];
+			int chunk = (int) (long) slot;
+			sizeClass.referenced.set(chunk);
+			ByteBuffer buffer = sizeClass.chunk(chunk);
+			buffer.getInt();
+			encoded = new byte[buffer.getInt()];
+			buffer.get(encoded);
+		}
+		return decode(encoded);
+	}
+	
+	//Method to cache given recipe, replacing the cached one, recipes larger than a slab are not cached
+	public void put(Integer id, Recipe recipe) {
+		if(!enabled)
+			return;
+		byte[] encoded = encode(recipe);
+		synchronized(this) {
+			remove(id);
+			int classIndex = sizeClassOf(CHUNK_HEADER + encoded.length);
+			if(classIndex < 0) {
+				oversizedCounter.increment();
+				return;
+			}
+			SizeClass sizeClass = sizeClasses[classIndex];
+			int chunk = allocate(sizeClass);
+			if(chunk < 0) {
+				droppedCounter.increment();
+				return;
+			}
+			ByteBuffer buffer = sizeClass.chunk(chunk);
+			buffer.putInt(id);
+			buffer.putInt(encoded.length);
+			buffer.put(encoded);
+			sizeClass.used.set(chunk);
+			slots.put(id, ((long) classIndex << 32) | chunk);
+		}
+	}
+	
+	//Method to drop cached recipe for given id
+	public synchronized void invalidate(Integer id) {
+		remove(id);
+	}
+	
+	//Method to drop all cached recipes, slabs are kept for reuse
+	public synchronized void invalidateAll() {
+		slots.clear();
+		for(SizeClass sizeClass : sizeClasses)
+			sizeClass.freeAll();
+	}
+	
+	public synchronized int size() {
+		return slots.size();
+	}
+	
+	//Method to return bytes of direct memory taken by slabs
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
+	private void remove(Integer id) {
+		Long slot = slots.remove(id);
+		if(slot != null)
+			sizeClasses[(int) (slot >>> 32)].free((int) (long) slot);
+	}
+	
+	//Smallest size class with chunks of at least given size, -1 when it is larger than a slab
+	private int sizeClassOf(int size) {
+		for(int classIndex = 0; classIndex < sizeClasses.length; classIndex++) {
+			if(sizeClasses[classIndex].chunkSize >= size)
+				return classIndex;
+		}
+		return -1;
+	}
+	
+	//Free chunk of given size class, from free list, from a new slab while under the limit, from a slab moved from
+	//another class or taken from another recipe of the class. Returns -1 when no class can give the class a slab.
+	private int allocate(SizeClass sizeClass) {
+		if(sizeClass.freeCount == 0 && allocatedBytes + slabSize <= maxBytes) {
+			sizeClass.addSlab(ByteBuffer.allocateDirect(slabSize));
+			allocatedBytes += slabSize;
+		}
+		if(sizeClass.freeCount == 0 && (sizeClass.slabs.isEmpty() || sizeClass.evictions >= sizeClass.chunksPerSlab))
+			moveSlabTo(sizeClass);
+		if(sizeClass.freeCount > 0)
+			return sizeClass.free[--sizeClass.freeCount];
+		int chunks = sizeClass.chunks();
+		//Second pass over all chunks finds one whose reference was cleared by the first
+		for(int step = 0; step < 2 * chunks; step++) {
+			int chunk = sizeClass.hand;
+			sizeClass.hand = (sizeClass.hand + 1) % chunks;
+			if(!sizeClass.used.get(chunk))
+				continue;
+			if(sizeClass.referenced.get(chunk)) {
+				sizeClass.referenced.clear(chunk);
+				continue;
+			}
+			slots.remove(sizeClass.chunk(chunk).getInt());
+			sizeClass.used.clear(chunk);
+			sizeClass.evictions++;
+			evictedCounter.increment();
+			return chunk;
+		}
+		return -1;
+	}
+	
+	//Move a slab to given class, which has none or evicted a slab worth of recipes since slabs were last moved. The
+	//slab comes from the class with the most free memory, then the one evicting least, but never from a class which
+	//evicts as much as given one. Evictions start counting again, so that slabs do not move back and forth.
+	private void moveSlabTo(SizeClass sizeClass) {
+		SizeClass donor = null;
+		for(SizeClass candidate : sizeClasses) {
+			if(candidate == sizeClass || candidate.slabs.isEmpty() ||
+			   (!sizeClass.slabs.isEmpty() && candidate.evictions >= sizeClass.evictions))
+				continue;
+			long freeBytes = (long) candidate.freeCount * candidate.chunkSize;
+			long donorFreeBytes = donor != null ? (long) donor.freeCount * donor.chunkSize : -1;
+			if(freeBytes > donorFreeBytes || (freeBytes == donorFreeBytes && candidate.evictions < donor.evictions))
+				donor = candidate;
+		}
+		for(SizeClass each : sizeClasses)
+			each.evictions = 0;
+		if(donor == null)
+			return;
+		log.debug("Moving off-heap slab from chunks of "+donor.chunkSize+" to chunks of "+sizeClass.chunkSize+" bytes");
+		sizeClass.addSlab(donor.removeSlab());
+		slabMovedCounter.increment();
+	}
+	
+	//Encoding: id, creation, capacity, name, type, instructions, formatted creation, ingredient count and for every
+	//ingredient its name and quantity. Strings are UTF-8 with their byte length, -1 for null.
+	static byte[] encode(Recipe recipe) {
+		List<byte[]> strings = new ArrayList<>();
+		strings.add(bytes(recipe.getName()));
+		strings.add(bytes(recipe.getType()));
+		strings.add(bytes(recipe.getInstructions()));
+		strings.add(bytes(recipe.getCDateTimeString()));
+		List<Ingredient> ingredients = recipe.getIngredientsList();
+		if(ingredients != null) {
+			ingredients.forEach(ingredient -> {
+				strings.add(bytes(ingredient.getName()));
+				strings.add(bytes(ingredient.getQuantity()));
+			});
+		}
+		int size = 4 + 8 + 4 + 4 + strings.stream().mapToInt(value -> 4 + (value != null ? value.length : 0)).sum();
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(recipe.getId());
+		buffer.putLong(recipe.getCreationDateTime() != null ? recipe.getCreationDateTime().getTime() : NULL_LONG);
+		buffer.putInt(recipe.getServingCapacity() != null ? recipe.getServingCapacity() : NULL_INT);
+		for(int index = 0; index < 4; index++)
+			putString(buffer, strings.get(index));
+		buffer.putInt(ingredients != null ? ingredients.size() : -1);
+		for(int index = 4; index < strings.size(); index++)
+			putString(buffer, strings.get(index));
+		return buffer.array();
+	}
+	
+	private static void putString(ByteBuffer buffer, byte[] value) {
+		buffer.putInt(value != null ? value.length : -1);
+		if(value != null)
+			buffer.put(value);
+	}
+	
+	static Recipe decode(byte[] encoded) {
+		ByteBuffer buffer = ByteBuffer.wrap(encoded);
+		Recipe recipe = new Recipe();
+		recipe.setId(buffer.getInt());
+		long creation = buffer.getLong();
+		recipe.setCreationDateTime(creation != NULL_LONG ? new Date(creation) : null);
+		int capacity = buffer.getInt();
+		recipe.setServingCapacity(capacity != NULL_INT ? capacity : null);
+		recipe.setName(string(buffer));
+		recipe.setType(string(buffer));
+		recipe.setInstructions(string(buffer));
+		recipe.setCDateTimeString(string(buffer));
+		int ingredientCount = buffer.getInt();
+		if(ingredientCount < 0) {
+			recipe.setIngredientsList(null);
+		} else {
+			Ingredient[] ingredients = new Ingredient[ingredientCount];
+			for(int index = 0; index < ingredientCount; index++)
+				ingredients[index] = new Ingredient(Util.internIngredientString(string(buffer)),
+													Util.internIngredientString(string(buffer)));
+			recipe.setIngredientsList(Arrays.asList(ingredients));
+		}
+		return recipe;
+	}
+	
+	private static byte[] bytes(String value) {
+		return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+	}
+	
+	private static String string(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0)
+			return null;
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+	
+	//Slabs cut into chunks of one size, a chunk is used when it holds a recipe and referenced when read since the
+	//clock hand passed it
+	private class SizeClass {
+		private final int index;
+		private final int chunkSize;
+		private final int chunksPerSlab;
+		private final List<ByteBuffer> slabs = new ArrayList<>();
+		private int[] free = new int[0];
+		private int freeCount;
+		private final BitSet used = new BitSet();
+		private final BitSet referenced = new BitSet();
+		private int hand;
+		//Recipes evicted since slabs were last moved
+		private long evictions;
+	
+		private SizeClass(int index, int chunkSize) {
+			this.index = index;
+			this.chunkSize = chunkSize;
+			this.chunksPerSlab = slabSize / chunkSize;
+		}
+	
+		private int chunks() {
+			return slabs.size() * chunksPerSlab;
+		}
+	
+		//Chunks of a new slab are pushed so that the lowest is used first
+		private void addSlab(ByteBuffer slab) {
+			int first = chunks();
+			slabs.add(slab);
+			free = Arrays.copyOf(free, chunks());
+			for(int chunk = first + chunksPerSlab - 1; chunk >= first; chunk--)
+				free[freeCount++] = chunk;
+		}
+		
+		//Recipes of the slab with fewest of them are evicted and the last slab is copied into its place, so that chunk
+		//numbers stay dense, then the last slab is handed out
+		private ByteBuffer removeSlab() {
+			int victim = 0;
+			int victimUsed = Integer.MAX_VALUE;
+			for(int slab = 0; slab < slabs.size(); slab++) {
+				int slabUsed = used.get(slab * chunksPerSlab, (slab + 1) * chunksPerSlab).cardinality();
+				if(slabUsed < victimUsed) {
+					victim = slab;
+					victimUsed = slabUsed;
+				}
+			}
+			int victimEnd = (victim + 1) * chunksPerSlab;
+			for(int chunk = used.nextSetBit(victim * chunksPerSlab); chunk >= 0 && chunk < victimEnd;
+					 chunk = used.nextSetBit(chunk + 1)) {
+				slots.remove(chunk(chunk).getInt());
+				evictedCounter.increment();
+			}
+			int last = slabs.size() - 1;
+			if(victim != last) {
+				ByteBuffer target = slabs.get(victim).duplicate();
+				ByteBuffer source = slabs.get(last).duplicate();
+				target.clear();
+				source.clear();
+				target.put(source);
+				int shift = (last - victim) * chunksPerSlab;
+				for(int chunk = last * chunksPerSlab; chunk < (last + 1) * chunksPerSlab; chunk++) {
+					used.set(chunk - shift, used.get(chunk));
+					referenced.set(chunk - shift, referenced.get(chunk));
+					if(used.get(chunk))
+						slots.put(chunk(chunk - shift).getInt(), ((long) index << 32) | (chunk - shift));
+				}
+			}
+			used.clear(last * chunksPerSlab, (last + 1) * chunksPerSlab);
+			referenced.clear(last * chunksPerSlab, (last + 1) * chunksPerSlab);
+			ByteBuffer slab = slabs.remove(last);
+			//Free list held chunks of both slabs, it is built again from the chunks left
+			free = new int[chunks()];
+			freeCount = 0;
+			for(int chunk = chunks() - 1; chunk >= 0; chunk--) {
+				if(!used.get(chunk))
+					free[freeCount++] = chunk;
+			}
+			if(hand >= chunks())
+				hand = 0;
+			return slab;
+		}
+	
+		//Buffer positioned at start of given chunk and limited to its end
+		private ByteBuffer chunk(int chunk) {
+			ByteBuffer buffer = slabs.get(chunk / chunksPerSlab).duplicate();
+			int offset = (chunk % chunksPerSlab) * chunkSize;
+			buffer.limit(offset + chunkSize);
+			buffer.position(offset);
+			return buffer;
+		}
+	
+		private void free(int chunk) {
+			used.clear(chunk);
+			referenced.clear(chunk);
+			free[freeCount++] = chunk;
+		}
+	
+		private void freeAll() {
+			used.clear();
+			referenced.clear();
+			freeCount = 0;
+			for(int chunk = chunks() - 1; chunk >= 0; chunk--)
+				free[freeCount++] = chunk;
+			hand = 0;
+		}
+	}
+}
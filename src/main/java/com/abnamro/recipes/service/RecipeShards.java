@@ -0,0 +1,181 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.abnamro.recipes.config.ShardContext;
+import com.abnamro.recipes.exceptions.BadRequestException;
+import com.abnamro.recipes.exceptions.ErrorMessages;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Placement of recipes on shards by hash of their id and execution of work on one shard or on all shards at once.
+//Without extra shard urls there is one shard, work runs on the calling thread and joins its transaction.
+@Service
+@Slf4j
+public class RecipeShards {
+	
+	private final int shardCount;
+	
+	private final TransactionTemplate writeTransaction;
+	
+	private final TransactionTemplate readTransaction;
+	
+	//Runs work of every shard in parallel, null with one shard
+	private final ExecutorService scatterPool;
+	
+	public RecipeShards(@Value("${recipe.shards.urls:}") String shardUrls,
+						@Value("${recipe.shards.scatter.threads:0}") int scatterThreads,
+						PlatformTransactionManager transactionManager) {
+		this.shardCount = parseShardUrls(shardUrls).size() + 1;
+		//Each shard has its own connection, so work on a shard never joins a transaction of another shard
+		int propagation = shardCount > 1 ? TransactionDefinition.PROPAGATION_REQUIRES_NEW : TransactionDefinition.PROPAGATION_REQUIRED;
+		this.writeTransaction = new TransactionTemplate(transactionManager);
+		this.writeTransaction.setPropagationBehavior(propagation);
+		this.readTransaction = new TransactionTemplate(transactionManager);
+		this.readTransaction.setPropagationBehavior(propagation);
+		this.readTransaction.setReadOnly(true);
+		if(shardCount > 1) {
+			AtomicInteger threadCount = new AtomicInteger();
+			this.scatterPool = Executors.newFixedThreadPool(scatterThreads > 0 ? scatterThreads : 2 * shardCount, runnable -> {
+				Thread thread = new Thread(runnable, "shard-scatter-"+threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else
+			this.scatterPool = null;
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		if(scatterPool != null)
+			scatterPool.shutdownNow();
+	}
+	
+	//Method to split comma separated shard urls, blank entries are left out
+	public static List<String> parseShardUrls(String shardUrls) {
+		if(shardUrls == null)
+			return new ArrayList<>();
+		return Arrays.stream(shardUrls.split(",")).map(String::trim).filter(url -> !url.isEmpty()).collect(Collectors.toList());
+	}
+	
+	public int getShardCount() {
+		return shardCount;
+	}
+	
+	public boolean isSharded() {
+		return shardCount > 1;
+	}
+	
+	//Shard of given recipe id, ids are mixed so that ranges of consecutive ids spread over all shards
+	public int shardOf(Integer id) {
+		if(shardCount == 1)
+			return 0;
+		int hash = id;
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		hash *= 0xC2B2AE35;
+		hash ^= hash >>> 16;
+		return Math.floorMod(hash, shardCount);
+	}
+	
+	//Method to run given work in a write transaction on given shard
+	public <T> T write(int shard, Supplier<T> work) {
+		return onShard(shard, () -> writeTransaction.execute(status -> work.get()));
+	}
+	
+	//Method to run given work in a read-only transaction on given shard
+	public <T> T read(int shard, Supplier<T> work) {
+		return onShard(shard, () -> readTransaction.execute(status -> work.get()));
+	}
+	
+	private <T> T onShard(int shard, Supplier<T> work) {
+		Integer previous = ShardContext.setCurrentShard(shard);
+		try {
+			return work.get();
+		} finally {
+			ShardContext.setCurrentShard(previous);
+		}
+	}
+	
+	//Method to run given work on every shard in parallel, results are returned in shard order
+	public <T> List<T> scatterAll(IntFunction<T> work) {
+		return scatter(IntStream.range(0, shardCount).boxed().collect(Collectors.toList()), work);
+	}
+	
+	//Method to run given work on given shards in parallel, results are returned in order of given shards. Work
+	//opens its own transaction through read or write, a failure on any shard fails the whole call.
+	public <T> List<T> scatter(Collection<Integer> shards, IntFunction<T> work) {
+		List<T> results = new ArrayList<>(shards.size());
+		if(scatterPool == null || shards.size() == 1) {
+			shards.forEach(shard -> results.add(onShard(shard, () -> work.apply(shard))));
+			return results;
+		}
+		List<Future<T>> futures = new ArrayList<>(shards.size());
+		shards.forEach(shard -> futures.add(scatterPool.submit(() -> onShard(shard, () -> work.apply(shard)))));
+		try {
+			for(Future<T> future : futures)
+				results.add(future.get());
+		} catch(InterruptedException e) {
+			futures.forEach(future -> future.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for shards", e);
+		} catch(ExecutionException e) {
+			futures.forEach(future -> future.cancel(true));
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		return results;
+	}
+	
+	//Method to parse a change position, the change log sequence reached on every shard separated by dots. With one
+	//shard it is the plain sequence number. Empty position is the start of every shard.
+	public long[] parsePosition(String position) {
+		long[] sequences = new long[shardCount];
+		if(position == null || position.trim().isEmpty())
+			return sequences;
+		String[] parts = position.trim().split("\\.");
+		if(parts.length != shardCount) {
+			log.error("Position: "+position+" does not have a sequence for each of "+shardCount+" shards");
+			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+		}
+		try {
+			for(int shard = 0; shard < shardCount; shard++)
+				sequences[shard] = Long.parseLong(parts[shard]);
+		} catch(NumberFormatException e) {
+			log.error("Position: "+position+" is not a list of sequence numbers");
+			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+		}
+		if(Arrays.stream(sequences).anyMatch(sequence -> sequence < 0)) {
+			log.error("Position: "+position+" has a negative sequence number");
+			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+		}
+		return sequences;
+	}
+	
+	//Method to format given sequences of every shard as a position
+	public String formatPosition(long[] sequences) {
+		return Arrays.stream(sequences).mapToObj(String::valueOf).collect(Collectors.joining("."));
+	}
+}
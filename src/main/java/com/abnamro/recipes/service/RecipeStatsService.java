@@ -0,0 +1,276 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeStats;
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.repository.RecipeStore;
+import com.abnamro.recipes.util.Util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+
+//Service to keep catalog statistics as in-memory counters, counted once from DB at startup, then updated by
+//the delta of every committed local write. A cheap periodic check recounts only when writes of other nodes made the
+//counters stale or the number of recipes differs from DB, a full recount to repair any other drift runs rarely.
+@Service
+@Slf4j
+public class RecipeStatsService {
+	
+	private static final int CHANGE_PAGE_SIZE = 500;
+	//Rounds of reading written recipes again, after which counters are replaced and left stale until the next recount
+	private static final int MAX_REREAD_ROUNDS = 10;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	@Autowired
+	private RecipeCapacityBuckets capacityBuckets;
+	
+	@Value("${recipe.stats.ingredients.top:50}")
+	private int topIngredients;
+	
+	private final Counter driftCounter;
+	
+	//Counters and their state, guarded by this
+	private Counters counters = new Counters();
+	//Recounts run one at a time, the scheduled one may overlap one called directly
+	private final Object recountLock = new Object();
+	
+	//Ids written while a recount is running, these are read again once the scan is done
+	private Set<Integer> writtenDuringRecount;
+	//Set until the first recount and after writes of other nodes outside a recount, which carry no delta
+	private boolean stale = true;
+	private Date verifiedDateTime;
+	
+	//Statistics built from current counters, dropped on every change
+	private volatile RecipeStats snapshot;
+	
+	public RecipeStatsService(MeterRegistry meterRegistry) {
+		this.driftCounter = Counter.builder("recipes.stats.drift").register(meterRegistry);
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void seedCounters() {
+		recount();
+	}
+	
+	//Compare counters with the number of recipes in DB, a count on the primary key instead of a scan of all recipes
+	@Scheduled(fixedDelayString = "${recipe.stats.check.interval.ms:60000}",
+			   initialDelayString = "${recipe.stats.check.interval.ms:60000}")
+	public void checkDrift() {
+		try {
+			long recipeCount = shards.scatterAll(shard -> shards.read(shard, store::countRecipes)).stream()
+									 .mapToLong(Long::longValue).sum();
+			long trackedCount;
+			synchronized(this) {
+				if(!stale && recipeCount == counters.recipeCount)
+					return;
+				trackedCount = counters.recipeCount;
+			}
+			log.info("Catalog statistics are stale or track "+trackedCount+" recipes where DB has "+recipeCount+", recounting");
+			recount();
+		} catch(Exception e) {
+			log.error("Exception caught while checking catalog statistics: "+e.getMessage());
+		}
+	}
+	
+	//Full recount, repairs drift the check cannot see such as a changed type of a recipe
+	@Scheduled(fixedDelayString = "${recipe.stats.recount.interval.ms:21600000}",
+			   initialDelayString = "${recipe.stats.recount.interval.ms:21600000}")
+	public void verifyCounters() {
+		try {
+			recount();
+		} catch(Exception e) {
+			log.error("Exception caught while recounting catalog statistics: "+e.getMessage());
+		}
+	}
+	
+	//Method to count all recipes from DB and replace counters. Writes overlapping the scan do not discard it: every
+	//recipe written after the change log watermarks taken before the scan is read again and counted as it is now.
+	public void recount() {
+		synchronized(recountLock) {
+			recountWithRereads();
+		}
+	}
+	
+	private void recountWithRereads() {
+		//Facets are kept per id until the recount is done, so that a recipe read again replaces what the scan counted
+		Map<Integer,RecipeFacets> counted = new HashMap<>();
+		synchronized(this) {
+			writtenDuringRecount = new HashSet<>();
+		}
+		try {
+			long[] watermarks = changeLogService.getWatermarks();
+			//Shards are counted in parallel and their facets merged
+			shards.scatterAll(shard -> {
+				Map<Integer,RecipeFacets> shardCounted = new HashMap<>();
+				service.exportRecipesFromShard(shard, recipe -> shardCounted.put(recipe.getId(), RecipeFacets.of(recipe)));
+				return shardCounted;
+			}).forEach(counted::putAll);
+			//Writes of other nodes committed during the scan may not be polled yet, they are read from the change log
+			Set<Integer> changedIds = new HashSet<>();
+			for(int shard = 0; shard < watermarks.length; shard++)
+				changedIds.addAll(findChangedIdsAfter(shard, watermarks[shard]));
+			for(int round = 1; ; round++) {
+				synchronized(this) {
+					changedIds.addAll(writtenDuringRecount);
+					writtenDuringRecount.clear();
+					if(changedIds.isEmpty() || round > MAX_REREAD_ROUNDS) {
+						replaceCounters(counted);
+						if(!changedIds.isEmpty()) {
+							log.warn("Catalog statistics recount kept up with writes for "+MAX_REREAD_ROUNDS+" rounds, "+
+									 changedIds.size()+" recipes are counted at the next recount");
+							stale = true;
+						}
+						return;
+					}
+				}
+				log.debug("Reading "+changedIds.size()+" recipes written during catalog statistics recount again");
+				for(Integer id : changedIds) {
+					Recipe recipe = service.loadRecipeFromRepository(id);
+					if(recipe != null)
+						counted.put(id, RecipeFacets.of(recipe));
+					else
+						counted.remove(id);
+				}
+				changedIds.clear();
+			}
+		} finally {
+			synchronized(this) {
+				writtenDuringRecount = null;
+			}
+		}
+	}
+	
+	private List<Integer> findChangedIdsAfter(int shard, long watermark) {
+		return shards.read(shard, () -> {
+			List<Integer> ids = new ArrayList<>();
+			long sequence = watermark;
+			List<RecipeChangeLogEntity> changes;
+			do {
+				long fromSequence = sequence;
+				changes = store.findChangesAfter(fromSequence, PageRequest.of(0, CHANGE_PAGE_SIZE));
+				for(RecipeChangeLogEntity change : changes) {
+					ids.add(change.getRecipeId());
+					sequence = change.getSequence();
+				}
+			} while(changes.size() == CHANGE_PAGE_SIZE);
+			return ids;
+		});
+	}
+	
+	//Called with no write pending a read again, so counted facets match the DB as far as this node has seen
+	private void replaceCounters(Map<Integer,RecipeFacets> counted) {
+		Counters recounted = new Counters();
+		counted.values().forEach(facets -> recounted.add(facets, 1));
+		if(!stale && !recounted.equals(counters)) {
+			driftCounter.increment();
+			log.warn("Catalog statistics drifted from DB, counted recipes: "+recounted.recipeCount+
+					 ", tracked recipes: "+counters.recipeCount);
+		}
+		counters = recounted;
+		stale = false;
+		verifiedDateTime = Util.getCurrentDateTime().orElse(null);
+		snapshot = null;
+	}
+	
+	//Apply delta of a local write once it is committed
+	@TransactionalEventListener(fallbackExecution = true)
+	public synchronized void onRecipeContentChange(RecipeContentChangeEvent event) {
+		if(event.getBefore() != null)
+			counters.add(event.getBefore(), -1);
+		if(event.getAfter() != null)
+			counters.add(event.getAfter(), 1);
+		if(writtenDuringRecount != null)
+			writtenDuringRecount.add(event.getRecipeId());
+		snapshot = null;
+	}
+	
+	//Writes of other nodes carry no delta, they are read again by a running recount or picked up by the next one
+	@TransactionalEventListener(fallbackExecution = true)
+	public synchronized void onRecipeChange(RecipeChangeEvent event) {
+		if(!event.isRemote())
+			return;
+		if(writtenDuringRecount != null)
+			writtenDuringRecount.add(event.getRecipeId());
+		else
+			stale = true;
+	}
+	
+	//Method to return current statistics, rebuilt from counters only after a change
+	public RecipeStats getStats() {
+		RecipeStats stats = snapshot;
+		if(stats != null)
+			return stats;
+		synchronized(this) {
+			if(snapshot == null)
+				snapshot = buildStats();
+			return snapshot;
+		}
+	}
+	
+	private RecipeStats buildStats() {
+		RecipeStats stats = new RecipeStats();
+		stats.setRecipeCount(counters.recipeCount);
+		stats.getCountsByType().putAll(new TreeMap<>(counters.byType));
+		capacityBuckets.labels().forEach(label -> stats.getCapacityHistogram().put(label,
+																	counters.byCapacityBucket.getOrDefault(label, 0L)));
+		counters.byIngredient.entrySet().stream()
+				.sorted(Map.Entry.<String,Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+				.limit(topIngredients)
+				.forEach(entry -> stats.getIngredientFrequency().put(entry.getKey(), entry.getValue()));
+		stats.setVerifiedDateTime(verifiedDateTime);
+		return stats;
+	}
+	
+	//Counters of recipes per type, capacity bucket and ingredient, entries dropping to zero are removed
+	@EqualsAndHashCode
+	private class Counters {
+		private long recipeCount;
+		private final Map<String,Long> byType = new HashMap<>();
+		private final Map<String,Long> byCapacityBucket = new HashMap<>();
+		private final Map<String,Long> byIngredient = new HashMap<>();
+	
+		private void add(RecipeFacets facets, int sign) {
+			recipeCount += sign;
+			increment(byType, facets.getType(), sign);
+			increment(byCapacityBucket, capacityBuckets.label(facets.getServingCapacity()), sign);
+			facets.getIngredientNames().forEach(ingredientName -> increment(byIngredient, ingredientName, sign));
+		}
+	
+		private void increment(Map<String,Long> counts, String key, int sign) {
+			if(key != null)
+				counts.merge(key, (long) sign, (count, delta) -> count + delta == 0 ? null : count + delta);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.abnamro.recipes.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.exceptions.ErrorMessages;
+import com.abnamro.recipes.exceptions.ResourceConflictException;
+import com.abnamro.recipes.exceptions.ServiceUnavailableException;
+import com.abnamro.recipes.util.Util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+//Bounded queue of validated new recipes, persisted in batched transactions by a background flusher
+@Component
+@Slf4j
+public class RecipeWriteBehindQueue {
+	
+	private final RecipesService service;
+	private final boolean enabled;
+	private final boolean ackAfterFlushByDefault;
+	private final int batchSize;
+	private final long offerTimeoutMs;
+	private final BlockingQueue<PendingRecipe> queue;
+	//Ids of queued and not yet flushed recipes, used to detect duplicates before they reach DB
+	private final Set<Integer> pendingIds = ConcurrentHashMap.newKeySet();
+	private volatile boolean running;
+	private Thread flusher;
+	//Held shared by enqueue and exclusively by stop, so that no recipe is queued after the final flush
+	private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+	private boolean stopping;
+	
+	public RecipeWriteBehindQueue(RecipesService service,
+								  @Value("${recipe.writebehind.enabled:false}") boolean enabled,
+								  @Value("${recipe.writebehind.default.ack:flush}") String defaultAck,
+								  @Value("${recipe.writebehind.queue.capacity:1000}") int capacity,
+								  @Value("${recipe.writebehind.batch.size:100}") int batchSize,
+								  @Value("${recipe.writebehind.offer.timeout.ms:50}") long offerTimeoutMs) {
+		this.service = service;
+		this.enabled = enabled;
+		this.ackAfterFlushByDefault = !"enqueue".equalsIgnoreCase(defaultAck);
+		this.batchSize = batchSize;
+		this.offerTimeoutMs = offerTimeoutMs;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+	
+	@PostConstruct
+	public void start() {
+		if(!enabled) {
+			log.debug("Write-behind queue is disabled, recipes are saved synchronously");
+			return;
+		}
+		running = true;
+		flusher = new Thread(this::flushLoop, "recipe-write-behind");
+		flusher.setDaemon(true);
+		flusher.start();
+		log.info("Write-behind queue started with capacity: "+(queue.size()+queue.remainingCapacity())+
+				 ", batch size: "+batchSize);
+	}
+	
+	//Stop accepting new recipes and flush whatever is still queued
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		acceptLock.writeLock().lock();
+		try {
+			stopping = true;
+		} finally {
+			acceptLock.writeLock().unlock();
+		}
+		if(flusher == null)
+			return;
+		running = false;
+		flusher.join(TimeUnit.SECONDS.toMillis(30));
+		while(!queue.isEmpty())
+			flushBatch();
+		log.info("Write-behind queue stopped");
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	public boolean isAckAfterFlushByDefault() {
+		return ackAfterFlushByDefault;
+	}
+	
+	//Method to check if recipe with given id is queued and not yet flushed
+	public boolean isPending(Integer id) {
+		return pendingIds.contains(id);
+	}
+	
+	public int size() {
+		return queue.size();
+	}
+	
+	//Method to queue given recipe, returned future completes once the recipe is committed to DB
+	public CompletableFuture<Recipe> enqueue(Recipe recipe) {
+		acceptLock.readLock().lock();
+		try {
+			if(stopping) {
+				log.error("Write-behind queue is stopping, throwing Service Unavailable Exception");
+				throw new ServiceUnavailableException(ErrorMessages.SERVICE_UNAVAILABLE_MSG, 1);
+			}
+			if(!pendingIds.add(recipe.getId())) {
+				log.error("Recipe with id: "+recipe.getId()+" is already queued, throwing Resource Conflict Exception");
+				throw new ResourceConflictException(ErrorMessages.RESOURCE_CONFLICT_MSG);
+			}
+			//Capture creation time at acceptance rather than at flush
+			if(recipe.getCreationDateTime() == null)
+				recipe.setCreationDateTime(Util.getCurrentDateTime().orElse(null));
+			PendingRecipe pending = new PendingRecipe(recipe, new CompletableFuture<>());
+			try {
+				if(queue.offer(pending, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+					log.debug("Recipe with id: "+recipe.getId()+" queued, queue size: "+queue.size());
+					return pending.getFuture();
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			pendingIds.remove(recipe.getId());
+			log.error("Write-behind queue is full, throwing Service Unavailable Exception");
+			throw new ServiceUnavailableException(ErrorMessages.SERVICE_UNAVAILABLE_MSG, 1);
+		} finally {
+			acceptLock.readLock().unlock();
+		}
+	}
+	
+	private void flushLoop() {
+		while(running || !queue.isEmpty()) {
+			try {
+				flushBatch();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	//Method to take up to one batch of queued recipes and persist them in one transaction
+	void flushBatch() throws InterruptedException {
+		PendingRecipe first = queue.poll(100, TimeUnit.MILLISECONDS);
+		if(first == null)
+			return;
+		List<PendingRecipe> batch = new ArrayList<>(batchSize);
+		batch.add(first);
+		queue.drainTo(batch, batchSize - 1);
+		List<Recipe> recipes = new ArrayList<>(batch.size());
+		batch.forEach(pending -> recipes.add(pending.getRecipe()));
+		try {
+			List<Recipe> savedRecipes = service.saveRecipesToRepository(recipes);
+			for(int i = 0; i < batch.size(); i++)
+				complete(batch.get(i), savedRecipes.get(i), null);
+			log.debug("Flushed batch of "+batch.size()+" queued recipes");
+		} catch(Exception e) {
+			//Retry one by one so that a single bad recipe does not fail the whole batch
+			log.error("Batch of "+batch.size()+" recipes failed, saving them one by one");
+			for(PendingRecipe pending : batch) {
+				try {
+					complete(pending, service.saveRecipeToRepository(pending.getRecipe()), null);
+				} catch(Exception ex) {
+					log.error("Queued recipe with id: "+pending.getRecipe().getId()+" could not be saved");
+					log.error(ExceptionUtils.getStackTrace(ex));
+					complete(pending, null, ex);
+				}
+			}
+		}
+	}
+	
+	private void complete(PendingRecipe pending, Recipe savedRecipe, Exception failure) {
+		pendingIds.remove(pending.getRecipe().getId());
+		if(failure == null)
+			pending.getFuture().complete(savedRecipe);
+		else
+			pending.getFuture().completeExceptionally(failure);
+	}
+	
+	@Getter
+	@AllArgsConstructor
+	private static class PendingRecipe {
+		private final Recipe recipe;
+		private final CompletableFuture<Recipe> future;
+	}
+}
@@ -0,0 +1,72 @@
+package com.abnamro.recipes.service;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import com.abnamor.recipes.dto.BulkImportResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Command line runner to export or import NDJSON file, enabled with recipe.bulk.mode=export|import
+@Component
+@ConditionalOnProperty(name = "recipe.bulk.mode")
+@Slf4j
+public class RecipesBulkRunner implements ApplicationRunner {
+	
+	@Autowired
+	private RecipesBulkService bulkService;
+	
+	@Autowired
+	private ConfigurableApplicationContext context;
+	
+	@Value("${recipe.bulk.mode}")
+	private String mode;
+	
+	@Value("${recipe.bulk.file}")
+	private String file;
+	
+	@Value("${recipe.bulk.import.id:}")
+	private String importId;
+	
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		Path path = Paths.get(file);
+		int exitCode = 0;
+		try {
+			if("export".equalsIgnoreCase(mode)) {
+				try(OutputStream outputStream = Files.newOutputStream(path)) {
+					long exported = bulkService.exportRecipes(outputStream);
+					log.info("Exported "+exported+" recipes into "+path);
+				}
+			} else if("import".equalsIgnoreCase(mode)) {
+				//Default import id is the file name, so rerunning same file resumes where it stopped
+				try(InputStream inputStream = Files.newInputStream(path)) {
+					BulkImportResult result = bulkService.importRecipes(inputStream,
+							importId.isEmpty() ? path.getFileName().toString() : importId);
+					log.info("Imported "+result.getImported()+" recipes from "+path+", rejected: "+result.getRejected()+
+							 ", resumed after line: "+result.getResumedLines());
+				}
+			} else {
+				log.error("Unknown recipe.bulk.mode: "+mode+", expected export or import");
+				exitCode = 2;
+			}
+		} catch(Exception e) {
+			log.error("Bulk "+mode+" of "+path+" failed: "+e.getMessage());
+			exitCode = 1;
+		}
+		final int code = exitCode;
+		System.exit(SpringApplication.exit(context, () -> code));
+	}
+}
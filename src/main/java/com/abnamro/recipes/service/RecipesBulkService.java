@@ -0,0 +1,180 @@
+package com.abnamro.recipes.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.abnamor.recipes.dto.BulkImportResult;
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.config.Bulkhead;
+import com.abnamro.recipes.dao.RecipeImportCheckpointEntity;
+import com.abnamro.recipes.repository.RecipeCoordinationStore;
+import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Service to export and import the whole recipe catalog as newline delimited JSON with constant memory use
+@Service
+@Slf4j
+public class RecipesBulkService {
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeCoordinationStore coordinationStore;
+	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@Autowired
+	private Bulkhead listBulkhead;
+	
+	@Autowired
+	private Bulkhead writeBulkhead;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	@Value("${recipe.bulk.import.batch.size:500}")
+	private int batchSize;
+	
+	private final ForkJoinPool parsePool;
+	
+	public RecipesBulkService(@Value("${recipe.bulk.import.parallelism:0}") int parallelism) {
+		this.parsePool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		parsePool.shutdown();
+	}
+	
+	//Method to write every recipe as one JSON line to given stream, returns number of exported recipes. The DB cursor
+	//holds a listing bulkhead permit while it is read.
+	public long exportRecipes(OutputStream outputStream) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024);
+		long exported = listBulkhead.run(() -> service.exportRecipesFromRepository(recipe -> {
+			try {
+				writer.write(mapper.writeValueAsString(recipe));
+				writer.write('\n');
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}));
+		writer.flush();
+		log.info("Number of recipes exported as NDJSON: "+exported);
+		return exported;
+	}
+	
+	//Method to import JSON lines from given stream in batches, resuming after the checkpoint of given import id
+	public BulkImportResult importRecipes(InputStream inputStream, String importId) throws IOException {
+		BulkImportResult result = new BulkImportResult();
+		result.setImportId(importId != null && !importId.isEmpty() ? importId : UUID.randomUUID().toString());
+		RecipeImportCheckpointEntity checkpoint = coordinationStore.findImportCheckpoint(result.getImportId())
+																.orElseGet(() -> newCheckpoint(result.getImportId()));
+		result.setResumedLines(checkpoint.getLinesCommitted());
+		log.info("Importing recipes for import id: "+result.getImportId()+", resuming after line: "+checkpoint.getLinesCommitted());
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), 64 * 1024);
+		long lineNumber = 0;
+		for(; lineNumber < checkpoint.getLinesCommitted(); lineNumber++) {
+			if(reader.readLine() == null)
+				break;
+		}
+		List<String> lines = new ArrayList<>(batchSize);
+		String line;
+		while((line = reader.readLine()) != null) {
+			lines.add(line);
+			lineNumber++;
+			if(lines.size() == batchSize) {
+				importBatch(lines, lineNumber, checkpoint, result);
+				lines.clear();
+			}
+		}
+		if(!lines.isEmpty())
+			importBatch(lines, lineNumber, checkpoint, result);
+		
+		log.info("Import id: "+result.getImportId()+" finished, imported: "+result.getImported()+", rejected: "+result.getRejected());
+		return result;
+	}
+	
+	//Parse batch in parallel, then commit valid recipes and checkpoint within one transaction. A write bulkhead permit
+	//is held for the commit only, so that a long import leaves permits to other writes while it reads and parses.
+	private void importBatch(List<String> lines, long lastLineNumber, RecipeImportCheckpointEntity checkpoint,
+							 BulkImportResult result) throws IOException {
+		List<Recipe> parsed = parseLines(lines);
+		List<Recipe> valid = parsed.stream().filter(recipe -> recipe != null && Util.checkRecipeValidity(recipe))
+									.collect(Collectors.toList());
+		long blankLines = lines.stream().filter(line -> line.trim().isEmpty()).count();
+		long rejected = lines.size() - blankLines - valid.size();
+		
+		writeBulkhead.run(() -> transactionTemplate.execute(status -> {
+			if(!valid.isEmpty())
+				service.importRecipesToRepository(valid);
+			checkpoint.setLinesCommitted(lastLineNumber);
+			checkpoint.setImported(checkpoint.getImported() + valid.size());
+			checkpoint.setRejected(checkpoint.getRejected() + rejected);
+			checkpoint.setUpdateDateTime(Util.getCurrentDateTime().orElse(null));
+			coordinationStore.saveImportCheckpoint(checkpoint);
+			return null;
+		}));
+		result.setLinesRead(result.getLinesRead() + lines.size());
+		result.setImported(result.getImported() + valid.size());
+		result.setRejected(result.getRejected() + rejected);
+		log.debug("Import id: "+result.getImportId()+" committed up to line: "+lastLineNumber);
+	}
+	
+	//Parse lines on the bounded parse pool, keeping input order, unparsable and blank lines become null
+	private List<Recipe> parseLines(List<String> lines) throws IOException {
+		try {
+			return parsePool.submit(() -> lines.parallelStream().map(this::parseLine).collect(Collectors.toList())).get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Import interrupted", e);
+		} catch(ExecutionException e) {
+			throw new IOException("Import parsing failed", e.getCause());
+		}
+	}
+	
+	private Recipe parseLine(String line) {
+		if(line.trim().isEmpty())
+			return null;
+		try {
+			return mapper.readValue(line, Recipe.class);
+		} catch(IOException e) {
+			log.error("Rejecting unparsable import line: "+e.getMessage());
+			return null;
+		}
+	}
+	
+	private RecipeImportCheckpointEntity newCheckpoint(String importId) {
+		RecipeImportCheckpointEntity checkpoint = new RecipeImportCheckpointEntity();
+		checkpoint.setImportId(importId);
+		checkpoint.setLinesCommitted(0L);
+		checkpoint.setImported(0L);
+		checkpoint.setRejected(0L);
+		return checkpoint;
+	}
+}
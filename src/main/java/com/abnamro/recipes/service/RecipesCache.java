@@ -0,0 +1,106 @@
+package com.abnamro.recipes.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.abnamor.recipes.dto.Recipe;
+
+import lombok.extern.slf4j.Slf4j;
+
+//In-process LRU cache of mapped recipes, invalidated by local writes and by change log entries of other nodes.
+//Cached recipes are also kept encoded in the off-heap tier, which holds many more of them outside the GC heap;
+//a recipe evicted from this cache is decoded from there and cached here again.
+@Component
+@Slf4j
+public class RecipesCache {
+	
+	private final boolean enabled;
+	private final Map<Integer,Recipe> recipes;
+	private final RecipeOffHeapCache offHeapCache;
+	//Incremented on every invalidation, used to reject loads which raced with a write
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	public RecipesCache(@Value("${recipe.cache.enabled:true}") boolean enabled,
+						@Value("${recipe.cache.max.size:10000}") int maxSize,
+						RecipeOffHeapCache offHeapCache) {
+		this.enabled = enabled;
+		this.offHeapCache = offHeapCache;
+		this.recipes = new LinkedHashMap<Integer,Recipe>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer,Recipe> eldest) {
+				return size() > maxSize;
+			}
+		};
+		log.debug("Recipes cache enabled: "+enabled+", max size: "+maxSize);
+	}
+	
+	//Method to return cached recipe for given id, null if not cached
+	public Recipe get(Integer id) {
+		if(!enabled)
+			return null;
+		long stamp;
+		synchronized(this) {
+			Recipe recipe = recipes.get(id);
+			if(recipe != null)
+				return recipe;
+			stamp = invalidations.get();
+		}
+		//Decoded outside the lock, kept here unless an invalidation happened meanwhile
+		Recipe recipe = offHeapCache.get(id);
+		if(recipe != null) {
+			synchronized(this) {
+				if(stamp == invalidations.get())
+					recipes.put(id, recipe);
+			}
+		}
+		return recipe;
+	}
+	
+	//Method to return current invalidation stamp, to be taken before loading a recipe from DB
+	public long stamp() {
+		return invalidations.get();
+	}
+	
+	//Method to cache given recipe, unless an invalidation happened since given stamp was taken
+	public synchronized void put(Integer id, Recipe recipe, long stamp) {
+		if(enabled && stamp == invalidations.get()) {
+			recipes.put(id, recipe);
+			offHeapCache.put(id, recipe);
+		}
+	}
+	
+	//Method to drop cached recipe for given id
+	public synchronized void invalidate(Integer id) {
+		invalidations.incrementAndGet();
+		recipes.remove(id);
+		offHeapCache.invalidate(id);
+	}
+	
+	//Method to drop all cached recipes
+	public synchronized void invalidateAll() {
+		invalidations.incrementAndGet();
+		recipes.clear();
+		offHeapCache.invalidateAll();
+	}
+	
+	public synchronized int size() {
+		return recipes.size();
+	}
+	
+	//Invalidate cached recipe once the write is committed, before other listeners may read it again
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeChange(RecipeChangeEvent event) {
+		log.debug("Invalidating cached recipe for change: "+event);
+		invalidate(event.getRecipeId());
+	}
+}
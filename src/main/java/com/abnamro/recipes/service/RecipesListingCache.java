@@ -0,0 +1,150 @@
+package com.abnamro.recipes.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.exceptions.ErrorMessages;
+import com.abnamro.recipes.exceptions.NotAcceptableException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+//Cache of full recipe listing kept as ready-to-send bytes, raw and gzip compressed, per negotiated media type
+@Component
+@Slf4j
+public class RecipesListingCache {
+	
+	public static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+	
+	@Autowired
+	private RecipesService service;
+	
+	//Supported media types in order of preference, each with a writer of the mapper used by its message converter.
+	//Writers are immutable and thread-safe, listings of all media types are encoded without a lock.
+	private final Map<MediaType,ObjectWriter> writers = new LinkedHashMap<>();
+	private final Map<MediaType,SerializedListing> listings = new ConcurrentHashMap<>();
+	//Incremented on every invalidation, used to reject listings which raced with a write
+	private final AtomicLong invalidations = new AtomicLong();
+	//Concurrent misses for the same media type build the listing only once
+	private final SingleFlight<MediaType,SerializedListing> listingBuilds;
+	
+	public RecipesListingCache(ObjectMapper jsonMapper, MappingJackson2SmileHttpMessageConverter smileConverter,
+							   MeterRegistry meterRegistry) {
+		writers.put(MediaType.APPLICATION_JSON, jsonMapper.writer());
+		writers.put(MediaType.APPLICATION_CBOR, Jackson2ObjectMapperBuilder.cbor().build().writer());
+		writers.put(APPLICATION_SMILE, smileConverter.getObjectMapper().writer());
+		this.listingBuilds = new SingleFlight<>("listing-bytes", meterRegistry);
+	}
+	
+	//Method to pick supported media type for given Accept header, JSON when nothing specific is asked for. Throws
+	//not acceptable when the header cannot be parsed or accepts none of the supported types.
+	public MediaType negotiate(String acceptHeader) {
+		if(acceptHeader == null || acceptHeader.isEmpty())
+			return MediaType.APPLICATION_JSON;
+		List<MediaType> accepted;
+		try {
+			accepted = MediaType.parseMediaTypes(acceptHeader);
+		} catch(InvalidMediaTypeException e) {
+			log.warn("Unparsable Accept header: "+acceptHeader);
+			throw new NotAcceptableException(ErrorMessages.NOT_ACCEPTABLE_MSG);
+		}
+		MediaType.sortBySpecificityAndQuality(accepted);
+		for(MediaType acceptedType : accepted) {
+			for(MediaType supportedType : writers.keySet())
+				if(acceptedType.isCompatibleWith(supportedType))
+					return supportedType;
+		}
+		log.warn("No supported media type in Accept header: "+acceptHeader);
+		throw new NotAcceptableException(ErrorMessages.NOT_ACCEPTABLE_MSG);
+	}
+	
+	//Method to return serialized listing for given media type, building it once after every invalidation
+	public SerializedListing getListing(MediaType mediaType) {
+		SerializedListing listing = listings.get(mediaType);
+		if(listing != null) {
+			log.debug("Recipe listing as "+mediaType+" served from cache");
+			return listing;
+		}
+		long stamp = invalidations.get();
+		return listingBuilds.load(mediaType, stamp, () -> {
+			SerializedListing cached = listings.get(mediaType);
+			if(cached != null)
+				return cached;
+			List<Recipe> recipes = service.getAllRecipesFromRepository();
+			SerializedListing built;
+			try {
+				built = new SerializedListing(mediaType, writers.get(mediaType).writeValueAsBytes(recipes), recipes.size());
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if(stamp == invalidations.get())
+				listings.put(mediaType, built);
+			log.debug("Recipe listing as "+mediaType+" built with "+recipes.size()+" recipes, "+
+					  built.getRawBytes().length+" bytes raw, "+built.getGzipBytes().length+" bytes gzip");
+			return built;
+		});
+	}
+	
+	//Method to drop all serialized listings
+	public void invalidate() {
+		invalidations.incrementAndGet();
+		listings.clear();
+	}
+	
+	//Any committed write, local or from other node, changes the listing
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onRecipeChange(RecipeChangeEvent event) {
+		invalidate();
+	}
+	
+	//Serialized listing with its gzip compressed form and entity tags of both
+	@Getter
+	public static class SerializedListing {
+		private final MediaType mediaType;
+		private final byte[] rawBytes;
+		private final byte[] gzipBytes;
+		private final String eTag;
+		private final String gzipETag;
+		private final int recipeCount;
+		
+		public SerializedListing(MediaType mediaType, byte[] rawBytes, int recipeCount) {
+			this.mediaType = mediaType;
+			this.rawBytes = rawBytes;
+			this.gzipBytes = gzip(rawBytes);
+			String digest = DigestUtils.md5DigestAsHex(rawBytes);
+			this.eTag = "\""+digest+"\"";
+			this.gzipETag = "\""+digest+"-gzip\"";
+			this.recipeCount = recipeCount;
+		}
+		
+		private static byte[] gzip(byte[] rawBytes) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawBytes.length / 4 + 64);
+			try(GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+				gzipStream.write(rawBytes);
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return compressed.toByteArray();
+		}
+	}
+}
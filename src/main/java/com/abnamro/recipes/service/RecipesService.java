@@ -1,27 +1,123 @@
 package com.abnamro.recipes.service;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.abnamor.recipes.dto.Ingredient;
 import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeFeedCursor;
+import com.abnamor.recipes.dto.RecipeFeedPage;
+import com.abnamor.recipes.dto.RecipeSyncPage;
 import com.abnamro.recipes.dao.RecipeEntity;
-import com.abnamro.recipes.repository.RecipesRepository;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.dao.RecipeTombstoneEntity;
+import com.abnamro.recipes.exceptions.BadRequestException;
+import com.abnamro.recipes.exceptions.ErrorMessages;
+import com.abnamro.recipes.repository.RecipeStore;
 import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+//Point operations run on the shard of the recipe id, listing, feed, sync and export read every shard in parallel
 @Service
 @Slf4j
 public class RecipesService {
 	
+	//Bounds of the feed when no since or until is given, the end is the last second of year 9999
+	private static final Date FEED_START = new Date(0);
+	private static final Date FEED_END = new Date(253402300799000L);
+	
+	//Order of feed pages, newest first, (date time, id) is unique across shards
+	private static final Comparator<RecipeEntity> FEED_ORDER = Comparator.comparing(RecipeEntity::getCreationDateTime)
+																		  .thenComparing(RecipeEntity::getId).reversed();
+	
+	//Recipes read from each shard at a time when an export merges several shards
+	private static final int EXPORT_PAGE_SIZE = 500;
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	@Autowired
+	private RecipesCache recipesCache;
+	
+	@Autowired
+	private RecipeNameCache recipeNameCache;
+	
+	@Autowired
+	private RecipeNameReservations nameReservations;
+	
+	@Autowired
+	private RecipeIdIndex recipeIdIndex;
+	
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+	
 	@Autowired
-	private RecipesRepository recipesRepo;
+	private ObjectMapper objectMapper;
+	
+	@Value("${recipe.sync.tombstone.retention.hours:720}")
+	private long tombstoneRetentionHours;
+	
+	private final SingleFlight<Integer,Recipe> recipeLoads;
+	
+	private final SingleFlight<Boolean,List<Recipe>> listingLoads;
+	
+	//Parses ingredients of large result sets on several cores
+	private final ParallelMapper<RecipeEntity,Recipe> recipeMapper;
+	
+	public RecipesService(MeterRegistry meterRegistry,
+						  @Value("${recipe.mapping.parallelism:0}") int mappingParallelism,
+						  @Value("${recipe.mapping.parallel.threshold:2000}") int mappingThreshold) {
+		this.recipeLoads = new SingleFlight<>("recipe", meterRegistry);
+		this.listingLoads = new SingleFlight<>("listing", meterRegistry);
+		this.recipeMapper = new ParallelMapper<>(mappingParallelism, mappingThreshold);
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		recipeMapper.shutdown();
+	}
 	
 	//Method to map fields between Recipe and Recipe Entity
 	private RecipeEntity mapToRecipeEntity(Recipe recipe) {
@@ -29,6 +125,7 @@ public class RecipesService {
 		//Map primitive fields
 		rEntity.setId(recipe.getId());
 		rEntity.setName(recipe.getName());
+		rEntity.setNameKey(Util.normalizeRecipeName(recipe.getName()));
 		rEntity.setType(recipe.getType());
 		rEntity.setServingCapacity(recipe.getServingCapacity());
 		
@@ -80,43 +177,461 @@ public class RecipesService {
 
 		return recipe;
 	}
+	//Method to save given recipe and record the write in change log within same transaction
+	private Recipe persistRecipe(Recipe recipe, RecipeOperation operation) {
+		//Map recipe to Recipe Entity
+		RecipeEntity recipeEntity = mapToRecipeEntity(recipe);
+		//Facets of the stored recipe before update, the find also serves the select merge would do
+		RecipeFacets before = null;
+		if(operation == RecipeOperation.UPDATE) {
+			Optional<RecipeEntity> previousEntity = store.findById(recipe.getId());
+			if(previousEntity.isPresent())
+				before = RecipeFacets.of(mapToRecipeObject(previousEntity.get()));
+		}
+		//Change log entry is appended first, its sequence is stored with the recipe for delta sync
+		recipeEntity.setModSequence(changeLogService.appendChange(recipe.getId(), operation));
+		//Callers have checked the id of a new recipe is free, a clash still fails in the store
+		if(operation == RecipeOperation.CREATE)
+			store.insert(recipeEntity);
+		else
+			recipeEntity = store.save(recipeEntity);
+		Recipe savedRecipe = mapToRecipeObject(recipeEntity);
+		eventPublisher.publishEvent(new RecipeContentChangeEvent(savedRecipe.getId(), before, RecipeFacets.of(savedRecipe)));
+		return savedRecipe;
+	}
+	
+	//Positions of given recipes grouped by shard of their id, in shard order
+	private Map<Integer,List<Integer>> groupByShard(List<Recipe> recipes) {
+		Map<Integer,List<Integer>> positionsByShard = new TreeMap<>();
+		for(int position = 0; position < recipes.size(); position++)
+			positionsByShard.computeIfAbsent(shards.shardOf(recipes.get(position).getId()), shard -> new ArrayList<>()).add(position);
+		return positionsByShard;
+	}
+	
+	//Name keys of given recipes mapped to their ids, a key given to two recipes fails as it would in one shard
+	private Map<String,Integer> nameKeysOf(List<Recipe> recipes) {
+		Map<String,Integer> idsByNameKey = new HashMap<>();
+		for(Recipe recipe : recipes) {
+			String nameKey = Util.normalizeRecipeName(recipe.getName());
+			Integer previousId = nameKey != null ? idsByNameKey.put(nameKey, recipe.getId()) : null;
+			if(previousId != null && !previousId.equals(recipe.getId()))
+				throw new DataIntegrityViolationException("Recipe name is given to recipes with ids "+previousId+" and "+recipe.getId());
+		}
+		return idsByNameKey;
+	}
+	
 	//Method to save given new recipe onto persistence layer
 	public Recipe saveRecipeToRepository(Recipe newRecipe) {
-		//Map recipe to Recipe Entity
-		RecipeEntity recipeEntity = mapToRecipeEntity(newRecipe);
-		return mapToRecipeObject(recipesRepo.save(recipeEntity));
+		return nameReservations.withNames(nameKeysOf(Collections.singletonList(newRecipe)), () ->
+				shards.write(shards.shardOf(newRecipe.getId()), () -> persistRecipe(newRecipe, RecipeOperation.CREATE)));
 	}
 	
-	//Method to query and retrieve requested recipe based on it's id
+	//Method to save given batch of new recipes within one transaction per shard, in given order
+	public List<Recipe> saveRecipesToRepository(List<Recipe> newRecipes) {
+		List<Recipe> savedRecipes = new ArrayList<>(Collections.nCopies(newRecipes.size(), null));
+		nameReservations.withNames(nameKeysOf(newRecipes), () -> {
+			groupByShard(newRecipes).forEach((shard, positions) -> shards.write(shard, () -> {
+				positions.forEach(position -> savedRecipes.set(position, persistRecipe(newRecipes.get(position), RecipeOperation.CREATE)));
+				return positions.size();
+			}));
+			return savedRecipes;
+		});
+		log.debug("Number of recipes saved in one batch: "+savedRecipes.size());
+		return savedRecipes;
+	}
+	
+	//Method to query and retrieve requested recipe based on it's id, served from cache when present
 	public Recipe getRecipeFromRepository(Integer id) {
-		Optional<RecipeEntity> optRecipe = recipesRepo.findById(id);
-		if(optRecipe.isPresent())
-			return mapToRecipeObject(optRecipe.get());
-		else
+		Recipe cachedRecipe = recipesCache.get(id);
+		if(cachedRecipe != null) {
+			log.debug("Recipe with id: "+id+" served from cache");
+			return cachedRecipe;
+		}
+		if(!recipeIdIndex.mightExist(id)) {
+			log.debug("Recipe with id: "+id+" is not in id index, skipping DB");
 			return null;
+		}
+		long stamp = recipesCache.stamp();
+		//Concurrent misses for the same id share one query and mapping
+		return recipeLoads.load(id, stamp, () -> {
+			Optional<RecipeEntity> optRecipe = shards.read(shards.shardOf(id), () -> store.findById(id));
+			if(optRecipe.isPresent()) {
+				Recipe recipe = mapToRecipeObject(optRecipe.get());
+				recipesCache.put(id, recipe, stamp);
+				return recipe;
+			} else
+				return null;
+		});
 	}
 	
-	//Method to retrieve all recipes 
-	public List<Recipe> getAllRecipesFromRepository(){
-		List<RecipeEntity> retrievedRecipes = recipesRepo.findAll();
-		log.debug("Number of retrieved recipes from DB: "+retrievedRecipes.size());
-		//Map all retrieved recipes entity to recipe instances
-		List<Recipe> recipesList = new ArrayList<>(retrievedRecipes.size());
-		retrievedRecipes.forEach(recipeEntity -> recipesList.add(mapToRecipeObject(recipeEntity)));
-		log.debug("Number of recipe entities mapped and stored to recipesList: "+recipesList.size());
-		//Return mapped recipes
+	//Method to read recipe from DB bypassing cache and id index, for indexes reading a recipe again after a change
+	public Recipe loadRecipeFromRepository(Integer id) {
+		return shards.read(shards.shardOf(id), () -> store.findById(id)).map(this::mapToRecipeObject).orElse(null);
+	}
+	
+	//Method to retrieve given recipes in given order, recipes missing from cache are read with one query per shard
+	public List<Recipe> getRecipesFromRepository(List<Integer> ids) {
+		Map<Integer,Recipe> recipes = new HashMap<>();
+		List<Integer> missingIds = new ArrayList<>();
+		ids.forEach(id -> {
+			Recipe cachedRecipe = recipesCache.get(id);
+			if(cachedRecipe != null)
+				recipes.put(id, cachedRecipe);
+			else
+				missingIds.add(id);
+		});
+		if(!missingIds.isEmpty()) {
+			long stamp = recipesCache.stamp();
+			Map<Integer,List<Integer>> missingIdsByShard = missingIds.stream()
+					.collect(Collectors.groupingBy(shards::shardOf, TreeMap::new, Collectors.toList()));
+			List<RecipeEntity> recipeEntities = new ArrayList<>(missingIds.size());
+			shards.scatter(missingIdsByShard.keySet(), shard -> shards.read(shard, () -> store.findAllById(missingIdsByShard.get(shard))))
+				  .forEach(recipeEntities::addAll);
+			recipeMapper.map(recipeEntities, this::mapToRecipeObject).forEach(recipe -> {
+				recipesCache.put(recipe.getId(), recipe, stamp);
+				recipes.put(recipe.getId(), recipe);
+			});
+		}
+		log.debug("Number of recipes served from cache: "+(ids.size() - missingIds.size())+", read from DB: "+missingIds.size());
+		List<Recipe> recipesList = new ArrayList<>(ids.size());
+		ids.forEach(id -> {
+			if(recipes.containsKey(id))
+				recipesList.add(recipes.get(id));
+		});
 		return recipesList;
 	}
 	
+	//Method to retrieve recipe by case-insensitive name, with one indexed probe when the name is not cached
+	public Recipe getRecipeByNameFromRepository(String name) {
+		String nameKey = Util.normalizeRecipeName(name);
+		Integer cachedId = recipeNameCache.get(nameKey);
+		if(cachedId != null) {
+			Recipe recipe = getRecipeFromRepository(cachedId);
+			if(recipe != null && nameKey.equals(Util.normalizeRecipeName(recipe.getName()))) {
+				log.debug("Recipe with name: "+name+" served from name cache");
+				return recipe;
+			}
+			recipeNameCache.invalidate(cachedId);
+		}
+		long nameStamp = recipeNameCache.stamp();
+		long recipeStamp = recipesCache.stamp();
+		//Name is not the shard key, every shard is probed and the first match in shard order is taken
+		Optional<RecipeEntity> optRecipe = shards.scatterAll(shard -> shards.read(shard, () -> store.findFirstByNameKey(nameKey)))
+												 .stream().filter(Optional::isPresent).map(Optional::get).findFirst();
+		if(optRecipe.isPresent()) {
+			Recipe recipe = mapToRecipeObject(optRecipe.get());
+			recipeNameCache.put(nameKey, recipe.getId(), nameStamp);
+			recipesCache.put(recipe.getId(), recipe, recipeStamp);
+			return recipe;
+		} else
+			return null;
+	}
+	
+	//Method to retrieve one page of recipes newest first, created in [since, until) and older than given cursor
+	public RecipeFeedPage getRecipeFeedFromRepository(Date since, Date until, RecipeFeedCursor cursor, int limit) {
+		Date sinceDateTime = since != null ? since : FEED_START;
+		RecipeFeedCursor before = cursor != null ? cursor : new RecipeFeedCursor(until != null ? until : FEED_END, Integer.MIN_VALUE);
+		//Read one extra recipe of every shard to find out if there is a next page, then merge the shard pages
+		List<RecipeEntity> recipeEntities = new ArrayList<>();
+		shards.scatterAll(shard -> shards.read(shard, () -> store.findNewestRecipesBefore(sinceDateTime,
+				before.getCreationDateTime(), before.getId(), PageRequest.of(0, limit + 1)))).forEach(recipeEntities::addAll);
+		if(shards.isSharded())
+			recipeEntities.sort(FEED_ORDER);
+		RecipeFeedPage page = new RecipeFeedPage();
+		recipeEntities.stream().limit(limit).forEach(recipeEntity -> page.getRecipes().add(mapToRecipeObject(recipeEntity)));
+		if(recipeEntities.size() > limit) {
+			Recipe last = page.getRecipes().get(limit - 1);
+			page.setNextCursor(new RecipeFeedCursor(last.getCreationDateTime(), last.getId()).encode());
+		}
+		log.debug("Number of recipes in feed page: "+page.getRecipes().size()+", more pages: "+(page.getNextCursor() != null));
+		return page;
+	}
+	
+	//Method to retrieve recipes written and deleted after given position, oldest change of each shard first, reading
+	//the modification sequence indexes so that the cost follows the number of changes instead of the catalog size
+	public RecipeSyncPage getRecipeChangesFromRepository(String since, int limit) {
+		long[] sinceSequences = shards.parsePosition(since);
+		//Deletes up to the tombstone horizon of a shard may have no tombstone left, a client behind it starts over
+		if(Arrays.stream(sinceSequences).anyMatch(sequence -> sequence > 0)) {
+			List<Long> horizons = shards.scatterAll(shard -> shards.read(shard, store::findTombstoneHorizon));
+			for(int shard = 0; shard < sinceSequences.length; shard++) {
+				if(sinceSequences[shard] > 0 && sinceSequences[shard] < horizons.get(shard)) {
+					log.debug("Sync watermark: "+since+" is behind tombstone horizon: "+horizons.get(shard)+" of shard: "+shard);
+					RecipeSyncPage page = new RecipeSyncPage();
+					page.setReset(true);
+					return page;
+				}
+			}
+		}
+		//Sequences are taken before commit, so a lower one can still commit after a higher one. Pages never reach past
+		//the change log watermark, a write committing below it after its gap was skipped is appended again above it.
+		long[] untilSequences = changeLogService.getWatermarks();
+		long[] watermarks = new long[sinceSequences.length];
+		List<Integer> changedShards = new ArrayList<>();
+		for(int shard = 0; shard < watermarks.length; shard++) {
+			watermarks[shard] = Math.max(sinceSequences[shard], untilSequences[shard]);
+			if(sinceSequences[shard] < untilSequences[shard])
+				changedShards.add(shard);
+		}
+		RecipeSyncPage page = new RecipeSyncPage();
+		//Read one extra change of each kind on every shard to find out if there is a next page
+		List<ShardChanges> changes = shards.scatter(changedShards, shard -> shards.read(shard, () -> new ShardChanges(
+				store.findModifiedBetween(sinceSequences[shard], untilSequences[shard], PageRequest.of(0, limit + 1)),
+				store.findDeletedBetween(sinceSequences[shard], untilSequences[shard], PageRequest.of(0, limit + 1)))));
+		//Shards fill the page in shard order, a shard which does not fit keeps the last sequence taken from it
+		for(int index = 0; index < changedShards.size(); index++) {
+			List<RecipeEntity> modified = changes.get(index).modified;
+			List<RecipeTombstoneEntity> deleted = changes.get(index).deleted;
+			int remaining = limit - page.getRecipes().size() - page.getDeletedIds().size();
+			int modifiedIndex = 0, deletedIndex = 0;
+			long watermark = sinceSequences[changedShards.get(index)];
+			while(modifiedIndex + deletedIndex < remaining && (modifiedIndex < modified.size() || deletedIndex < deleted.size())) {
+				if(deletedIndex == deleted.size() || (modifiedIndex < modified.size() &&
+						modified.get(modifiedIndex).getModSequence() < deleted.get(deletedIndex).getModSequence())) {
+					RecipeEntity recipeEntity = modified.get(modifiedIndex++);
+					page.getRecipes().add(mapToRecipeObject(recipeEntity));
+					watermark = recipeEntity.getModSequence();
+				} else {
+					RecipeTombstoneEntity tombstone = deleted.get(deletedIndex++);
+					page.getDeletedIds().add(tombstone.getRecipeId());
+					watermark = tombstone.getModSequence();
+				}
+			}
+			if(modifiedIndex < modified.size() || deletedIndex < deleted.size()) {
+				page.setHasMore(true);
+				watermarks[changedShards.get(index)] = watermark;
+			}
+		}
+		page.setWatermark(shards.formatPosition(watermarks));
+		log.debug("Number of recipes in sync page: "+page.getRecipes().size()+", deleted: "+page.getDeletedIds().size()+
+				  ", more pages: "+page.isHasMore());
+		return page;
+	}
+	
+	//Method to remove tombstones older than configured retention, raising the tombstone horizon of every shard
+	@Scheduled(fixedDelayString = "${recipe.sync.tombstone.prune.interval.ms:3600000}")
+	public void pruneTombstones() {
+		Date threshold = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(tombstoneRetentionHours));
+		for(int shard = 0; shard < shards.getShardCount(); shard++) {
+			try {
+				int removed = shards.write(shard, () -> store.deleteTombstonesOlderThan(threshold));
+				log.debug("Removed "+removed+" tombstones of shard: "+shard+" older than "+threshold);
+			} catch(DataAccessException e) {
+				log.error("Exception caught while removing tombstones of shard: "+shard+", "+e.getMessage());
+			}
+		}
+	}
+	
+	//Changes of one shard read for a sync page
+	@RequiredArgsConstructor
+	private static class ShardChanges {
+		private final List<RecipeEntity> modified;
+		private final List<RecipeTombstoneEntity> deleted;
+	}
+	
+	//Method to retrieve all recipes, concurrent callers share one query and the returned list
+	public List<Recipe> getAllRecipesFromRepository(){
+		return listingLoads.load(Boolean.TRUE, recipesCache.stamp(), () -> {
+			List<RecipeEntity> retrievedRecipes = new ArrayList<>();
+			shards.scatterAll(shard -> shards.read(shard, store::findAll)).forEach(retrievedRecipes::addAll);
+			//Recipes of several shards are merged in id order
+			if(shards.isSharded())
+				retrievedRecipes.sort(Comparator.comparing(RecipeEntity::getId));
+			log.debug("Number of retrieved recipes from DB: "+retrievedRecipes.size());
+			//Map all retrieved recipes entity to recipe instances, in parallel for large catalogs
+			List<Recipe> recipesList = recipeMapper.map(retrievedRecipes, this::mapToRecipeObject);
+			log.debug("Number of recipe entities mapped and stored to recipesList: "+recipesList.size());
+			//Return mapped recipes
+			return Collections.unmodifiableList(recipesList);
+		});
+	}
+	
+	//Method to pass every recipe to given consumer in id order, reading through a DB cursor with constant memory.
+	//Several shards are read in pages by id which are merged, so memory is bounded by one page per shard.
+	public long exportRecipesFromRepository(Consumer<Recipe> consumer) {
+		long exported = shards.isSharded() ? exportMergedShards(consumer) : exportRecipesFromShard(0, consumer);
+		log.debug("Number of recipes exported from DB: "+exported);
+		return exported;
+	}
+	
+	//Method to pass every recipe of given shard to given consumer in id order, reading through a DB cursor
+	public long exportRecipesFromShard(int shard, Consumer<Recipe> consumer) {
+		return shards.read(shard, () -> {
+			long exported = 0;
+			try(Stream<RecipeEntity> recipeEntities = store.streamAllRecipes()) {
+				Iterator<RecipeEntity> iterator = recipeEntities.iterator();
+				while(iterator.hasNext()) {
+					RecipeEntity recipeEntity = iterator.next();
+					consumer.accept(mapToRecipeObject(recipeEntity));
+					store.release(recipeEntity);
+					exported++;
+				}
+			}
+			return exported;
+		});
+	}
+	
+	//First page of every shard is read in parallel, then a shard is read again once the merge has used its page
+	private long exportMergedShards(Consumer<Recipe> consumer) {
+		List<Deque<RecipeEntity>> pages = shards.scatterAll(shard -> readPageAfter(shard, Integer.MIN_VALUE));
+		boolean[] lastPage = new boolean[pages.size()];
+		PriorityQueue<Integer> heads = new PriorityQueue<>(Comparator.comparing(shard -> pages.get(shard).peekFirst().getId()));
+		for(int shard = 0; shard < pages.size(); shard++) {
+			lastPage[shard] = pages.get(shard).size() < EXPORT_PAGE_SIZE;
+			if(!pages.get(shard).isEmpty())
+				heads.add(shard);
+		}
+		long exported = 0;
+		while(!heads.isEmpty()) {
+			int shard = heads.poll();
+			Deque<RecipeEntity> page = pages.get(shard);
+			RecipeEntity recipeEntity = page.pollFirst();
+			consumer.accept(mapToRecipeObject(recipeEntity));
+			exported++;
+			if(page.isEmpty() && !lastPage[shard]) {
+				page.addAll(readPageAfter(shard, recipeEntity.getId()));
+				lastPage[shard] = page.size() < EXPORT_PAGE_SIZE;
+			}
+			if(!page.isEmpty())
+				heads.add(shard);
+		}
+		return exported;
+	}
+	
+	private Deque<RecipeEntity> readPageAfter(int shard, Integer afterId) {
+		return shards.read(shard, () -> new ArrayDeque<>(store.findRecipesAfter(afterId, PageRequest.of(0, EXPORT_PAGE_SIZE))));
+	}
+	
+	//Method to save given batch of imported recipes, recipes already present in DB are overwritten. The batch is
+	//written within one transaction per shard.
+	public int importRecipesToRepository(List<Recipe> recipes) {
+		int overwritten = nameReservations.withNames(nameKeysOf(recipes), () -> groupByShard(recipes).entrySet().stream()
+				.mapToInt(group -> shards.write(group.getKey(), () -> importShardRecipes(
+						group.getValue().stream().map(recipes::get).collect(Collectors.toList()))))
+				.sum());
+		log.debug("Number of recipes imported in one batch: "+recipes.size()+", overwritten: "+overwritten);
+		return recipes.size();
+	}
+	
+	//Import recipes of one shard and return the number overwritten
+	private int importShardRecipes(List<Recipe> shardRecipes) {
+		List<Integer> ids = new ArrayList<>(shardRecipes.size());
+		shardRecipes.forEach(recipe -> ids.add(recipe.getId()));
+		Set<Integer> existingIds = new HashSet<>();
+		store.findAllById(ids).forEach(recipeEntity -> existingIds.add(recipeEntity.getId()));
+		int shardOverwritten = existingIds.size();
+		//Id repeated within the batch overwrites the recipe inserted just before
+		shardRecipes.forEach(recipe -> persistRecipe(recipe,
+				existingIds.add(recipe.getId()) ? RecipeOperation.CREATE : RecipeOperation.UPDATE));
+		return shardOverwritten;
+	}
+	
 	//Method to modify an existing recipe
 	public Recipe modifyExistingRecipeInRepository(Recipe recipe) {
-		return saveRecipeToRepository(recipe);
+		return nameReservations.withNames(nameKeysOf(Collections.singletonList(recipe)), () ->
+				shards.write(shards.shardOf(recipe.getId()), () -> persistRecipe(recipe, RecipeOperation.UPDATE)));
+	}
+	
+	//Method to apply a JSON Merge Patch to an existing recipe, returns null when recipe is not found. Only fields
+	//whose value changes are set on the stored entity, so the dynamic update of JPA writes just their columns
+	public Recipe patchExistingRecipeInRepository(Integer id, JsonNode patch) {
+		String nameKey = patch.has("name") ? Util.normalizeRecipeName(textOrNull(patch.get("name"))) : null;
+		return nameReservations.withNames(nameKey != null ? Collections.singletonMap(nameKey, id) : Collections.emptyMap(),
+										  () -> shards.write(shards.shardOf(id), () -> patchRecipe(id, patch)));
+	}
+	
+	private Recipe patchRecipe(Integer id, JsonNode patch) {
+		RecipeEntity recipeEntity = store.findById(id).orElse(null);
+		if(recipeEntity == null)
+			return null;
+		Recipe current = mapToRecipeObject(recipeEntity);
+		Recipe patched = applyMergePatch(current, patch);
+		if(!id.equals(patched.getId()) || Util.checkRecipeValidity(patched) == false) {
+			log.error("Patched recipe is not valid, throwing Bad Request Exception");
+			throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+		}
+		
+		boolean changed = false;
+		if(!patched.getName().equals(recipeEntity.getName())) {
+			recipeEntity.setName(patched.getName());
+			recipeEntity.setNameKey(Util.normalizeRecipeName(patched.getName()));
+			changed = true;
+		}
+		if(!patched.getType().equals(recipeEntity.getType())) {
+			recipeEntity.setType(patched.getType());
+			changed = true;
+		}
+		if(!patched.getServingCapacity().equals(recipeEntity.getServingCapacity())) {
+			recipeEntity.setServingCapacity(patched.getServingCapacity());
+			changed = true;
+		}
+		String ingredients = Util.convertToJSONString(patched.getIngredientsList());
+		if(!Objects.equals(ingredients, recipeEntity.getIngredients())) {
+			recipeEntity.setIngredients(ingredients);
+			changed = true;
+		}
+		if(!Objects.equals(patched.getInstructions(), recipeEntity.getInstructions())) {
+			recipeEntity.setInstructions(patched.getInstructions());
+			changed = true;
+		}
+		if(!changed) {
+			log.debug("Patch leaves recipe with id: "+id+" unchanged, nothing is written");
+			return current;
+		}
+		
+		recipeEntity.setModSequence(changeLogService.appendChange(id, RecipeOperation.UPDATE));
+		recipeEntity = store.save(recipeEntity);
+		Recipe savedRecipe = mapToRecipeObject(recipeEntity);
+		eventPublisher.publishEvent(new RecipeContentChangeEvent(id, RecipeFacets.of(current), RecipeFacets.of(savedRecipe)));
+		return savedRecipe;
+	}
+	
+	//Merge patch members replace fields, null removes optional fields, arrays like ingredientsList are replaced
+	//as a whole. Members of read-only or unknown fields are ignored as in a full update.
+	private Recipe applyMergePatch(Recipe current, JsonNode patch) {
+		Recipe patched = new Recipe();
+		patched.setId(patch.has("id") ? (patch.get("id").canConvertToInt() ? patch.get("id").asInt() : null) : current.getId());
+		patched.setName(patch.has("name") ? textOrNull(patch.get("name")) : current.getName());
+		patched.setType(patch.has("type") ? textOrNull(patch.get("type")) : current.getType());
+		patched.setServingCapacity(patch.has("servingCapacity") ? (patch.get("servingCapacity").canConvertToInt()
+								   ? patch.get("servingCapacity").asInt() : null) : current.getServingCapacity());
+		patched.setInstructions(patch.has("instructions") ? textOrNull(patch.get("instructions")) : current.getInstructions());
+		patched.setIngredientsList(current.getIngredientsList());
+		if(patch.has("ingredientsList")) {
+			JsonNode ingredientsNode = patch.get("ingredientsList");
+			try {
+				patched.setIngredientsList(ingredientsNode.isNull() ? new ArrayList<>()
+						: Arrays.asList(objectMapper.convertValue(ingredientsNode, Ingredient[].class)));
+			} catch(IllegalArgumentException e) {
+				log.error("Patched ingredients list is not valid: "+e.getMessage());
+				throw new BadRequestException(ErrorMessages.BAD_REQUEST_MSG);
+			}
+		}
+		patched.setCreationDateTime(current.getCreationDateTime());
+		return patched;
+	}
+	
+	private String textOrNull(JsonNode node) {
+		return node.isTextual() ? node.asText() : null;
 	}
 	
 	//Method to query and delete requested recipe based on it's id from repository
 	public void deleteRecipeFromRepository(Integer id) {
+		shards.write(shards.shardOf(id), () -> {
+			deleteRecipe(id);
+			return id;
+		});
+	}
+	
+	private void deleteRecipe(Integer id) {
 		log.debug("Deleting recipe with id: "+id+" from repository, if it is present");
-		recipesRepo.deleteById(id);
+		//Missing recipe fails before a change is appended
+		RecipeEntity recipeEntity = store.findById(id)
+										 .orElseThrow(() -> new EmptyResultDataAccessException("No recipe with id "+id+" exists", 1));
+		Long sequence = changeLogService.appendChange(id, RecipeOperation.DELETE);
+		//Tombstone tells delta sync clients to remove the recipe
+		store.deleteById(id, sequence, Util.getCurrentDateTime().orElse(null));
+		eventPublisher.publishEvent(new RecipeContentChangeEvent(id, RecipeFacets.of(mapToRecipeObject(recipeEntity)), null));
 		log.debug("Requested recipe should be deleted");
 	}
 }
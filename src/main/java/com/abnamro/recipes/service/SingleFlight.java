@@ -0,0 +1,73 @@
+package com.abnamro.recipes.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+//Coalesces concurrent loads of the same key, callers arriving while a load of the key is in flight wait for it and
+//share its result. Each load carries the invalidation generation taken before it, a caller joins only a flight of
+//the same or a newer generation, so a caller which started after a write never gets a result read before it.
+public class SingleFlight<K,V> {
+	
+	private final ConcurrentMap<K,Flight<V>> flights = new ConcurrentHashMap<>();
+	
+	private final Counter joinedCounter;
+	
+	public SingleFlight(String name, MeterRegistry meterRegistry) {
+		this.joinedCounter = Counter.builder("recipes.singleflight.joined").tag("load", name).register(meterRegistry);
+	}
+	
+	//Method to return result of given loader, run by this caller or shared with a load of the key in flight
+	public V load(K key, long generation, Supplier<V> loader) {
+		Flight<V> flight = new Flight<>(generation);
+		while(true) {
+			Flight<V> inFlight = flights.putIfAbsent(key, flight);
+			if(inFlight == null)
+				break;
+			if(inFlight.generation >= generation) {
+				joinedCounter.increment();
+				return inFlight.await();
+			}
+			//Flight of an older generation finishes for its own callers, newer callers join this one
+			if(flights.replace(key, inFlight, flight))
+				break;
+		}
+		try {
+			V result = loader.get();
+			flight.future.complete(result);
+			return result;
+		} catch(RuntimeException | Error e) {
+			flight.future.completeExceptionally(e);
+			throw e;
+		} finally {
+			flights.remove(key, flight);
+		}
+	}
+	
+	private static class Flight<V> {
+		private final long generation;
+		private final CompletableFuture<V> future = new CompletableFuture<>();
+		
+		private Flight(long generation) {
+			this.generation = generation;
+		}
+		
+		//Wait for leader and rethrow its failure as is
+		private V await() {
+			try {
+				return future.join();
+			} catch(CompletionException e) {
+				if(e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				if(e.getCause() instanceof Error)
+					throw (Error) e.getCause();
+				throw e;
+			}
+		}
+	}
+}
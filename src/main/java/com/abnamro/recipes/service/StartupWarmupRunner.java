@@ -0,0 +1,163 @@
+package com.abnamro.recipes.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.User;
+import com.abnamro.recipes.config.StartupTimings;
+import com.abnamro.recipes.util.Util;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Runner to warm up api hot paths through the local web server before readiness is reported, enabled with
+//recipe.warmup.enabled. Runs rounds of read-only requests until round latency stops improving.
+@Component
+@ConditionalOnProperty(name = "recipe.warmup.enabled", havingValue = "true")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Slf4j
+public class StartupWarmupRunner implements ApplicationRunner {
+	
+	private static final List<MediaType> LISTING_MEDIA_TYPES = Arrays.asList(MediaType.APPLICATION_JSON,
+			new MediaType("application", "cbor"), RecipesListingCache.APPLICATION_SMILE);
+	
+	@Autowired
+	private ConfigurableApplicationContext context;
+	
+	@Autowired
+	private StartupTimings timings;
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@Value("${recipe.warmup.min.rounds:10}")
+	private int minRounds;
+	
+	@Value("${recipe.warmup.max.rounds:100}")
+	private int maxRounds;
+	
+	@Value("${recipe.warmup.stable.rounds:5}")
+	private int stableRounds;
+	
+	@Value("${recipe.warmup.tolerance:0.25}")
+	private double tolerance;
+	
+	@Value("${recipe.warmup.max.duration.ms:30000}")
+	private long maxDurationMs;
+	
+	@Value("${recipe.warmup.exit:false}")
+	private boolean exitAfterWarmup;
+	
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		if(!(context instanceof WebServerApplicationContext)) {
+			log.info("No embedded web server running, skipping warm-up");
+			return;
+		}
+		int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+		warmUp(newRestTemplate(), "http://localhost:"+port+"/api");
+	
+		//Training run for the class data sharing archive, which is written when JVM exits
+		if(exitAfterWarmup) {
+			log.info("Warm-up finished, exiting as requested by recipe.warmup.exit");
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+	
+	//Steady state is reached once the last stableRounds rounds are within tolerance of each other
+	private void warmUp(RestTemplate restTemplate, String baseUrl) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDurationMs);
+		Deque<Long> window = new ArrayDeque<>(stableRounds);
+		int round = 0;
+		while(round < maxRounds && System.nanoTime() < deadline) {
+			long start = System.nanoTime();
+			runRound(restTemplate, baseUrl);
+			round++;
+			if(window.size() == stableRounds)
+				window.removeFirst();
+			window.addLast(System.nanoTime() - start);
+	
+			if(round >= minRounds && window.size() == stableRounds &&
+			   Collections.max(window) <= Collections.min(window) * (1 + tolerance)) {
+				timings.recordSteadyState();
+				log.info("Warm-up reached steady state after "+round+" rounds, round latency: "+
+						 TimeUnit.NANOSECONDS.toMicros(window.getLast())+" us, ms since JVM start to first request: "+
+						 timings.getFirstRequestMillis()+", to steady state: "+timings.getSteadyStateMillis());
+				return;
+			}
+		}
+		log.warn("Warm-up stopped after "+round+" rounds without reaching steady state");
+	}
+	
+	//One round authenticates, reads the listing in every representation and takes the point read and write
+	//validation paths with requests which are rejected before anything is stored
+	private void runRound(RestTemplate restTemplate, String baseUrl) {
+		ResponseEntity<User> authResponse = restTemplate.postForEntity(baseUrl+"/authenticate",
+																	  new User(userName, secretKey), User.class);
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(authResponse.getBody() != null ? authResponse.getBody().getPassword()
+															 : Util.generateJWTToken(userName, secretKey));
+	
+		for(MediaType mediaType : LISTING_MEDIA_TYPES) {
+			headers.setAccept(Collections.singletonList(mediaType));
+			restTemplate.exchange(baseUrl+"/recipes", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+		}
+		headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+		headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		restTemplate.exchange(baseUrl+"/recipes", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+		headers.remove(HttpHeaders.ACCEPT_ENCODING);
+	
+		restTemplate.exchange(baseUrl+"/recipe/-1", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+		restTemplate.exchange(baseUrl+"/recipe", HttpMethod.POST, new HttpEntity<>(newInvalidRecipe(), headers),
+							  String.class);
+	}
+	
+	//Recipe without name, so that it is fully deserialized and then rejected as bad request. Name is required in
+	//every id mode, unlike the id which the server assigns when recipe.id.mode is server.
+	private Recipe newInvalidRecipe() {
+		Recipe recipe = new Recipe();
+		recipe.setType("vg");
+		recipe.setServingCapacity(1);
+		recipe.setInstructions("Warm-up only, never stored");
+		return recipe;
+	}
+	
+	private RestTemplate newRestTemplate() {
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+			@Override
+			public boolean hasError(ClientHttpResponse response) throws IOException {
+				return false;
+			}
+		});
+		return restTemplate;
+	}
+}
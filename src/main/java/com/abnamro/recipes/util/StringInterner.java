@@ -0,0 +1,37 @@
+package com.abnamro.recipes.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//Bounded dictionary returning one shared instance per equal string, safe for concurrent use. Once full, or for
+//strings longer than the limit, the given string is returned as is, so memory stays bounded for unusual values.
+public class StringInterner {
+	
+	private final ConcurrentMap<String,String> dictionary = new ConcurrentHashMap<>();
+	
+	private final int maxEntries;
+	
+	private final int maxLength;
+	
+	public StringInterner(int maxEntries, int maxLength) {
+		this.maxEntries = maxEntries;
+		this.maxLength = maxLength;
+	}
+	
+	//Method to return shared instance equal to given string, null for null
+	public String intern(String value) {
+		if(value == null || value.length() > maxLength)
+			return value;
+		String shared = dictionary.get(value);
+		if(shared != null)
+			return shared;
+		if(dictionary.size() >= maxEntries)
+			return value;
+		shared = dictionary.putIfAbsent(value, value);
+		return shared != null ? shared : value;
+	}
+	
+	public int size() {
+		return dictionary.size();
+	}
+}
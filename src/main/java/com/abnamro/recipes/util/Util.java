@@ -1,10 +1,12 @@
 package com.abnamro.recipes.util;
 
+import java.text.Normalizer;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -29,6 +31,8 @@ public class Util {
 	private static String PREFIX = "Bearer ";
 	private static SignatureAlgorithm SA = SignatureAlgorithm.HS512; 
 	private static String pattern = "dd-MM-yyyy HH:mm:ss";
+	//Shared ingredient names and quantities, so cached recipes do not hold a copy of "salt" or "1 tsp" each
+	private static final StringInterner INGREDIENT_STRINGS = new StringInterner(100000, 64);
 	
 	//Method to check given JWT Token validity
 	public static Boolean checkJwtTokenValidity(String secretKey, String authHeader) {
@@ -96,13 +100,25 @@ public class Util {
 		}
 	}
 
+	//Normalize recipe name for case-insensitive lookup, null for null name
+	public static String normalizeRecipeName(String name) {
+		if(name == null)
+			return null;
+		return Normalizer.normalize(name, Normalizer.Form.NFKC).trim().toLowerCase(Locale.ROOT);
+	}
+	
 	//Method to validate various fields present in given Recipe Entity
 	public static Boolean checkRecipeValidity(Recipe recipe) {
+		return checkRecipeValidity(recipe, true);
+	}
+	
+	//Check recipe validity, id may be left out for recipes which get a server assigned id
+	public static Boolean checkRecipeValidity(Recipe recipe, boolean idRequired) {
 		//Check for nullness
 		if(recipe == null) {
 			log.error("Given recipe instance is null");
 			return false;
-		} else if (recipe.getId() == null || recipe.getName() == null || 
+		} else if ((idRequired && recipe.getId() == null) || recipe.getName() == null || 
 				   recipe.getType() == null || recipe.getServingCapacity() == null) {
 			log.error("One of non-null field is null in recipe instance");
 			return false;
@@ -123,7 +139,7 @@ public class Util {
 		return jsonString;
 	}
 	
-	//Convert given JSON String to List of Ingredients
+	//Convert given JSON String to List of Ingredients, names and quantities are interned
 	public static List<Ingredient> convertJSONStringToIngredientsList(String jsonString){
 		ObjectMapper mapper = new ObjectMapper();
 		List<Ingredient> ingredientsList = null;
@@ -132,6 +148,10 @@ public class Util {
 		try {
 			//Convert JSON array to List of objects
 			ingredientsList = Arrays.asList(mapper.readValue(jsonString, Ingredient[].class));
+			ingredientsList.forEach(ingredient -> {
+				ingredient.setName(INGREDIENT_STRINGS.intern(ingredient.getName()));
+				ingredient.setQuantity(INGREDIENT_STRINGS.intern(ingredient.getQuantity()));
+			});
 		} catch(Exception e) {
 			log.error("Exception caught while converting JSON String to Ingredients List");
 			log.error(ExceptionUtils.getStackTrace(e));
@@ -139,6 +159,16 @@ public class Util {
 		return ingredientsList;
 	}
 	
+	//Method to return shared instance of given ingredient name or quantity, for ingredients not read from JSON
+	public static String internIngredientString(String value) {
+		return INGREDIENT_STRINGS.intern(value);
+	}
+	
+	//Method to return number of distinct interned ingredient names and quantities
+	public static int getInternedIngredientStrings() {
+		return INGREDIENT_STRINGS.size();
+	}
+	
 	//Format given Date contents to 
 	public static String formatDateTime(Date date) {
 		try {
@@ -152,4 +182,30 @@ public class Util {
 			return null;
 		}
 	}
+	
+	//Check if given Accept-Encoding header value allows gzip content coding
+	public static boolean acceptsGzip(String acceptEncoding) {
+		if(acceptEncoding == null)
+			return false;
+		for(String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.trim().split(";");
+			if(parts[0].trim().equalsIgnoreCase("gzip"))
+				return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+		}
+		return false;
+	}
+	
+	//Check if given If-None-Match header value matches given entity tag
+	public static boolean matchesETag(String ifNoneMatch, String eTag) {
+		if(ifNoneMatch == null)
+			return false;
+		for(String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if(tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if(tag.equals("*") || tag.equals(eTag))
+				return true;
+		}
+		return false;
+	}
 }
@@ -0,0 +1,97 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.abnamro.recipes.config.AdaptiveConcurrencyLimiter;
+import com.abnamro.recipes.config.AdmissionControlFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+public class AdmissionControlTests {
+	
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(1000);
+	
+	@Test
+	public void GivenFastRequests_WhenReleased_ThenLimitGrowsAdditivelyTest() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("read", 4, 1, 10, 100, 0.5);
+		//Keep the limiter saturated and complete requests well under target latency
+		for(int i = 0; i < 50; i++) {
+			while(limiter.tryAcquire());
+			limiter.release(FAST, false);
+		}
+		assertThat(limiter.getLimit()).as("Limit did not grow under fast responses").isGreaterThan(4).isLessThanOrEqualTo(10);
+	}
+	
+	@Test
+	public void GivenSlowRequests_WhenReleased_ThenLimitBacksOffToMinimumTest() {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("write", 8, 2, 10, 100, 0.5);
+		limiter.tryAcquire();
+		limiter.release(SLOW, false);
+		assertThat(limiter.getLimit()).as("Limit did not halve after slow response").isEqualTo(4);
+		for(int i = 0; i < 5; i++) {
+			limiter.tryAcquire();
+			limiter.release(FAST, true);
+		}
+		assertThat(limiter.getLimit()).as("Limit dropped below configured minimum").isEqualTo(2);
+	}
+	
+	@Test
+	public void GivenSaturatedLimiter_WhenRequestArrives_ThenResponseIsServiceUnavailableTest() throws Exception {
+		AdaptiveConcurrencyLimiter readLimiter = new AdaptiveConcurrencyLimiter("read", 1, 1, 1, 100, 0.9);
+		AdaptiveConcurrencyLimiter writeLimiter = new AdaptiveConcurrencyLimiter("write", 1, 1, 1, 100, 0.9);
+		AdmissionControlFilter filter = new AdmissionControlFilter(readLimiter, writeLimiter, 3,
+																   new ObjectMapper().registerModule(new JavaTimeModule()));
+		//Occupy the only read slot
+		assertThat(readLimiter.tryAcquire()).isTrue();
+		
+		//Read request is shed before reaching rest of filter chain
+		MockHttpServletResponse readResponse = new MockHttpServletResponse();
+		MockFilterChain readChain = new MockFilterChain();
+		filter.doFilter(new MockHttpServletRequest("GET", "/api/recipes"), readResponse, readChain);
+		assertThat(readResponse.getStatus()).as("Http Status is not as expected").isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+		assertThat(readResponse.getHeader(HttpHeaders.RETRY_AFTER)).as("Retry-After header is not as expected").isEqualTo("3");
+		assertThat(readChain.getRequest()).as("Rejected request reached filter chain").isNull();
+		assertThat(readLimiter.getRejected()).as("Rejected requests are not counted").isEqualTo(1);
+		
+		//Write requests have their own limit and still pass
+		MockHttpServletResponse writeResponse = new MockHttpServletResponse();
+		MockFilterChain writeChain = new MockFilterChain();
+		filter.doFilter(new MockHttpServletRequest("POST", "/api/recipe"), writeResponse, writeChain);
+		assertThat(writeChain.getRequest()).as("Write request did not reach filter chain").isNotNull();
+		assertThat(writeLimiter.getInFlight()).as("Write slot is not released").isZero();
+	}
+	
+	@Test
+	public void GivenContextPath_WhenRequestArrives_ThenPathWithinApplicationIsMatchedTest() throws Exception {
+		AdaptiveConcurrencyLimiter readLimiter = new AdaptiveConcurrencyLimiter("read", 1, 1, 1, 100, 0.9);
+		AdaptiveConcurrencyLimiter writeLimiter = new AdaptiveConcurrencyLimiter("write", 1, 1, 1, 100, 0.9);
+		AdmissionControlFilter filter = new AdmissionControlFilter(readLimiter, writeLimiter, 3,
+																   new ObjectMapper().registerModule(new JavaTimeModule()));
+		assertThat(readLimiter.tryAcquire()).isTrue();
+		
+		//Api request under a context path is still admitted through the limiter
+		MockHttpServletRequest apiRequest = new MockHttpServletRequest("GET", "/recipes-app/api/recipes");
+		apiRequest.setContextPath("/recipes-app");
+		MockHttpServletResponse apiResponse = new MockHttpServletResponse();
+		filter.doFilter(apiRequest, apiResponse, new MockFilterChain());
+		assertThat(apiResponse.getStatus()).as("Api request under context path bypassed admission control")
+										   .isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+		
+		//Change feed under a context path is still exempt
+		MockHttpServletRequest feedRequest = new MockHttpServletRequest("GET", "/recipes-app/api/recipes/changes");
+		feedRequest.setContextPath("/recipes-app");
+		MockFilterChain feedChain = new MockFilterChain();
+		filter.doFilter(feedRequest, new MockHttpServletResponse(), feedChain);
+		assertThat(feedChain.getRequest()).as("Change feed under context path is not exempt").isNotNull();
+	}
+}
@@ -0,0 +1,117 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.abnamro.recipes.config.Bulkhead;
+import com.abnamro.recipes.exceptions.ServiceUnavailableException;
+
+//Mixed workload of blocked listings and cheap point reads, with and without bulkhead isolation. Listings wait on a
+//latch instead of sleeping, so that every assertion holds however slow the machine is.
+public class BulkheadTests {
+	
+	//Time allowed for work which is free to run, only reached when a test fails
+	private static final long WAIT_SECONDS = 10;
+	
+	//Simulated listing which holds its thread until released
+	private static Long blockedWork(CountDownLatch started, CountDownLatch release) {
+		started.countDown();
+		try {
+			release.await(WAIT_SECONDS, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return 0L;
+	}
+	
+	//Submit given number of listings and return them once given number of them hold a thread
+	private List<CompletableFuture<Long>> submitListings(Bulkhead bulkhead, int listings, int running,
+														  CountDownLatch release) throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(running);
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for(int i = 0; i < listings; i++)
+			futures.add(bulkhead.submit(() -> blockedWork(started, release)));
+		assertThat(started.await(WAIT_SECONDS, TimeUnit.SECONDS)).as("Listings did not start").isTrue();
+		return futures;
+	}
+	
+	@Test
+	public void GivenListingBurst_WhenPoolIsShared_ThenPointReadsQueueBehindListingsTest() throws Exception {
+		Bulkhead shared = new Bulkhead("shared", 4, 100, 4, 10000);
+		CountDownLatch release = new CountDownLatch(1);
+		List<CompletableFuture<Long>> listings = submitListings(shared, 8, 4, release);
+		
+		//Every thread is held by a listing, the point read can only wait in the queue
+		CompletableFuture<Long> pointRead = shared.submit(() -> 1L);
+		assertThat(shared.getActiveThreads()).as("Listings do not hold every thread").isEqualTo(4);
+		assertThat(shared.getQueuedRequests()).as("Point read is not queued behind listings").isEqualTo(5);
+		assertThat(pointRead.isDone()).as("Point read ran while listings held every thread").isFalse();
+		
+		release.countDown();
+		assertThat(pointRead.get(WAIT_SECONDS, TimeUnit.SECONDS)).as("Point read did not run after listings").isEqualTo(1L);
+		CompletableFuture.allOf(listings.toArray(new CompletableFuture[0])).get(WAIT_SECONDS, TimeUnit.SECONDS);
+		shared.shutdown();
+	}
+	
+	@Test
+	public void GivenListingBurst_WhenBulkheadsAreSeparate_ThenPointReadsProgressTest() throws Exception {
+		Bulkhead listBulkhead = new Bulkhead("list", 2, 20, 2, 10000);
+		Bulkhead pointBulkhead = new Bulkhead("point", 4, 100, 4, 10000);
+		CountDownLatch release = new CountDownLatch(1);
+		List<CompletableFuture<Long>> listings = submitListings(listBulkhead, 8, 2, release);
+		
+		//Listings saturate only their own threads and permits, point reads complete while all of them are blocked
+		assertThat(listBulkhead.getAvailablePermits()).as("Listings do not hold their permits").isZero();
+		for(int i = 0; i < 20; i++)
+			assertThat(pointBulkhead.submit(() -> 1L).get(WAIT_SECONDS, TimeUnit.SECONDS)).as("Point read is starved").isEqualTo(1L);
+		assertThat(pointBulkhead.getAvailablePermits()).as("Point read permits are not released").isEqualTo(4);
+		assertThat(listings).as("Listing completed before it was released").noneMatch(CompletableFuture::isDone);
+		
+		release.countDown();
+		CompletableFuture.allOf(listings.toArray(new CompletableFuture[0])).get(WAIT_SECONDS, TimeUnit.SECONDS);
+		listBulkhead.shutdown();
+		pointBulkhead.shutdown();
+	}
+	
+	@Test
+	public void GivenFullBulkhead_WhenWorkSubmitted_ThenServiceUnavailableIsThrownTest() throws Exception {
+		Bulkhead listBulkhead = new Bulkhead("list", 1, 1, 1, 10000);
+		CountDownLatch release = new CountDownLatch(1);
+		//The only thread holds the first listing, the second fills the single queue slot
+		List<CompletableFuture<Long>> listings = submitListings(listBulkhead, 2, 1, release);
+		
+		assertThatThrownBy(() -> listBulkhead.submit(() -> 1L))
+				.as("Full bulkhead did not reject work").isInstanceOf(ServiceUnavailableException.class);
+		release.countDown();
+		CompletableFuture.allOf(listings.toArray(new CompletableFuture[0])).get(WAIT_SECONDS, TimeUnit.SECONDS);
+		listBulkhead.shutdown();
+	}
+	
+	@Test
+	public void GivenPermitsHeld_WhenWorkNeedsPermit_ThenServiceUnavailableIsThrownTest() throws Exception {
+		Bulkhead writeBulkhead = new Bulkhead("write", 2, 10, 1, 10);
+		CountDownLatch release = new CountDownLatch(1);
+		List<CompletableFuture<Long>> writes = submitListings(writeBulkhead, 1, 1, release);
+		
+		//A free thread does not help without a permit, neither does running on the calling thread
+		CompletableFuture<Long> waiting = writeBulkhead.submit(() -> 1L);
+		assertThatThrownBy(() -> waiting.get(WAIT_SECONDS, TimeUnit.SECONDS)).as("Work ran without a permit")
+				.isInstanceOf(ExecutionException.class).hasCauseInstanceOf(ServiceUnavailableException.class);
+		assertThatThrownBy(() -> writeBulkhead.run(() -> 1L)).as("Work ran without a permit on calling thread")
+				.isInstanceOf(ServiceUnavailableException.class);
+		
+		release.countDown();
+		CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).get(WAIT_SECONDS, TimeUnit.SECONDS);
+		assertThat(writeBulkhead.run(() -> 1L)).as("Released permit is not available again").isEqualTo(1L);
+		writeBulkhead.shutdown();
+	}
+}
@@ -0,0 +1,89 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import com.abnamor.recipes.dto.Ingredient;
+import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Heap histogram of ingredient lists of 100k recipes, deserialized with and without interned names and quantities
+@Slf4j
+public class IngredientInterningHeapTests {
+	
+	private static final int RECIPES = 100000;
+	private static final int INGREDIENTS_PER_RECIPE = 8;
+	private static final int DISTINCT_NAMES = 500;
+	private static final String[] UNITS = {"tsp", "tbsp", "g", "kg", "ml", "cup", "nos", "pinch"};
+	
+	//Instances and bytes of strings and their backing arrays, from a histogram taken after full GC
+	private static long[] stringHeap() throws Exception {
+		String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+				new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+				new Object[] {null}, new String[] {String[].class.getName()});
+		long[] usage = new long[2];
+		for(String line : histogram.split("\n")) {
+			String[] columns = line.trim().split("\\s+");
+			if(columns.length >= 4 && (columns[3].equals("java.lang.String") || columns[3].equals("[B")
+									   || columns[3].equals("[C"))) {
+				usage[0] += Long.parseLong(columns[1]);
+				usage[1] += Long.parseLong(columns[2]);
+			}
+		}
+		return usage;
+	}
+	
+	//Deserialize every recipe's ingredients with given function and return heap taken by their strings
+	private long[] loadAndMeasure(String label, List<String> dataset, Function<String,List<Ingredient>> deserializer)
+			throws Exception {
+		long[] before = stringHeap();
+		List<List<Ingredient>> loaded = new ArrayList<>(dataset.size());
+		dataset.forEach(json -> loaded.add(deserializer.apply(json)));
+		long[] after = stringHeap();
+		long[] delta = {after[0] - before[0], after[1] - before[1]};
+		log.info(String.format("%-8s strings and arrays: %9d instances, %11d bytes for %d recipes", label, delta[0],
+							   delta[1], loaded.size()));
+		return delta;
+	}
+	
+	@Test
+	public void GivenRecipeDataset_WhenIngredientsDeserialized_ThenInternedStringsTakeLessHeapTest() throws Exception {
+		//Realistic skew, most recipes use a few hundred common ingredients with common quantities
+		Random random = new Random(41);
+		List<String> dataset = new ArrayList<>(RECIPES);
+		for(int i = 0; i < RECIPES; i++) {
+			Ingredient[] ingredients = new Ingredient[INGREDIENTS_PER_RECIPE];
+			for(int j = 0; j < INGREDIENTS_PER_RECIPE; j++)
+				ingredients[j] = new Ingredient("ingredient "+(int) (DISTINCT_NAMES * Math.pow(random.nextDouble(), 2)),
+						(random.nextInt(10) + 1)+" "+UNITS[random.nextInt(UNITS.length)]);
+			dataset.add(Util.convertToJSONString(Arrays.asList(ingredients)));
+		}
+		ObjectMapper mapper = new ObjectMapper();
+		
+		long[] plain = loadAndMeasure("Plain", dataset, json -> {
+			try {
+				return Arrays.asList(mapper.readValue(json, Ingredient[].class));
+			} catch(Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		long[] interned = loadAndMeasure("Interned", dataset, Util::convertJSONStringToIngredientsList);
+		log.info("Heap saved by interning: "+(plain[1] - interned[1])+" bytes, distinct interned strings: "+
+				 Util.getInternedIngredientStrings());
+		
+		assertThat(interned[1]).as("Interned ingredients do not take less than a tenth of plain heap")
+							   .isLessThan(plain[1] / 10);
+	}
+}
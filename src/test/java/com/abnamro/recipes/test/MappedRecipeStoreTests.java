@@ -0,0 +1,318 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.dao.RecipeImportCheckpointEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.dao.RecipeTombstoneEntity;
+import com.abnamro.recipes.repository.MappedRecipeLog;
+import com.abnamro.recipes.repository.MappedRecipeLog.Write;
+import com.abnamro.recipes.repository.MappedRecipeStore;
+import com.abnamro.recipes.repository.RecipeCoordinationStore;
+import com.abnamro.recipes.repository.RecipeStore;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+//Recipes, change log and coordination state on the memory-mapped log store of profile mmap, without a database
+@SpringBootTest(properties = {"recipe.mmap.dir=${java.io.tmpdir}/recipes-mmap-${random.uuid}", "recipe.mmap.segment.size.mb=1"})
+@ActiveProfiles("mmap")
+public class MappedRecipeStoreTests {
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeStore store;
+	
+	@Autowired
+	private RecipeCoordinationStore coordinationStore;
+	
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+	
+	@Autowired
+	private ApplicationContext context;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	@TempDir
+	Path directory;
+	
+	private static RecipeEntity entity(Integer id, String name, int capacity) {
+		RecipeEntity recipeEntity = TestUtil.buildSampleRecipeEntity(id, name, "log", capacity);
+		recipeEntity.setNameKey(Util.normalizeRecipeName(name));
+		recipeEntity.setModSequence((long) id * 100 + capacity);
+		return recipeEntity;
+	}
+	
+	private static void put(MappedRecipeLog recipeLog, RecipeEntity recipeEntity) {
+		recipeLog.append(Collections.singletonList(Write.put(recipeEntity, false)));
+	}
+	
+	private static RecipeChangeLogEntity change(MappedRecipeLog recipeLog, Integer id, Date changeDateTime) {
+		RecipeChangeLogEntity change = new RecipeChangeLogEntity();
+		change.setSequence(recipeLog.nextChangeSequence());
+		change.setRecipeId(id);
+		change.setOperation(RecipeOperation.CREATE);
+		change.setNodeId("node");
+		change.setChangeDateTime(changeDateTime);
+		return change;
+	}
+	
+	@Test
+	public void GivenMmapProfile_WhenRecipesWritten_ThenTheyAreStoredInLogOnlyTest() throws Exception {
+		assertThat(store).as("Profile does not select the mapped store").isInstanceOf(MappedRecipeStore.class);
+		assertThat(context.getBeansOfType(DataSource.class)).as("Datasource is started").isEmpty();
+		assertThat(context.getBeansOfType(EntityManagerFactory.class)).as("JPA is started").isEmpty();
+		MappedRecipeLog recipeLog = ((MappedRecipeStore) store).getLog();
+		IntStream.rangeClosed(2101, 2105).forEach(id -> service.saveRecipeToRepository(
+				TestUtil.buildSampleRecipe(id, "Mapped Recipe "+id, "mmap", 2)));
+		
+		//Validate point operations, patch and lookup by name are served from the log
+		Recipe modified = service.loadRecipeFromRepository(2102);
+		modified.setServingCapacity(6);
+		service.modifyExistingRecipeInRepository(modified);
+		service.patchExistingRecipeInRepository(2103, mapper.readTree("{\"type\":\"patched\"}"));
+		service.deleteRecipeFromRepository(2104);
+		assertThat(service.loadRecipeFromRepository(2102).getServingCapacity()).as("Update is not stored").isEqualTo(6);
+		assertThat(service.loadRecipeFromRepository(2103).getType()).as("Patch is not stored").isEqualTo("patched");
+		assertThat(service.loadRecipeFromRepository(2104)).as("Recipe is not deleted").isNull();
+		assertThat(service.getRecipeByNameFromRepository("mapped recipe 2105").getId()).as("Recipe is not found by name").isEqualTo(2105);
+		assertThat(recipeLog.contains(2101)).as("Recipe is not in log").isTrue();
+		List<RecipeChangeLogEntity> changes = recipeLog.findChangesAfter(0, 0, 100);
+		assertThat(changes.stream().filter(change -> change.getRecipeId() == 2102).map(RecipeChangeLogEntity::getOperation))
+				  .as("Change log entries are not in log").containsExactly(RecipeOperation.CREATE, RecipeOperation.UPDATE);
+		assertThat(recipeLog.get(2102).getModSequence()).as("Recipe and its change log entry differ")
+				  .isEqualTo(changes.stream().filter(change -> change.getRecipeId() == 2102).reduce((first, second) -> second).get().getSequence());
+		long lastSequence = store.findMaxChangeSequence();
+		
+		//Validate a taken name fails the whole batch and the delete leaves a tombstone
+		assertThatThrownBy(() -> service.importRecipesToRepository(Arrays.asList(
+				TestUtil.buildSampleRecipe(2106, "Mapped Recipe 2106", "mmap", 2),
+				TestUtil.buildSampleRecipe(2107, "Mapped Recipe 2101", "mmap", 2))))
+				  .as("Taken name is not rejected").isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(service.loadRecipeFromRepository(2106)).as("Write of failed batch is kept").isNull();
+		assertThat(store.findMaxChangeSequence()).as("Change log entry of failed batch is kept").isEqualTo(lastSequence);
+		List<RecipeTombstoneEntity> tombstones = store.findDeletedBetween(0L, Long.MAX_VALUE, PageRequest.of(0, 100));
+		assertThat(tombstones.stream().map(RecipeTombstoneEntity::getRecipeId)).as("Tombstone is missing").contains(2104);
+		
+		//Validate listing and export read the log in id order
+		List<Integer> exportedIds = new ArrayList<>();
+		service.exportRecipesFromRepository(recipe -> exportedIds.add(recipe.getId()));
+		assertThat(exportedIds).as("Export is not as expected").containsSubsequence(2101, 2102, 2103, 2105).doesNotContain(2104);
+		
+		Stream.of(2101, 2102, 2103, 2105).forEach(service::deleteRecipeFromRepository);
+	}
+	
+	@Test
+	public void GivenOpenTransaction_WhenRecipesWritten_ThenReadsOfTheTransactionSeeThemTest() {
+		MappedRecipeLog recipeLog = ((MappedRecipeStore) store).getLog();
+		store.save(entity(2201, "Pending Recipe 2201", 1));
+		
+		transactionTemplate.executeWithoutResult(status -> {
+			store.insert(entity(2202, "Pending Recipe 2202", 1));
+			store.save(entity(2201, "Renamed Recipe 2201", 2));
+			assertThat(recipeLog.contains(2202)).as("Write is appended before commit").isFalse();
+			assertThat(store.findFirstByNameKey("pending recipe 2202")).as("Pending insert is not found by name").isPresent();
+			assertThat(store.findFirstByNameKey("pending recipe 2201")).as("Pending rename keeps old name").isEmpty();
+			assertThat(store.findAll().stream().map(RecipeEntity::getId)).as("Pending insert is not listed").contains(2201, 2202);
+			assertThat(store.findRecipesAfter(2200, PageRequest.of(0, 2)).stream().map(RecipeEntity::getServingCapacity))
+					  .as("Page does not hold pending writes").containsExactly(2, 1);
+			status.setRollbackOnly();
+		});
+		assertThat(store.findById(2202)).as("Rolled back insert is stored").isEmpty();
+		assertThat(store.findById(2201).get().getName()).as("Rolled back rename is stored").isEqualTo("Pending Recipe 2201");
+		store.deleteById(2201, null, null);
+	}
+	
+	@Test
+	public void GivenMmapProfile_WhenCoordinationStateWritten_ThenItIsKeptInLogTest() {
+		assertThat(coordinationStore.reserveIdBlock("test", 10, () -> 500)).as("First block does not start at initial value").isEqualTo(500);
+		assertThat(coordinationStore.reserveIdBlock("test", 10, () -> 1)).as("Next block does not follow").isEqualTo(510);
+		
+		//Validate checkpoint commits with its transaction only
+		RecipeImportCheckpointEntity checkpoint = new RecipeImportCheckpointEntity();
+		checkpoint.setImportId("mmap-import");
+		checkpoint.setLinesCommitted(5L);
+		transactionTemplate.executeWithoutResult(status -> {
+			coordinationStore.saveImportCheckpoint(checkpoint);
+			assertThat(coordinationStore.findImportCheckpoint("mmap-import")).as("Pending checkpoint is not read").isPresent();
+			status.setRollbackOnly();
+		});
+		assertThat(coordinationStore.findImportCheckpoint("mmap-import")).as("Rolled back checkpoint is stored").isEmpty();
+		transactionTemplate.executeWithoutResult(status -> coordinationStore.saveImportCheckpoint(checkpoint));
+		assertThat(coordinationStore.findImportCheckpoint("mmap-import").get().getLinesCommitted()).as("Checkpoint is not stored")
+				  .isEqualTo(5L);
+	}
+	
+	@Test
+	public void GivenPrunedChanges_WhenReopenedAndCompacted_ThenChangesAndValuesAreRecoveredTest() throws IOException {
+		MappedRecipeLog recipeLog = MappedRecipeLog.open(directory, 4 * 1024, true);
+		for(int id = 1; id <= 5; id++) {
+			RecipeChangeLogEntity change = change(recipeLog, id, new Date(id * 1000L));
+			RecipeEntity recipeEntity = entity(id, "Recipe "+id, 1);
+			recipeEntity.setModSequence(change.getSequence());
+			recipeLog.append(Arrays.asList(Write.put(recipeEntity, true), Write.change(change)));
+		}
+		recipeLog.append(Collections.singletonList(Write.value("key", new byte[] {1, 2, 3})));
+		assertThat(recipeLog.pruneChanges(new Date(3500))).as("Old changes are not pruned").isEqualTo(3);
+		long lastSequence = recipeLog.maxChangeSequence();
+		recipeLog.close();
+		
+		MappedRecipeLog reopened = MappedRecipeLog.open(directory, 4 * 1024, true);
+		assertThat(reopened.findChangesAfter(0, 0, 100).stream().map(RecipeChangeLogEntity::getRecipeId))
+				  .as("Pruned changes are recovered").containsExactly(4, 5);
+		assertThat(reopened.getValue("key")).as("Value is not recovered").containsExactly(1, 2, 3);
+		assertThat(reopened.nextChangeSequence()).as("Change sequence is handed out again").isGreaterThan(lastSequence);
+		
+		//Validate compaction copies changes, values and the prune
+		for(int round = 2; round <= 20; round++)
+			put(reopened, entity(1, "Recipe 1", round));
+		assertThat(reopened.compact(0.5)).as("No segment is compacted").isPositive();
+		reopened.close();
+		MappedRecipeLog compacted = MappedRecipeLog.open(directory, 4 * 1024, true);
+		assertThat(compacted.findChangesAfter(0, 0, 100).stream().map(RecipeChangeLogEntity::getRecipeId))
+				  .as("Changes are not kept by compaction").containsExactly(4, 5);
+		assertThat(compacted.getValue("key")).as("Value is not kept by compaction").containsExactly(1, 2, 3);
+		assertThat(compacted.get(1).getServingCapacity()).as("Compacted recipe is not latest").isEqualTo(20);
+	}
+	
+	@Test
+	public void GivenWrittenLog_WhenReopened_ThenLatestRecordOfEveryRecipeIsRecoveredTest() throws IOException {
+		MappedRecipeLog recipeLog = MappedRecipeLog.open(directory, 64 * 1024, true);
+		IntStream.rangeClosed(1, 20).forEach(id -> put(recipeLog, entity(id, "Recipe "+id, 1)));
+		put(recipeLog, entity(5, "Recipe 5", 7));
+		recipeLog.append(Collections.singletonList(Write.delete(6, 900L, null)));
+		recipeLog.close();
+		
+		MappedRecipeLog reopened = MappedRecipeLog.open(directory, 64 * 1024, true);
+		assertThat(reopened.size()).as("Recipes are not recovered").isEqualTo(19);
+		assertThat(reopened.get(5).getServingCapacity()).as("Latest write does not win").isEqualTo(7);
+		assertThat(reopened.get(6)).as("Deleted recipe is recovered").isNull();
+		assertThat(reopened.findFirstByNameKey("recipe 12").getId()).as("Name index is not recovered").isEqualTo(12);
+		assertThat(reopened.findModifiedBetween(0, Long.MAX_VALUE, 0, 100).stream().map(RecipeEntity::getId))
+				  .as("Sequence index is not recovered").hasSize(19).doesNotContain(6);
+		assertThat(reopened.findDeletedBetween(0, Long.MAX_VALUE, 0, 100)).as("Tombstone is not recovered").hasSize(1);
+		
+		//Validate appends after reopen win over recovered records
+		put(reopened, entity(6, "Recipe 6", 3));
+		reopened.close();
+		assertThat(MappedRecipeLog.open(directory, 64 * 1024, true).get(6).getServingCapacity())
+				  .as("Recipe written after reopen is not recovered").isEqualTo(3);
+	}
+	
+	@Test
+	public void GivenPrunedTombstones_WhenReopenedAndCompacted_ThenTheyStayPrunedAndRecipesStayDeletedTest() throws IOException {
+		MappedRecipeLog recipeLog = MappedRecipeLog.open(directory, 4 * 1024, true);
+		IntStream.rangeClosed(1, 3).forEach(id -> put(recipeLog, entity(id, "Recipe "+id, 1)));
+		recipeLog.append(Collections.singletonList(Write.delete(1, 1000L, new Date(1000))));
+		recipeLog.append(Collections.singletonList(Write.delete(2, 1001L, new Date(5000))));
+		assertThat(recipeLog.pruneTombstones(new Date(2000))).as("Old tombstone is not pruned").isEqualTo(1);
+		assertThat(recipeLog.tombstoneHorizon()).as("Horizon is not the pruned sequence").isEqualTo(1000L);
+		recipeLog.close();
+		
+		MappedRecipeLog reopened = MappedRecipeLog.open(directory, 4 * 1024, true);
+		assertThat(reopened.tombstoneHorizon()).as("Horizon is not recovered").isEqualTo(1000L);
+		assertThat(reopened.findDeletedBetween(0, Long.MAX_VALUE, 0, 100).stream().map(RecipeTombstoneEntity::getRecipeId))
+				  .as("Pruned tombstone is recovered").containsExactly(2);
+		
+		//Validate compaction of the segment holding the pruned tombstone does not bring the recipe back
+		for(int round = 2; round <= 20; round++)
+			put(reopened, entity(3, "Recipe 3", round));
+		assertThat(reopened.compact(0.5)).as("No segment is compacted").isPositive();
+		reopened.close();
+		MappedRecipeLog compacted = MappedRecipeLog.open(directory, 4 * 1024, true);
+		assertThat(compacted.get(1)).as("Recipe of dropped tombstone is recovered").isNull();
+		assertThat(compacted.get(2)).as("Deleted recipe is recovered").isNull();
+		assertThat(compacted.tombstoneHorizon()).as("Horizon is not kept by compaction").isEqualTo(1000L);
+		assertThat(compacted.findDeletedBetween(0, Long.MAX_VALUE, 0, 100).stream().map(RecipeTombstoneEntity::getRecipeId))
+				  .as("Tombstone is not kept by compaction").containsExactly(2);
+	}
+	
+	@Test
+	public void GivenMostlyGarbageSegments_WhenCompacted_ThenSegmentsShrinkAndRecipesRemainTest() throws IOException {
+		MappedRecipeLog recipeLog = MappedRecipeLog.open(directory, 4 * 1024, false);
+		for(int round = 1; round <= 10; round++) {
+			int capacity = round;
+			IntStream.rangeClosed(1, 10).forEach(id -> put(recipeLog, entity(id, "Recipe "+id, capacity)));
+		}
+		int segments = recipeLog.getSegmentCount();
+		long used = recipeLog.getUsedBytes();
+		assertThat(segments).as("Writes do not fill several segments").isGreaterThan(2);
+		
+		assertThat(recipeLog.compact(0.5)).as("No segment is compacted").isPositive();
+		assertThat(recipeLog.getSegmentCount()).as("Segments do not shrink").isLessThan(segments);
+		assertThat(recipeLog.getUsedBytes()).as("Used bytes do not shrink").isLessThan(used);
+		assertThat(recipeLog.getLiveBytes()).as("Live bytes exceed used bytes").isLessThanOrEqualTo(recipeLog.getUsedBytes());
+		List<Integer> capacities = recipeLog.getAll(recipeLog.ids()).stream().map(RecipeEntity::getServingCapacity)
+											.distinct().collect(Collectors.toList());
+		assertThat(capacities).as("Recipes do not keep their latest write").containsExactly(10);
+		recipeLog.close();
+		
+		MappedRecipeLog reopened = MappedRecipeLog.open(directory, 4 * 1024, false);
+		assertThat(reopened.size()).as("Compacted recipes are not recovered").isEqualTo(10);
+		assertThat(reopened.get(3).getServingCapacity()).as("Compacted recipe is not latest").isEqualTo(10);
+	}
+	
+	@Test
+	public void GivenTornLastFrame_WhenReopened_ThenFramesBeforeItAreRecoveredTest() throws IOException {
+		MappedRecipeLog recipeLog = MappedRecipeLog.open(directory, 64 * 1024, true);
+		put(recipeLog, entity(1, "Recipe 1", 1));
+		long intact = recipeLog.getUsedBytes();
+		put(recipeLog, entity(2, "Recipe 2", 1));
+		recipeLog.close();
+		
+		//Corrupt a payload byte of the second frame as if the write was cut off
+		Path segment;
+		try(Stream<Path> files = Files.list(directory)) {
+			segment = files.filter(file -> file.getFileName().toString().endsWith(".log")).findFirst().get();
+		}
+		try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF, (byte) 0xFF}), intact + 20);
+		}
+		
+		MappedRecipeLog reopened = MappedRecipeLog.open(directory, 64 * 1024, true);
+		assertThat(reopened.ids()).as("Torn frame is not skipped").containsExactly(1);
+		assertThatThrownBy(() -> reopened.append(Collections.singletonList(Write.put(entity(1, "Recipe 1", 2), true))))
+				  .as("Insert of existing recipe is not rejected").isInstanceOf(DataIntegrityViolationException.class);
+		put(reopened, entity(3, "Recipe 3", 1));
+		reopened.close();
+		assertThat(MappedRecipeLog.open(directory, 64 * 1024, true).ids()).as("Append after torn frame is not recovered")
+				  .containsExactly(1, 3);
+	}
+}
@@ -0,0 +1,275 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeChange;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipeChangeLogRepository;
+import com.abnamro.recipes.service.RecipeChangeEvent;
+import com.abnamro.recipes.service.RecipeChangeFeed;
+import com.abnamro.recipes.service.RecipeChangeLogService;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+				properties = {"recipe.changefeed.send.timeout.ms=500", "recipe.changefeed.send.check.interval.ms=100"})
+public class RecipeChangeFeedTests {
+	
+	private static final Pattern EVENT_ID = Pattern.compile("(?m)^id:(\\S+)$");
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private RecipeChangeFeed changeFeed;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeChangeLogRepository changeLogRepo;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
+	//Emitter which records sent changes and event ids instead of writing them to a response, optionally blocking like
+	//a slow client
+	private static class RecordingEmitter extends SseEmitter {
+		private final List<RecipeChange> changes = new CopyOnWriteArrayList<>();
+		private final List<String> ids = new CopyOnWriteArrayList<>();
+		private final CountDownLatch release;
+		private volatile boolean completed;
+		
+		private RecordingEmitter(CountDownLatch release) {
+			this.release = release;
+		}
+		
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			if(release != null) {
+				try {
+					release.await();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			Set<DataWithMediaType> event = builder.build();
+			Matcher id = EVENT_ID.matcher(event.stream().filter(data -> data.getData() instanceof String)
+														.map(data -> (String) data.getData()).collect(Collectors.joining()));
+			if(id.find())
+				ids.add(id.group(1));
+			event.stream().filter(data -> data.getData() instanceof RecipeChange)
+						  .forEach(data -> changes.add((RecipeChange) data.getData()));
+		}
+		
+		@Override
+		public synchronized void complete() {
+			completed = true;
+			super.complete();
+		}
+		
+		private RecipeChange awaitChange(Integer recipeId, RecipeOperation operation) throws InterruptedException {
+			for(int attempt = 0; attempt < 100; attempt++) {
+				Optional<RecipeChange> change = find(recipeId, operation);
+				if(change.isPresent())
+					return change.get();
+				Thread.sleep(50);
+			}
+			return null;
+		}
+		
+		private void awaitChanges(int count) throws InterruptedException {
+			for(int attempt = 0; attempt < 100 && changes.size() < count; attempt++)
+				Thread.sleep(50);
+		}
+		
+		private boolean awaitCompleted() throws InterruptedException {
+			for(int attempt = 0; attempt < 100 && !completed; attempt++)
+				Thread.sleep(50);
+			return completed;
+		}
+		
+		private Optional<RecipeChange> find(Integer recipeId, RecipeOperation operation) {
+			return changes.stream().filter(change -> change.getRecipeId().equals(recipeId) && 
+													 change.getOperation().equals(operation.name())).findFirst();
+		}
+	}
+	
+	@Test
+	public void GivenSubscriber_WhenRecipesWritten_ThenChangesArePushedAndResumedFromLastEventIdTest() throws Exception {
+		RecordingEmitter live = new RecordingEmitter(null);
+		changeFeed.subscribe(live, null);
+		
+		Recipe recipe = service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1801, "Change Feed Recipe 1801", "cf", 2));
+		RecipeChange created = live.awaitChange(1801, RecipeOperation.CREATE);
+		assertThat(created).as("Create is not pushed to subscriber").isNotNull();
+		
+		recipe.setServingCapacity(4);
+		service.modifyExistingRecipeInRepository(recipe);
+		assertThat(live.awaitChange(1801, RecipeOperation.UPDATE)).as("Update is not pushed to subscriber").isNotNull();
+		
+		//Validate reconnecting client gets changes after its last event id from change log, and not the ones before
+		RecordingEmitter resumed = new RecordingEmitter(null);
+		changeFeed.subscribe(resumed, String.valueOf(created.getSequence()));
+		assertThat(resumed.awaitChange(1801, RecipeOperation.UPDATE)).as("Update is not replayed").isNotNull();
+		assertThat(resumed.find(1801, RecipeOperation.CREATE)).as("Change before last event id is replayed").isEmpty();
+		
+		//Validate live change after replay reaches resumed subscriber once
+		service.deleteRecipeFromRepository(1801);
+		assertThat(resumed.awaitChange(1801, RecipeOperation.DELETE)).as("Delete is not pushed after replay").isNotNull();
+		assertThat(resumed.changes.stream().filter(change -> change.getRecipeId().equals(1801)))
+				  .as("Replayed change is pushed twice").hasSize(2);
+		live.complete();
+		resumed.complete();
+	}
+	
+	@Test
+	public void GivenSubscriberNotReading_WhenBufferIsFull_ThenSubscriberIsEvictedTest() throws Exception {
+		double evictedBefore = meterRegistry.counter("recipes.changefeed.evicted").count();
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingEmitter slow = new RecordingEmitter(release);
+		RecordingEmitter fast = new RecordingEmitter(null);
+		try {
+			changeFeed.subscribe(slow, null);
+			changeFeed.subscribe(fast, null);
+			//Delivered to the feed only, other listeners take no part in this test
+			for(long sequence = 1; sequence <= 300; sequence++) {
+				changeFeed.onRecipeChange(new RecipeChangeEvent(1899, RecipeOperation.UPDATE, 1000000000L + sequence, true));
+				//Give subscriber reading in time the chance to keep up
+				if(sequence % 100 == 0)
+					fast.awaitChanges((int) sequence);
+			}
+			
+			assertThat(meterRegistry.counter("recipes.changefeed.evicted").count()).as("Slow subscriber is not evicted")
+																				   .isEqualTo(evictedBefore + 1);
+			assertThat(slow.awaitCompleted()).as("Evicted subscriber stream is not completed").isTrue();
+			fast.awaitChanges(300);
+			assertThat(fast.changes).as("Subscriber reading in time misses changes").hasSize(300);
+		} finally {
+			release.countDown();
+			fast.complete();
+		}
+	}
+	
+	//Wait until change log tailing reached given sequence, event ids do not pass it before
+	private void awaitWatermark(long sequence) throws InterruptedException {
+		for(int attempt = 0; attempt < 100 && changeLogService.getWatermark() < sequence; attempt++)
+			Thread.sleep(50);
+		assertThat(changeLogService.getWatermark()).as("Change log watermark does not advance").isGreaterThanOrEqualTo(sequence);
+	}
+	
+	@Test
+	public void GivenLastEventId_WhenChangesStreamed_ThenChangesAfterItAreSentWithTheirSequenceAsIdTest() throws Exception {
+		//Create and delete a recipe, so that change log has entries to resume from
+		Long maxSequence = changeLogRepo.findMaxSequence();
+		long lastEventId = maxSequence != null ? maxSequence : 0;
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1802, "Streamed-Recipe", "cf", 2));
+		service.deleteRecipeFromRepository(1802);
+		List<String> sequences = changeLogRepo.findBySequenceGreaterThanOrderBySequenceAsc(lastEventId, PageRequest.of(0, 10))
+											  .stream().map(entry -> String.valueOf(entry.getSequence()))
+											  .collect(Collectors.toList());
+		assertThat(sequences).as("Writes are not in change log").hasSize(2);
+		awaitWatermark(Long.parseLong(sequences.get(1)));
+		
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:"+port+"/api/recipes/changes").openConnection();
+		connection.setRequestProperty(HttpHeaders.AUTHORIZATION, "Bearer "+Util.generateJWTToken(userName, secretKey));
+		connection.setRequestProperty(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE);
+		connection.setRequestProperty("Last-Event-ID", String.valueOf(lastEventId));
+		connection.setReadTimeout(10000);
+		try {
+			assertThat(connection.getResponseCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.OK.value());
+			assertThat(connection.getContentType()).as("Content type is not event stream")
+												   .startsWith(MediaType.TEXT_EVENT_STREAM_VALUE);
+			
+			//Validate exactly the create and the delete are replayed, each with its own sequence as id
+			BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+			List<String> ids = new ArrayList<>();
+			List<String> names = new ArrayList<>();
+			String line;
+			while(ids.size() < sequences.size() && (line = reader.readLine()) != null) {
+				if(line.startsWith("id:"))
+					ids.add(line.substring(3));
+				else if(line.startsWith("event:"))
+					names.add(line.substring(6));
+			}
+			assertThat(ids).as("Replayed event ids are not the missed sequences").isEqualTo(sequences);
+			assertThat(names).as("Replayed events are not changes").containsOnly(RecipeChangeFeed.CHANGE_EVENT);
+		} finally {
+			connection.disconnect();
+		}
+	}
+	
+	@Test
+	public void GivenChangeAboveWatermark_WhenPushed_ThenEventIdStaysAtWatermarkTest() throws Exception {
+		Long maxSequence = changeLogRepo.findMaxSequence();
+		awaitWatermark(maxSequence != null ? maxSequence : 0);
+		long watermark = changeLogService.getWatermark();
+		RecordingEmitter subscriber = new RecordingEmitter(null);
+		changeFeed.subscribe(subscriber, null);
+		
+		//Validate a change committed before lower sequences does not move the event id past them
+		changeFeed.onRecipeChange(new RecipeChangeEvent(1898, RecipeOperation.UPDATE, watermark + 5, true));
+		assertThat(subscriber.awaitChange(1898, RecipeOperation.UPDATE)).as("Change is not pushed").isNotNull();
+		assertThat(subscriber.ids).as("Event id passes the watermark").containsExactly(String.valueOf(watermark));
+		subscriber.complete();
+	}
+	
+	@Test
+	public void GivenClientNotReadingDuringSend_WhenSendTimeoutPasses_ThenSubscriberIsEvictedTest() throws Exception {
+		double evictedBefore = meterRegistry.counter("recipes.changefeed.evicted").count();
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingEmitter stalled = new RecordingEmitter(release);
+		try {
+			changeFeed.subscribe(stalled, null);
+			changeFeed.onRecipeChange(new RecipeChangeEvent(1897, RecipeOperation.UPDATE, 2000000000L, true));
+			
+			//Validate the blocked send is interrupted and the stream completed without the client reading
+			assertThat(stalled.awaitCompleted()).as("Stalled subscriber stream is not completed").isTrue();
+			assertThat(meterRegistry.counter("recipes.changefeed.evicted").count()).as("Stalled subscriber is not evicted")
+																				   .isEqualTo(evictedBefore + 1);
+		} finally {
+			release.countDown();
+		}
+	}
+}
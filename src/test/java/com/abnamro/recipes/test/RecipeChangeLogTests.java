@@ -0,0 +1,81 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipeChangeLogRepository;
+import com.abnamro.recipes.service.RecipeChangeLogService;
+import com.abnamro.recipes.service.RecipesCache;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+
+@SpringBootTest
+public class RecipeChangeLogTests {
+
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeChangeLogRepository changeLogRepo;
+	
+	@Autowired
+	private RecipesCache recipesCache;
+	
+	@Test
+	public void GivenRecipeWrites_WhenSaved_ThenChangeLogEntriesAreAppendedTest() {
+		//Save, modify and delete one recipe through service
+		Recipe newRecipe = TestUtil.buildSampleRecipe(201, "Tomato Soup", "vg", 2);
+		service.saveRecipeToRepository(newRecipe);
+		newRecipe.setServingCapacity(4);
+		service.modifyExistingRecipeInRepository(newRecipe);
+		service.deleteRecipeFromRepository(newRecipe.getId());
+		
+		//Validate each write appended one entry tagged with this node's id
+		List<RecipeChangeLogEntity> changes = changeLogRepo
+				.findBySequenceGreaterThanOrderBySequenceAsc(0L, PageRequest.of(0, 100));
+		assertThat(changes).filteredOn(change -> change.getRecipeId().equals(newRecipe.getId()))
+						   .as("Change log entries are not as expected")
+						   .extracting(RecipeChangeLogEntity::getOperation)
+						   .containsExactly(RecipeOperation.CREATE, RecipeOperation.UPDATE, RecipeOperation.DELETE);
+		assertThat(changes).filteredOn(change -> change.getRecipeId().equals(newRecipe.getId()))
+						   .extracting(RecipeChangeLogEntity::getNodeId)
+						   .as("Change log entries are not tagged with local node id")
+						   .containsOnly(changeLogService.getNodeId());
+	}
+	
+	@Test
+	public void GivenCachedRecipe_WhenOtherNodeLogsChange_ThenCachedRecipeIsInvalidatedTest() {
+		//Save recipe and read it once so it is cached
+		Recipe newRecipe = TestUtil.buildSampleRecipe(202, "Onion Soup", "vg", 2);
+		service.saveRecipeToRepository(newRecipe);
+		service.getRecipeFromRepository(newRecipe.getId());
+		assertThat(recipesCache.get(newRecipe.getId())).as("Recipe is not cached after read").isNotNull();
+		
+		//Simulate a write made by another node by appending change log entry directly
+		RecipeChangeLogEntity remoteChange = new RecipeChangeLogEntity();
+		remoteChange.setRecipeId(newRecipe.getId());
+		remoteChange.setOperation(RecipeOperation.UPDATE);
+		remoteChange.setNodeId("other-node");
+		remoteChange.setChangeDateTime(new Date());
+		changeLogRepo.save(remoteChange);
+		
+		//Tail the change log and validate cached recipe is dropped
+		changeLogService.pollChanges();
+		assertThat(recipesCache.get(newRecipe.getId())).as("Cached recipe is not invalidated by remote change").isNull();
+		assertThat(changeLogService.getWatermark()).as("Change log watermark did not move past remote change")
+												   .isGreaterThanOrEqualTo(remoteChange.getSequence());
+	}
+}
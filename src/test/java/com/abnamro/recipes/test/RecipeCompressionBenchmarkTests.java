@@ -0,0 +1,153 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.abnamor.recipes.dto.Ingredient;
+import com.abnamro.recipes.dao.CompressedTextConverter;
+import com.abnamro.recipes.dao.RecipeEntity;
+import com.abnamro.recipes.repository.RecipesRepository;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Stored size and read latency of large instructions and ingredients, compressed compared with plain rows
+@SpringBootTest
+@Slf4j
+public class RecipeCompressionBenchmarkTests {
+	
+	private static final int RECIPES = 200;
+	private static final int COMPRESSED_FROM_ID = 1401;
+	private static final int PLAIN_FROM_ID = 1601;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	
+	private static final String[] WORDS = {"stir", "simmer", "chop", "onion", "garlic", "sauce", "gently", "until",
+			"golden", "minutes", "oven", "season", "pepper", "salt", "butter", "flour", "whisk", "fold", "rest", "serve"};
+	
+	@Autowired
+	private RecipesRepository repo;
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	//Instructions of about 20 KB written as numbered steps of recipe vocabulary
+	private String buildLargeInstructions(Random random) {
+		StringBuilder instructions = new StringBuilder();
+		for(int step = 1; instructions.length() < 20000; step++) {
+			instructions.append(step).append(". ");
+			for(int word = 0; word < 12; word++)
+				instructions.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			instructions.append("for ").append(random.nextInt(30) + 1).append(" minutes.\n");
+		}
+		return instructions.toString();
+	}
+	
+	private String buildLargeIngredients(Random random) {
+		List<Ingredient> ingredients = new ArrayList<>();
+		for(int i = 0; i < 60; i++)
+			ingredients.add(new Ingredient(WORDS[random.nextInt(WORDS.length)]+" "+i, (random.nextInt(500) + 1)+" g"));
+		return Util.convertToJSONString(ingredients);
+	}
+	
+	private long storedSize(int fromId) {
+		return jdbcTemplate.queryForObject("SELECT SUM(LENGTH(INGREDIENTS)) + SUM(LENGTH(INSTRUCTIONS)) FROM Recipe "+
+										   "WHERE ID BETWEEN ? AND ?", Long.class, fromId, fromId + RECIPES - 1);
+	}
+	
+	//Read given rows through JPA repeatedly and return average read time
+	private long readMicros(List<Integer> ids) {
+		for(int i = 0; i < WARMUP_ROUNDS; i++)
+			repo.findAllById(ids);
+		long readNanos = 0;
+		for(int i = 0; i < MEASURED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			List<RecipeEntity> read = repo.findAllById(ids);
+			readNanos += System.nanoTime() - start;
+			assertThat(read).hasSize(ids.size());
+		}
+		return TimeUnit.NANOSECONDS.toMicros(readNanos / MEASURED_ROUNDS);
+	}
+	
+	@Test
+	public void GivenLargeTextColumns_WhenStoredAndRead_ThenCompressedRowsAreSmallerAndPlainRowsStillReadTest() {
+		Random random = new Random(40);
+		List<String> instructions = new ArrayList<>();
+		List<String> ingredients = new ArrayList<>();
+		for(int i = 0; i < RECIPES; i++) {
+			instructions.add(buildLargeInstructions(random));
+			ingredients.add(buildLargeIngredients(random));
+		}
+		
+		//Same content saved through entity converter and written plain, as rows stored before compression
+		List<RecipeEntity> entities = new ArrayList<>();
+		for(int i = 0; i < RECIPES; i++) {
+			RecipeEntity entity = TestUtil.buildSampleRecipeEntity(COMPRESSED_FROM_ID + i, "Compressed Recipe "+i, "cb", 4);
+			entity.setInstructions(instructions.get(i));
+			entity.setIngredients(ingredients.get(i));
+			entities.add(entity);
+		}
+		repo.saveAll(entities);
+		for(int i = 0; i < RECIPES; i++)
+			jdbcTemplate.update("INSERT INTO Recipe (ID, NAME, NAME_KEY, TYPE, CAPACITY, INGREDIENTS, INSTRUCTIONS) "+
+								"VALUES (?, ?, ?, ?, ?, ?, ?)", PLAIN_FROM_ID + i, "Plain Recipe "+i, "plain recipe "+i,
+								"cb", 4, ingredients.get(i), instructions.get(i));
+		
+		try {
+			List<Integer> compressedIds = IntStream.range(0, RECIPES).mapToObj(i -> COMPRESSED_FROM_ID + i)
+												   .collect(Collectors.toList());
+			List<Integer> plainIds = IntStream.range(0, RECIPES).mapToObj(i -> PLAIN_FROM_ID + i)
+											  .collect(Collectors.toList());
+			long compressedSize = storedSize(COMPRESSED_FROM_ID);
+			long plainSize = storedSize(PLAIN_FROM_ID);
+			long compressedMicros = readMicros(compressedIds);
+			long plainMicros = readMicros(plainIds);
+			log.info(String.format("Plain      stored: %9d chars, read %d rows: %6d us", plainSize, RECIPES, plainMicros));
+			log.info(String.format("Compressed stored: %9d chars, read %d rows: %6d us", compressedSize, RECIPES,
+								   compressedMicros));
+			
+			assertThat(compressedSize).as("Compressed rows are not less than half the plain size").isLessThan(plainSize / 2);
+			RecipeEntity compressed = repo.findById(COMPRESSED_FROM_ID + 7).get();
+			RecipeEntity plain = repo.findById(PLAIN_FROM_ID + 7).get();
+			assertThat(compressed.getInstructions()).as("Compressed instructions do not read back").isEqualTo(instructions.get(7));
+			assertThat(compressed.getIngredients()).as("Compressed ingredients do not read back").isEqualTo(ingredients.get(7));
+			assertThat(plain.getInstructions()).as("Plain instructions do not read").isEqualTo(instructions.get(7));
+		} finally {
+			jdbcTemplate.update("DELETE FROM Recipe WHERE ID BETWEEN ? AND ?", COMPRESSED_FROM_ID, PLAIN_FROM_ID + RECIPES - 1);
+		}
+	}
+	
+	@Test
+	public void GivenTextValues_WhenConverted_ThenOnlyLargeValuesAreCompressedTest() {
+		CompressedTextConverter converter = new CompressedTextConverter();
+		String small = TestUtil.buildInstructions();
+		assertThat(converter.convertToDatabaseColumn(small)).as("Small value is compressed").isEqualTo(small);
+		
+		String large = String.join("", Collections.nCopies(200, small));
+		String stored = converter.convertToDatabaseColumn(large);
+		assertThat(stored).as("Large value is not compressed").startsWith(CompressedTextConverter.MARKER)
+						  .hasSizeLessThan(large.length());
+		assertThat(converter.convertToEntityAttribute(stored)).as("Large value does not read back").isEqualTo(large);
+		
+		//Text starting with marker is stored compressed, old rows with marker but no compressed data read as is
+		String markerText = CompressedTextConverter.MARKER+"short";
+		assertThat(converter.convertToEntityAttribute(converter.convertToDatabaseColumn(markerText)))
+				  .as("Text starting with marker does not read back").isEqualTo(markerText);
+		assertThat(converter.convertToEntityAttribute(markerText)).as("Old row with marker is not read as is")
+																  .isEqualTo(markerText);
+		assertThat(converter.convertToEntityAttribute(null)).as("Null is not kept").isNull();
+	}
+}
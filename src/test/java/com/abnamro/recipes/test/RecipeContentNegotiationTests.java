@@ -0,0 +1,86 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+public class RecipeContentNegotiationTests {
+	
+	private static final MediaType APPLICATION_SMILE = MediaType.valueOf("application/x-jackson-smile");
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private TestRestTemplate restTemplate;
+	
+	//Common method to build request entity with given body, content type and accepted type
+	private <T> HttpEntity<T> buildRequest(T body, MediaType contentType, MediaType accept) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		if(contentType != null)
+			headers.setContentType(contentType);
+		headers.setAccept(Collections.singletonList(accept));
+		return new HttpEntity<>(body, headers);
+	}
+	
+	@Test
+	public void GivenCborRecipe_WhenPostedAndRequestedAsCborAndSmile_ThenBinaryRepresentationsAreReturnedTest() throws Exception {
+		//Post recipe encoded as CBOR
+		Recipe newRecipe = TestUtil.buildSampleRecipe(401, "Binary Pancakes", "vg", 3);
+		byte[] cborRecipe = new CBORMapper().writeValueAsBytes(newRecipe);
+		ResponseEntity<byte[]> postResponse = restTemplate.exchange("http://localhost:"+port+"/api/recipe", HttpMethod.POST,
+				buildRequest(cborRecipe, MediaType.APPLICATION_CBOR, MediaType.APPLICATION_CBOR), byte[].class);
+		assertThat(postResponse.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.CREATED);
+		assertThat(postResponse.getHeaders().getContentType()).as("Content type is not CBOR")
+															  .isEqualTo(MediaType.APPLICATION_CBOR);
+		
+		//Get recipe as CBOR and Smile and decode both
+		String apiPath = "http://localhost:"+port+"/api/recipe/"+newRecipe.getId();
+		ResponseEntity<byte[]> cborResponse = restTemplate.exchange(apiPath, HttpMethod.GET,
+				buildRequest(null, null, MediaType.APPLICATION_CBOR), byte[].class);
+		ResponseEntity<byte[]> smileResponse = restTemplate.exchange(apiPath, HttpMethod.GET,
+				buildRequest(null, null, APPLICATION_SMILE), byte[].class);
+		Recipe cborDecoded = new CBORMapper().readValue(cborResponse.getBody(), Recipe.class);
+		Recipe smileDecoded = new SmileMapper().readValue(smileResponse.getBody(), Recipe.class);
+		assertThat(smileResponse.getHeaders().getContentType()).as("Content type is not Smile").isEqualTo(APPLICATION_SMILE);
+		assertThat(cborDecoded.getName()).as("CBOR decoded recipe is not as expected").isEqualTo(newRecipe.getName());
+		assertThat(smileDecoded.getIngredientsList()).as("Smile decoded recipe is not as expected")
+													 .hasSize(newRecipe.getIngredientsList().size());
+		
+		//JSON stays the representation for clients accepting anything
+		ResponseEntity<String> jsonResponse = restTemplate.exchange(apiPath, HttpMethod.GET,
+				buildRequest(null, null, MediaType.ALL), String.class);
+		assertThat(jsonResponse.getHeaders().getContentType()).as("Default content type is not JSON")
+															  .isEqualTo(MediaType.APPLICATION_JSON);
+	}
+}
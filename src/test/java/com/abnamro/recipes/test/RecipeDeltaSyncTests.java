@@ -0,0 +1,221 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeSyncPage;
+import com.abnamro.recipes.repository.RecipeChangeLogRepository;
+import com.abnamro.recipes.service.RecipeChangeLogService;
+import com.abnamro.recipes.service.RecipeModSequenceBackfillRunner;
+import com.abnamro.recipes.service.RecipeShards;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+
+@SpringBootTest(properties = "recipe.changelog.gap.timeout.ms=2000")
+public class RecipeDeltaSyncTests {
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeChangeLogRepository changeLogRepo;
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	@Autowired
+	private RecipeModSequenceBackfillRunner backfillRunner;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	//Tail change log until the watermark covers every write so far, a rolled back write of another test leaves
+	//a gap which is skipped only after the gap timeout
+	private void awaitWatermark() throws InterruptedException {
+		Long maxSequence = changeLogRepo.findMaxSequence();
+		for(int attempt = 0; attempt < 150 && maxSequence != null && changeLogService.getWatermark() < maxSequence; attempt++) {
+			changeLogService.pollChanges();
+			Thread.sleep(100);
+		}
+	}
+	
+	//Sync all pages after given watermark into one page with the final watermark
+	private RecipeSyncPage syncAll(String since, int limit) {
+		RecipeSyncPage all = new RecipeSyncPage();
+		RecipeSyncPage page;
+		do {
+			page = service.getRecipeChangesFromRepository(since, limit);
+			assertThat(page.getRecipes().size() + page.getDeletedIds().size()).as("Sync page exceeds limit")
+																			  .isLessThanOrEqualTo(limit);
+			all.getRecipes().addAll(page.getRecipes());
+			all.getDeletedIds().addAll(page.getDeletedIds());
+			since = page.getWatermark();
+		} while(page.isHasMore());
+		all.setWatermark(since);
+		return all;
+	}
+	
+	private List<Integer> ids(List<Recipe> recipes) {
+		List<Integer> ids = new ArrayList<>();
+		recipes.forEach(recipe -> ids.add(recipe.getId()));
+		return ids;
+	}
+	
+	@Test
+	public void GivenClientWatermark_WhenRecipesChanged_ThenOnlyChangesSinceWatermarkAreReturnedTest() throws Exception {
+		awaitWatermark();
+		String watermark = syncAll("0", 50).getWatermark();
+		
+		Recipe kept = service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1901, "Delta Sync Recipe 1901", "ds", 2));
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1902, "Delta Sync Recipe 1902", "ds", 2));
+		kept.setServingCapacity(6);
+		service.modifyExistingRecipeInRepository(kept);
+		service.deleteRecipeFromRepository(1902);
+		awaitWatermark();
+		
+		//Validate updated recipe is returned once in its current state and deleted recipe as tombstone only
+		RecipeSyncPage changes = syncAll(watermark, 100);
+		assertThat(ids(changes.getRecipes())).as("Changed recipes are not as expected").containsExactly(1901);
+		assertThat(changes.getRecipes().get(0).getServingCapacity()).as("Recipe is not in current state").isEqualTo(6);
+		assertThat(changes.getDeletedIds()).as("Deleted recipes are not as expected").containsExactly(1902);
+		assertThat(Long.parseLong(changes.getWatermark())).as("Watermark did not advance").isGreaterThan(Long.parseLong(watermark));
+		
+		//Validate sync at new watermark returns nothing
+		RecipeSyncPage unchanged = service.getRecipeChangesFromRepository(changes.getWatermark(), 100);
+		assertThat(unchanged.getRecipes()).as("Unchanged catalog returns recipes").isEmpty();
+		assertThat(unchanged.getDeletedIds()).as("Unchanged catalog returns deletes").isEmpty();
+		assertThat(unchanged.isHasMore()).as("Unchanged catalog has more pages").isFalse();
+		
+		//Validate recipe created again after delete is not reported as deleted
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1902, "Delta Sync Recipe 1902", "ds", 3));
+		awaitWatermark();
+		RecipeSyncPage recreated = syncAll(changes.getWatermark(), 100);
+		assertThat(ids(recreated.getRecipes())).as("Recreated recipe is not returned").containsExactly(1902);
+		assertThat(recreated.getDeletedIds()).as("Recreated recipe is returned as deleted").isEmpty();
+		
+		service.deleteRecipeFromRepository(1901);
+		service.deleteRecipeFromRepository(1902);
+	}
+	
+	@Test
+	public void GivenManyChanges_WhenSyncedInPages_ThenEveryChangeIsReturnedOnceTest() throws Exception {
+		awaitWatermark();
+		String watermark = syncAll("0", 50).getWatermark();
+		for(int id = 1903; id <= 1907; id++)
+			service.saveRecipeToRepository(TestUtil.buildSampleRecipe(id, "Delta Sync Recipe "+id, "ds", 2));
+		service.deleteRecipeFromRepository(1904);
+		awaitWatermark();
+		
+		RecipeSyncPage first = service.getRecipeChangesFromRepository(watermark, 2);
+		assertThat(ids(first.getRecipes())).as("First page is not as expected").containsExactly(1903, 1905);
+		assertThat(first.isHasMore()).as("First page has no next page").isTrue();
+		RecipeSyncPage rest = syncAll(first.getWatermark(), 2);
+		assertThat(ids(rest.getRecipes())).as("Remaining pages are not as expected").containsExactly(1906, 1907);
+		assertThat(rest.getDeletedIds()).as("Deleted recipes are not as expected").containsExactly(1904);
+		
+		//Validate sync reads through an index on the modification sequence
+		assertThat(jdbcTemplate.queryForObject("select count(*) from INFORMATION_SCHEMA.INDEXES where INDEX_NAME = ?",
+											   Integer.class, "IDX_RECIPE_MOD_SEQ")).as("Sequence index is missing").isPositive();
+		
+		for(int id = 1905; id <= 1907; id++)
+			service.deleteRecipeFromRepository(id);
+		service.deleteRecipeFromRepository(1903);
+	}
+	
+	@Test
+	public void GivenPrunedTombstones_WhenSyncedFromOlderWatermark_ThenClientIsToldToResetTest() throws Exception {
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1910, "Delta Sync Recipe 1910", "ds", 2));
+		awaitWatermark();
+		String watermark = syncAll("0", 50).getWatermark();
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1911, "Delta Sync Recipe 1911", "ds", 2));
+		service.deleteRecipeFromRepository(1911);
+		awaitWatermark();
+		
+		//Validate tombstone older than retention is removed and raises the horizon
+		jdbcTemplate.update("update recipe_tombstone set DDATETIME = ? where RECIPE_ID = ?", new Date(0), 1911);
+		service.pruneTombstones();
+		assertThat(jdbcTemplate.queryForObject("select count(*) from recipe_tombstone where RECIPE_ID = ?", Integer.class, 1911))
+				  .as("Tombstone is not removed").isZero();
+		
+		//Validate watermark behind the horizon gets a reset, a full sync and the current watermark do not
+		RecipeSyncPage behind = service.getRecipeChangesFromRepository(watermark, 100);
+		assertThat(behind.isReset()).as("Watermark behind horizon is not reset").isTrue();
+		assertThat(behind.getRecipes()).as("Reset page has recipes").isEmpty();
+		RecipeSyncPage full = syncAll("0", 50);
+		assertThat(full.isReset()).as("Full sync is reset").isFalse();
+		assertThat(service.getRecipeChangesFromRepository(full.getWatermark(), 100).isReset()).as("Current watermark is reset")
+				  .isFalse();
+		service.deleteRecipeFromRepository(1910);
+	}
+	
+	@Test
+	public void GivenRecipeWithoutModSequence_WhenBackfilled_ThenSyncReturnsItTest() throws Exception {
+		jdbcTemplate.update("insert into Recipe (ID, NAME, NAME_KEY, TYPE, CAPACITY, INGREDIENTS) values (?, ?, ?, ?, ?, ?)",
+							1912, "Delta Sync Recipe 1912", "delta sync recipe 1912", "ds", 2, "[]");
+		awaitWatermark();
+		RecipeSyncPage before = syncAll("0", 50);
+		assertThat(ids(before.getRecipes())).as("Recipe without sequence is synced").doesNotContain(1912);
+		
+		backfillRunner.run(null);
+		awaitWatermark();
+		assertThat(jdbcTemplate.queryForObject("select MOD_SEQ from Recipe where ID = ?", Long.class, 1912))
+				  .as("Sequence is not filled in").isNotNull();
+		assertThat(ids(syncAll(before.getWatermark(), 50).getRecipes())).as("Backfilled recipe is not synced").containsExactly(1912);
+		assertThat(ids(syncAll("0", 50).getRecipes())).as("Full sync misses backfilled recipe").contains(1912);
+		
+		jdbcTemplate.update("delete from Recipe where ID = ?", 1912);
+	}
+	
+	@Test
+	public void GivenTransactionCommittingAfterGapTimeout_WhenSynced_ThenLateWriteIsReturnedTest() throws Exception {
+		awaitWatermark();
+		String watermark = syncAll("0", 50).getWatermark();
+		
+		//Hold a write open in its transaction after its sequence is taken
+		CountDownLatch appended = new CountDownLatch(1);
+		CountDownLatch commit = new CountDownLatch(1);
+		Thread slowWriter = new Thread(() -> shards.write(0, () -> {
+			service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1913, "Delta Sync Recipe 1913", "ds", 2));
+			appended.countDown();
+			try {
+				commit.await(30, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}));
+		slowWriter.start();
+		assertThat(appended.await(10, TimeUnit.SECONDS)).as("Slow write did not take its sequence").isTrue();
+		
+		//A later write commits first, the watermark moves over the open sequence once the gap times out
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1914, "Delta Sync Recipe 1914", "ds", 2));
+		awaitWatermark();
+		RecipeSyncPage beforeCommit = syncAll(watermark, 50);
+		assertThat(ids(beforeCommit.getRecipes())).as("Open write is synced").contains(1914).doesNotContain(1913);
+		
+		//Validate the write committed below the client watermark is returned by the next sync
+		commit.countDown();
+		slowWriter.join();
+		changeLogService.pollChanges();
+		awaitWatermark();
+		assertThat(ids(syncAll(beforeCommit.getWatermark(), 50).getRecipes())).as("Late write is not synced")
+																			   .containsExactly(1913);
+		
+		service.deleteRecipeFromRepository(1913);
+		service.deleteRecipeFromRepository(1914);
+	}
+}
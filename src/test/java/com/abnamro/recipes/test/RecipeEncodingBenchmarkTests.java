@@ -0,0 +1,71 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Size and encode / decode time of recipe listing as JSON compared with CBOR and Smile
+@Slf4j
+public class RecipeEncodingBenchmarkTests {
+	
+	private static final int RECIPES = 1000;
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int MEASURED_ROUNDS = 30;
+	
+	private static final TypeReference<List<Recipe>> RECIPE_LIST = new TypeReference<List<Recipe>>() {};
+	
+	//Encode and decode given listing repeatedly and return encoded size
+	private int benchmark(String format, ObjectMapper mapper, List<Recipe> recipes) throws Exception {
+		byte[] encoded = null;
+		for(int i = 0; i < WARMUP_ROUNDS; i++)
+			mapper.readValue(mapper.writeValueAsBytes(recipes), RECIPE_LIST);
+		
+		long encodeNanos = 0, decodeNanos = 0;
+		for(int i = 0; i < MEASURED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			encoded = mapper.writeValueAsBytes(recipes);
+			encodeNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+			List<Recipe> decoded = mapper.readValue(encoded, RECIPE_LIST);
+			decodeNanos += System.nanoTime() - start;
+			assertThat(decoded).hasSize(recipes.size());
+		}
+		log.info(String.format("%-6s size: %8d bytes, encode: %6d us, decode: %6d us", format, encoded.length,
+				TimeUnit.NANOSECONDS.toMicros(encodeNanos / MEASURED_ROUNDS),
+				TimeUnit.NANOSECONDS.toMicros(decodeNanos / MEASURED_ROUNDS)));
+		return encoded.length;
+	}
+	
+	@Test
+	public void GivenRecipeListing_WhenEncodedAsJsonCborAndSmile_ThenBinaryFormatsAreSmallerTest() throws Exception {
+		List<Recipe> recipes = new ArrayList<>(RECIPES);
+		for(int id = 1; id <= RECIPES; id++)
+			recipes.add(TestUtil.buildSampleRecipe(id, "Recipe "+id, id % 2 == 0 ? "vg" : "ng", id % 10));
+		
+		int jsonSize = benchmark("JSON", new ObjectMapper(), recipes);
+		int cborSize = benchmark("CBOR", new CBORMapper(), recipes);
+		int smileSize = benchmark("Smile", new SmileMapper(), recipes);
+		//Shared string values back-reference repeated ingredient names and quantities
+		int sharedSmileSize = benchmark("Smile+", new SmileMapper(SmileFactory.builder()
+				.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES).build()), recipes);
+		
+		assertThat(cborSize).as("CBOR listing is not smaller than JSON").isLessThan(jsonSize);
+		assertThat(smileSize).as("Smile listing is not smaller than JSON").isLessThan(jsonSize);
+		assertThat(sharedSmileSize).as("Shared string values did not shrink Smile listing").isLessThan(smileSize);
+	}
+}
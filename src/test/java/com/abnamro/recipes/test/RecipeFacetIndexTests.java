@@ -0,0 +1,147 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+
+import com.abnamor.recipes.dto.Ingredient;
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeFacetQuery;
+import com.abnamor.recipes.dto.RecipeFacetResult;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipesRepository;
+import com.abnamro.recipes.service.RecipeChangeEvent;
+import com.abnamro.recipes.service.RecipeFacetIndex;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+
+@SpringBootTest
+public class RecipeFacetIndexTests {
+	
+	@Autowired
+	private RecipeFacetIndex facetIndex;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipesRepository repo;
+	
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+	
+	private Recipe buildRecipe(Integer id, String type, Integer capacity, String... ingredientNames) {
+		Recipe recipe = TestUtil.buildSampleRecipe(id, "Facet Recipe "+id, type, capacity);
+		recipe.setIngredientsList(Arrays.asList(Arrays.stream(ingredientNames).map(name -> new Ingredient(name, "1 nos"))
+																	  .toArray(Ingredient[]::new)));
+		return recipe;
+	}
+	
+	private List<Integer> ids(RecipeFacetResult result) {
+		return result.getRecipes().stream().map(Recipe::getId).collect(Collectors.toList());
+	}
+	
+	@AfterEach
+	public void deleteRecipes() {
+		for(int id : new int[] {1201, 1202, 1203, 1204, 1205, 1206, -1201, -1202})
+			if(repo.existsById(id))
+				service.deleteRecipeFromRepository(id);
+	}
+	
+	@Test
+	public void GivenIndexedRecipes_WhenFacetsQueried_ThenAndOrNotAreAppliedAndCountedTest() {
+		service.saveRecipeToRepository(buildRecipe(1201, "fc1", 2, "Facet Basil", "Facet Garlic"));
+		service.saveRecipeToRepository(buildRecipe(1202, "fc1", 4, "Facet Basil"));
+		service.saveRecipeToRepository(buildRecipe(1203, "fc2", 4, "Facet Garlic", "Facet Chili"));
+		service.saveRecipeToRepository(buildRecipe(1204, "fc2", 12, "Facet Basil", "Facet Chili"));
+		
+		//Validate OR within types and counts among matches
+		RecipeFacetQuery query = new RecipeFacetQuery();
+		query.setTypes(Arrays.asList("fc1", "fc2"));
+		RecipeFacetResult result = facetIndex.query(query, null, 10);
+		assertThat(ids(result)).as("Recipes of any type are not matched").containsExactly(1201, 1202, 1203, 1204);
+		assertThat(result.getTotal()).as("Total is not as expected").isEqualTo(4);
+		assertThat(result.getFacetCounts().get(RecipeFacetIndex.TYPE_FACET)).as("Type counts are not as expected")
+																			.containsEntry("fc1", 2L).containsEntry("fc2", 2L);
+		assertThat(result.getFacetCounts().get(RecipeFacetIndex.CAPACITY_FACET)).as("Capacity counts are not as expected")
+																				.containsEntry("1-2", 1L).containsEntry("3-4", 2L)
+																				.containsEntry("11+", 1L).containsEntry("5-6", 0L);
+		assertThat(result.getFacetCounts().get(RecipeFacetIndex.INGREDIENT_FACET)).as("Ingredient counts are not as expected")
+																				  .containsEntry("facet basil", 3L)
+																				  .containsEntry("facet chili", 2L);
+		
+		//Validate AND of ingredients, case-insensitive
+		query.setAllIngredients(Arrays.asList("FACET BASIL", "facet chili"));
+		assertThat(ids(facetIndex.query(query, null, 10))).as("All ingredients are not required").containsExactly(1204);
+		
+		//Validate OR of ingredients with NOT of a type and a capacity bucket
+		query.setAllIngredients(Collections.emptyList());
+		query.setAnyIngredients(Arrays.asList("Facet Garlic", "Facet Chili"));
+		query.setExcludeTypes(Collections.singletonList("fc1"));
+		query.setCapacities(Collections.singletonList("3-4"));
+		assertThat(ids(facetIndex.query(query, null, 10))).as("Filters are not combined").containsExactly(1203);
+		
+		//Validate NOT of an ingredient and unknown values
+		RecipeFacetQuery excludeQuery = new RecipeFacetQuery();
+		excludeQuery.setTypes(Arrays.asList("fc1", "fc2", "fc-unknown"));
+		excludeQuery.setExcludeIngredients(Collections.singletonList("Facet Basil"));
+		assertThat(ids(facetIndex.query(excludeQuery, null, 10))).as("Ingredient is not excluded").containsExactly(1203);
+		excludeQuery.setAllIngredients(Collections.singletonList("Facet Unknown"));
+		assertThat(facetIndex.query(excludeQuery, null, 10).getTotal()).as("Unknown ingredient matches").isZero();
+	}
+	
+	@Test
+	public void GivenWrites_WhenFacetsQueried_ThenIndexFollowsWritesAndPagesByIdTest() {
+		service.saveRecipeToRepository(buildRecipe(1201, "fc3", 2, "Facet Mint"));
+		service.saveRecipeToRepository(buildRecipe(1202, "fc3", 2, "Facet Mint"));
+		service.saveRecipeToRepository(buildRecipe(1203, "fc3", 2, "Facet Mint"));
+		RecipeFacetQuery query = new RecipeFacetQuery();
+		query.setTypes(Collections.singletonList("fc3"));
+		
+		//Validate paging after id
+		RecipeFacetResult firstPage = facetIndex.query(query, null, 2);
+		assertThat(ids(firstPage)).as("First page is not as expected").containsExactly(1201, 1202);
+		assertThat(firstPage.getNextAfterId()).as("Next after id is not as expected").isEqualTo(1202);
+		RecipeFacetResult lastPage = facetIndex.query(query, firstPage.getNextAfterId(), 2);
+		assertThat(ids(lastPage)).as("Last page is not as expected").containsExactly(1203);
+		assertThat(lastPage.getNextAfterId()).as("Last page has next after id").isNull();
+		
+		//Validate update moves recipe and delete removes it
+		service.modifyExistingRecipeInRepository(buildRecipe(1202, "fc4", 2, "Facet Mint"));
+		service.deleteRecipeFromRepository(1203);
+		assertThat(ids(facetIndex.query(query, null, 10))).as("Index does not follow writes").containsExactly(1201);
+		
+		//Validate write of another node is read again
+		repo.save(TestUtil.buildSampleRecipeEntity(1206, "Facet Remote Recipe", "fc3", 2));
+		eventPublisher.publishEvent(new RecipeChangeEvent(1206, RecipeOperation.CREATE, 0L, true));
+		assertThat(ids(facetIndex.query(query, null, 10))).as("Remote write is not indexed").containsExactly(1201, 1206);
+	}
+	
+	@Test
+	public void GivenNegativeIds_WhenFacetsQueriedInPages_ThenIdsArePagedInSignedOrderTest() {
+		service.saveRecipeToRepository(buildRecipe(1201, "fc5", 2, "Facet Thyme"));
+		service.saveRecipeToRepository(buildRecipe(-1201, "fc5", 2, "Facet Thyme"));
+		service.saveRecipeToRepository(buildRecipe(-1202, "fc5", 2, "Facet Thyme"));
+		RecipeFacetQuery query = new RecipeFacetQuery();
+		query.setTypes(Collections.singletonList("fc5"));
+		
+		//Validate negative ids come first and every id is paged once after a negative cursor
+		RecipeFacetResult firstPage = facetIndex.query(query, null, 1);
+		assertThat(ids(firstPage)).as("First page is not as expected").containsExactly(-1202);
+		RecipeFacetResult secondPage = facetIndex.query(query, firstPage.getNextAfterId(), 1);
+		assertThat(ids(secondPage)).as("Second page is not as expected").containsExactly(-1201);
+		RecipeFacetResult lastPage = facetIndex.query(query, secondPage.getNextAfterId(), 1);
+		assertThat(ids(lastPage)).as("Last page is not as expected").containsExactly(1201);
+		assertThat(lastPage.getNextAfterId()).as("Last page has next after id").isNull();
+		assertThat(facetIndex.query(query, Integer.MAX_VALUE, 1).getRecipes()).as("Ids after highest id are returned").isEmpty();
+	}
+}
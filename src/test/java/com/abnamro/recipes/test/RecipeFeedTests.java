@@ -0,0 +1,113 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeFeedCursor;
+import com.abnamor.recipes.dto.RecipeFeedPage;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+public class RecipeFeedTests {
+	
+	//Feed recipes are created in year 2100, so that recipes of other tests stay out of the queried window
+	private static final long WINDOW_START = 4102444800000L;
+	private static final Date WINDOW_END = new Date(WINDOW_START + 3600000L);
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private TestRestTemplate restTemplate;
+	
+	@Autowired
+	private RecipesService service;
+	
+	//Save 25 recipes one minute apart, every pair of recipes sharing the same creation time
+	@BeforeEach
+	public void saveFeedRecipes() {
+		if(service.getRecipeFromRepository(1001) != null)
+			return;
+		List<Recipe> recipes = new ArrayList<>();
+		for(int i = 0; i < 25; i++) {
+			Recipe recipe = TestUtil.buildSampleRecipe(1001 + i, "Feed Recipe "+i, "vg", 2);
+			recipe.setCreationDateTime(new Date(WINDOW_START + (i / 2) * 60000L));
+			recipes.add(recipe);
+		}
+		service.saveRecipesToRepository(recipes);
+	}
+	
+	@Test
+	public void GivenRecipesInWindow_WhenFeedIsPaged_ThenAllRecipesAreReturnedNewestFirstTest() {
+		List<Recipe> feed = new ArrayList<>();
+		RecipeFeedCursor cursor = null;
+		int pages = 0;
+		do {
+			RecipeFeedPage page = service.getRecipeFeedFromRepository(new Date(WINDOW_START), WINDOW_END, cursor, 10);
+			feed.addAll(page.getRecipes());
+			cursor = page.getNextCursor() != null ? RecipeFeedCursor.decode(page.getNextCursor()) : null;
+			pages++;
+		} while(cursor != null);
+		
+		assertThat(pages).as("Number of feed pages is not as expected").isEqualTo(3);
+		assertThat(feed).extracting(Recipe::getId).as("Feed lost or repeated recipes").doesNotHaveDuplicates().hasSize(25);
+		for(int i = 1; i < feed.size(); i++) {
+			Recipe newer = feed.get(i - 1), older = feed.get(i);
+			int order = newer.getCreationDateTime().compareTo(older.getCreationDateTime());
+			assertThat(order > 0 || (order == 0 && newer.getId() > older.getId())).as("Feed is not newest first").isTrue();
+		}
+	}
+	
+	@Test
+	public void GivenSinceDateTime_WhenFeedIsRequested_ThenOnlyNewerRecipesAreReturnedTest() {
+		Date since = new Date(WINDOW_START + 10 * 60000L);
+		RecipeFeedPage page = service.getRecipeFeedFromRepository(since, null, null, 10);
+		assertThat(page.getRecipes()).extracting(Recipe::getId).as("Feed since given time is not as expected")
+									 .containsExactly(1025, 1024, 1023, 1022, 1021);
+		assertThat(page.getNextCursor()).as("Feed since given time has more pages").isNull();
+	}
+	
+	@Test
+	public void GivenInvalidCursor_WhenFeedIsRequested_ThenBadRequestIsReturnedTest() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		ResponseEntity<RecipeFeedPage> okResponse = restTemplate.exchange(
+				"http://localhost:"+port+"/api/recipes/feed?since=2100-01-01T00:00:00Z&limit=5", HttpMethod.GET,
+				new HttpEntity<>(headers), RecipeFeedPage.class);
+		assertThat(okResponse.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.OK);
+		assertThat(okResponse.getBody().getRecipes()).as("Feed page size is not as expected").hasSize(5);
+		
+		ResponseEntity<String> badResponse = restTemplate.exchange(
+				"http://localhost:"+port+"/api/recipes/feed?cursor=not-a-cursor", HttpMethod.GET,
+				new HttpEntity<>(headers), String.class);
+		assertThat(badResponse.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.BAD_REQUEST);
+	}
+}
@@ -0,0 +1,165 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.abnamor.recipes.dto.RecipeHotKeys;
+import com.abnamro.recipes.dao.RecipeHotKeyEntity;
+import com.abnamro.recipes.repository.RecipeHotKeyRepository;
+import com.abnamro.recipes.service.RecipeChangeLogService;
+import com.abnamro.recipes.service.RecipeHotKeyTracker;
+import com.abnamro.recipes.service.RecipesCache;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+
+@SpringBootTest
+public class RecipeHotKeyTests {
+	
+	@Autowired
+	private RecipeHotKeyTracker hotKeyTracker;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipesCache recipesCache;
+	
+	@Autowired
+	private RecipeHotKeyRepository hotKeyRepo;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	
+	private RecipeHotKeyEntity.Key key(String nodeId, Integer recipeId) {
+		RecipeHotKeyEntity.Key key = new RecipeHotKeyEntity.Key();
+		key.setNodeId(nodeId);
+		key.setRecipeId(recipeId);
+		return key;
+	}
+	
+	private RecipeHotKeyEntity savedHotKey(String nodeId, Integer recipeId, long hits, Date savedDateTime) {
+		RecipeHotKeyEntity hotKey = new RecipeHotKeyEntity();
+		hotKey.setNodeId(nodeId);
+		hotKey.setRecipeId(recipeId);
+		hotKey.setHits(hits);
+		hotKey.setSavedDateTime(savedDateTime);
+		return hotKeyRepo.save(hotKey);
+	}
+	
+	@Test
+	public void GivenSkewedReads_WhenHotKeysRequested_ThenMostReadRecipesAreRankedFirstTest() {
+		RecipeHotKeyTracker tracker = new RecipeHotKeyTracker(true, 256, 4, 3, transactionManager);
+		//Many recipes read once, which share sketch cells with the hot ones
+		for(int id = 10000; id < 20000; id++)
+			tracker.record(id);
+		for(int hit = 0; hit < 300; hit++) {
+			tracker.record(1701);
+			if(hit % 2 == 0)
+				tracker.record(1702);
+			if(hit % 3 == 0)
+				tracker.record(1703);
+		}
+		RecipeHotKeys hotKeys = tracker.getHotKeys();
+		assertThat(hotKeys.getHotRecipes()).as("Top K is not bounded").hasSize(3);
+		assertThat(tracker.getHotRecipeIds()).as("Hot recipes are not ranked by reads").containsExactly(1701, 1702, 1703);
+		assertThat(hotKeys.getHotRecipes().get(0).getEstimatedHits()).as("Estimate is below actual reads")
+																	   .isGreaterThanOrEqualTo(300);
+		assertThat(hotKeys.getTotalHits()).as("Total reads are not counted").isEqualTo(10000 + 300 + 150 + 100);
+		
+		//Validate decay halves estimates and keeps ranking
+		tracker.decay();
+		assertThat(tracker.getHotKeys().getTotalHits()).as("Total reads are not decayed").isEqualTo((10000 + 300 + 150 + 100) / 2);
+		assertThat(tracker.getHotRecipeIds()).as("Ranking changed by decay").containsExactly(1701, 1702, 1703);
+	}
+	
+	@Test
+	public void GivenConcurrentReads_WhenHotKeysRequested_ThenHotRecipesAreRankedTest() throws Exception {
+		RecipeHotKeyTracker tracker = new RecipeHotKeyTracker(true, 1024, 4, 2, transactionManager);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for(int thread = 0; thread < 8; thread++) {
+			int firstColdId = 30000 + thread * 1000;
+			futures.add(executor.submit(() -> {
+				for(int hit = 0; hit < 1000; hit++) {
+					tracker.record(1711);
+					if(hit % 2 == 0)
+						tracker.record(1712);
+					tracker.record(firstColdId + hit);
+				}
+			}));
+		}
+		for(Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+		
+		//Validate reads counted without a lock are all in the sketch and rank the hot recipes first
+		RecipeHotKeys hotKeys = tracker.getHotKeys();
+		assertThat(hotKeys.getTotalHits()).as("Concurrent reads are lost").isEqualTo(8 * (1000 + 500 + 1000));
+		assertThat(tracker.getHotRecipeIds()).as("Hot recipes are not ranked by reads").containsExactly(1711, 1712);
+		assertThat(hotKeys.getHotRecipes().get(0).getEstimatedHits()).as("Estimate is below actual reads")
+																	   .isGreaterThanOrEqualTo(8000);
+	}
+	
+	@Test
+	public void GivenHotRecipe_WhenCacheWarmedAndRestarted_ThenRecipeIsCachedTest() {
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1704, "Hot Key Recipe 1704", "hot", 2));
+		for(int hit = 0; hit < 1000; hit++)
+			hotKeyTracker.record(1704);
+		assertThat(hotKeyTracker.getHotRecipeIds()).as("Hot recipe is not tracked").contains(1704);
+		
+		//Validate periodic warming loads evicted hot recipe
+		recipesCache.invalidate(1704);
+		hotKeyTracker.warmCache();
+		assertThat(recipesCache.get(1704)).as("Hot recipe is not warmed in cache").isNotNull();
+		
+		//Validate saved hot recipes are warmed as on startup
+		hotKeyTracker.saveHotKeys();
+		assertThat(hotKeyRepo.existsById(key(changeLogService.getNodeId(), 1704))).as("Hot recipe is not saved").isTrue();
+		recipesCache.invalidate(1704);
+		hotKeyTracker.warmSavedHotKeys();
+		assertThat(recipesCache.get(1704)).as("Saved hot recipe is not warmed on startup").isNotNull();
+		
+		//Validate deleted recipe leaves hot recipes
+		service.deleteRecipeFromRepository(1704);
+		assertThat(hotKeyTracker.getHotRecipeIds()).as("Deleted recipe is still hot").doesNotContain(1704);
+	}
+	
+	@Test
+	public void GivenHotKeysOfOtherNodes_WhenSaved_ThenOnlyOwnAndStaleRowsAreReplacedTest() {
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1705, "Hot Key Recipe 1705", "hot", 2));
+		savedHotKey("other-node", 1705, 50, new Date());
+		savedHotKey("gone-node", 1706, 80, new Date(System.currentTimeMillis() - 25 * 3600 * 1000L));
+		for(int hit = 0; hit < 1000; hit++)
+			hotKeyTracker.record(1705);
+		
+		//Validate saving keeps rows of other nodes and removes rows of nodes which stopped saving
+		hotKeyTracker.saveHotKeys();
+		hotKeyTracker.saveHotKeys();
+		assertThat(hotKeyRepo.existsById(key(changeLogService.getNodeId(), 1705))).as("Hot recipe is not saved").isTrue();
+		assertThat(hotKeyRepo.existsById(key("other-node", 1705))).as("Hot recipe of other node is overwritten").isTrue();
+		assertThat(hotKeyRepo.existsById(key("gone-node", 1706))).as("Stale hot recipe is not removed").isFalse();
+		
+		//Validate a recipe hot on several nodes is seeded once
+		recipesCache.invalidate(1705);
+		hotKeyTracker.warmSavedHotKeys();
+		assertThat(hotKeyTracker.getHotRecipeIds().stream().filter(id -> id == 1705)).as("Recipe is seeded twice").hasSize(1);
+		assertThat(recipesCache.get(1705)).as("Saved hot recipe is not warmed on startup").isNotNull();
+		
+		service.deleteRecipeFromRepository(1705);
+		hotKeyRepo.deleteById(key("other-node", 1705));
+	}
+}
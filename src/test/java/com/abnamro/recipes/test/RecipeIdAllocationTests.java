@@ -0,0 +1,98 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.service.RecipeIdAllocator;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+				properties = {"recipe.id.mode=server", "recipe.id.block.size=10"})
+@DirtiesContext
+public class RecipeIdAllocationTests {
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private TestRestTemplate restTemplate;
+	
+	@Autowired
+	private RecipeIdAllocator idAllocator;
+	
+	@Autowired
+	private RecipesService service;
+	
+	private ResponseEntity<Recipe> createRecipe(Recipe recipe) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		return restTemplate.postForEntity("http://localhost:"+port+"/api/recipe", new HttpEntity<>(recipe, headers),
+										  Recipe.class);
+	}
+	
+	@Test
+	public void GivenServerIdMode_WhenRecipesCreatedWithAndWithoutId_ThenOnlyServerIdsAreAcceptedTest() {
+		//Validate recipe without id gets a server assigned id
+		ResponseEntity<Recipe> assigned = createRecipe(TestUtil.buildSampleRecipe(null, "Server Id Recipe", "vg", 2));
+		assertThat(assigned.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.CREATED);
+		assertThat(assigned.getBody().getId()).as("No id assigned to new recipe").isNotNull();
+		assertThat(service.getRecipeFromRepository(assigned.getBody().getId())).as("Recipe not found by assigned id")
+																				.isNotNull();
+		
+		//Validate client supplied id is rejected, also one the server is about to hand out
+		Integer nextId = assigned.getBody().getId() + 1;
+		ResponseEntity<Recipe> supplied = createRecipe(TestUtil.buildSampleRecipe(nextId, "Client Id Recipe", "vg", 2));
+		assertThat(supplied.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.BAD_REQUEST);
+		assertThat(service.getRecipeFromRepository(nextId)).as("Recipe with client id is stored").isNull();
+		
+		//Validate the next server assigned id is still free
+		ResponseEntity<Recipe> next = createRecipe(TestUtil.buildSampleRecipe(null, "Next Server Id Recipe", "vg", 2));
+		assertThat(next.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.CREATED);
+	}
+	
+	@Test
+	public void GivenConcurrentCallers_WhenIdsAllocated_ThenAllIdsAreUniqueTest() throws Exception {
+		Set<Integer> ids = ConcurrentHashMap.newKeySet();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> futures = new ArrayList<>();
+		for(int thread = 0; thread < 8; thread++) {
+			futures.add(executor.submit(() -> {
+				for(int i = 0; i < 100; i++)
+					ids.add(idAllocator.nextId());
+			}));
+		}
+		for(Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+		assertThat(ids).as("Allocated ids are not unique").hasSize(800);
+	}
+}
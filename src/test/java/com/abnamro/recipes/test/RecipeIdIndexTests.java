@@ -0,0 +1,74 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.exceptions.ErrorMessages;
+import com.abnamro.recipes.exceptions.NoSuchRecipeFoundException;
+import com.abnamro.recipes.repository.RecipesRepository;
+import com.abnamro.recipes.service.RecipeChangeEvent;
+import com.abnamro.recipes.service.RecipeIdIndex;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest
+public class RecipeIdIndexTests {
+	
+	@Autowired
+	private RecipeIdIndex idIndex;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipesRepository repo;
+	
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+	
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
+	@Test
+	public void GivenUnknownId_WhenRecipeRequested_ThenMissIsAnsweredWithoutDBTest() {
+		double missesBefore = meterRegistry.counter("recipes.id.index.misses").count();
+		assertThat(service.getRecipeFromRepository(1599)).as("Unknown recipe is found").isNull();
+		assertThat(meterRegistry.counter("recipes.id.index.misses").count()).as("Miss is not answered by index")
+																			.isEqualTo(missesBefore + 1);
+		
+		//Validate index follows create and delete
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1501, "Id Index Recipe 1501", "ix", 2));
+		assertThat(idIndex.mightExist(1501)).as("Created recipe is not in index").isTrue();
+		service.deleteRecipeFromRepository(1501);
+		assertThat(idIndex.mightExist(1501)).as("Deleted recipe is in index").isFalse();
+		
+		//Validate stack trace is not captured for not found responses
+		assertThat(new NoSuchRecipeFoundException(ErrorMessages.RECIPE_NOT_FOUND_MSG).getStackTrace())
+				  .as("Not found exception captures stack trace").isEmpty();
+	}
+	
+	@Test
+	public void GivenWritesOutsideService_WhenIndexUpdated_ThenIdsAreFoundTest() {
+		//Validate write of another node is added from its change event
+		repo.save(TestUtil.buildSampleRecipeEntity(1502, "Id Index Remote Recipe", "ix", 2));
+		assertThat(idIndex.mightExist(1502)).as("Recipe written outside application is in index").isFalse();
+		eventPublisher.publishEvent(new RecipeChangeEvent(1502, RecipeOperation.CREATE, 0L, true));
+		assertThat(service.getRecipeFromRepository(1502)).as("Remote recipe is not found").isNotNull();
+		
+		//Validate write bypassing application is picked up by rebuild
+		repo.save(TestUtil.buildSampleRecipeEntity(1503, "Id Index Hidden Recipe", "ix", 2));
+		assertThat(idIndex.mightExist(1503)).as("Hidden recipe is in index before rebuild").isFalse();
+		idIndex.rebuild();
+		assertThat(service.getRecipeFromRepository(1503)).as("Hidden recipe is not found after rebuild").isNotNull();
+		
+		service.deleteRecipeFromRepository(1502);
+		service.deleteRecipeFromRepository(1503);
+	}
+}
@@ -0,0 +1,95 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.abnamor.recipes.dto.Ingredient;
+import com.abnamro.recipes.service.ParallelMapper;
+import com.abnamro.recipes.util.Util;
+
+import lombok.extern.slf4j.Slf4j;
+
+//Time to parse ingredients of a large listing with the mapping pool sized from 1 to all available cores
+@Slf4j
+public class RecipeMappingBenchmarkTests {
+	
+	private static final int RECIPES = 20000;
+	private static final int INGREDIENTS = 12;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MEASURED_ROUNDS = 10;
+	
+	private List<String> buildIngredientColumns() {
+		List<String> columns = new ArrayList<>(RECIPES);
+		for(int id = 0; id < RECIPES; id++) {
+			List<Ingredient> ingredients = new ArrayList<>(INGREDIENTS);
+			for(int i = 0; i < INGREDIENTS; i++)
+				ingredients.add(new Ingredient("ingredient "+((id + i) % 300), (i + 1)+" tsp"));
+			columns.add(Util.convertToJSONString(ingredients));
+		}
+		return columns;
+	}
+	
+	//Map given columns repeatedly and return average time in microseconds
+	private long benchmark(ParallelMapper<String,List<Ingredient>> mapper, List<String> columns) {
+		for(int i = 0; i < WARMUP_ROUNDS; i++)
+			mapper.map(columns, Util::convertJSONStringToIngredientsList);
+		long nanos = 0;
+		for(int i = 0; i < MEASURED_ROUNDS; i++) {
+			long start = System.nanoTime();
+			List<List<Ingredient>> mapped = mapper.map(columns, Util::convertJSONStringToIngredientsList);
+			nanos += System.nanoTime() - start;
+			assertThat(mapped).hasSize(columns.size());
+		}
+		return TimeUnit.NANOSECONDS.toMicros(nanos / MEASURED_ROUNDS);
+	}
+	
+	@Test
+	public void GivenLargeListing_WhenMappedOnOneToAllCores_ThenResultOrderIsKeptTest() {
+		List<String> columns = buildIngredientColumns();
+		int cores = Runtime.getRuntime().availableProcessors();
+		long sequentialMicros = 0;
+		for(int parallelism = 1; parallelism <= cores; parallelism++) {
+			ParallelMapper<String,List<Ingredient>> mapper = new ParallelMapper<>(parallelism, 1000);
+			try {
+				long micros = benchmark(mapper, columns);
+				if(parallelism == 1)
+					sequentialMicros = micros;
+				log.info(String.format("cores: %2d, mapping %d recipes: %8d us, speedup: %.2f", parallelism, RECIPES,
+						micros, (double) sequentialMicros / micros));
+				
+				//Validate every result is at the position of its input
+				List<List<Ingredient>> mapped = mapper.map(columns, Util::convertJSONStringToIngredientsList);
+				for(int id = 0; id < RECIPES; id += 997)
+					assertThat(mapped.get(id).get(0).getName()).as("Mapped result is out of order")
+															   .isEqualTo("ingredient "+(id % 300));
+			} finally {
+				mapper.shutdown();
+			}
+		}
+	}
+	
+	@Test
+	public void GivenSmallList_WhenMapped_ThenCallingThreadMapsItTest() {
+		ParallelMapper<Integer,String> mapper = new ParallelMapper<>(4, 100);
+		try {
+			List<Integer> small = new ArrayList<>();
+			for(int i = 0; i < 99; i++)
+				small.add(i);
+			Thread caller = Thread.currentThread();
+			assertThat(mapper.map(small, i -> Thread.currentThread() == caller ? "caller" : "pool"))
+					  .as("Small list is not mapped on calling thread").containsOnly("caller");
+			
+			small.add(99);
+			List<String> mapped = mapper.map(small, String::valueOf);
+			for(int i = 0; i < 100; i++)
+				assertThat(mapped.get(i)).as("Parallel mapped result is out of order").isEqualTo(String.valueOf(i));
+		} finally {
+			mapper.shutdown();
+		}
+	}
+}
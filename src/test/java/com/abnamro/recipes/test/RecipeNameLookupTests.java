@@ -0,0 +1,121 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.service.RecipeNameCache;
+import com.abnamro.recipes.service.RecipeNameKeyBackfillRunner;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+public class RecipeNameLookupTests {
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private TestRestTemplate restTemplate;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeNameCache nameCache;
+	
+	@Autowired
+	private RecipeNameKeyBackfillRunner backfillRunner;
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	private ResponseEntity<Recipe> getRecipeByName(String name) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		return restTemplate.exchange("http://localhost:"+port+"/api/recipe?name={name}", HttpMethod.GET,
+									 new HttpEntity<>(headers), Recipe.class, name);
+	}
+	
+	@Test
+	public void GivenStoredRecipe_WhenLookedUpByNameInOtherCase_ThenRecipeIsReturnedTest() {
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(801, "Paneer Tikka", "vg", 2));
+		
+		//Validate lookup ignores case and surrounding spaces, and caches the name
+		ResponseEntity<Recipe> response = getRecipeByName("  paneer TIKKA ");
+		assertThat(response.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.OK);
+		assertThat(response.getBody().getId()).as("Recipe id is not as expected").isEqualTo(801);
+		assertThat(nameCache.get("paneer tikka")).as("Name is not cached").isEqualTo(801);
+		
+		//Validate renamed recipe is found by new name only
+		service.modifyExistingRecipeInRepository(TestUtil.buildSampleRecipe(801, "Paneer Butter Masala", "vg", 2));
+		assertThat(nameCache.get("paneer tikka")).as("Old name still cached after rename").isNull();
+		assertThat(getRecipeByName("Paneer Tikka").getStatusCode()).as("Http Status is not as expected")
+																   .isEqualTo(HttpStatus.NOT_FOUND);
+		assertThat(getRecipeByName("PANEER BUTTER MASALA").getBody().getId()).as("Recipe id is not as expected")
+																			 .isEqualTo(801);
+		
+		//Validate deleted recipe is not found by name
+		service.deleteRecipeFromRepository(801);
+		assertThat(getRecipeByName("Paneer Butter Masala").getStatusCode()).as("Http Status is not as expected")
+																		   .isEqualTo(HttpStatus.NOT_FOUND);
+	}
+	
+	@Test
+	public void GivenStoredRecipe_WhenOtherRecipeTakesSameNormalizedName_ThenWriteIsRejectedTest() {
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(802, "Dal Makhani", "vg", 2));
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(803, "Dal Tadka", "vg", 2));
+		
+		//Validate create and rename to a name differing in case and spaces only are rejected
+		assertThatThrownBy(() -> service.saveRecipeToRepository(TestUtil.buildSampleRecipe(804, " dal MAKHANI", "vg", 2)))
+				  .as("Create with taken name is not rejected").isInstanceOf(DataIntegrityViolationException.class);
+		assertThatThrownBy(() -> service.modifyExistingRecipeInRepository(TestUtil.buildSampleRecipe(803, "DAL MAKHANI", "vg", 2)))
+				  .as("Rename to taken name is not rejected").isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(service.loadRecipeFromRepository(804)).as("Rejected recipe is stored").isNull();
+		assertThat(service.getRecipeByNameFromRepository("dal tadka").getId()).as("Rejected rename is stored").isEqualTo(803);
+		
+		service.deleteRecipeFromRepository(802);
+		service.deleteRecipeFromRepository(803);
+	}
+	
+	@Test
+	public void GivenRecipesWithoutNameKey_WhenBackfilled_ThenKeysMatchLookupNormalizationTest() {
+		//Rows as left by a migration which added the column, full width letters only match after NFKC
+		jdbcTemplate.update("insert into Recipe (ID, NAME, TYPE, CAPACITY, INGREDIENTS) values (805, 'Ｍａｓａｌａ Dosa ', 'vg', 2, '[]')");
+		jdbcTemplate.update("insert into Recipe (ID, NAME, TYPE, CAPACITY, INGREDIENTS) values (806, 'Idli', 'vg', 2, '[]')");
+		jdbcTemplate.update("insert into Recipe (ID, NAME, TYPE, CAPACITY, INGREDIENTS) values (807, 'IDLI', 'vg', 2, '[]')");
+		
+		backfillRunner.run(null);
+		assertThat(service.getRecipeByNameFromRepository("masala dosa").getId()).as("Backfilled key does not match lookup").isEqualTo(805);
+		assertThat(jdbcTemplate.queryForObject("select count(*) from Recipe where ID in (806, 807) and NAME_KEY = 'idli'",
+											   Integer.class)).as("Clashing names are not keyed once").isEqualTo(1);
+		assertThat(jdbcTemplate.queryForObject("select count(*) from Recipe where ID in (806, 807) and NAME_KEY is null",
+											   Integer.class)).as("Clashing name is keyed").isEqualTo(1);
+		
+		jdbcTemplate.update("delete from Recipe where ID in (805, 806, 807)");
+	}
+}
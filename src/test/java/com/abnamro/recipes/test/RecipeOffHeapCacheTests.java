@@ -0,0 +1,169 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.abnamor.recipes.dto.Ingredient;
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.service.RecipeOffHeapCache;
+import com.abnamro.recipes.test.util.TestUtil;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+//Off-heap recipe cache tier, its slab reuse and its heap and GC footprint against the same recipes held on heap
+@Slf4j
+public class RecipeOffHeapCacheTests {
+	
+	private static final int CATALOG_RECIPES = 20000;
+	
+	//Catalog being measured, kept in a field so that it stays reachable through the GC after it is built
+	private Object held;
+	
+	//Recipe with strings of its own, as recipes of a large catalog read from DB
+	private static Recipe catalogRecipe(int id) {
+		Recipe recipe = TestUtil.buildSampleRecipe(id, "Catalog Recipe "+id, "type "+(id % 7), id % 10 + 1);
+		List<Ingredient> ingredients = new ArrayList<>();
+		for(int index = 0; index < 8; index++)
+			ingredients.add(new Ingredient("ingredient "+index+" of "+id, (index + 1)+" g"));
+		recipe.setIngredientsList(ingredients);
+		recipe.setInstructions("Mix the ingredients of recipe "+id+" and cook them slowly until they are done, then serve.");
+		return recipe;
+	}
+	
+	//Heap used after full GC and milliseconds spent in collections of that GC
+	private static long[] collect() {
+		long collectionTime = ManagementFactory.getGarbageCollectorMXBeans().stream()
+											   .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+		System.gc();
+		System.gc();
+		long pause = ManagementFactory.getGarbageCollectorMXBeans().stream()
+									  .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum() - collectionTime;
+		return new long[] {ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), pause};
+	}
+	
+	//Hold catalog built by given function and return heap it takes and GC time with it held
+	private long[] measure(String label, IntFunction<Object> builder) {
+		long[] before = collect();
+		held = builder.apply(CATALOG_RECIPES);
+		long[] after = collect();
+		held = null;
+		long[] usage = {after[0] - before[0], after[1]};
+		log.info(String.format("%-8s heap: %11d bytes, full GC: %4d ms for %d recipes", label, usage[0], usage[1],
+							   CATALOG_RECIPES));
+		return usage;
+	}
+	
+	@Test
+	public void GivenCachedRecipe_WhenRead_ThenEqualRecipeIsDecodedTest() {
+		RecipeOffHeapCache cache = new RecipeOffHeapCache(true, 1, 64, new SimpleMeterRegistry());
+		Recipe recipe = catalogRecipe(2201);
+		recipe.setCDateTimeString("01-01-2021 10:00");
+		cache.put(2201, recipe);
+		Recipe sparse = new Recipe();
+		sparse.setId(2202);
+		sparse.setIngredientsList(null);
+		cache.put(2202, sparse);
+		
+		Recipe decoded = cache.get(2201);
+		assertThat(decoded).as("Cached recipe is not decoded into a new instance").isNotSameAs(recipe);
+		assertThat(decoded).as("Decoded recipe is not equal").usingRecursiveComparison().isEqualTo(recipe);
+		assertThat(cache.get(2202)).as("Recipe without optional fields is not decoded").usingRecursiveComparison().isEqualTo(sparse);
+		assertThat(cache.get(2203)).as("Recipe not cached is found").isNull();
+		
+		cache.invalidate(2201);
+		assertThat(cache.get(2201)).as("Recipe is not invalidated").isNull();
+		assertThat(cache.size()).as("Entries are not counted").isEqualTo(1);
+	}
+	
+	@Test
+	public void GivenFullCache_WhenRecipesPut_ThenChunksAreReusedWithinLimitTest() {
+		RecipeOffHeapCache cache = new RecipeOffHeapCache(true, 1, 64, new SimpleMeterRegistry());
+		for(int id = 1; id <= 1000; id++)
+			cache.put(id, catalogRecipe(id));
+		long allocated = cache.getAllocatedBytes();
+		
+		//Validate freed chunks are reused before a slab is added
+		for(int id = 1; id <= 100; id++)
+			cache.invalidate(id);
+		for(int id = 1001; id <= 1100; id++)
+			cache.put(id, catalogRecipe(id));
+		assertThat(cache.getAllocatedBytes()).as("Freed chunks are not reused").isEqualTo(allocated);
+		
+		//Validate memory stays within limit and recently read recipes stay cached
+		for(int id = 1101; id <= 5000; id++) {
+			cache.put(id, catalogRecipe(id));
+			cache.get(1050);
+		}
+		assertThat(cache.getAllocatedBytes()).as("Slabs exceed limit").isLessThanOrEqualTo(1024 * 1024);
+		assertThat(cache.size()).as("Recipes are not evicted at limit").isLessThan(4000);
+		assertThat(cache.get(1050)).as("Recently read recipe is evicted").isNotNull();
+		assertThat(cache.get(4999)).as("Latest recipe is not cached").isNotNull();
+	}
+	
+	@Test
+	public void GivenFullCache_WhenRecipeSizesShift_ThenSlabsMoveToTheNewSizeTest() {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		RecipeOffHeapCache cache = new RecipeOffHeapCache(true, 1, 64, meterRegistry);
+		for(int id = 1; id <= 5000; id++)
+			cache.put(id, catalogRecipe(id));
+		assertThat(cache.getAllocatedBytes()).as("Limit is not reached by small recipes").isEqualTo(1024 * 1024);
+		
+		//Validate large recipes get slabs of the small ones once every slab is taken
+		for(int id = 10001; id <= 10400; id++) {
+			Recipe recipe = catalogRecipe(id);
+			recipe.setInstructions(String.join("", Collections.nCopies(100, "Stir slowly for a while. ")));
+			cache.put(id, recipe);
+		}
+		long largeCached = IntStream.rangeClosed(10001, 10400).filter(id -> cache.get(id) != null).count();
+		assertThat(meterRegistry.counter("recipes.cache.offheap.dropped").count()).as("Large recipes are dropped").isZero();
+		assertThat(meterRegistry.counter("recipes.cache.offheap.slab.moved").count()).as("Slabs are not moved").isGreaterThan(1);
+		assertThat(largeCached).as("Large recipes do not get more than one slab").isGreaterThan(64 * 1024 / 2500);
+		assertThat(cache.get(10400)).as("Latest large recipe is not cached").isNotNull();
+		assertThat(cache.getAllocatedBytes()).as("Moving slabs exceeds limit").isEqualTo(1024 * 1024);
+		
+		//Validate small recipes copied into the place of a moved slab are still found and decoded
+		IntStream.rangeClosed(1, 5000).filter(id -> cache.get(id) != null).forEach(id -> assertThat(cache.get(id))
+				.as("Recipe of a copied slab is not decoded").usingRecursiveComparison()
+				.ignoringFields("creationDateTime").isEqualTo(catalogRecipe(id)));
+		
+		//Validate small recipes win slabs back
+		for(int id = 20001; id <= 25000; id++)
+			cache.put(id, catalogRecipe(id));
+		long smallCached = IntStream.rangeClosed(20001, 25000).filter(id -> cache.get(id) != null).count();
+		assertThat(smallCached).as("Small recipes do not win slabs back").isGreaterThan(1024 * 1024 / 2 / 512);
+		assertThat(meterRegistry.counter("recipes.cache.offheap.dropped").count()).as("Small recipes are dropped").isZero();
+	}
+	
+	@Test
+	public void GivenLargeCatalog_WhenHeldOffHeap_ThenHeapAndFullGcShrinkTest() {
+		long[] onHeap = measure("On heap", recipes -> {
+			Map<Integer,Recipe> catalog = new HashMap<>();
+			for(int id = 1; id <= recipes; id++)
+				catalog.put(id, catalogRecipe(id));
+			return catalog;
+		});
+		long[] offHeap = measure("Off heap", recipes -> {
+			RecipeOffHeapCache catalog = new RecipeOffHeapCache(true, 64, 1024, new SimpleMeterRegistry());
+			for(int id = 1; id <= recipes; id++)
+				catalog.put(id, catalogRecipe(id));
+			assertThat(catalog.size()).as("Catalog does not fit off heap").isEqualTo(recipes);
+			return catalog;
+		});
+		log.info("Heap saved off heap: "+(onHeap[0] - offHeap[0])+" bytes, full GC time on heap: "+onHeap[1]+
+				 " ms, off heap: "+offHeap[1]+" ms");
+		
+		assertThat(offHeap[0]).as("Off-heap catalog does not take less than a quarter of on-heap heap").isLessThan(onHeap[0] / 4);
+	}
+}
@@ -0,0 +1,85 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.exceptions.BadRequestException;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.SqlStatementCapture;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="+
+							 "com.abnamro.recipes.test.util.SqlStatementCapture")
+public class RecipePatchTests {
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	private JsonNode patch(String json) throws Exception {
+		return mapper.readTree(json);
+	}
+	
+	private List<String> recipeUpdates() {
+		return SqlStatementCapture.getStatements().stream().map(sql -> sql.toLowerCase(Locale.ROOT))
+								  .filter(sql -> sql.startsWith("update recipe ")).collect(Collectors.toList());
+	}
+	
+	@Test
+	public void GivenMergePatch_WhenApplied_ThenOnlyChangedColumnsAreUpdatedTest() throws Exception {
+		Recipe saved = service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1301, "Patch Recipe 1301", "pt1", 2));
+		
+		//Validate single field patch keeps other fields and updates only its column
+		SqlStatementCapture.clear();
+		Recipe patched = service.patchExistingRecipeInRepository(1301, patch("{\"servingCapacity\": 8}"));
+		assertThat(patched.getServingCapacity()).as("Serving capacity is not patched").isEqualTo(8);
+		assertThat(patched.getInstructions()).as("Instructions are changed").isEqualTo(saved.getInstructions());
+		assertThat(patched.getIngredientsList()).as("Ingredients are changed").hasSize(saved.getIngredientsList().size());
+		assertThat(recipeUpdates()).as("Update statements are not as expected").hasSize(1);
+		assertThat(recipeUpdates().get(0)).as("Update writes unchanged columns").contains("capacity")
+										  .doesNotContain("instructions").doesNotContain("ingredients").doesNotContain("name");
+		
+		//Validate null removes instructions and ingredients list is replaced as a whole
+		patched = service.patchExistingRecipeInRepository(1301,
+				patch("{\"instructions\": null, \"ingredientsList\": [{\"name\": \"Patch Salt\", \"quantity\": \"1 g\"}]}"));
+		assertThat(patched.getInstructions()).as("Instructions are not removed").isNull();
+		assertThat(patched.getIngredientsList()).as("Ingredients are not replaced").hasSize(1);
+		assertThat(service.getRecipeFromRepository(1301).getIngredientsList().get(0).getName())
+				  .as("Patched recipe is not read back").isEqualTo("Patch Salt");
+		
+		//Validate patch without changes writes nothing
+		SqlStatementCapture.clear();
+		service.patchExistingRecipeInRepository(1301, patch("{\"servingCapacity\": 8, \"type\": \"pt1\"}"));
+		assertThat(recipeUpdates()).as("Unchanged recipe is updated").isEmpty();
+		service.deleteRecipeFromRepository(1301);
+	}
+	
+	@Test
+	public void GivenInvalidMergePatch_WhenApplied_ThenRecipeIsNotChangedTest() throws Exception {
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(1302, "Patch Recipe 1302", "pt2", 2));
+		
+		assertThatThrownBy(() -> service.patchExistingRecipeInRepository(1302, patch("{\"name\": null}")))
+				  .as("Removing required field is accepted").isInstanceOf(BadRequestException.class);
+		assertThatThrownBy(() -> service.patchExistingRecipeInRepository(1302, patch("{\"id\": 1303}")))
+				  .as("Changing id is accepted").isInstanceOf(BadRequestException.class);
+		assertThatThrownBy(() -> service.patchExistingRecipeInRepository(1302, patch("{\"ingredientsList\": 5}")))
+				  .as("Invalid ingredients are accepted").isInstanceOf(BadRequestException.class);
+		assertThat(service.patchExistingRecipeInRepository(1399, patch("{\"type\": \"pt3\"}")))
+				  .as("Missing recipe is patched").isNull();
+		assertThat(service.getRecipeFromRepository(1302).getName()).as("Recipe is changed").isEqualTo("Patch Recipe 1302");
+		service.deleteRecipeFromRepository(1302);
+	}
+}
@@ -0,0 +1,240 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeFeedCursor;
+import com.abnamor.recipes.dto.RecipeFeedPage;
+import com.abnamor.recipes.dto.RecipeSyncPage;
+import com.abnamro.recipes.repository.RecipeChangeLogRepository;
+import com.abnamro.recipes.service.RecipeChangeLogService;
+import com.abnamro.recipes.service.RecipeShards;
+import com.abnamro.recipes.service.RecipeStatsService;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+//Recipes spread over three embedded H2 databases, the default datasource and two extra shards
+@SpringBootTest(properties = {"recipe.shards.urls=jdbc:h2:mem:recipes_shard1;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE," +
+								  "jdbc:h2:mem:recipes_shard2;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+public class RecipeShardingTests {
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipeShards shards;
+	
+	@Autowired
+	private RecipeStatsService statsService;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeChangeLogRepository changeLogRepo;
+	
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	private List<Integer> saveRecipes(int fromId, int toId) {
+		List<Integer> ids = IntStream.rangeClosed(fromId, toId).boxed().collect(Collectors.toList());
+		ids.forEach(id -> service.saveRecipeToRepository(TestUtil.buildSampleRecipe(id, "Sharded Recipe "+id, "sh", id % 4 + 1)));
+		return ids;
+	}
+	
+	private Set<Integer> idsOnShard(int shard, int fromId, int toId) {
+		return new HashSet<>(shards.read(shard, () -> jdbcTemplate.queryForList(
+				"select ID from Recipe where ID between ? and ?", Integer.class, fromId, toId)));
+	}
+	
+	//First id from given one up which is placed on another shard than given id
+	private int idOnOtherShard(int fromId, int id) {
+		return IntStream.iterate(fromId, next -> next + 1).filter(next -> shards.shardOf(next) != shards.shardOf(id)).findFirst().getAsInt();
+	}
+	
+	private List<Integer> ids(List<Recipe> recipes, int fromId, int toId) {
+		return recipes.stream().map(Recipe::getId).filter(id -> id >= fromId && id <= toId).collect(Collectors.toList());
+	}
+	
+	@Test
+	public void GivenThreeShards_WhenRecipesWritten_ThenEachRecipeIsOnShardOfItsIdOnlyTest() {
+		assertThat(shards.getShardCount()).as("Shards are not configured").isEqualTo(3);
+		List<Integer> ids = saveRecipes(2001, 2012);
+		
+		//Validate every recipe is stored on its shard only and every shard holds some of them
+		for(int shard = 0; shard < shards.getShardCount(); shard++) {
+			int expectedShard = shard;
+			Set<Integer> expectedIds = ids.stream().filter(id -> shards.shardOf(id) == expectedShard).collect(Collectors.toSet());
+			assertThat(idsOnShard(shard, 2001, 2012)).as("Recipes on shard "+shard+" are not as expected").isEqualTo(expectedIds);
+			assertThat(expectedIds).as("Shard "+shard+" holds none of the recipes").isNotEmpty();
+		}
+		
+		//Validate point operations reach the shard of the recipe
+		assertThat(service.loadRecipeFromRepository(2005).getName()).as("Recipe is not read from its shard").isEqualTo("Sharded Recipe 2005");
+		assertThat(service.getRecipeByNameFromRepository("sharded recipe 2009").getId()).as("Recipe is not found by name").isEqualTo(2009);
+		Recipe modified = service.loadRecipeFromRepository(2007);
+		modified.setServingCapacity(9);
+		service.modifyExistingRecipeInRepository(modified);
+		assertThat(service.loadRecipeFromRepository(2007).getServingCapacity()).as("Recipe is not updated").isEqualTo(9);
+		service.deleteRecipeFromRepository(2008);
+		assertThat(service.loadRecipeFromRepository(2008)).as("Recipe is not deleted").isNull();
+		assertThat(ids(service.getRecipesFromRepository(ids), 2001, 2012)).as("Recipes are not read in given order")
+				  .isEqualTo(ids.stream().filter(id -> id != 2008).collect(Collectors.toList()));
+		
+		ids.stream().filter(id -> id != 2008).forEach(service::deleteRecipeFromRepository);
+	}
+	
+	@Test
+	public void GivenThreeShards_WhenRecipesListedAndCounted_ThenShardsAreMergedTest() {
+		List<Integer> ids = saveRecipes(2021, 2032);
+		
+		//Validate listing and export merge all shards in id order
+		assertThat(ids(service.getAllRecipesFromRepository(), 2021, 2032)).as("Listing is not in id order").isEqualTo(ids);
+		List<Integer> exportedIds = new ArrayList<>();
+		long exported = service.exportRecipesFromRepository(recipe -> exportedIds.add(recipe.getId()));
+		assertThat(exportedIds).as("Export is not in id order").isSortedAccordingTo(Comparator.naturalOrder());
+		assertThat(exportedIds).as("Export misses recipes").containsAll(ids).hasSize((int) exported);
+		
+		//Validate feed pages of all shards are merged newest first without gaps or repeats
+		List<Recipe> feed = new ArrayList<>();
+		RecipeFeedCursor cursor = null;
+		do {
+			RecipeFeedPage page = service.getRecipeFeedFromRepository(null, null, cursor, 5);
+			assertThat(page.getRecipes().size()).as("Feed page exceeds limit").isLessThanOrEqualTo(5);
+			feed.addAll(page.getRecipes());
+			cursor = page.getNextCursor() != null ? RecipeFeedCursor.decode(page.getNextCursor()) : null;
+		} while(cursor != null);
+		assertThat(feed.stream().map(Recipe::getId).collect(Collectors.toList())).as("Feed is not complete")
+				  .doesNotHaveDuplicates().containsAll(ids).hasSize((int) exported);
+		assertThat(feed).as("Feed is not newest first").isSortedAccordingTo(Comparator.comparing(Recipe::getCreationDateTime)
+				  .thenComparing(Recipe::getId).reversed());
+		
+		//Validate statistics count recipes of all shards
+		statsService.recount();
+		assertThat(statsService.getStats().getRecipeCount()).as("Statistics do not count all shards").isEqualTo(exported);
+		
+		ids.forEach(service::deleteRecipeFromRepository);
+	}
+	
+	@Test
+	public void GivenThreeShards_WhenChangesSynced_ThenPositionCoversEveryShardTest() throws Exception {
+		List<Integer> ids = saveRecipes(2041, 2049);
+		//Tail change log of every shard until its watermark covers every write so far
+		for(int attempt = 0; attempt < 150; attempt++) {
+			long[] watermarks = changeLogService.getWatermarks();
+			boolean covered = true;
+			for(int shard = 0; shard < watermarks.length; shard++) {
+				Long maxSequence = shards.read(shard, changeLogRepo::findMaxSequence);
+				covered &= maxSequence == null || watermarks[shard] >= maxSequence;
+			}
+			if(covered)
+				break;
+			changeLogService.pollChanges();
+			Thread.sleep(100);
+		}
+		
+		List<Integer> syncedIds = new ArrayList<>();
+		String position = "0.0.0";
+		RecipeSyncPage page;
+		do {
+			page = service.getRecipeChangesFromRepository(position, 3);
+			assertThat(page.getRecipes().size() + page.getDeletedIds().size()).as("Sync page exceeds limit").isLessThanOrEqualTo(3);
+			page.getRecipes().forEach(recipe -> syncedIds.add(recipe.getId()));
+			position = page.getWatermark();
+		} while(page.isHasMore());
+		assertThat(position.split("\\.")).as("Position does not cover every shard").hasSize(3);
+		assertThat(syncedIds.stream().filter(id -> id >= 2041 && id <= 2049)).as("Sync is not complete")
+				  .doesNotHaveDuplicates().containsExactlyInAnyOrderElementsOf(ids);
+		
+		ids.forEach(service::deleteRecipeFromRepository);
+	}
+	
+	@Test
+	public void GivenShardedSchema_WhenShardsInspected_ThenEveryShardHasRecipeTablesTest() {
+		for(int shard = 0; shard < shards.getShardCount(); shard++) {
+			assertThat(shards.read(shard, () -> jdbcTemplate.queryForObject(
+					"select count(*) from INFORMATION_SCHEMA.INDEXES where INDEX_NAME = ?", Integer.class, "IDX_RECIPE_MOD_SEQ")))
+					  .as("Schema is not created on shard "+shard).isPositive();
+		}
+	}
+	
+	@Test
+	public void GivenNameTakenOnOneShard_WhenRecipeOnOtherShardTakesIt_ThenWriteIsRejectedTest() throws Exception {
+		int firstId = 2401;
+		int otherId = idOnOtherShard(2402, firstId);
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(firstId, "Sharded Biryani", "sh", 2));
+		
+		//Validate create, update and patch to a name taken on another shard are rejected
+		assertThatThrownBy(() -> service.saveRecipeToRepository(TestUtil.buildSampleRecipe(otherId, " sharded BIRYANI", "sh", 2)))
+				  .as("Create with name taken on other shard is not rejected").isInstanceOf(DataIntegrityViolationException.class);
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(otherId, "Sharded Pulao", "sh", 2));
+		assertThatThrownBy(() -> service.modifyExistingRecipeInRepository(TestUtil.buildSampleRecipe(otherId, "Sharded Biryani", "sh", 2)))
+				  .as("Rename to name taken on other shard is not rejected").isInstanceOf(DataIntegrityViolationException.class);
+		JsonNode patch = mapper.readTree("{\"name\": \"SHARDED BIRYANI\"}");
+		assertThatThrownBy(() -> service.patchExistingRecipeInRepository(otherId, patch))
+				  .as("Patch to name taken on other shard is not rejected").isInstanceOf(DataIntegrityViolationException.class);
+		assertThat(service.loadRecipeFromRepository(otherId).getName()).as("Rejected rename is stored").isEqualTo("Sharded Pulao");
+		
+		//Validate name is free again once the recipe holding it is deleted
+		service.deleteRecipeFromRepository(firstId);
+		service.patchExistingRecipeInRepository(otherId, patch);
+		assertThat(service.getRecipeByNameFromRepository("sharded biryani").getId()).as("Freed name is not taken").isEqualTo(otherId);
+		service.deleteRecipeFromRepository(otherId);
+	}
+	
+	@Test
+	public void GivenRecipesOnTwoShards_WhenCreatedWithSameNameAtOnce_ThenOnlyOneIsStoredTest() throws Exception {
+		int firstId = 2501;
+		int otherId = idOnOtherShard(2502, firstId);
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<Recipe>> creates = new ArrayList<>();
+			for(int id : new int[] {firstId, otherId}) {
+				creates.add(executor.submit(() -> {
+					start.await();
+					return service.saveRecipeToRepository(TestUtil.buildSampleRecipe(id, "Concurrent Korma", "sh", 2));
+				}));
+			}
+			start.countDown();
+			int stored = 0;
+			for(Future<Recipe> create : creates) {
+				try {
+					create.get();
+					stored++;
+				} catch(Exception e) {
+					assertThat(e).as("Create fails for other reason").hasCauseInstanceOf(DataIntegrityViolationException.class);
+				}
+			}
+			assertThat(stored).as("Both recipes with same name are stored").isEqualTo(1);
+		} finally {
+			executor.shutdown();
+		}
+		Integer storedId = service.getRecipeByNameFromRepository("concurrent korma").getId();
+		service.deleteRecipeFromRepository(storedId);
+	}
+}
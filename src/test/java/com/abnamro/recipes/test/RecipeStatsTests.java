@@ -0,0 +1,166 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.abnamor.recipes.dto.Ingredient;
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamor.recipes.dto.RecipeStats;
+import com.abnamro.recipes.dao.RecipeChangeLogEntity;
+import com.abnamro.recipes.dao.RecipeOperation;
+import com.abnamro.recipes.repository.RecipeChangeLogRepository;
+import com.abnamro.recipes.repository.RecipesRepository;
+import com.abnamro.recipes.service.RecipeChangeLogService;
+import com.abnamro.recipes.service.RecipeStatsService;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@SpringBootTest
+public class RecipeStatsTests {
+	
+	@Autowired
+	private RecipeStatsService statsService;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private RecipesRepository repo;
+	
+	@Autowired
+	private RecipeChangeLogService changeLogService;
+	
+	@Autowired
+	private RecipeChangeLogRepository changeLogRepo;
+	
+	@Autowired
+	private MeterRegistry meterRegistry;
+	
+	private Recipe buildRecipe(Integer id, String type, Integer capacity, String... ingredientNames) {
+		Recipe recipe = TestUtil.buildSampleRecipe(id, "Stats Recipe "+id, type, capacity);
+		recipe.setIngredientsList(Arrays.asList(Arrays.stream(ingredientNames).map(name -> new Ingredient(name, "1 nos"))
+																	  .toArray(Ingredient[]::new)));
+		return recipe;
+	}
+	
+	@Test
+	public void GivenLocalWrites_WhenStatsRequested_ThenCountersReflectDeltasTest() {
+		statsService.recount();
+		RecipeStats initial = statsService.getStats();
+		long initialLargeBucket = initial.getCapacityHistogram().get("11+");
+		
+		//Validate create is counted
+		service.saveRecipeToRepository(buildRecipe(1101, "st1", 3, "Stats Saffron", "Stats Rice"));
+		RecipeStats created = statsService.getStats();
+		assertThat(created.getRecipeCount()).as("Recipe count is not as expected").isEqualTo(initial.getRecipeCount() + 1);
+		assertThat(created.getCountsByType()).as("Count by type is not as expected").containsEntry("st1", 1L);
+		assertThat(created.getIngredientFrequency()).as("Ingredient frequency is not as expected")
+													.containsEntry("stats saffron", 1L).containsEntry("stats rice", 1L);
+		
+		//Validate update moves recipe between type, bucket and ingredients
+		service.modifyExistingRecipeInRepository(buildRecipe(1101, "st2", 12, "Stats Saffron"));
+		RecipeStats modified = statsService.getStats();
+		assertThat(modified.getRecipeCount()).as("Recipe count is not as expected").isEqualTo(initial.getRecipeCount() + 1);
+		assertThat(modified.getCountsByType()).as("Count by type is not as expected")
+											  .doesNotContainKey("st1").containsEntry("st2", 1L);
+		assertThat(modified.getCapacityHistogram().get("11+")).as("Capacity histogram is not as expected")
+															  .isEqualTo(initialLargeBucket + 1);
+		assertThat(modified.getIngredientFrequency()).as("Ingredient frequency is not as expected")
+													 .containsEntry("stats saffron", 1L).doesNotContainKey("stats rice");
+		
+		//Validate delete is counted and unchanged stats are served from snapshot
+		service.deleteRecipeFromRepository(1101);
+		RecipeStats deleted = statsService.getStats();
+		assertThat(deleted.getRecipeCount()).as("Recipe count is not as expected").isEqualTo(initial.getRecipeCount());
+		assertThat(deleted.getCountsByType()).as("Count by type is not as expected").doesNotContainKey("st2");
+		assertThat(statsService.getStats()).as("Unchanged stats are rebuilt").isSameAs(deleted);
+	}
+	
+	@Test
+	public void GivenWriteBypassingService_WhenDriftChecked_ThenCountersAreRepairedTest() {
+		statsService.recount();
+		double driftBefore = meterRegistry.counter("recipes.stats.drift").count();
+		repo.save(TestUtil.buildSampleRecipeEntity(1102, "Stats Hidden Recipe", "st3", 2));
+		assertThat(statsService.getStats().getCountsByType()).as("Write bypassing service is counted")
+															 .doesNotContainKey("st3");
+		
+		statsService.recount();
+		assertThat(statsService.getStats().getCountsByType()).as("Drift is not repaired").containsEntry("st3", 1L);
+		assertThat(meterRegistry.counter("recipes.stats.drift").count()).as("Drift is not reported")
+																		 .isEqualTo(driftBefore + 1);
+		repo.deleteById(1102);
+	}
+	
+	@Test
+	public void GivenCountersMatchingRecipeCount_WhenDriftChecked_ThenRecountRunsOnlyOnMismatchTest() throws Exception {
+		statsService.recount();
+		Date verifiedBefore = statsService.getStats().getVerifiedDateTime();
+		Thread.sleep(5);
+		
+		//Validate check of counters in sync with DB does not scan the catalog
+		statsService.checkDrift();
+		assertThat(statsService.getStats().getVerifiedDateTime()).as("Check recounted counters in sync")
+																 .isEqualTo(verifiedBefore);
+		
+		//Validate a write bypassing service changes the count and is repaired by the check
+		repo.save(TestUtil.buildSampleRecipeEntity(1103, "Stats Unseen Recipe", "st5", 2));
+		statsService.checkDrift();
+		assertThat(statsService.getStats().getCountsByType()).as("Count mismatch is not recounted").containsEntry("st5", 1L);
+		assertThat(statsService.getStats().getVerifiedDateTime()).as("Count mismatch is not recounted")
+																 .isAfter(verifiedBefore);
+		repo.deleteById(1103);
+	}
+	
+	@Test
+	public void GivenRemoteWritesDuringRecounts_WhenRecounted_ThenNoRecountIsDiscardedTest() throws Exception {
+		statsService.recount();
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicInteger written = new AtomicInteger();
+		//Simulate another node writing all the time, its change log entries are polled as they are appended
+		Thread remoteWriter = new Thread(() -> {
+			for(int id = 1110; writing.get() && id < 1200; id++) {
+				repo.save(TestUtil.buildSampleRecipeEntity(id, "Stats Remote Recipe "+id, "st4", 2));
+				RecipeChangeLogEntity remoteChange = new RecipeChangeLogEntity();
+				remoteChange.setRecipeId(id);
+				remoteChange.setOperation(RecipeOperation.CREATE);
+				remoteChange.setNodeId("other-node");
+				remoteChange.setChangeDateTime(new Date());
+				changeLogRepo.save(remoteChange);
+				changeLogService.pollChanges();
+				written.incrementAndGet();
+			}
+		});
+		remoteWriter.start();
+		
+		//Validate every recount overlapping remote writes replaces counters
+		try {
+			for(int round = 0; round < 5; round++) {
+				Date verifiedBefore = statsService.getStats().getVerifiedDateTime();
+				Thread.sleep(5);
+				statsService.recount();
+				assertThat(statsService.getStats().getVerifiedDateTime()).as("Recount overlapping writes was discarded")
+																		 .isAfter(verifiedBefore);
+			}
+		} finally {
+			writing.set(false);
+			remoteWriter.join();
+		}
+		
+		//Validate remote writes made after the last recount are counted by the next one
+		statsService.recount();
+		assertThat(statsService.getStats().getCountsByType()).as("Remote writes are not counted")
+															 .containsEntry("st4", (long) written.get());
+		for(int id = 1110; id < 1110 + written.get(); id++)
+			repo.deleteById(id);
+	}
+}
@@ -0,0 +1,140 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.MethodMode;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.exceptions.ResourceConflictException;
+import com.abnamro.recipes.exceptions.ServiceUnavailableException;
+import com.abnamro.recipes.service.RecipeWriteBehindQueue;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+				properties = {"recipe.writebehind.enabled=true", "recipe.writebehind.batch.size=10"})
+public class RecipeWriteBehindQueueTests {
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private RecipeWriteBehindQueue writeBehindQueue;
+	
+	@Autowired
+	private RecipesService service;
+	
+	//Common method to POST given recipe with given Prefer header, none when null
+	private ResponseEntity<String> createRecipe(Recipe recipe, String prefer) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		if(prefer != null)
+			headers.set("Prefer", prefer);
+		return restTemplate.postForEntity("http://localhost:"+port+"/api/recipe", new HttpEntity<>(recipe, headers),
+										  String.class);
+	}
+	
+	@Test
+	public void GivenQueuedRecipes_WhenFlushed_ThenAllRecipesArePersistedTest() throws Exception {
+		//Queue a burst of new recipes
+		List<CompletableFuture<Recipe>> futures = new ArrayList<>();
+		for(int id = 301; id <= 350; id++)
+			futures.add(writeBehindQueue.enqueue(TestUtil.buildSampleRecipe(id, "Queued Recipe "+id, "vg", 2)));
+		
+		//Wait for flusher to commit all of them
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+		
+		//Validate every queued recipe is present in DB and no longer pending
+		for(int id = 301; id <= 350; id++) {
+			assertThat(service.getRecipeFromRepository(id)).as("Queued recipe "+id+" not found in DB").isNotNull();
+			assertThat(writeBehindQueue.isPending(id)).as("Flushed recipe "+id+" still pending").isFalse();
+		}
+	}
+	
+	@Test
+	public void GivenFullQueue_WhenRecipeQueued_ThenServiceUnavailableIsThrownTest() {
+		//Build a queue of capacity 2 without starting its flusher
+		RecipeWriteBehindQueue fullQueue = new RecipeWriteBehindQueue(Mockito.mock(RecipesService.class),
+																	  true, "flush", 2, 10, 0);
+		fullQueue.enqueue(TestUtil.buildSampleRecipe(1, "Recipe-1", "vg", 2));
+		fullQueue.enqueue(TestUtil.buildSampleRecipe(2, "Recipe-2", "vg", 2));
+		
+		//Validate queue applies backpressure instead of growing
+		assertThatThrownBy(() -> fullQueue.enqueue(TestUtil.buildSampleRecipe(3, "Recipe-3", "vg", 2)))
+				.as("Full queue did not reject new recipe").isInstanceOf(ServiceUnavailableException.class);
+		assertThat(fullQueue.isPending(3)).as("Rejected recipe is left pending").isFalse();
+		
+		//Validate duplicate of a queued recipe is rejected as conflict
+		assertThatThrownBy(() -> fullQueue.enqueue(TestUtil.buildSampleRecipe(1, "Recipe-1", "vg", 2)))
+				.as("Duplicate queued recipe is not rejected").isInstanceOf(ResourceConflictException.class);
+	}
+	
+	@Test
+	public void GivenStoppedQueue_WhenRecipeQueued_ThenServiceUnavailableIsThrownTest() throws Exception {
+		RecipeWriteBehindQueue stoppedQueue = new RecipeWriteBehindQueue(Mockito.mock(RecipesService.class),
+																		 true, "flush", 2, 10, 0);
+		stoppedQueue.stop();
+		
+		//Validate a recipe offered after the final flush is rejected instead of being left in the queue
+		assertThatThrownBy(() -> stoppedQueue.enqueue(TestUtil.buildSampleRecipe(1, "Recipe-1", "vg", 2)))
+				.as("Stopped queue accepted new recipe").isInstanceOf(ServiceUnavailableException.class);
+		assertThat(stoppedQueue.size()).as("Stopped queue holds a recipe").isZero();
+		assertThat(stoppedQueue.isPending(1)).as("Rejected recipe is left pending").isFalse();
+	}
+	
+	@Test
+	@DirtiesContext(methodMode = MethodMode.AFTER_METHOD)
+	public void GivenWriteBehindQueue_WhenRecipesPosted_ThenAcknowledgementAndFailuresMatchSynchronousSaveTest() throws Exception {
+		//Validate default acknowledgement waits for the flush
+		ResponseEntity<String> flushed = createRecipe(TestUtil.buildSampleRecipe(361, "Write Behind Recipe 361", "vg", 2), null);
+		assertThat(flushed.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.CREATED);
+		assertThat(service.getRecipeFromRepository(361)).as("Acknowledged recipe not found in DB").isNotNull();
+		
+		//Validate other preferences keep the default and respond-async acknowledges the enqueue
+		ResponseEntity<String> otherPreference = createRecipe(TestUtil.buildSampleRecipe(362, "Write Behind Recipe 362", "vg", 2),
+															  "return=minimal");
+		assertThat(otherPreference.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.CREATED);
+		ResponseEntity<String> queued = createRecipe(TestUtil.buildSampleRecipe(363, "Write Behind Recipe 363", "vg", 2),
+													 "respond-async, wait=10");
+		assertThat(queued.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.ACCEPTED);
+		
+		//Validate a flush failing on a taken name is answered with 409 as a synchronous save
+		ResponseEntity<String> takenName = createRecipe(TestUtil.buildSampleRecipe(364, "Write Behind Recipe 361", "vg", 2), null);
+		assertThat(takenName.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.CONFLICT);
+		
+		//Validate a stopped queue answers with 503
+		writeBehindQueue.stop();
+		ResponseEntity<String> stopped = createRecipe(TestUtil.buildSampleRecipe(365, "Write Behind Recipe 365", "vg", 2), null);
+		assertThat(stopped.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+		assertThat(stopped.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).as("Retry-After header is missing").isNotNull();
+	}
+}
@@ -0,0 +1,172 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.abnamor.recipes.dto.BulkImportResult;
+import com.abnamro.recipes.config.Bulkhead;
+import com.abnamro.recipes.service.RecipesBulkService;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest(properties = {"recipe.bulk.import.batch.size=10", "recipe.bulk.timeout.ms=120000"})
+@AutoConfigureMockMvc
+public class RecipesBulkServiceTests {
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@Autowired
+	private MockMvc mockMvc;
+	
+	@Autowired
+	private Bulkhead writeBulkhead;
+	
+	@Autowired
+	private RecipesBulkService bulkService;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	//Build NDJSON with given range of valid recipes, one invalid recipe and one unparsable line in between
+	private byte[] buildNdjson(int fromId, int toId) throws IOException {
+		StringBuilder ndjson = new StringBuilder();
+		for(int id = fromId; id <= toId; id++) {
+			ndjson.append(mapper.writeValueAsString(TestUtil.buildSampleRecipe(id, "Bulk Recipe "+id, "vg", 2))).append('\n');
+			if(id == fromId + 5) {
+				ndjson.append("{\"id\":null,\"name\":\"No Id\"}\n");
+				ndjson.append("not a json line\n");
+			}
+		}
+		return ndjson.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Test
+	public void GivenNdjsonFile_WhenImportedAndExported_ThenValidRecipesRoundTripTest() throws Exception {
+		BulkImportResult result = bulkService.importRecipes(new ByteArrayInputStream(buildNdjson(601, 650)), null);
+		assertThat(result.getImported()).as("Number of imported recipes is not as expected").isEqualTo(50);
+		assertThat(result.getRejected()).as("Number of rejected lines is not as expected").isEqualTo(2);
+		assertThat(service.getRecipeFromRepository(650)).as("Imported recipe not found in DB").isNotNull();
+		
+		//Export and validate every exported line is one recipe, including the imported ones
+		ByteArrayOutputStream exported = new ByteArrayOutputStream();
+		long exportedCount = bulkService.exportRecipes(exported);
+		String[] lines = new String(exported.toByteArray(), StandardCharsets.UTF_8).split("\n");
+		assertThat(lines).as("Exported line count differs from exported recipes").hasSize((int) exportedCount);
+		assertThat(lines).as("Imported recipe missing from export").anyMatch(line -> line.contains("Bulk Recipe 650"));
+	}
+	
+	@Test
+	public void GivenInterruptedImport_WhenRerunWithSameImportId_ThenImportResumesAfterCheckpointTest() throws Exception {
+		byte[] ndjson = buildNdjson(701, 730);
+		//Fail the first run after 25 lines, so that only two full batches are committed
+		InputStream failingStream = new ByteArrayInputStream(ndjson) {
+			private int newLines = 0;
+			
+			@Override
+			public synchronized int read() {
+				int value = super.read();
+				if(value == '\n' && ++newLines == 25)
+					throw new IllegalStateException("Connection dropped");
+				return value;
+			}
+			
+			@Override
+			public synchronized int available() {
+				return 0;
+			}
+			
+			@Override
+			public synchronized int read(byte[] buffer, int offset, int length) {
+				int count = 0;
+				for(; count < length; count++) {
+					int value = read();
+					if(value < 0)
+						return count == 0 ? -1 : count;
+					buffer[offset + count] = (byte) value;
+					//Hand out at most one line per read, so that buffered readers consume lines gradually
+					if(value == '\n')
+						return count + 1;
+				}
+				return count;
+			}
+		};
+		assertThatThrownBy(() -> bulkService.importRecipes(failingStream, "resume-test"))
+				.as("Interrupted import did not fail").isInstanceOf(IllegalStateException.class);
+		assertThat(service.getRecipeFromRepository(701)).as("First batch was not committed").isNotNull();
+		assertThat(service.getRecipeFromRepository(730)).as("Recipe after interruption was committed").isNull();
+		
+		//Rerun the full file with same import id
+		BulkImportResult result = bulkService.importRecipes(new ByteArrayInputStream(ndjson), "resume-test");
+		assertThat(result.getResumedLines()).as("Import did not resume after committed batches").isEqualTo(20);
+		assertThat(result.getLinesRead()).as("Resumed import did not read only remaining lines").isEqualTo(12);
+		assertThat(service.getRecipeFromRepository(730)).as("Remaining recipes were not imported").isNotNull();
+	}
+	
+	@Test
+	public void GivenBulkRequests_WhenStarted_ThenOnlyTheyGetTheBulkAsyncTimeoutTest() throws Exception {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		MvcResult export = mockMvc.perform(get("/api/recipes/export").headers(headers)).andExpect(request().asyncStarted()).andReturn();
+		assertThat(export.getRequest().getAsyncContext().getTimeout()).as("Export has not the bulk timeout").isEqualTo(120000L);
+		mockMvc.perform(asyncDispatch(export)).andExpect(status().isOk());
+		
+		MvcResult imported = mockMvc.perform(post("/api/recipes/import").headers(headers).contentType(MediaType.APPLICATION_NDJSON)
+														   .content(buildNdjson(801, 812)))
+									.andExpect(request().asyncStarted()).andReturn();
+		assertThat(imported.getRequest().getAsyncContext().getTimeout()).as("Import has not the bulk timeout").isEqualTo(120000L);
+		mockMvc.perform(asyncDispatch(imported)).andExpect(status().isOk()).andExpect(jsonPath("$.imported").value(12));
+		
+		//Validate other requests keep the default async timeout
+		MvcResult listing = mockMvc.perform(get("/api/recipes").headers(headers)).andExpect(request().asyncStarted()).andReturn();
+		assertThat(listing.getRequest().getAsyncContext().getTimeout()).as("Listing has the bulk timeout").isNotEqualTo(120000L);
+	}
+	
+	@Test
+	public void GivenRunningImport_WhenReadingLines_ThenNoWriteBulkheadPermitIsHeldTest() throws Exception {
+		int permits = writeBulkhead.getAvailablePermits();
+		int[] leastAvailable = {permits};
+		InputStream observedStream = new ByteArrayInputStream(buildNdjson(901, 930)) {
+			@Override
+			public synchronized int read(byte[] buffer, int offset, int length) {
+				leastAvailable[0] = Math.min(leastAvailable[0], writeBulkhead.getAvailablePermits());
+				//Hand out one byte per read, so that reads go on between the batches
+				return super.read(buffer, offset, Math.min(length, 1));
+			}
+		};
+		BulkImportResult result = bulkService.importRecipes(observedStream, null);
+		assertThat(result.getImported()).as("Number of imported recipes is not as expected").isEqualTo(30);
+		assertThat(leastAvailable[0]).as("Permit is held while reading lines").isEqualTo(permits);
+		assertThat(writeBulkhead.getAvailablePermits()).as("Permit is not released after import").isEqualTo(permits);
+	}
+}
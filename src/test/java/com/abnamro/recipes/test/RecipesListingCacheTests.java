@@ -0,0 +1,106 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.util.StreamUtils;
+
+import com.abnamor.recipes.dto.Recipe;
+import com.abnamro.recipes.service.RecipesService;
+import com.abnamro.recipes.test.util.TestUtil;
+import com.abnamro.recipes.util.Util;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+public class RecipesListingCacheTests {
+	
+	@Value("${recipe.user.name}")
+	private String userName;
+	
+	@Value("${jwt.secret.key}")
+	private String secretKey;
+	
+	@LocalServerPort
+	private int port;
+	
+	@Autowired
+	private TestRestTemplate restTemplate;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	//Common method to GET full listing with given conditional and encoding headers
+	private ResponseEntity<byte[]> getListing(String ifNoneMatch, boolean gzip) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		if(gzip)
+			headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		if(ifNoneMatch != null)
+			headers.setIfNoneMatch(ifNoneMatch);
+		return restTemplate.exchange("http://localhost:"+port+"/api/recipes", HttpMethod.GET,
+									 new HttpEntity<>(headers), byte[].class);
+	}
+	
+	@Test
+	public void GivenCachedListing_WhenRequestedWithGzipAndETag_ThenCompressedBytesAndNotModifiedAreServedTest() throws Exception {
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(501, "Lemon Rice", "vg", 4));
+		service.saveRecipeToRepository(TestUtil.buildSampleRecipe(502, "Curd Rice", "vg", 4));
+		
+		//Validate gzip encoded listing decodes to both recipes
+		ResponseEntity<byte[]> gzipResponse = getListing(null, true);
+		assertThat(gzipResponse.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.OK);
+		assertThat(gzipResponse.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).as("Listing is not gzip encoded")
+																					 .isEqualTo("gzip");
+		byte[] rawBytes = StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipResponse.getBody())));
+		List<Recipe> recipes = mapper.readValue(rawBytes, new TypeReference<List<Recipe>>() {});
+		assertThat(recipes).extracting(Recipe::getId).as("Listing does not contain saved recipes").contains(501, 502);
+		
+		//Validate identity encoded listing has the same bytes and a distinct ETag
+		ResponseEntity<byte[]> rawResponse = getListing(null, false);
+		assertThat(rawResponse.getBody()).as("Raw listing differs from decompressed listing").isEqualTo(rawBytes);
+		assertThat(rawResponse.getHeaders().getETag()).as("Raw and gzip listings share ETag")
+													  .isNotEqualTo(gzipResponse.getHeaders().getETag());
+		
+		//Validate unchanged listing is answered with 304
+		ResponseEntity<byte[]> notModified = getListing(rawResponse.getHeaders().getETag(), false);
+		assertThat(notModified.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.NOT_MODIFIED);
+		
+		//Validate a write invalidates listing and changes its ETag
+		service.deleteRecipeFromRepository(502);
+		ResponseEntity<byte[]> modified = getListing(rawResponse.getHeaders().getETag(), false);
+		assertThat(modified.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.OK);
+		assertThat(mapper.readValue(modified.getBody(), new TypeReference<List<Recipe>>() {}))
+				.extracting(Recipe::getId).as("Deleted recipe still present in listing").doesNotContain(502);
+	}
+	
+	@Test
+	public void GivenUnsupportedAccept_WhenListingRequested_ThenNotAcceptableIsReturnedTest() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setBearerAuth(Util.generateJWTToken(userName, secretKey));
+		headers.set(HttpHeaders.ACCEPT, "application/xml");
+		ResponseEntity<byte[]> response = restTemplate.exchange("http://localhost:"+port+"/api/recipes", HttpMethod.GET,
+																new HttpEntity<>(headers), byte[].class);
+		assertThat(response.getStatusCode()).as("Http Status is not as expected").isEqualTo(HttpStatus.NOT_ACCEPTABLE);
+	}
+}
@@ -0,0 +1,118 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.abnamro.recipes.service.SingleFlight;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightTests {
+	
+	private static final int CALLERS = 20;
+	
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+	
+	private double joined() {
+		return meterRegistry.counter("recipes.singleflight.joined", "load", "test").count();
+	}
+	
+	//Wait until given number of callers joined the flight in progress
+	private void awaitJoined(int callers) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(joined() < callers && System.nanoTime() < deadline)
+			Thread.sleep(5);
+	}
+	
+	@Test
+	public void GivenConcurrentMisses_WhenLoaded_ThenOneLoadIsSharedTest() throws Exception {
+		SingleFlight<Integer,String> flight = new SingleFlight<>("test", meterRegistry);
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for(int i = 0; i < CALLERS; i++)
+				results.add(executor.submit(() -> flight.load(1, 0, () -> {
+					loads.incrementAndGet();
+					try {
+						release.await();
+					} catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return "recipe-1";
+				})));
+			awaitJoined(CALLERS - 1);
+			release.countDown();
+			for(Future<String> result : results)
+				assertThat(result.get(10, TimeUnit.SECONDS)).as("Shared result is not as expected").isEqualTo("recipe-1");
+		} finally {
+			executor.shutdownNow();
+		}
+		assertThat(loads.get()).as("Concurrent misses are not coalesced").isEqualTo(1);
+		assertThat(joined()).as("Joined callers are not counted").isEqualTo(CALLERS - 1);
+		
+		//Validate flight is gone once finished
+		assertThat(flight.load(1, 0, () -> "reloaded")).as("Finished flight is joined").isEqualTo("reloaded");
+	}
+	
+	@Test
+	public void GivenFlightInProgress_WhenNewerGenerationOrFailure_ThenCallersAreNotGivenStaleResultTest() throws Exception {
+		SingleFlight<Integer,String> flight = new SingleFlight<>("test", meterRegistry);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> stale = executor.submit(() -> flight.load(1, 0, () -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "before write";
+			}));
+			started.await(10, TimeUnit.SECONDS);
+			//Caller which started after an invalidation loads again
+			assertThat(flight.load(1, 1, () -> "after write")).as("Newer caller got result read before write")
+															  .isEqualTo("after write");
+			release.countDown();
+			assertThat(stale.get(10, TimeUnit.SECONDS)).as("Older caller result is not as expected").isEqualTo("before write");
+			
+			//Validate failure of leader is rethrown to joined callers
+			CountDownLatch failing = new CountDownLatch(1);
+			CountDownLatch fail = new CountDownLatch(1);
+			Future<String> leader = executor.submit(() -> flight.load(2, 0, () -> {
+				failing.countDown();
+				try {
+					fail.await();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new IllegalStateException("DB unavailable");
+			}));
+			failing.await(10, TimeUnit.SECONDS);
+			double joinedBefore = joined();
+			Future<String> follower = executor.submit(() -> flight.load(2, 0, () -> "not loaded"));
+			awaitJoined((int) joinedBefore + 1);
+			fail.countDown();
+			assertThatThrownBy(() -> leader.get(10, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+			assertThatThrownBy(() -> follower.get(10, TimeUnit.SECONDS)).as("Failure is not shared")
+																		.hasCauseInstanceOf(IllegalStateException.class);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
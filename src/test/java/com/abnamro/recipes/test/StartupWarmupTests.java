@@ -0,0 +1,57 @@
+package com.abnamro.recipes.test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+
+import com.abnamro.recipes.config.StartupTimings;
+import com.abnamro.recipes.service.RecipesService;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT,
+				properties = {"spring.main.lazy-initialization=true", "recipe.warmup.enabled=true",
+							  "recipe.warmup.min.rounds=3", "recipe.warmup.stable.rounds=2", "recipe.warmup.tolerance=10",
+							  "recipe.id.mode=server"})
+@DirtiesContext
+public class StartupWarmupTests {
+	
+	@Autowired
+	private StartupTimings timings;
+	
+	@Autowired
+	private ApplicationAvailability availability;
+	
+	@Autowired
+	private ConfigurableApplicationContext context;
+	
+	@Autowired
+	private RecipesService service;
+	
+	@Test
+	public void GivenFastStartupMode_WhenApplicationIsReady_ThenWarmupCompletedBeforeReadinessTest() {
+		assertThat(availability.getReadinessState()).as("Application is not accepting traffic")
+													.isEqualTo(ReadinessState.ACCEPTING_TRAFFIC);
+		assertThat(timings.getFirstRequestMillis()).as("Time to first request not recorded").isPositive();
+		assertThat(timings.getSteadyStateMillis()).as("Warm-up did not reach steady state")
+												  .isGreaterThanOrEqualTo(timings.getFirstRequestMillis());
+		assertThat(timings.getReadyMillis()).as("Readiness reported before warm-up finished")
+											.isGreaterThanOrEqualTo(timings.getSteadyStateMillis());
+	}
+	
+	@Test
+	public void GivenLazyInitialization_WhenApplicationIsReady_ThenScheduledBeansAreCreatedTest() {
+		assertThat(context.getBeanFactory().containsSingleton("recipeChangeLogService"))
+				.as("Bean with scheduled tasks was initialized lazily").isTrue();
+	}
+	
+	@Test
+	public void GivenServerAssignedIds_WhenWarmedUp_ThenNoWarmupRecipeIsStoredTest() {
+		assertThat(service.getAllRecipesFromRepository()).as("Warm-up write request stored a recipe").isEmpty();
+	}
+}
@@ -0,0 +1,28 @@
+package com.abnamro.recipes.test.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+//Hibernate statement inspector recording every SQL statement, for tests checking the statements issued
+public class SqlStatementCapture implements StatementInspector {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+	
+	@Override
+	public String inspect(String sql) {
+		STATEMENTS.add(sql);
+		return sql;
+	}
+	
+	public static void clear() {
+		STATEMENTS.clear();
+	}
+	
+	public static List<String> getStatements() {
+		return STATEMENTS;
+	}
+}